@@ -116,6 +116,11 @@ public abstract class AbstractRunChat
 		    (verbose ? null : runningClass.getSimpleName() + ".log");
 		Logger parent = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
 		Level level = (verbose ? Level.ALL : Level.WARNING);
+		if (verbose)
+		{
+			// la console ne doit pas ralentir les threads qui émettent des logs
+			LoggerFactory.useAsyncConsole();
+		}
 		try
 		{
 			logger = LoggerFactory.getLogger(runningClass,
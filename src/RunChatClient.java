@@ -1,8 +1,8 @@
 import java.awt.EventQueue;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
@@ -11,6 +11,10 @@ import java.util.Vector;
 import chat.Failure;
 import chat.UserOutputType;
 import chat.client.ChatClient;
+import chat.client.LoadGenerator;
+import chat.client.OutboundQueue;
+import models.Message;
+import models.MessageArchive;
 import widgets.AbstractClientFrame;
 import widgets.ClientFrame;
 import widgets.ClientFrame2;
@@ -43,6 +47,12 @@ public class RunChatClient extends AbstractRunChat
 	 */
 	private OutputStream userOut;
 
+	/**
+	 * File des messages tapés par l'utilisateur dans le GUI (ou null pour
+	 * le client console qui les lit depuis {@link #userIn})
+	 */
+	private OutboundQueue userOutbound;
+
 	/**
 	 * Indique si le client à créer est un GUI ou pas
 	 */
@@ -57,6 +67,80 @@ public class RunChatClient extends AbstractRunChat
 	 */
 	private int guiVersion;
 
+	/**
+	 * Nombre maximum de tentatives de reconnexion au serveur lorsque la
+	 * connexion est perdue (0 pour ne jamais se reconnecter)
+	 */
+	private int retries;
+
+	/**
+	 * Nombre maximum de messages conservés en mémoire par le client GUI
+	 * (version 2), les plus anciens étant archivés dans un fichier local
+	 * (0 pour conserver tous les messages en mémoire)
+	 */
+	private int window;
+
+	/**
+	 * Répertoire du cache local des messages reçus par le client GUI
+	 * (version 2) ou bien null pour ne pas conserver les messages entre deux
+	 * exécutions
+	 */
+	private File cacheDirectory;
+
+	/**
+	 * Nombre d'utilisateurs simulés par le générateur de charge (0 pour un
+	 * client normal)
+	 */
+	private int bots;
+
+	/**
+	 * Nombre de messages envoyés par seconde par chaque utilisateur simulé
+	 */
+	private double botRate;
+
+	/**
+	 * Taille (en caractères) des messages des utilisateurs simulés
+	 */
+	private int botSize;
+
+	/**
+	 * Durée moyenne (en ms) de présence d'un utilisateur simulé sur le
+	 * serveur (0 pour ne jamais remplacer les utilisateurs simulés)
+	 */
+	private long botChurn;
+
+	/**
+	 * Durée (en ms) de la génération de charge
+	 */
+	private long botDuration;
+
+	/**
+	 * Mode de vidage des messages demandé au serveur (ou null pour celui du
+	 * serveur)
+	 */
+	private String flushMode;
+
+	/**
+	 * Fenêtre (en ms) de regroupement des messages en trames de lot demandée
+	 * au serveur (0 pour celle du serveur, négative pour aucune)
+	 */
+	private long batchWindow;
+
+	/**
+	 * Débit par défaut (en messages par seconde) de chaque utilisateur simulé
+	 */
+	public static final double DEFAULTBOTRATE = 1.0;
+
+	/**
+	 * Taille par défaut des messages des utilisateurs simulés
+	 */
+	public static final int DEFAULTBOTSIZE = 64;
+
+	/**
+	 * Durée par défaut (en ms) de la génération de charge
+	 */
+	public static final long DEFAULTBOTDURATION = 30000;
+
 	/**
 	 * Ensemble des threads des clients.
 	 * Il faudra attendre la fin de ces threads pour terminer l'exécution
@@ -80,6 +164,7 @@ public class RunChatClient extends AbstractRunChat
 		 */
 		userIn = null;
 		userOut = null;
+		userOutbound = null;
 
 		/*
 		 * Initialisation du pool de thread des clients
@@ -108,12 +193,34 @@ public class RunChatClient extends AbstractRunChat
 		host = null;
 		name = null;
 		gui = false;
+		retries = ChatClient.DEFAULTRETRIES;
+		window = ClientFrame2.DEFAULTWINDOW;
+		cacheDirectory = new File(System.getProperty("user.home"),
+		                          ".chat" + File.separator + "cache");
+		bots = 0;
+		botRate = DEFAULTBOTRATE;
+		botSize = DEFAULTBOTSIZE;
+		botChurn = 0;
+		botDuration = DEFAULTBOTDURATION;
+		flushMode = null;
+		batchWindow = -1;
 
 		/*
 		 * parsing des arguments spécifique au client
 		 * -h | --host : nom ou adresse IP du serveur
 		 * -n | --name : nom d'utilisateur
 		 * -g | --gui : pour lancer le client GUI
+		 * -r | --retries : nombre de tentatives de reconnexion
+		 * -w | --window : nombre de messages conservés en mémoire
+		 * -c | --cache : répertoire du cache local des messages
+		 * --no-cache : pas de cache local des messages
+		 * -b | --bots : nombre d'utilisateurs simulés (générateur de charge)
+		 * --rate : messages par seconde de chaque utilisateur simulé
+		 * --size : taille des messages des utilisateurs simulés
+		 * --churn : durée moyenne (en ms) de présence d'un utilisateur simulé
+		 * --duration : durée (en ms) de la génération de charge
+		 * --flush : mode de vidage des messages demandé au serveur
+		 * --batch : fenêtre de regroupement des messages en trames de lot
 		 */
 		for (int i = 0; i < args.length; i++)
 		{
@@ -143,6 +250,169 @@ public class RunChatClient extends AbstractRunChat
 					logger.warning("Setting user name to: nothing, invalid value");
 				}
 			}
+			else if (args[i].equals("--retries") || args[i].equals("-r"))
+			{
+				if (i < (args.length - 1))
+				{
+					// parse next arg for retries value
+					Integer retriesInteger = readInt(args[++i]);
+					if (retriesInteger != null)
+					{
+						retries = Math.max(retriesInteger.intValue(), 0);
+					}
+					logger.fine("Setting retries to " + retries);
+				}
+				else
+				{
+					logger.warning("Setting retries to: nothing, invalid value");
+				}
+			}
+			else if (args[i].equals("--window") || args[i].equals("-w"))
+			{
+				if (i < (args.length - 1))
+				{
+					// parse next arg for window value
+					Integer windowInteger = readInt(args[++i]);
+					if (windowInteger != null)
+					{
+						window = Math.max(windowInteger.intValue(), 0);
+					}
+					logger.fine("Setting window to " + window);
+				}
+				else
+				{
+					logger.warning("Setting window to: nothing, invalid value");
+				}
+			}
+			else if (args[i].equals("--cache") || args[i].equals("-c"))
+			{
+				if (i < (args.length - 1))
+				{
+					// parse next arg for cache directory
+					cacheDirectory = new File(args[++i]);
+					logger.fine("Setting cache directory to " + cacheDirectory);
+				}
+				else
+				{
+					logger.warning("Setting cache directory to: nothing, invalid value");
+				}
+			}
+			else if (args[i].equals("--no-cache"))
+			{
+				cacheDirectory = null;
+				logger.fine("Disabling local message cache");
+			}
+			else if (args[i].equals("--bots") || args[i].equals("-b"))
+			{
+				if (i < (args.length - 1))
+				{
+					Integer botsInteger = readInt(args[++i]);
+					if (botsInteger != null)
+					{
+						bots = Math.max(botsInteger.intValue(), 0);
+					}
+					logger.fine("Setting bots to " + bots);
+				}
+				else
+				{
+					logger.warning("Setting bots to: nothing, invalid value");
+				}
+			}
+			else if (args[i].equals("--rate"))
+			{
+				if (i < (args.length - 1))
+				{
+					try
+					{
+						botRate = Math.max(Double.parseDouble(args[++i]), 0.0);
+					}
+					catch (NumberFormatException e)
+					{
+						logger.warning("readDouble: " + args[i] + " is not a number");
+					}
+					logger.fine("Setting bot rate to " + botRate);
+				}
+				else
+				{
+					logger.warning("Setting bot rate to: nothing, invalid value");
+				}
+			}
+			else if (args[i].equals("--size"))
+			{
+				if (i < (args.length - 1))
+				{
+					Integer sizeInteger = readInt(args[++i]);
+					if (sizeInteger != null)
+					{
+						botSize = Math.max(sizeInteger.intValue(), 0);
+					}
+					logger.fine("Setting bot message size to " + botSize);
+				}
+				else
+				{
+					logger.warning("Setting bot message size to: nothing, invalid value");
+				}
+			}
+			else if (args[i].equals("--churn"))
+			{
+				if (i < (args.length - 1))
+				{
+					Integer churnInteger = readInt(args[++i]);
+					if (churnInteger != null)
+					{
+						botChurn = Math.max(churnInteger.intValue(), 0);
+					}
+					logger.fine("Setting bot churn to " + botChurn);
+				}
+				else
+				{
+					logger.warning("Setting bot churn to: nothing, invalid value");
+				}
+			}
+			else if (args[i].equals("--duration"))
+			{
+				if (i < (args.length - 1))
+				{
+					Integer durationInteger = readInt(args[++i]);
+					if (durationInteger != null)
+					{
+						botDuration = Math.max(durationInteger.intValue(), 1);
+					}
+					logger.fine("Setting load duration to " + botDuration);
+				}
+				else
+				{
+					logger.warning("Setting load duration to: nothing, invalid value");
+				}
+			}
+			else if (args[i].equals("--flush"))
+			{
+				if (i < (args.length - 1))
+				{
+					flushMode = args[++i];
+					logger.fine("Setting flush mode to " + flushMode);
+				}
+				else
+				{
+					logger.warning("Setting flush mode to: nothing, invalid value");
+				}
+			}
+			else if (args[i].equals("--batch"))
+			{
+				if (i < (args.length - 1))
+				{
+					Integer windowInteger = readInt(args[++i]);
+					if (windowInteger != null)
+					{
+						batchWindow = windowInteger.intValue();
+					}
+					logger.fine("Setting batch window to " + batchWindow);
+				}
+				else
+				{
+					logger.warning("Setting batch window to: nothing, invalid value");
+				}
+			}
 			if (args[i].equals("--gui") || args[i].equals("-g"))
 			{
 				gui = true;
@@ -231,7 +501,28 @@ public class RunChatClient extends AbstractRunChat
 		logger.info("Creating client to " + host + " at port " + port
 				+ " with verbose " + (verbose ? "on" : "off ... "));
 
-		Boolean commonRun;
+		/*
+		 * Générateur de charge : les utilisateurs simulés sont tous exécutés
+		 * dans ce processus, sans interface ni console
+		 */
+		if (bots > 0)
+		{
+			LoadGenerator generator = new LoadGenerator(host,
+			                                            port,
+			                                            bots,
+			                                            botRate,
+			                                            botSize,
+			                                            botChurn,
+			                                            botDuration,
+			                                            logger);
+			generator.setFlushMode(flushMode);
+			generator.setBatchWindow(batchWindow);
+			generator.run();
+			return;
+		}
+
+		// numéro de séquence du dernier message du cache local
+		long lastSequence = Message.NO_SEQUENCE;
 
 		if (gui)
 		{
@@ -242,11 +533,8 @@ public class RunChatClient extends AbstractRunChat
 		        System.setProperty("com.apple.mrj.application.apple.menu.about.name", "Name");
 			}
 
-			/*
-			 * On a besoin d'un commonRun entre la frame et les ServerHandler
-			 * et UserHandler du client créé plus bas.
-			 */
-			commonRun = Boolean.TRUE;
+			// état d'exécution de la frame
+			Boolean commonRun = Boolean.TRUE;
 
 			/*
 			 * Création de la fenêtre de chat
@@ -259,7 +547,14 @@ public class RunChatClient extends AbstractRunChat
 			if (guiVersion == 1)
 				tmp = new ClientFrame(name, host, commonRun, logger);
 			else
-				tmp = new ClientFrame2(name, host, commonRun, logger);
+			{
+				MessageArchive cache = openCache();
+				if (cache != null)
+				{
+					lastSequence = cache.getLastSequence();
+				}
+				tmp = new ClientFrame2(name, host, commonRun, logger, window, cache);
+			}
 			
 			final AbstractClientFrame frame = tmp;
 
@@ -282,22 +577,10 @@ public class RunChatClient extends AbstractRunChat
 			}
 
 			/*
-			 * TODO Création du flux d'entrée depuis le GUI : userIn à partir du
-			 * flux de sortie de la frame (ClientFrame#getOutPipe())
-			 * 	- Création d'un PipedInputStream à connecter sur
-			 * 	- le PipedOutputStream de la frame
+			 * Les messages tapés dans le GUI sont placés dans une file
+			 * vidée par le ChatClient : le GUI n'attend jamais leur envoi
 			 */
-			try
-			{
-				userIn = new PipedInputStream(frame.getOutPipe());
-			}
-			catch (IOException e)
-			{
-				logger.severe(Failure.USER_INPUT_STREAM
-						+ " unable to get user piped in stream");
-				logger.severe(e.getLocalizedMessage());
-				System.exit(Failure.USER_INPUT_STREAM.toInteger());
-			}
+			userOutbound = frame.getOutbound();
 
 			/*
 			 * Insertion de la frame dans la file des évènements GUI
@@ -334,24 +617,43 @@ public class RunChatClient extends AbstractRunChat
 			userIn = System.in;
 			// écriture vers la console
 			userOut = System.out;
-			// On a pas besoin d'un commonRun avec le client console
-			commonRun = null;
 		}
 
 		/*
 		 * Lancement du ChatClient
 		 */
 		UserOutputType outType = UserOutputType.fromInteger(guiVersion);
-		ChatClient client = new ChatClient(host,		// hôte du serveur
-		                                   port,		// port tcp
-		                                   name,		// nom d'utilisateur
-		                                   userIn,		// entrées utilisateur
-		                                   userOut,		// sorties utilisateur
-		                                   outType,		// Type sortie utilisateur
-		                                   commonRun,	// commonRun avec le GUI
-		                                   logger);		// parent logger
+		ChatClient client;
+		if (userOutbound != null)
+		{
+			client = new ChatClient(host,			// hôte du serveur
+			                        port,			// port tcp
+			                        name,			// nom d'utilisateur
+			                        userOutbound,	// entrées du GUI
+			                        userOut,		// sorties utilisateur
+			                        outType,		// Type sortie utilisateur
+			                        lastSequence,	// dernier message connu
+			                        logger);		// parent logger
+		}
+		else
+		{
+			client = new ChatClient(host,			// hôte du serveur
+			                        port,			// port tcp
+			                        name,			// nom d'utilisateur
+			                        userIn,			// entrées utilisateur
+			                        userOut,		// sorties utilisateur
+			                        outType,		// Type sortie utilisateur
+			                        lastSequence,	// dernier message connu
+			                        logger);		// parent logger
+		}
 		if (client.isReady())
 		{
+			client.setReconnectPolicy(retries,
+			                          ChatClient.DEFAULTRETRYDELAY,
+			                          ChatClient.DEFAULTMAXRETRYDELAY);
+			client.setFlushMode(flushMode);
+			client.setBatchWindow(batchWindow);
+
 			Thread clientThread = new Thread(client);
 			threadPool.add(clientThread);
 
@@ -380,6 +682,38 @@ public class RunChatClient extends AbstractRunChat
 		}
 	}
 
+	/**
+	 * Ouverture du cache local des messages reçus depuis le serveur
+	 * @return l'archive des messages déjà reçus par cet utilisateur depuis ce
+	 * serveur ou bien null si le cache est désactivé ou ne peut être ouvert
+	 * (s'il est déjà utilisé par un autre client par exemple)
+	 */
+	private MessageArchive openCache()
+	{
+		if ((cacheDirectory == null) || (window <= 0))
+		{
+			return null;
+		}
+
+		try
+		{
+			MessageArchive cache =
+			    new MessageArchive(MessageArchive.cacheFile(cacheDirectory,
+			                                                host,
+			                                                port,
+			                                                name));
+			logger.info("Using message cache " + cache.getFile() + " ("
+			    + cache.size() + " messages)");
+			return cache;
+		}
+		catch (IOException e)
+		{
+			logger.warning("Unable to open message cache: "
+			    + e.getLocalizedMessage());
+			return null;
+		}
+	}
+
 	/**
 	 * Programme principal de lancement d'un client de chat
 	 * @param args argument du programme
@@ -390,6 +724,23 @@ public class RunChatClient extends AbstractRunChat
 	 * <li>--verbose : set verbose on</li>
 	 * <li>--gui <1 or 2>: use graphical interface rather than console interface
 	 * </li>
+	 * <li>--retries <n> : max reconnection attempts when connection is lost
+	 * </li>
+	 * <li>--window <n> : max messages kept in memory by the gui 2 client
+	 * (0 to keep them all)</li>
+	 * <li>--cache <directory> : local message cache directory of the gui 2
+	 * client</li>
+	 * <li>--no-cache : do not keep messages between runs</li>
+	 * <li>--bots <n> : run n simulated users (headless load generator)</li>
+	 * <li>--rate <r> : messages per second sent by each simulated user</li>
+	 * <li>--size <n> : size of the messages sent by simulated users</li>
+	 * <li>--churn <ms> : mean time a simulated user stays on the server
+	 * before being replaced (0 to keep them all)</li>
+	 * <li>--duration <ms> : duration of the load generation</li>
+	 * <li>--flush immediate|idle|latency[:<ms>] : how the server should
+	 * coalesce the messages it writes to us</li>
+	 * <li>--batch <ms> : ask the server to pack the messages written to us
+	 * within this window into batch frames (0 for the server's window)</li>
 	 * </ul>
 	 */
 	public static void main(String[] args)
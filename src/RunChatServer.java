@@ -2,7 +2,13 @@ import java.io.IOException;
 import java.net.SocketException;
 
 import chat.Failure;
+import chat.server.AdminServer;
+import chat.server.AsyncTranscript;
 import chat.server.ChatServer;
+import chat.server.FlushPolicy;
+import chat.server.MessageHistory;
+import chat.server.RateLimiter;
+import chat.server.TranscriptSink;
 
 /**
  * Classe/programme qui lance un serveur de chat
@@ -22,6 +28,47 @@ public class RunChatServer extends AbstractRunChat
 	 */
 	private boolean quitOnLastclient;
 
+	/**
+	 * Nombre de messages diffusés conservés par le serveur afin de les
+	 * renvoyer aux clients qui se reconnectent
+	 */
+	private int historySize;
+
+	/**
+	 * Port local du point d'accès HTTP d'administration (voir
+	 * {@link AdminServer}) ou 0 s'il n'est pas demandé
+	 */
+	private int adminPort;
+
+	/**
+	 * Jeton exigé des actions du point d'accès d'administration ou bien null
+	 * pour un jeton tiré au hasard au démarrage
+	 */
+	private String adminToken;
+
+	/**
+	 * Destination de la transcription des lignes reçues : "console", "off"
+	 * ou bien le nom d'un fichier
+	 */
+	private String transcript;
+
+	/**
+	 * Politique d'écriture des messages vers les clients : mode de vidage,
+	 * taille des tampons et options des sockets
+	 */
+	private FlushPolicy flushPolicy;
+
+	/**
+	 * Fenêtre (en ms) par défaut de regroupement des messages en trames de
+	 * lot (0 pour ne pas envoyer de trames de lot)
+	 */
+	private long batchWindow;
+
+	/**
+	 * Limite du débit des lignes reçues des clients
+	 */
+	private RateLimiter rateLimiter;
+
 	/**
 	 * Default time out to wait for client connection : 5 seconds
 	 */
@@ -50,6 +97,13 @@ public class RunChatServer extends AbstractRunChat
 		 */
 		timeout = DEFAULTTIMEOUT;
 		quitOnLastclient = true;
+		historySize = MessageHistory.DEFAULTCAPACITY;
+		adminPort = 0;
+		adminToken = null;
+		transcript = "console";
+		flushPolicy = FlushPolicy.DEFAULT;
+		batchWindow = ChatServer.DEFAULTBATCHWINDOW;
+		rateLimiter = RateLimiter.UNLIMITED;
 
 		/*
 		 * parsing des arguments communs aux clients et serveur
@@ -61,6 +115,18 @@ public class RunChatServer extends AbstractRunChat
 		/*
 		 * parsing des arguments spécifique au  serveur
 		 * 	-t | --timeout : timeout d'attente de la server socket
+		 * 	-H | --history : taille de l'historique des messages
+		 * 	-a | --admin : port local du point d'accès d'administration
+		 * 	--admin-token : jeton exigé des actions d'administration
+		 * 	-T | --transcript : console, off ou fichier de transcription
+		 * 	--flush : mode de vidage des messages vers les clients
+		 * 	--buffer : taille du tampon d'écriture de chaque client
+		 * 	--sndbuf : taille du tampon d'émission des sockets des clients
+		 * 	--nagle : pas de TCP_NODELAY sur les sockets des clients
+		 * 	--batch-window : fenêtre de regroupement des trames de lot
+		 * 	--rate-limit : débit[:rafale] des lignes de chaque client
+		 * 	--global-rate-limit : débit[:rafale] des lignes de tous les clients
+		 * 	--over-limit : delay, drop ou disconnect au delà de la limite
 		 */
 		for (int i=0; i < args.length; i++)
 		{
@@ -81,6 +147,146 @@ public class RunChatServer extends AbstractRunChat
 					logger.warning("invalid timeout value");
 				}
 			}
+			if (args[i].equals("--admin-token"))
+			{
+				if (i < (args.length - 1))
+				{
+					adminToken = args[++i];
+					logger.info("Setting admin token");
+				}
+				else
+				{
+					logger.warning("invalid admin token value");
+				}
+			}
+			if (args[i].equals("--history") || args[i].equals("-H"))
+			{
+				if (i < (args.length - 1))
+				{
+					Integer historyInteger = readInt(args[++i]);
+					if (historyInteger != null)
+					{
+						historySize = historyInteger.intValue();
+					}
+					logger.info("Setting history size to " + historySize);
+				}
+				else
+				{
+					logger.warning("invalid history size value");
+				}
+			}
+			if (args[i].equals("--admin") || args[i].equals("-a"))
+			{
+				if (i < (args.length - 1))
+				{
+					Integer adminInteger = readInt(args[++i]);
+					if (adminInteger != null)
+					{
+						adminPort = adminInteger.intValue();
+					}
+					logger.info("Setting admin port to " + adminPort);
+				}
+				else
+				{
+					logger.warning("invalid admin port value");
+				}
+			}
+			if (args[i].equals("--transcript") || args[i].equals("-T"))
+			{
+				if (i < (args.length - 1))
+				{
+					transcript = args[++i];
+					logger.info("Setting transcript to " + transcript);
+				}
+				else
+				{
+					logger.warning("invalid transcript value");
+				}
+			}
+			if (args[i].equals("--flush"))
+			{
+				if (i < (args.length - 1))
+				{
+					flushPolicy = flushPolicy.parse(args[++i]);
+					logger.info("Setting flush mode to " + flushPolicy);
+				}
+				else
+				{
+					logger.warning("invalid flush mode value");
+				}
+			}
+			if (args[i].equals("--buffer") || args[i].equals("--sndbuf"))
+			{
+				boolean socketBuffer = args[i].equals("--sndbuf");
+				if (i < (args.length - 1))
+				{
+					Integer sizeInteger = readInt(args[++i]);
+					if (sizeInteger != null)
+					{
+						flushPolicy = flushPolicy.with(
+						    (socketBuffer ? flushPolicy.getBufferSize() :
+						                    sizeInteger.intValue()),
+						    flushPolicy.isNoDelay(),
+						    (socketBuffer ? sizeInteger.intValue() :
+						                    flushPolicy.getSocketBufferSize()));
+					}
+					logger.info("Setting " + (socketBuffer ? "socket" : "write")
+					    + " buffer size to " + sizeInteger);
+				}
+				else
+				{
+					logger.warning("invalid buffer size value");
+				}
+			}
+			if (args[i].equals("--batch-window"))
+			{
+				if (i < (args.length - 1))
+				{
+					Integer windowInteger = readInt(args[++i]);
+					if (windowInteger != null)
+					{
+						batchWindow = windowInteger.intValue();
+					}
+					logger.info("Setting batch window to " + batchWindow);
+				}
+				else
+				{
+					logger.warning("invalid batch window value");
+				}
+			}
+			if (args[i].equals("--rate-limit")
+			    || args[i].equals("--global-rate-limit"))
+			{
+				boolean global = args[i].equals("--global-rate-limit");
+				if (i < (args.length - 1))
+				{
+					rateLimiter = rateLimiter.parse(args[++i], global);
+					logger.info("Setting rate limit to " + rateLimiter);
+				}
+				else
+				{
+					logger.warning("invalid rate limit value");
+				}
+			}
+			if (args[i].equals("--over-limit"))
+			{
+				if (i < (args.length - 1))
+				{
+					rateLimiter = rateLimiter.parseMode(args[++i]);
+					logger.info("Setting rate limit to " + rateLimiter);
+				}
+				else
+				{
+					logger.warning("invalid over limit value");
+				}
+			}
+			if (args[i].equals("--nagle"))
+			{
+				flushPolicy = flushPolicy.with(flushPolicy.getBufferSize(),
+				                               false,
+				                               flushPolicy.getSocketBufferSize());
+				logger.info("Setting TCP_NODELAY to false");
+			}
 			if (args[i].equals("--quit") || args[i].equals("-q"))
 			{
 				quitOnLastclient = true;
@@ -110,7 +316,11 @@ public class RunChatServer extends AbstractRunChat
 		ChatServer server = null;
 		try
 		{
-			server = new ChatServer(port, timeout, quitOnLastclient, logger);
+			server = new ChatServer(port,
+			                        timeout,
+			                        quitOnLastclient,
+			                        historySize,
+			                        logger);
 		}
 		catch (SocketException se)
 		{
@@ -129,6 +339,47 @@ public class RunChatServer extends AbstractRunChat
 		Thread serverThread = null;
 		if (server != null)
 		{
+			server.setFlushPolicy(flushPolicy);
+			server.setBatchWindow(batchWindow);
+			server.setRateLimiter(rateLimiter);
+			if (transcript.equals("off"))
+			{
+				server.setTranscript(TranscriptSink.OFF);
+			}
+			else if (!transcript.equals("console"))
+			{
+				try
+				{
+					server.setTranscript(new AsyncTranscript(
+					    transcript,
+					    AsyncTranscript.DEFAULTFILESIZE,
+					    AsyncTranscript.DEFAULTBACKUPS));
+				}
+				catch (IOException e)
+				{
+					logger.warning("Unable to open transcript " + transcript
+					    + ": " + e.getLocalizedMessage());
+				}
+			}
+
+			AdminServer admin = null;
+			if (adminPort > 0)
+			{
+				try
+				{
+					admin = new AdminServer(server,
+					                        adminPort,
+					                        adminToken,
+					                        logger);
+					admin.start();
+				}
+				catch (IOException e)
+				{
+					logger.warning("Unable to start admin server on port "
+					    + adminPort + ": " + e.getLocalizedMessage());
+				}
+			}
+
 			serverThread = new Thread(server);
 			serverThread.start();
 
@@ -143,6 +394,11 @@ public class RunChatServer extends AbstractRunChat
 				logger.severe("Server Thread Join interrupted");
 				logger.severe(e.getLocalizedMessage());
 			}
+
+			if (admin != null)
+			{
+				admin.stop();
+			}
 		}
 	}
 
@@ -153,6 +409,30 @@ public class RunChatServer extends AbstractRunChat
 	 * 	<li>--port <port number> : set host connection port</li>
 	 * 	<li>--verbose : set verbose on</li>
 	 * 	<li>--timeout <timeout in ms> : server socket waiting time out</li>
+	 * 	<li>--history <n> : number of messages kept for reconnecting clients
+	 * 	</li>
+	 * 	<li>--admin <port number> : local HTTP stats and admin endpoint
+	 * 	(GET /metrics, GET /clients, POST /kick?name=, POST /drain)</li>
+	 * 	<li>--admin-token <token> : token the admin actions (POST) must send
+	 * 	in the X-Admin-Token header (random and logged at startup if not
+	 * 	given)</li>
+	 * 	<li>--transcript console|off|<file> : where received lines are
+	 * 	transcribed (file rolled every 16 MB)</li>
+	 * 	<li>--flush immediate|idle|latency[:<ms>] : when messages buffered
+	 * 	for a client are written to its socket (default idle : at the end of
+	 * 	each burst of broadcasts)</li>
+	 * 	<li>--buffer <bytes> : write buffer size of each client</li>
+	 * 	<li>--sndbuf <bytes> : socket send buffer size of each client</li>
+	 * 	<li>--nagle : do not set TCP_NODELAY on client sockets</li>
+	 * 	<li>--batch-window <ms> : default window during which messages for a
+	 * 	client that accepts batch frames are packed together (0 to never
+	 * 	send batch frames)</li>
+	 * 	<li>--rate-limit <rate>[:<burst>] : lines per second (and burst)
+	 * 	accepted from each client</li>
+	 * 	<li>--global-rate-limit <rate>[:<burst>] : lines per second (and
+	 * 	burst) accepted from all clients</li>
+	 * 	<li>--over-limit delay|drop|disconnect : what to do with a line over
+	 * 	the limit (default delay)</li>
 	 * </ul>
 	 */
 	public static void main(String[] args)
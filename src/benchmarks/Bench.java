@@ -0,0 +1,374 @@
+package benchmarks;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import models.Message;
+
+/**
+ * Outils communs aux programmes de mesure : exécution d'une opération dans
+ * plusieurs threads (après une phase de chauffe) et affichage des résultats,
+ * soit dans la console, soit sous forme de {@link Result}s exportés en CSV ou
+ * en JSON (voir {@link HotPaths}).
+ * @author davidroussel
+ */
+public class Bench
+{
+	/**
+	 * Opération mesurée
+	 */
+	public interface Operation
+	{
+		/**
+		 * Exécution de l'opération
+		 * @param thread le numéro du thread qui exécute l'opération
+		 * @param i le numéro de l'exécution dans ce thread
+		 */
+		void run(int thread, long i);
+	}
+
+	/**
+	 * Ensemble de mesures exécutées par {@link HotPaths}
+	 */
+	public interface Suite
+	{
+		/**
+		 * Nom de l'ensemble de mesures
+		 * @return le nom utilisé dans les résultats et pour sélectionner
+		 * l'ensemble de mesures
+		 */
+		String getName();
+
+		/**
+		 * Exécution des mesures
+		 * @param iterations nombre d'exécutions de chaque opération par
+		 * itération de mesure
+		 * @param results la liste à laquelle ajouter les résultats
+		 */
+		void run(long iterations, List<Result> results);
+	}
+
+	/**
+	 * Résultat d'une mesure
+	 */
+	public static class Result
+	{
+		/**
+		 * Nom de l'ensemble de mesures
+		 */
+		private final String suite;
+
+		/**
+		 * Nom de la mesure
+		 */
+		private final String name;
+
+		/**
+		 * Paramètre de la mesure (ou chaîne vide)
+		 */
+		private final String param;
+
+		/**
+		 * Nombre de threads exécutant l'opération
+		 */
+		private final int threads;
+
+		/**
+		 * Nombre d'opérations par seconde (tous threads confondus)
+		 */
+		private final double opsPerSecond;
+
+		/**
+		 * Constructeur d'un résultat
+		 * @param suite nom de l'ensemble de mesures
+		 * @param name nom de la mesure
+		 * @param param paramètre de la mesure (ou chaîne vide)
+		 * @param threads nombre de threads exécutant l'opération
+		 * @param opsPerSecond nombre d'opérations par seconde
+		 */
+		public Result(String suite,
+		              String name,
+		              String param,
+		              int threads,
+		              double opsPerSecond)
+		{
+			this.suite = suite;
+			this.name = name;
+			this.param = param;
+			this.threads = threads;
+			this.opsPerSecond = opsPerSecond;
+		}
+
+		/**
+		 * Accesseur en lecture du nom de l'ensemble de mesures
+		 * @return le nom de l'ensemble de mesures
+		 */
+		public String getSuite()
+		{
+			return suite;
+		}
+
+		/**
+		 * Accesseur en lecture du nom de la mesure
+		 * @return le nom de la mesure
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * Accesseur en lecture du paramètre de la mesure
+		 * @return le paramètre de la mesure (ou chaîne vide)
+		 */
+		public String getParam()
+		{
+			return param;
+		}
+
+		/**
+		 * Accesseur en lecture du nombre de threads
+		 * @return le nombre de threads exécutant l'opération
+		 */
+		public int getThreads()
+		{
+			return threads;
+		}
+
+		/**
+		 * Accesseur en lecture du débit mesuré
+		 * @return le nombre d'opérations par seconde
+		 */
+		public double getOpsPerSecond()
+		{
+			return opsPerSecond;
+		}
+
+		/**
+		 * Durée moyenne d'une opération vue par un thread
+		 * @return la durée (en ns) d'une opération
+		 */
+		public double getNanosPerOp()
+		{
+			return (threads * 1e9) / opsPerSecond;
+		}
+	}
+
+	/**
+	 * Nombre d'itérations mesurées par {@link #measure} (après une
+	 * itération de chauffe)
+	 */
+	public static final int MEASUREMENTS = 3;
+
+	/**
+	 * Puits dans lequel les opérations mesurées déposent leur résultat afin
+	 * que le JIT ne puisse pas les supprimer
+	 */
+	public static volatile Object sink;
+
+	/**
+	 * Génération (reproductible) de messages diffusés
+	 * @param count le nombre de messages
+	 * @return des messages numérotés, datés sur une journée, d'une dizaine
+	 * d'auteurs différents et de contenus de longueurs variées
+	 */
+	public static Message[] messages(int count)
+	{
+		Random random = new Random(42);
+		long now = System.currentTimeMillis();
+		Message[] messages = new Message[count];
+		for (int i = 0; i < count; i++)
+		{
+			StringBuilder content = new StringBuilder("message " + i);
+			for (int w = random.nextInt(12); w >= 0; w--)
+			{
+				content.append(" mot").append(random.nextInt(1000));
+			}
+			messages[i] = new Message(i + 1,
+			                          now + random.nextInt(86400000),
+			                          content.toString(),
+			                          "user" + random.nextInt(10));
+		}
+		return messages;
+	}
+
+	/**
+	 * Mesure du débit d'une opération
+	 * @param threads nombre de threads exécutant l'opération
+	 * @param opsPerThread nombre d'exécutions de l'opération par thread
+	 * @param operation l'opération à mesurer
+	 * @return le nombre d'opérations par seconde (tous threads confondus)
+	 * après une phase de chauffe de même taille
+	 */
+	public static double opsPerSecond(int threads,
+	                                  long opsPerThread,
+	                                  Operation operation)
+	{
+		run(threads, opsPerThread, operation);
+		long elapsed = run(threads, opsPerThread, operation);
+		return (threads * opsPerThread * 1e9) / elapsed;
+	}
+
+	/**
+	 * Mesure du meilleur débit d'une opération sur {@link #MEASUREMENTS}
+	 * itérations (après une itération de chauffe)
+	 * @param suite nom de l'ensemble de mesures
+	 * @param name nom de la mesure
+	 * @param param paramètre de la mesure (ou chaîne vide)
+	 * @param threads nombre de threads exécutant l'opération
+	 * @param opsPerThread nombre d'exécutions de l'opération par thread et
+	 * par itération
+	 * @param operation l'opération à mesurer
+	 * @return le résultat de la mesure
+	 */
+	public static Result measure(String suite,
+	                             String name,
+	                             String param,
+	                             int threads,
+	                             long opsPerThread,
+	                             Operation operation)
+	{
+		run(threads, opsPerThread, operation);
+		long best = Long.MAX_VALUE;
+		for (int m = 0; m < MEASUREMENTS; m++)
+		{
+			best = Math.min(best, run(threads, opsPerThread, operation));
+		}
+		return new Result(suite,
+		                  name,
+		                  param,
+		                  threads,
+		                  (threads * opsPerThread * 1e9) / Math.max(best, 1));
+	}
+
+	/**
+	 * Exécution d'une opération dans plusieurs threads
+	 * @param threads nombre de threads exécutant l'opération
+	 * @param opsPerThread nombre d'exécutions de l'opération par thread
+	 * @param operation l'opération à exécuter
+	 * @return la durée (en ns) entre le départ simultané des threads et la
+	 * fin du dernier thread
+	 */
+	public static long run(int threads, long opsPerThread, Operation operation)
+	{
+		CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++)
+		{
+			final int thread = t;
+			workers[t] = new Thread(() ->
+			{
+				try
+				{
+					start.await();
+				}
+				catch (InterruptedException e)
+				{
+					return;
+				}
+				for (long i = 0; i < opsPerThread; i++)
+				{
+					operation.run(thread, i);
+				}
+			});
+			workers[t].start();
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		for (Thread worker : workers)
+		{
+			try
+			{
+				worker.join();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		return System.nanoTime() - begin;
+	}
+
+	/**
+	 * Affichage d'un résultat
+	 * @param name le nom de la mesure
+	 * @param value la valeur mesurée
+	 * @param unit l'unité de la mesure
+	 */
+	public static void report(String name, double value, String unit)
+	{
+		System.out.printf("%-40s %14.1f %s%n", name, value, unit);
+	}
+
+	/**
+	 * Affichage d'un résultat dans la console
+	 * @param result le résultat à afficher
+	 */
+	public static void report(Result result)
+	{
+		String name = result.getSuite() + "." + result.getName()
+		    + (result.getParam().isEmpty() ? "" : "[" + result.getParam() + "]")
+		    + (result.getThreads() > 1 ? " x" + result.getThreads() : "");
+		report(name, result.getOpsPerSecond(), "ops/s");
+	}
+
+	/**
+	 * Export de résultats au format CSV (une ligne d'entête puis une ligne
+	 * par résultat)
+	 * @param results les résultats à exporter
+	 * @return le texte CSV
+	 */
+	public static String toCsv(List<Result> results)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("suite,benchmark,param,threads,ops_per_s,ns_per_op");
+		sb.append(System.lineSeparator());
+		for (Result result : results)
+		{
+			sb.append(String.format(Locale.ROOT,
+			                        "%s,%s,%s,%d,%.1f,%.1f",
+			                        result.getSuite(),
+			                        result.getName(),
+			                        result.getParam(),
+			                        result.getThreads(),
+			                        result.getOpsPerSecond(),
+			                        result.getNanosPerOp()));
+			sb.append(System.lineSeparator());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Export de résultats au format JSON (un tableau d'objets)
+	 * @param results les résultats à exporter
+	 * @return le texte JSON
+	 */
+	public static String toJson(List<Result> results)
+	{
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < results.size(); i++)
+		{
+			Result result = results.get(i);
+			sb.append(i == 0 ? "" : ",");
+			sb.append(System.lineSeparator());
+			sb.append(String.format(Locale.ROOT,
+			                        "  {\"suite\": \"%s\", \"benchmark\": \"%s\", "
+			                            + "\"param\": \"%s\", \"threads\": %d, "
+			                            + "\"opsPerSecond\": %.1f, "
+			                            + "\"nanosPerOp\": %.1f}",
+			                        result.getSuite(),
+			                        result.getName(),
+			                        result.getParam(),
+			                        result.getThreads(),
+			                        result.getOpsPerSecond(),
+			                        result.getNanosPerOp()));
+		}
+		sb.append(System.lineSeparator());
+		sb.append("]");
+		sb.append(System.lineSeparator());
+		return sb.toString();
+	}
+}
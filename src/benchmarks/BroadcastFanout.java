@@ -0,0 +1,123 @@
+package benchmarks;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import chat.server.Broadcaster;
+import chat.server.InputOutputClient;
+import chat.server.MessageHistory;
+import logger.LoggerFactory;
+import metrics.ServerMetrics;
+
+/**
+ * Mesure de la diffusion d'un message par le serveur ({@link Broadcaster})
+ * à N clients en mémoire dont les sockets ne font qu'ignorer les octets
+ * écrits : le résultat est le nombre de messages diffusés (à tous les
+ * clients) par seconde, pour des clients recevant des trames ou un flux
+ * objet.
+ * @author davidroussel
+ */
+public class BroadcastFanout implements Bench.Suite
+{
+	/**
+	 * Nombres de clients destinataires mesurés
+	 */
+	private static final int[] RECIPIENTS = {1, 10, 100};
+
+	/**
+	 * Socket en mémoire d'un client : rien à lire et écritures ignorées
+	 */
+	private static class NullSocket extends Socket
+	{
+		@Override
+		public InputStream getInputStream()
+		{
+			return InputStream.nullInputStream();
+		}
+
+		@Override
+		public OutputStream getOutputStream()
+		{
+			return OutputStream.nullOutputStream();
+		}
+	}
+
+	/**
+	 * Nom de l'ensemble de mesures
+	 * @return le nom de l'ensemble de mesures
+	 * @see benchmarks.Bench.Suite#getName()
+	 */
+	@Override
+	public String getName()
+	{
+		return "broadcast";
+	}
+
+	/**
+	 * Mesures de la diffusion des messages
+	 * @param iterations nombre d'exécutions de chaque opération par
+	 * itération de mesure
+	 * @param results la liste à laquelle ajouter les résultats
+	 * @see benchmarks.Bench.Suite#run(long, List)
+	 */
+	@Override
+	public void run(long iterations, List<Bench.Result> results)
+	{
+		Logger logger = LoggerFactory.getConsoleLogger(getClass(),
+		                                                Level.SEVERE);
+		String content = Bench.messages(1)[0].getContent();
+		for (boolean framed : new boolean[] {true, false})
+		{
+			for (int recipients : RECIPIENTS)
+			{
+				ServerMetrics metrics = new ServerMetrics();
+				Vector<InputOutputClient> clients =
+				    new Vector<InputOutputClient>(recipients);
+				for (int c = 0; c < recipients; c++)
+				{
+					clients.add(new InputOutputClient(new NullSocket(),
+					                                  "user" + c,
+					                                  null,
+					                                  framed,
+					                                  metrics,
+					                                  logger));
+				}
+				Broadcaster broadcaster =
+				    new Broadcaster(clients,
+				                    new MessageHistory(MessageHistory.DEFAULTCAPACITY),
+				                    new AtomicLong(),
+				                    metrics,
+				                    logger);
+				/*
+				 * Un flux objet conserve une référence vers chaque message
+				 * écrit : le nombre de diffusions est limité afin de borner
+				 * la mémoire utilisée
+				 */
+				long broadcasts = Math.max(iterations / recipients, 1000);
+				results.add(Bench.measure(getName(),
+				                          (framed ? "frames" : "object"),
+				                          Integer.toString(recipients),
+				                          1,
+				                          broadcasts,
+				                          (t, i) ->
+				{
+					Bench.sink = broadcaster.broadcast("user0",
+					                                   content,
+					                                   false,
+					                                   0,
+					                                   0);
+				}));
+				for (InputOutputClient client : clients)
+				{
+					client.cleanup();
+				}
+			}
+		}
+	}
+}
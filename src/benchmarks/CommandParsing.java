@@ -0,0 +1,56 @@
+package benchmarks;
+
+import java.util.List;
+
+import chat.server.Command;
+
+/**
+ * Mesure de l'analyse par le serveur des lignes reçues des clients
+ * ({@link Command#parse(String)}) pour chaque type de ligne.
+ * @author davidroussel
+ */
+public class CommandParsing implements Bench.Suite
+{
+	/**
+	 * Lignes analysées : {type, ligne}
+	 */
+	private static final String[][] LINES = {
+		{"message", "Salut tout le monde, quelqu'un a vu le dernier épisode ?"},
+		{"history-like", "history of the Roman Empire"},
+		{"history", "history 50 1700000000000042"},
+		{"bye", "bye"},
+		{"kick", "kick Zébulon"}
+	};
+
+	/**
+	 * Nom de l'ensemble de mesures
+	 * @return le nom de l'ensemble de mesures
+	 * @see benchmarks.Bench.Suite#getName()
+	 */
+	@Override
+	public String getName()
+	{
+		return "commands";
+	}
+
+	/**
+	 * Mesures de l'analyse des commandes
+	 * @param iterations nombre d'exécutions de chaque opération par
+	 * itération de mesure
+	 * @param results la liste à laquelle ajouter les résultats
+	 * @see benchmarks.Bench.Suite#run(long, List)
+	 */
+	@Override
+	public void run(long iterations, List<Bench.Result> results)
+	{
+		for (String[] line : LINES)
+		{
+			String text = line[1];
+			results.add(Bench.measure(getName(), "parse", line[0], 1,
+			                          iterations, (t, i) ->
+			{
+				Bench.sink = Command.parse(text);
+			}));
+		}
+	}
+}
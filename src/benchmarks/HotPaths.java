@@ -0,0 +1,130 @@
+package benchmarks;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Programme de mesure des chemins critiques de la messagerie, sans interface
+ * graphique, produisant des résultats exploitables par d'autres programmes
+ * (par exemple pour comparer deux versions du serveur ou du client) :
+ * <ul>
+ * 	<li>{@link MessageSerialization} : codage et décodage des messages</li>
+ * 	<li>{@link MessageComparison} : comparaison des messages selon chaque
+ * 	critère de tri</li>
+ * 	<li>{@link NameListAccess} : accès à la liste des utilisateurs</li>
+ * 	<li>{@link CommandParsing} : analyse des lignes reçues par le serveur</li>
+ * 	<li>{@link BroadcastFanout} : diffusion d'un message à N clients</li>
+ * 	<li>{@link TranscriptCost} : transcription des lignes reçues par le
+ * 	serveur</li>
+ * </ul>
+ * Lancement : java benchmarks.HotPaths [--format text|csv|json]
+ * [--output fichier] [--iterations N] [ensemble de mesures ...]
+ * @author davidroussel
+ */
+public class HotPaths
+{
+	/**
+	 * Nombre d'exécutions par défaut de chaque opération par itération de
+	 * mesure
+	 */
+	private static final long DEFAULTITERATIONS = 200000;
+
+	/**
+	 * Tous les ensembles de mesures disponibles
+	 */
+	private static final Bench.Suite[] SUITES = {
+		new MessageSerialization(),
+		new MessageComparison(),
+		new NameListAccess(),
+		new CommandParsing(),
+		new BroadcastFanout(),
+		new TranscriptCost()
+	};
+
+	/**
+	 * Programme principal
+	 * @param args [--format text|csv|json] [--output fichier]
+	 * [--iterations N] [ensemble de mesures ...]
+	 */
+	public static void main(String[] args)
+	{
+		String format = "text";
+		String output = null;
+		long iterations = DEFAULTITERATIONS;
+		List<String> selected = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("--format") && (i + 1 < args.length))
+			{
+				format = args[++i];
+			}
+			else if (args[i].equals("--output") && (i + 1 < args.length))
+			{
+				output = args[++i];
+			}
+			else if (args[i].equals("--iterations") && (i + 1 < args.length))
+			{
+				iterations = Long.parseLong(args[++i]);
+			}
+			else
+			{
+				selected.add(args[i]);
+			}
+		}
+		if (!Arrays.asList("text", "csv", "json").contains(format))
+		{
+			System.err.println("HotPaths: unknown format " + format);
+			System.exit(1);
+		}
+
+		List<Bench.Result> results = new ArrayList<Bench.Result>();
+		for (Bench.Suite suite : SUITES)
+		{
+			if (selected.isEmpty() || selected.contains(suite.getName()))
+			{
+				int start = results.size();
+				suite.run(iterations, results);
+				// progression sur la sortie d'erreur
+				for (Bench.Result result : results.subList(start, results.size()))
+				{
+					if (format.equals("text"))
+					{
+						Bench.report(result);
+					}
+					else
+					{
+						System.err.print('.');
+					}
+				}
+			}
+		}
+
+		if (format.equals("text"))
+		{
+			return;
+		}
+		System.err.println();
+		String text = (format.equals("csv") ? Bench.toCsv(results) :
+		               Bench.toJson(results));
+		if (output == null)
+		{
+			System.out.print(text);
+		}
+		else
+		{
+			try (PrintStream out = new PrintStream(output))
+			{
+				out.print(text);
+			}
+			catch (FileNotFoundException e)
+			{
+				System.err.println("HotPaths: unable to write " + output
+				    + ": " + e.getLocalizedMessage());
+				System.exit(1);
+			}
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package benchmarks;
+
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import models.Message;
+import models.Message.MessageOrder;
+import models.MessageComparator;
+import models.MessageStore;
+
+/**
+ * Mesure de la durée du tri d'un grand nombre de messages dans l'ordre
+ * alphabétique d'une langue : tri des messages avec un {@link Collator}
+ * appelé à chaque comparaison comparé au tri d'un {@link MessageStore} qui
+ * utilise des clés de collation précalculées, séquentiellement puis en
+ * parallèle.
+ * Lancement : java benchmarks.MessageCollation [nombre de messages]
+ * @author davidroussel
+ */
+public class MessageCollation
+{
+	/**
+	 * Nombre de répétitions de chaque tri
+	 */
+	private static final int RUNS = 5;
+
+	/**
+	 * Noms (accentués) utilisés pour les auteurs et les contenus
+	 */
+	private static final String[] NAMES = {
+		"Zébulon", "Ténéphore", "Élodie", "Émile", "étienne", "Ève", "Anaïs",
+		"Chloé", "Hélène", "Noël", "Zoé", "bob", "Ophélie", "Jérôme"
+	};
+
+	/**
+	 * Durée (en ms) de tri des messages avec un comparateur. Ce tri étant
+	 * très lent, il n'est effectué qu'une seule fois
+	 * @param messages les messages à trier
+	 * @param comparator le comparateur à utiliser
+	 * @return la durée du tri
+	 */
+	private static double sortTime(Message[] messages,
+	                               Comparator<Message> comparator)
+	{
+		long start = System.nanoTime();
+		Bench.sink = Arrays.stream(messages)
+		    .sorted(comparator)
+		    .toArray();
+		return (System.nanoTime() - start) / 1e6;
+	}
+
+	/**
+	 * Meilleure durée (en ms) de calcul d'une permutation triée des messages
+	 * d'un stockage en colonnes
+	 * @param store le stockage des messages
+	 * @param comparator le comparateur dont on utilise les critères
+	 * @return la meilleure durée de tri parmi {@link #RUNS} répétitions
+	 */
+	private static double bestSortTime(MessageStore store,
+	                                   MessageComparator comparator)
+	{
+		double best = Double.MAX_VALUE;
+		for (int run = 0; run < RUNS; run++)
+		{
+			long start = System.nanoTime();
+			Bench.sink = store.sortPermutation(comparator);
+			best = Math.min(best, (System.nanoTime() - start) / 1e6);
+		}
+		return best;
+	}
+
+	/**
+	 * Programme principal
+	 * @param args [nombre de messages]
+	 */
+	public static void main(String[] args)
+	{
+		int count = (args.length > 0 ? Integer.parseInt(args[0]) : 1000000);
+		Locale locale = Locale.FRENCH;
+		Random random = new Random(42);
+		long now = System.currentTimeMillis();
+		Message[] messages = new Message[count];
+		MessageStore store = new MessageStore(count);
+		store.setLocale(locale);
+		for (int i = 0; i < count; i++)
+		{
+			messages[i] = new Message(i + 1,
+			                          now + random.nextInt(86400000),
+			                          NAMES[random.nextInt(NAMES.length)]
+			                              + " " + random.nextInt(1000),
+			                          NAMES[random.nextInt(NAMES.length)]
+			                              + random.nextInt(20));
+			store.append(messages[i]);
+		}
+
+		Collator collator = Collator.getInstance(locale);
+		Comparator<Message> byAuthor =
+		    Comparator.comparing(Message::getAuthor, collator::compare);
+		Comparator<Message> byContent =
+		    Comparator.comparing(Message::getContent, collator::compare);
+		Comparator<Message> byDate =
+		    Comparator.comparingLong(Message::getTimestamp);
+
+		System.out.println("messages: " + count + ", locale: " + locale);
+
+		// calcul initial des clés de collation des contenus
+		long start = System.nanoTime();
+		Bench.sink = store.sortPermutation(MessageComparator.of(MessageOrder.CONTENT));
+		Bench.report("store first content sort (keys)",
+		             (System.nanoTime() - start) / 1e6,
+		             "ms");
+
+		MessageOrder[][] chains = {
+			{MessageOrder.CONTENT},
+			{MessageOrder.AUTHOR, MessageOrder.DATE},
+			{MessageOrder.AUTHOR, MessageOrder.CONTENT, MessageOrder.DATE}
+		};
+		List<Comparator<Message>> collators = Arrays.asList(
+			byContent,
+			byAuthor.thenComparing(byDate),
+			byAuthor.thenComparing(byContent).thenComparing(byDate)
+		);
+
+		for (int c = 0; c < chains.length; c++)
+		{
+			MessageComparator comparator = MessageComparator.of(chains[c]);
+			Bench.report("collator   " + comparator,
+			             sortTime(messages, collators.get(c)),
+			             "ms");
+			store.setParallelThreshold(Integer.MAX_VALUE);
+			Bench.report("store seq  " + comparator,
+			             bestSortTime(store, comparator),
+			             "ms");
+			store.setParallelThreshold(2);
+			Bench.report("store par  " + comparator,
+			             bestSortTime(store, comparator),
+			             "ms");
+		}
+	}
+}
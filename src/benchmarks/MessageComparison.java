@@ -0,0 +1,74 @@
+package benchmarks;
+
+import java.util.List;
+
+import models.Message;
+import models.Message.MessageOrder;
+
+/**
+ * Mesure de {@link Message#compareTo(Message)} avec chacun des critères de
+ * tri {@link MessageOrder} seul, puis avec la chaîne complète des critères.
+ * Les comparaisons sont également mesurées dans plusieurs threads car
+ * {@link Message#compareTo(Message)} utilise les critères globaux.
+ * @author davidroussel
+ */
+public class MessageComparison implements Bench.Suite
+{
+	/**
+	 * Nombre de messages différents comparés
+	 */
+	private static final int COUNT = 4096;
+
+	/**
+	 * Nombre de threads des mesures concurrentes
+	 */
+	private static final int THREADS = 4;
+
+	/**
+	 * Nom de l'ensemble de mesures
+	 * @return le nom de l'ensemble de mesures
+	 * @see benchmarks.Bench.Suite#getName()
+	 */
+	@Override
+	public String getName()
+	{
+		return "compare";
+	}
+
+	/**
+	 * Mesures de la comparaison des messages
+	 * @param iterations nombre d'exécutions de chaque opération par
+	 * itération de mesure
+	 * @param results la liste à laquelle ajouter les résultats
+	 * @see benchmarks.Bench.Suite#run(long, List)
+	 */
+	@Override
+	public void run(long iterations, List<Bench.Result> results)
+	{
+		Message[] messages = Bench.messages(COUNT);
+		Bench.Operation compare = (t, i) ->
+		{
+			int index = (int) ((i + (t * 7)) % COUNT);
+			Bench.sink = messages[index].compareTo(messages[(index + 1) % COUNT]);
+		};
+
+		for (MessageOrder order : MessageOrder.values())
+		{
+			Message.clearOrders();
+			Message.addOrder(order);
+			results.add(Bench.measure(getName(), "compareTo", order.name(), 1,
+			                          iterations, compare));
+		}
+
+		Message.clearOrders();
+		for (MessageOrder order : MessageOrder.values())
+		{
+			Message.addOrder(order);
+		}
+		results.add(Bench.measure(getName(), "compareTo", "ALL", 1,
+		                          iterations, compare));
+		results.add(Bench.measure(getName(), "compareTo", "ALL", THREADS,
+		                          iterations, compare));
+		Message.clearOrders();
+	}
+}
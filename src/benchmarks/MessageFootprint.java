@@ -0,0 +1,122 @@
+package benchmarks;
+
+import java.util.Date;
+
+import models.Message;
+
+/**
+ * Mesure du nombre d'octets occupés dans le tas par chaque message conservé.
+ * Chaque message reçoit sa propre copie du nom de l'auteur, comme les messages
+ * désérialisés par un client, afin de tenir compte de l'internalisation des
+ * auteurs.
+ * On compare avec {@link LegacyMessage} qui reproduit l'ancienne
+ * représentation d'un message (une {@link Date} et une copie du nom de
+ * l'auteur par message).
+ * Lancement : java benchmarks.MessageFootprint [nombre de messages]
+ * @author davidroussel
+ */
+public class MessageFootprint
+{
+	/**
+	 * Nombre de messages conservés par défaut
+	 */
+	private static final int DEFAULTCOUNT = 1000000;
+
+	/**
+	 * Nombre d'auteurs différents
+	 */
+	private static final int AUTHORS = 50;
+
+	/**
+	 * Ancienne représentation d'un message : une {@link Date} mutable et des
+	 * chaînes non partagées
+	 */
+	private static class LegacyMessage
+	{
+		@SuppressWarnings("unused")
+		private final Date date;
+		@SuppressWarnings("unused")
+		private final String content;
+		@SuppressWarnings("unused")
+		private final String author;
+
+		LegacyMessage(Date date, String content, String author)
+		{
+			this.date = date;
+			this.content = content;
+			this.author = author;
+		}
+	}
+
+	/**
+	 * Mémoire utilisée dans le tas après plusieurs ramasse miettes
+	 * @return le nombre d'octets utilisés dans le tas
+	 */
+	private static long usedMemory()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 5; i++)
+		{
+			System.gc();
+			try
+			{
+				Thread.sleep(50);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Programme principal
+	 * @param args [nombre de messages]
+	 */
+	public static void main(String[] args)
+	{
+		int count = (args.length > 0 ? Integer.parseInt(args[0]) : DEFAULTCOUNT);
+		String[] contents = new String[count];
+		for (int i = 0; i < count; i++)
+		{
+			contents[i] = "message " + i;
+		}
+
+		Object[] retained = new Object[count];
+		long before = usedMemory();
+		for (int i = 0; i < count; i++)
+		{
+			// new String : une copie de l'auteur par message désérialisé
+			retained[i] = new LegacyMessage(new Date(),
+			                                contents[i],
+			                                new String("author" + (i % AUTHORS)));
+		}
+		long legacy = usedMemory() - before;
+
+		for (int i = 0; i < count; i++)
+		{
+			retained[i] = null;
+		}
+		before = usedMemory();
+		for (int i = 0; i < count; i++)
+		{
+			retained[i] = new Message(i + 1,
+			                          System.currentTimeMillis(),
+			                          contents[i],
+			                          new String("author" + (i % AUTHORS)));
+		}
+		long compact = usedMemory() - before;
+
+		System.out.println("messages: " + count);
+		System.out.printf("legacy  : %.1f bytes/message%n",
+		                  (double) legacy / count);
+		System.out.printf("compact : %.1f bytes/message%n",
+		                  (double) compact / count);
+		// garde les messages en vie jusqu'à la fin de la mesure
+		if (retained[count - 1] == null)
+		{
+			System.out.println("no message retained");
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package benchmarks;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import models.Message;
+
+/**
+ * Mesure du débit d'affichage des messages ({@link Message#toString()}) par
+ * plusieurs threads simultanément lors d'une rafale de messages (beaucoup de
+ * messages dans la même seconde), comparé à l'ancien affichage à travers un
+ * {@link SimpleDateFormat} partagé (qu'il faut alors synchroniser).
+ * Lancement : java benchmarks.MessageRendering [threads] [messages/thread]
+ * @author davidroussel
+ */
+public class MessageRendering
+{
+	/**
+	 * Nombre de messages différents affichés
+	 */
+	private static final int MESSAGES = 4096;
+
+	/**
+	 * Formatteur partagé de l'ancien affichage
+	 */
+	private static final SimpleDateFormat legacyFormat =
+	    new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
+
+	/**
+	 * Ancien affichage d'un message
+	 * @param message le message à afficher
+	 * @return le texte du message
+	 */
+	private static String legacyToString(Message message)
+	{
+		StringBuffer sb = new StringBuffer("[");
+		synchronized (legacyFormat)
+		{
+			sb.append(legacyFormat.format(new Date(message.getTimestamp())));
+		}
+		sb.append("] ");
+		if (message.hasAuthor())
+		{
+			sb.append(message.getAuthor());
+			sb.append(" > ");
+		}
+		sb.append(message.getContent());
+		return sb.toString();
+	}
+
+	/**
+	 * Programme principal
+	 * @param args [threads] [messages/thread]
+	 */
+	public static void main(String[] args)
+	{
+		int threads = (args.length > 0 ? Integer.parseInt(args[0]) :
+		               Runtime.getRuntime().availableProcessors());
+		long count = (args.length > 1 ? Long.parseLong(args[1]) : 2000000L);
+
+		// une rafale : 1000 messages par seconde
+		long now = System.currentTimeMillis();
+		Message[] messages = new Message[MESSAGES];
+		for (int i = 0; i < MESSAGES; i++)
+		{
+			messages[i] = new Message(i + 1, now + i, "message " + i,
+			                          "author" + (i % 50));
+		}
+
+		double legacy = Bench.opsPerSecond(threads, count, (t, i) ->
+			Bench.sink = legacyToString(messages[(int) (i % MESSAGES)]));
+		double current = Bench.opsPerSecond(threads, count, (t, i) ->
+			Bench.sink = messages[(int) (i % MESSAGES)].toString());
+
+		System.out.println("threads: " + threads);
+		Bench.report("shared SimpleDateFormat", legacy, "msg/s");
+		Bench.report("cached TimestampFormatter", current, "msg/s");
+	}
+}
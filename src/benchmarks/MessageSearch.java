@@ -0,0 +1,249 @@
+package benchmarks;
+
+import java.awt.Color;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import javax.swing.JTextPane;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
+
+import chat.Vocabulary;
+import models.Message;
+import models.MessageComparator;
+import models.MessageSearchIndex;
+import models.MessageStore;
+import widgets.ClientFrame2;
+
+/**
+ * Mesure de la durée d'une recherche incrémentale (une recherche à chaque
+ * caractère saisi) dans un grand nombre de messages indexés par un
+ * {@link MessageSearchIndex}, comparée au parcours du contenu de tous les
+ * messages stockés.
+ * La durée d'une recherche comprend le calcul de la permutation triée par
+ * date des messages trouvés (ce qui précède leur affichage). La mise à jour
+ * de l'affichage est mesurée à part : réécriture dans le document d'un
+ * {@link JTextPane} (avec mise en évidence des mots trouvés) des
+ * {@link ClientFrame2#RENDERLIMIT} derniers messages trouvés, comme le fait
+ * {@link ClientFrame2}, comparée à la réécriture de tous les messages
+ * trouvés.
+ * Lancement : java benchmarks.MessageSearch [nombre de messages]
+ * @author davidroussel
+ */
+public class MessageSearch
+{
+	/**
+	 * Nombre de répétitions de chaque saisie
+	 */
+	private static final int RUNS = 20;
+
+	/**
+	 * Réécriture dans un document d'une partie des messages trouvés, comme
+	 * dans {@link ClientFrame2}
+	 * @param document le document à réécrire
+	 * @param store les messages stockés
+	 * @param permutation les index des messages trouvés
+	 * @param from la position dans la permutation du premier message écrit
+	 * @param query la requête dont les mots trouvés sont mis en évidence
+	 */
+	private static void render(StyledDocument document,
+	                           MessageStore store,
+	                           int[] permutation,
+	                           int from,
+	                           String query)
+	{
+		SimpleAttributeSet style = new SimpleAttributeSet();
+		SimpleAttributeSet highlight = new SimpleAttributeSet();
+		StyleConstants.setBackground(highlight, Color.YELLOW);
+		try
+		{
+			document.remove(0, document.getLength());
+			for (int i = from; i < permutation.length; i++)
+			{
+				Message message = store.get(permutation[i]);
+				StyleConstants.setForeground(style,
+				    new Color(message.getAuthor().hashCode()).darker());
+				int lineStart = document.getLength();
+				String line = message.toString();
+				document.insertString(lineStart, line + Vocabulary.newLine, style);
+				String content = message.getContent();
+				int contentStart = lineStart + line.length() - content.length();
+				for (int[] range : MessageSearchIndex.occurrences(content, query))
+				{
+					document.setCharacterAttributes(contentStart + range[0],
+					                                range[1] - range[0],
+					                                highlight,
+					                                false);
+				}
+			}
+		}
+		catch (BadLocationException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Génération d'un mot aléatoire
+	 * @param random le générateur aléatoire
+	 * @return un mot de 3 à 9 lettres minuscules
+	 */
+	private static String word(Random random)
+	{
+		int length = 3 + random.nextInt(7);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++)
+		{
+			sb.append((char) ('a' + random.nextInt(26)));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Programme principal
+	 * @param args [nombre de messages]
+	 */
+	public static void main(String[] args)
+	{
+		int count = (args.length > 0 ? Integer.parseInt(args[0]) : 500000);
+		Random random = new Random(42);
+		String[] vocabulary = new String[20000];
+		for (int i = 0; i < vocabulary.length; i++)
+		{
+			vocabulary[i] = word(random);
+		}
+
+		MessageStore store = new MessageStore(count);
+		MessageSearchIndex index = new MessageSearchIndex();
+		long now = System.currentTimeMillis();
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++)
+		{
+			StringBuilder content = new StringBuilder();
+			int words = 3 + random.nextInt(8);
+			for (int w = 0; w < words; w++)
+			{
+				// distribution de Zipf approximative : quelques mots fréquents
+				int rank = (int) Math.pow(vocabulary.length,
+				                          random.nextDouble());
+				content.append(w > 0 ? " " : "").append(vocabulary[rank - 1]);
+			}
+			String text = content.toString();
+			index.add(store.append(i + 1, now + i, text, "author" + random.nextInt(200)),
+			          text);
+		}
+		System.out.println("messages: " + count + ", terms: " + index.getTermCount());
+		Bench.report("indexing", (System.nanoTime() - start) / 1e6, "ms");
+
+		// saisie caractère par caractère d'un mot fréquent puis d'un mot rare
+		String query = vocabulary[0] + " " + vocabulary[vocabulary.length / 2];
+		double worstIndexed = 0;
+		double worstScan = 0;
+		double worstRendered = 0;
+		double worstUncapped = 0;
+		JTextPane textPane = new JTextPane();
+		textPane.setSize(800, 600);
+		StyledDocument document = textPane.getStyledDocument();
+
+		// chauffe de la recherche et de l'affichage
+		for (int run = 0; run < RUNS; run++)
+		{
+			for (int typed = 1; typed <= query.length(); typed++)
+			{
+				String prefix = query.substring(0, typed);
+				int[] permutation = store.sortPermutation(MessageComparator.BYDATE,
+				                                          null,
+				                                          index.search(prefix));
+				render(document, store, permutation,
+				       Math.max(0, permutation.length - ClientFrame2.RENDERLIMIT),
+				       prefix);
+			}
+		}
+		for (int typed = 1; typed <= query.length(); typed++)
+		{
+			String prefix = query.substring(0, typed);
+			double bestIndexed = Double.MAX_VALUE;
+			int found = 0;
+			for (int run = 0; run < RUNS; run++)
+			{
+				long t0 = System.nanoTime();
+				BitSet matches = index.search(prefix);
+				int[] permutation =
+				    store.sortPermutation(MessageComparator.BYDATE, null, matches);
+				bestIndexed = Math.min(bestIndexed, (System.nanoTime() - t0) / 1e6);
+				found = permutation.length;
+				Bench.sink = permutation;
+			}
+
+			// parcours de tous les contenus
+			long t0 = System.nanoTime();
+			BitSet scanned = new BitSet(count);
+			List<String> words = MessageSearchIndex.tokens(prefix);
+			for (int i = 0; i < count; i++)
+			{
+				String content = store.getContent(i);
+				boolean all = true;
+				for (String word : words)
+				{
+					if (MessageSearchIndex.occurrences(content, word).isEmpty())
+					{
+						all = false;
+						break;
+					}
+				}
+				if (all)
+				{
+					scanned.set(i);
+				}
+			}
+			double scan = (System.nanoTime() - t0) / 1e6;
+			Bench.sink = scanned;
+
+			worstIndexed = Math.max(worstIndexed, bestIndexed);
+			worstScan = Math.max(worstScan, scan);
+			Bench.report("\"" + prefix + "\" (" + found + " found) index",
+			             bestIndexed,
+			             "ms");
+			Bench.report("\"" + prefix + "\" scan", scan, "ms");
+
+			// recherche et réécriture du document comme à chaque saisie
+			double bestRendered = Double.MAX_VALUE;
+			for (int run = 0; run < RUNS; run++)
+			{
+				long t1 = System.nanoTime();
+				BitSet matches = index.search(prefix);
+				int[] permutation =
+				    store.sortPermutation(MessageComparator.BYDATE, null, matches);
+				render(document, store, permutation,
+				       Math.max(0, permutation.length - ClientFrame2.RENDERLIMIT),
+				       prefix);
+				bestRendered = Math.min(bestRendered, (System.nanoTime() - t1) / 1e6);
+			}
+			worstRendered = Math.max(worstRendered, bestRendered);
+			Bench.report("\"" + prefix + "\" on screen", bestRendered, "ms");
+
+			// réécriture de tous les messages trouvés (une seule fois : lente)
+			if (typed == 1 || typed == query.length())
+			{
+				long t1 = System.nanoTime();
+				int[] permutation = store.sortPermutation(MessageComparator.BYDATE,
+				                                          null,
+				                                          index.search(prefix));
+				// document à part : sa taille pénaliserait les mesures suivantes
+				JTextPane allPane = new JTextPane();
+				allPane.setSize(800, 600);
+				render(allPane.getStyledDocument(), store, permutation, 0, prefix);
+				double uncapped = (System.nanoTime() - t1) / 1e6;
+				worstUncapped = Math.max(worstUncapped, uncapped);
+				Bench.report("\"" + prefix + "\" on screen, all found", uncapped, "ms");
+			}
+		}
+		Bench.report("worst keystroke index", worstIndexed, "ms");
+		Bench.report("worst keystroke scan", worstScan, "ms");
+		Bench.report("worst keystroke on screen", worstRendered, "ms");
+		Bench.report("worst keystroke on screen, all found", worstUncapped, "ms");
+	}
+}
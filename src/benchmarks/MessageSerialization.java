@@ -0,0 +1,140 @@
+package benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import chat.MessageCodec;
+import models.Message;
+
+/**
+ * Mesure du codage et du décodage des messages envoyés par le serveur :
+ * sérialisation Java à travers un flux objet (clients qui n'ont pas demandé
+ * de trames) et trames {@link MessageCodec}.
+ * Comme le serveur, le flux objet est conservé d'un message à l'autre ; il
+ * est remis à zéro à chaque parcours des messages afin que chaque message
+ * soit entièrement écrit (et non pas une simple référence vers un message
+ * déjà écrit).
+ * @author davidroussel
+ */
+public class MessageSerialization implements Bench.Suite
+{
+	/**
+	 * Nombre de messages différents codés
+	 */
+	private static final int COUNT = 1024;
+
+	/**
+	 * Nom de l'ensemble de mesures
+	 * @return le nom de l'ensemble de mesures
+	 * @see benchmarks.Bench.Suite#getName()
+	 */
+	@Override
+	public String getName()
+	{
+		return "serialization";
+	}
+
+	/**
+	 * Mesures du codage des messages
+	 * @param iterations nombre d'exécutions de chaque opération par
+	 * itération de mesure
+	 * @param results la liste à laquelle ajouter les résultats
+	 * @see benchmarks.Bench.Suite#run(long, List)
+	 */
+	@Override
+	public void run(long iterations, List<Bench.Result> results)
+	{
+		Message[] messages = Bench.messages(COUNT);
+		try
+		{
+			// écriture dans un flux objet
+			ObjectOutputStream oos =
+			    new ObjectOutputStream(OutputStream.nullOutputStream());
+			results.add(Bench.measure(getName(), "object.write", "", 1,
+			                          iterations, (t, i) ->
+			{
+				try
+				{
+					if ((i % COUNT) == 0)
+					{
+						oos.reset();
+					}
+					oos.writeObject(messages[(int) (i % COUNT)]);
+				}
+				catch (IOException e)
+				{
+					throw new UncheckedIOException(e);
+				}
+			}));
+
+			// lecture dans un flux objet
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			for (Message message : messages)
+			{
+				out.writeObject(message);
+			}
+			out.close();
+			byte[] stream = bytes.toByteArray();
+			ObjectInputStream[] in = new ObjectInputStream[1];
+			results.add(Bench.measure(getName(), "object.read", "", 1,
+			                          iterations, (t, i) ->
+			{
+				try
+				{
+					if ((i % COUNT) == 0)
+					{
+						in[0] = new ObjectInputStream(
+						    new ByteArrayInputStream(stream));
+					}
+					Bench.sink = in[0].readObject();
+				}
+				catch (IOException e)
+				{
+					throw new UncheckedIOException(e);
+				}
+				catch (ClassNotFoundException e)
+				{
+					throw new IllegalStateException(e);
+				}
+			}));
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+
+		// trames
+		results.add(Bench.measure(getName(), "frames.encode", "", 1,
+		                          iterations, (t, i) ->
+		{
+			Bench.sink = MessageCodec.encode(messages[(int) (i % COUNT)]);
+		}));
+
+		byte[][] frames = new byte[COUNT][];
+		for (int i = 0; i < COUNT; i++)
+		{
+			frames[i] = MessageCodec.encode(messages[i]);
+		}
+		results.add(Bench.measure(getName(), "frames.decode", "", 1,
+		                          iterations, (t, i) ->
+		{
+			try
+			{
+				Bench.sink = MessageCodec.decode(
+				    ByteBuffer.wrap(frames[(int) (i % COUNT)]));
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+		}));
+	}
+}
@@ -0,0 +1,160 @@
+package benchmarks;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Vector;
+
+import models.Message;
+import models.Message.MessageOrder;
+import models.MessageComparator;
+import models.MessageStore;
+
+/**
+ * Mesure de la durée du tri d'un grand nombre de messages avec un
+ * {@link MessageComparator} comparé à l'ancienne comparaison qui parcourait
+ * (de manière synchronisée) les critères globaux et les interprétait avec un
+ * switch à chaque comparaison, et au tri des mêmes messages rangés en
+ * colonnes dans un {@link MessageStore} (tri d'une permutation d'index).
+ * Lancement : java benchmarks.MessageSorting [nombre de messages]
+ * @author davidroussel
+ */
+public class MessageSorting
+{
+	/**
+	 * Nombre de répétitions de chaque tri
+	 */
+	private static final int RUNS = 5;
+
+	/**
+	 * Ancienne comparaison : parcours des critères globaux
+	 */
+	private static class LegacyComparator implements Comparator<Message>
+	{
+		private final Vector<MessageOrder> orders;
+
+		LegacyComparator(MessageOrder... orders)
+		{
+			this.orders = new Vector<MessageOrder>(Arrays.asList(orders));
+		}
+
+		@Override
+		public int compare(Message m1, Message m2)
+		{
+			int compare = 0;
+			for (Iterator<MessageOrder> it = orders.iterator(); it.hasNext();)
+			{
+				switch (it.next())
+				{
+					case AUTHOR:
+						if (m1.hasAuthor())
+						{
+							compare = (m2.hasAuthor() ?
+							           m1.getAuthor().compareTo(m2.getAuthor()) :
+							           1);
+						}
+						else
+						{
+							compare = (m2.hasAuthor() ? -1 : 0);
+						}
+						break;
+					case DATE:
+						compare = Long.compare(m1.getTimestamp(), m2.getTimestamp());
+						break;
+					case CONTENT:
+						compare = m1.getContent().compareTo(m2.getContent());
+						break;
+				}
+				if (compare != 0)
+				{
+					break;
+				}
+			}
+			return compare;
+		}
+	}
+
+	/**
+	 * Meilleure durée (en ms) de tri d'une copie des messages
+	 * @param messages les messages à trier
+	 * @param comparator le comparateur à utiliser
+	 * @return la meilleure durée de tri parmi {@link #RUNS} répétitions
+	 */
+	private static double bestSortTime(Message[] messages,
+	                                   Comparator<Message> comparator)
+	{
+		double best = Double.MAX_VALUE;
+		for (int run = 0; run < RUNS; run++)
+		{
+			Message[] copy = messages.clone();
+			long start = System.nanoTime();
+			Arrays.sort(copy, comparator);
+			best = Math.min(best, (System.nanoTime() - start) / 1e6);
+			Bench.sink = copy;
+		}
+		return best;
+	}
+
+	/**
+	 * Meilleure durée (en ms) de calcul d'une permutation triée des messages
+	 * d'un stockage en colonnes
+	 * @param store le stockage des messages
+	 * @param comparator le comparateur dont on utilise les critères
+	 * @return la meilleure durée de tri parmi {@link #RUNS} répétitions
+	 */
+	private static double bestSortTime(MessageStore store,
+	                                   MessageComparator comparator)
+	{
+		double best = Double.MAX_VALUE;
+		for (int run = 0; run < RUNS; run++)
+		{
+			long start = System.nanoTime();
+			Bench.sink = store.sortPermutation(comparator);
+			best = Math.min(best, (System.nanoTime() - start) / 1e6);
+		}
+		return best;
+	}
+
+	/**
+	 * Programme principal
+	 * @param args [nombre de messages]
+	 */
+	public static void main(String[] args)
+	{
+		int count = (args.length > 0 ? Integer.parseInt(args[0]) : 1000000);
+		Random random = new Random(42);
+		long now = System.currentTimeMillis();
+		Message[] messages = new Message[count];
+		MessageStore store = new MessageStore(count);
+		for (int i = 0; i < count; i++)
+		{
+			messages[i] = new Message(i + 1,
+			                          now + random.nextInt(86400000),
+			                          "message " + random.nextInt(1000),
+			                          "author" + random.nextInt(200));
+			store.append(messages[i]);
+		}
+
+		MessageOrder[][] chains = {
+			{MessageOrder.DATE},
+			{MessageOrder.AUTHOR, MessageOrder.DATE},
+			{MessageOrder.AUTHOR, MessageOrder.CONTENT, MessageOrder.DATE}
+		};
+
+		System.out.println("messages: " + count);
+		for (MessageOrder[] chain : chains)
+		{
+			MessageComparator comparator = MessageComparator.of(chain);
+			Bench.report("legacy " + comparator,
+			             bestSortTime(messages, new LegacyComparator(chain)),
+			             "ms");
+			Bench.report("chain  " + comparator,
+			             bestSortTime(messages, comparator),
+			             "ms");
+			Bench.report("store  " + comparator,
+			             bestSortTime(store, comparator),
+			             "ms");
+		}
+	}
+}
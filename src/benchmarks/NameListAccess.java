@@ -0,0 +1,78 @@
+package benchmarks;
+
+import java.util.List;
+
+import models.NameSetListModel;
+
+/**
+ * Mesure des accès à un {@link NameSetListModel} (liste des utilisateurs
+ * affichée par les clients graphiques) selon le nombre de noms : recherche
+ * d'un nom, accès à un nom par son index (utilisé par la JList à chaque
+ * affichage) et ajout/retrait d'un nom.
+ * @author davidroussel
+ */
+public class NameListAccess implements Bench.Suite
+{
+	/**
+	 * Nombres de noms des listes mesurées
+	 */
+	private static final int[] SIZES = {10, 100, 1000};
+
+	/**
+	 * Nom de l'ensemble de mesures
+	 * @return le nom de l'ensemble de mesures
+	 * @see benchmarks.Bench.Suite#getName()
+	 */
+	@Override
+	public String getName()
+	{
+		return "names";
+	}
+
+	/**
+	 * Mesures des accès à la liste des noms
+	 * @param iterations nombre d'exécutions de chaque opération par
+	 * itération de mesure
+	 * @param results la liste à laquelle ajouter les résultats
+	 * @see benchmarks.Bench.Suite#run(long, List)
+	 */
+	@Override
+	public void run(long iterations, List<Bench.Result> results)
+	{
+		for (int size : SIZES)
+		{
+			NameSetListModel model = new NameSetListModel();
+			String[] names = new String[size];
+			for (int i = 0; i < size; i++)
+			{
+				names[i] = "user" + ((i * 7919) % size);
+				model.add(names[i]);
+			}
+			String param = Integer.toString(size);
+			// les accès par index parcourent la liste : moins d'itérations
+			long scaled = Math.max(iterations / size, 1000);
+
+			results.add(Bench.measure(getName(), "contains", param, 1,
+			                          iterations, (t, i) ->
+			{
+				Bench.sink = model.contains(names[(int) (i % size)]);
+			}));
+			results.add(Bench.measure(getName(), "getElementAt", param, 1,
+			                          scaled, (t, i) ->
+			{
+				Bench.sink = model.getElementAt((int) (i % size));
+			}));
+			results.add(Bench.measure(getName(), "indexOf", param, 1,
+			                          scaled, (t, i) ->
+			{
+				Bench.sink = model.indexOf(names[(int) (i % size)]);
+			}));
+			results.add(Bench.measure(getName(), "add+remove", param, 1,
+			                          scaled, (t, i) ->
+			{
+				model.add("newcomer");
+				model.remove(model.indexOf("newcomer"));
+			}));
+		}
+	}
+}
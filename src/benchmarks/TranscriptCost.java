@@ -0,0 +1,170 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import chat.server.AsyncTranscript;
+import chat.server.TranscriptSink;
+
+/**
+ * Mesure du coût, pour le thread d'un {@link chat.server.ClientHandler}, de
+ * la transcription de chaque ligne reçue : affichage direct par println
+ * (transcription d'origine) comparé aux {@link TranscriptSink} asynchrones
+ * vers la console ou vers un fichier, ou désactivé, sur 1 et 4 threads.
+ * La console est simulée par un flux qui ignore les octets écrits : seul le
+ * coût de l'appel (et de la contention sur le verrou du flux) est mesuré,
+ * ou bien (paramètre "slow") par un flux qui met {@link #SLOWNANOS} ns à
+ * chaque écriture, comme un terminal ou un tube lents (la transcription
+ * asynchrone n'écrit qu'une fois par lot de lignes).
+ * Le nombre de lignes abandonnées par les transcriptions asynchrones est
+ * affiché sur la sortie d'erreur.
+ * @author davidroussel
+ */
+public class TranscriptCost implements Bench.Suite
+{
+	/**
+	 * Nombres de threads mesurés
+	 */
+	private static final int[] THREADS = {1, 4};
+
+	/**
+	 * Durée (en ns) d'une écriture sur une console lente
+	 */
+	private static final long SLOWNANOS = 20000;
+
+	/**
+	 * Console lente : chaque écriture occupe le thread qui écrit pendant
+	 * {@link #SLOWNANOS} ns
+	 */
+	private static class SlowConsole extends OutputStream
+	{
+		@Override
+		public void write(int b)
+		{
+			// octet par octet : négligé
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len)
+		{
+			long end = System.nanoTime() + SLOWNANOS;
+			while (System.nanoTime() < end)
+			{
+				Thread.onSpinWait();
+			}
+		}
+	}
+
+	/**
+	 * Nom de l'ensemble de mesures
+	 * @return le nom de l'ensemble de mesures
+	 * @see benchmarks.Bench.Suite#getName()
+	 */
+	@Override
+	public String getName()
+	{
+		return "transcript";
+	}
+
+	/**
+	 * Mesures de la transcription des lignes reçues
+	 * @param iterations nombre d'exécutions de chaque opération par
+	 * itération de mesure
+	 * @param results la liste à laquelle ajouter les résultats
+	 * @see benchmarks.Bench.Suite#run(long, List)
+	 */
+	@Override
+	public void run(long iterations, List<Bench.Result> results)
+	{
+		String line = Bench.messages(1)[0].getContent();
+		PrintStream console = new PrintStream(OutputStream.nullOutputStream());
+		PrintStream slow = new PrintStream(new SlowConsole());
+		// la console lente limite le débit : moins d'itérations
+		long scaled = Math.max(iterations / 100, 1000);
+		for (int threads : THREADS)
+		{
+			results.add(Bench.measure(getName(), "println", "", threads,
+			                          iterations, (t, i) ->
+			{
+				console.println("user" + t + " > " + line);
+			}));
+
+			results.add(Bench.measure(getName(), "println", "slow", threads,
+			                          scaled, (t, i) ->
+			{
+				slow.println("user" + t + " > " + line);
+			}));
+
+			results.add(Bench.measure(getName(), "off", "", threads,
+			                          iterations, (t, i) ->
+			{
+				TranscriptSink.OFF.append("user" + t, line);
+			}));
+
+			AsyncTranscript async =
+			    new AsyncTranscript(OutputStream.nullOutputStream(),
+			                        AsyncTranscript.DEFAULTCAPACITY);
+			results.add(Bench.measure(getName(), "async-console", "", threads,
+			                          iterations, (t, i) ->
+			{
+				async.append("user" + t, line);
+			}));
+			async.close();
+			dropped("async-console", threads, async);
+
+			AsyncTranscript asyncSlow =
+			    new AsyncTranscript(new SlowConsole(),
+			                        AsyncTranscript.DEFAULTCAPACITY);
+			results.add(Bench.measure(getName(), "async-console", "slow",
+			                          threads, scaled, (t, i) ->
+			{
+				asyncSlow.append("user" + t, line);
+			}));
+			asyncSlow.close();
+			dropped("async-console slow", threads, asyncSlow);
+
+			try
+			{
+				File file = File.createTempFile("transcript", ".log");
+				file.deleteOnExit();
+				AsyncTranscript rolling =
+				    new AsyncTranscript(file.getPath(),
+				                        AsyncTranscript.DEFAULTFILESIZE,
+				                        0);
+				results.add(Bench.measure(getName(), "async-file", "", threads,
+				                          iterations, (t, i) ->
+				{
+					rolling.append("user" + t, line);
+				}));
+				rolling.close();
+				file.delete();
+				dropped("async-file", threads, rolling);
+			}
+			catch (IOException e)
+			{
+				System.err.println("TranscriptCost: unable to create file: "
+				    + e.getLocalizedMessage());
+			}
+		}
+	}
+
+	/**
+	 * Affichage du nombre de lignes abandonnées par une transcription
+	 * @param name le nom de la mesure
+	 * @param threads le nombre de threads
+	 * @param transcript la transcription
+	 */
+	private static void dropped(String name,
+	                            int threads,
+	                            AsyncTranscript transcript)
+	{
+		if (transcript.getDropped() > 0)
+		{
+			System.err.println("transcript " + name + " (" + threads
+			    + " threads): " + transcript.getDropped() + " lines dropped");
+		}
+	}
+}
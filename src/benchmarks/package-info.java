@@ -0,0 +1,10 @@
+/**
+ * Package contenant des programmes de mesure de performances des modèles et
+ * des parties client/serveur du chat. Chaque programme se lance comme un
+ * programme principal et affiche ses résultats dans la console.
+ * {@link benchmarks.HotPaths} regroupe les mesures des chemins critiques de
+ * la messagerie et peut exporter ses résultats en CSV ou en JSON
+ * (make bench).
+ * @author davidroussel
+ */
+package benchmarks;
@@ -129,10 +129,10 @@ public enum Failure
 				return new String("Could not get intput stream from client");
 			case CLIENT_OUTPUT_STREAM:
 				return new String("Could not get output stream to client");
-				// ServerHandler (2)
+				// ChatClient (2)
 			case USER_INPUT_STREAM:
 				return new String("Could not get input stream from user");
-				// ServerHandler
+				// UserOutput
 			case USER_OUTPUT_STREAM:
 				return new String("Could not get output stream to user");
 				// ChatServer#run (3)
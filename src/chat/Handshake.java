@@ -0,0 +1,158 @@
+package chat;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ligne de connexion envoyée par un client au serveur juste après
+ * l'ouverture de la socket. Elle contient le nom d'utilisateur suivi
+ * (éventuellement) d'options séparées par
+ * {@link Vocabulary#handshakeSeparator} :
+ * <pre>
+ * nom[␞option valeur]*
+ * </pre>
+ * Un client qui n'envoie que son nom reste donc compatible avec le serveur.
+ * @author davidroussel
+ */
+public class Handshake
+{
+	/**
+	 * Le nom d'utilisateur
+	 */
+	private final String name;
+
+	/**
+	 * Les options de connexion (dans l'ordre d'ajout)
+	 */
+	private final Map<String, String> options;
+
+	/**
+	 * Constructeur d'une ligne de connexion sans options
+	 * @param name le nom d'utilisateur
+	 */
+	public Handshake(String name)
+	{
+		this.name = name;
+		options = new LinkedHashMap<String, String>();
+	}
+
+	/**
+	 * Ajout d'une option à la ligne de connexion
+	 * @param option le nom de l'option (sans espaces)
+	 * @param value la valeur de l'option (evt null)
+	 * @return la ligne de connexion courante
+	 */
+	public Handshake with(String option, String value)
+	{
+		options.put(option, value);
+		return this;
+	}
+
+	/**
+	 * Accesseur en lecture du nom d'utilisateur
+	 * @return le nom d'utilisateur
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Indique si une option est présente
+	 * @param option le nom de l'option
+	 * @return true si l'option est présente, false sinon
+	 */
+	public boolean has(String option)
+	{
+		return options.containsKey(option);
+	}
+
+	/**
+	 * Accesseur en lecture de la valeur d'une option
+	 * @param option le nom de l'option
+	 * @return la valeur de l'option ou bien null si elle n'est pas présente
+	 * ou n'a pas de valeur
+	 */
+	public String get(String option)
+	{
+		return options.get(option);
+	}
+
+	/**
+	 * Accesseur en lecture de la valeur numérique d'une option
+	 * @param option le nom de l'option
+	 * @param defaultValue la valeur à renvoyer si l'option est absente ou
+	 * invalide
+	 * @return la valeur numérique de l'option
+	 */
+	public long getLong(String option, long defaultValue)
+	{
+		String value = options.get(option);
+		if (value != null)
+		{
+			try
+			{
+				return Long.parseLong(value.trim());
+			}
+			catch (NumberFormatException e)
+			{
+				// valeur par défaut
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Analyse d'une ligne de connexion reçue par le serveur
+	 * @param line la ligne reçue
+	 * @return la ligne de connexion correspondante ou bien null si la ligne
+	 * est null
+	 */
+	public static Handshake parse(String line)
+	{
+		if (line == null)
+		{
+			return null;
+		}
+
+		String[] fields =
+		    line.split(String.valueOf(Vocabulary.handshakeSeparator));
+		Handshake handshake = new Handshake(fields[0]);
+		for (int i = 1; i < fields.length; i++)
+		{
+			int space = fields[i].indexOf(' ');
+			if (space < 0)
+			{
+				handshake.with(fields[i], null);
+			}
+			else
+			{
+				handshake.with(fields[i].substring(0, space),
+				               fields[i].substring(space + 1));
+			}
+		}
+		return handshake;
+	}
+
+	/**
+	 * Représentation de la ligne de connexion telle qu'elle doit être envoyée
+	 * au serveur
+	 * @return la ligne de connexion
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder(name);
+		for (Map.Entry<String, String> entry : options.entrySet())
+		{
+			sb.append(Vocabulary.handshakeSeparator);
+			sb.append(entry.getKey());
+			if (entry.getValue() != null)
+			{
+				sb.append(' ');
+				sb.append(entry.getValue());
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,379 @@
+package chat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import models.Message;
+import models.MessagePage;
+import models.MessageTrace;
+
+/**
+ * Codage binaire des messages envoyés par le serveur aux clients qui le
+ * demandent lors de leur connexion (option {@link Vocabulary#codecOption}).
+ * Contrairement à un {@link java.io.ObjectOutputStream}, chaque message est
+ * envoyé dans une trame autonome préfixée par sa longueur : un client peut
+ * donc lire les trames de manière non bloquante (avec un
+ * {@link java.nio.channels.Selector}) et ne les décoder que lorsqu'elles sont
+ * complètes.
+ * <pre>
+ * trame   : [longueur int][type byte][contenu]
+ * message : [séquence long][date long][auteur][contenu]
+ * page    : [plus byte][nombre int][message]*
+ * trace   : [envoi client long][réception serveur long][envoi serveur long][message]
+ * lot     : [nombre int][trame]*
+ * </pre>
+ * Une trame de lot (option {@link Vocabulary#batchOption}) regroupe les
+ * trames de plusieurs messages écrits ensemble au même client : elle est
+ * décodée en une liste des objets de chacune de ses trames.
+ * L'auteur est une chaîne UTF-8 préfixée par sa longueur en octets (-1 pour
+ * un message sans auteur) et le contenu une chaîne UTF-8 préfixée par sa
+ * longueur.
+ * @author davidroussel
+ */
+public class MessageCodec
+{
+	/**
+	 * Nom du codage envoyé comme valeur de l'option
+	 * {@link Vocabulary#codecOption}
+	 */
+	public final static String NAME = "frames";
+
+	/**
+	 * Taille maximum (en octets) d'une trame : au delà le flux est
+	 * considéré comme corrompu
+	 */
+	public final static int MAXFRAMESIZE = 1 << 24;
+
+	/**
+	 * Taille de l'entête d'une trame (longueur)
+	 */
+	private final static int HEADERSIZE = Integer.BYTES;
+
+	/**
+	 * Type d'une trame contenant un {@link Message}
+	 */
+	private final static byte MESSAGE = 1;
+
+	/**
+	 * Type d'une trame contenant une {@link MessagePage}
+	 */
+	private final static byte PAGE = 2;
+
+	/**
+	 * Type d'une trame contenant un {@link MessageTrace}
+	 */
+	private final static byte TRACE = 3;
+
+	/**
+	 * Type d'une trame contenant un lot de trames
+	 */
+	private final static byte BATCH = 4;
+
+	/**
+	 * Constructeur privé : méthodes statiques uniquement
+	 */
+	private MessageCodec()
+	{
+	}
+
+	/**
+	 * Codage d'un message dans une trame
+	 * @param message le message à coder
+	 * @return la trame contenant le message
+	 */
+	public static byte[] encode(Message message)
+	{
+		byte[] author = bytes(message.getAuthor());
+		byte[] content = bytes(message.getContent());
+		ByteBuffer buffer = frame(MESSAGE, size(author, content));
+		put(buffer, message, author, content);
+		return buffer.array();
+	}
+
+	/**
+	 * Codage d'un message tracé dans une trame (la date de réception par le
+	 * client destinataire n'est pas transmise)
+	 * @param trace le message tracé à coder
+	 * @return la trame contenant le message tracé
+	 */
+	public static byte[] encode(MessageTrace trace)
+	{
+		Message message = trace.getMessage();
+		byte[] author = bytes(message.getAuthor());
+		byte[] content = bytes(message.getContent());
+		ByteBuffer buffer = frame(TRACE, (3 * Long.BYTES) + size(author, content));
+		buffer.putLong(trace.getClientSent());
+		buffer.putLong(trace.getServerReceived());
+		buffer.putLong(trace.getServerSent());
+		put(buffer, message, author, content);
+		return buffer.array();
+	}
+
+	/**
+	 * Codage d'une page d'historique dans une trame
+	 * @param page la page à coder
+	 * @return la trame contenant la page
+	 */
+	public static byte[] encode(MessagePage page)
+	{
+		List<Message> messages = page.getMessages();
+		byte[][] authors = new byte[messages.size()][];
+		byte[][] contents = new byte[messages.size()][];
+		int length = 1 + Integer.BYTES;
+		for (int i = 0; i < messages.size(); i++)
+		{
+			authors[i] = bytes(messages.get(i).getAuthor());
+			contents[i] = bytes(messages.get(i).getContent());
+			length += size(authors[i], contents[i]);
+		}
+
+		ByteBuffer buffer = frame(PAGE, length);
+		buffer.put((byte) (page.hasMore() ? 1 : 0));
+		buffer.putInt(messages.size());
+		for (int i = 0; i < messages.size(); i++)
+		{
+			put(buffer, messages.get(i), authors[i], contents[i]);
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Regroupement de trames dans une trame de lot
+	 * @param frames les trames à regrouper (qui ne sont pas elles mêmes des
+	 * lots)
+	 * @param length la taille cumulée des trames
+	 * @return la trame contenant le lot de trames
+	 */
+	public static byte[] encode(List<byte[]> frames, int length)
+	{
+		ByteBuffer buffer = frame(BATCH, Integer.BYTES + length);
+		buffer.putInt(frames.size());
+		for (byte[] frame : frames)
+		{
+			buffer.put(frame);
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Décodage de la prochaine trame d'un tampon
+	 * @param buffer le tampon (en lecture) contenant les octets reçus. Si
+	 * une trame complète est disponible, la position du tampon est placée
+	 * après cette trame, sinon elle reste inchangée.
+	 * @return le {@link Message}, la {@link MessagePage} ou le
+	 * {@link MessageTrace} décodé, la liste des objets décodés d'une trame
+	 * de lot ou bien null si la trame n'est pas encore complète
+	 * @throws IOException si la trame est invalide
+	 */
+	public static Object decode(ByteBuffer buffer) throws IOException
+	{
+		return decode(buffer, true);
+	}
+
+	/**
+	 * Décodage de la prochaine trame d'un tampon
+	 * @param buffer le tampon (en lecture) contenant les octets reçus
+	 * @param batch true si la trame peut être un lot de trames
+	 * @return l'objet décodé ou bien null si la trame n'est pas encore
+	 * complète
+	 * @throws IOException si la trame est invalide
+	 */
+	private static Object decode(ByteBuffer buffer, boolean batch)
+	    throws IOException
+	{
+		if (buffer.remaining() < HEADERSIZE)
+		{
+			return null;
+		}
+
+		int start = buffer.position();
+		int length = buffer.getInt(start);
+		if ((length < 1) || (length > MAXFRAMESIZE))
+		{
+			throw new IOException("MessageCodec: invalid frame length "
+			    + length);
+		}
+		if (buffer.remaining() < (HEADERSIZE + length))
+		{
+			return null;
+		}
+
+		int end = start + HEADERSIZE + length;
+		ByteBuffer frame = buffer.duplicate();
+		frame.position(start + HEADERSIZE);
+		frame.limit(end);
+		buffer.position(end);
+
+		try
+		{
+			byte type = frame.get();
+			switch (type)
+			{
+				case MESSAGE:
+					return getMessage(frame);
+				case TRACE:
+					long clientSent = frame.getLong();
+					long serverReceived = frame.getLong();
+					long serverSent = frame.getLong();
+					return new MessageTrace(getMessage(frame),
+					                        clientSent,
+					                        serverReceived,
+					                        serverSent,
+					                        0);
+				case PAGE:
+					boolean more = frame.get() != 0;
+					int count = frame.getInt();
+					if ((count < 0) || (count > frame.remaining()))
+					{
+						throw new IOException("MessageCodec: invalid page size "
+						    + count);
+					}
+					List<Message> messages = new ArrayList<Message>(count);
+					for (int i = 0; i < count; i++)
+					{
+						messages.add(getMessage(frame));
+					}
+					return new MessagePage(messages, more);
+				case BATCH:
+					if (!batch)
+					{
+						throw new IOException("MessageCodec: nested batch");
+					}
+					int frames = frame.getInt();
+					if ((frames < 0) || (frames > frame.remaining()))
+					{
+						throw new IOException("MessageCodec: invalid batch size "
+						    + frames);
+					}
+					List<Object> objects = new ArrayList<Object>(frames);
+					for (int i = 0; i < frames; i++)
+					{
+						Object object = decode(frame, false);
+						if (object == null)
+						{
+							throw new IOException("MessageCodec: truncated batch");
+						}
+						objects.add(object);
+					}
+					return objects;
+				default:
+					throw new IOException("MessageCodec: unknown frame type "
+					    + type);
+			}
+		}
+		catch (RuntimeException e)
+		{
+			throw new IOException("MessageCodec: truncated frame", e);
+		}
+	}
+
+	/**
+	 * Tampon d'une trame dont l'entête est déjà écrit
+	 * @param type le type de la trame
+	 * @param length la taille du contenu de la trame
+	 * @return le tampon à compléter avec le contenu de la trame
+	 */
+	private static ByteBuffer frame(byte type, int length)
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(HEADERSIZE + 1 + length);
+		buffer.putInt(1 + length);
+		buffer.put(type);
+		return buffer;
+	}
+
+	/**
+	 * Codage UTF-8 d'une chaîne
+	 * @param text la chaîne (evt null)
+	 * @return les octets de la chaîne ou bien null
+	 */
+	private static byte[] bytes(String text)
+	{
+		return (text == null ? null : text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Taille d'un message codé
+	 * @param author les octets de l'auteur (evt null)
+	 * @param content les octets du contenu
+	 * @return la taille du message codé
+	 */
+	private static int size(byte[] author, byte[] content)
+	{
+		return (2 * Long.BYTES) + Integer.BYTES
+		    + (author == null ? 0 : author.length) + Integer.BYTES
+		    + content.length;
+	}
+
+	/**
+	 * Écriture d'un message codé dans un tampon
+	 * @param buffer le tampon
+	 * @param message le message
+	 * @param author les octets de l'auteur (evt null)
+	 * @param content les octets du contenu
+	 */
+	private static void put(ByteBuffer buffer,
+	                        Message message,
+	                        byte[] author,
+	                        byte[] content)
+	{
+		buffer.putLong(message.getSequence());
+		buffer.putLong(message.getTimestamp());
+		if (author == null)
+		{
+			buffer.putInt(-1);
+		}
+		else
+		{
+			buffer.putInt(author.length);
+			buffer.put(author);
+		}
+		buffer.putInt(content.length);
+		buffer.put(content);
+	}
+
+	/**
+	 * Lecture d'un message codé dans un tampon
+	 * @param buffer le tampon
+	 * @return le message décodé
+	 * @throws IOException si le message est invalide
+	 */
+	private static Message getMessage(ByteBuffer buffer) throws IOException
+	{
+		long sequence = buffer.getLong();
+		long timestamp = buffer.getLong();
+		String author = getString(buffer, true);
+		String content = getString(buffer, false);
+		return new Message(sequence, timestamp, content, author);
+	}
+
+	/**
+	 * Lecture d'une chaîne codée dans un tampon
+	 * @param buffer le tampon
+	 * @param nullable true si la chaîne peut être null
+	 * @return la chaîne décodée (evt null)
+	 * @throws IOException si la longueur de la chaîne est invalide
+	 */
+	private static String getString(ByteBuffer buffer, boolean nullable)
+	    throws IOException
+	{
+		int length = buffer.getInt();
+		if ((length == -1) && nullable)
+		{
+			return null;
+		}
+		if ((length < 0) || (length > buffer.remaining()))
+		{
+			throw new IOException("MessageCodec: invalid string length "
+			    + length);
+		}
+		String text = new String(buffer.array(),
+		                         buffer.arrayOffset() + buffer.position(),
+		                         length,
+		                         StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return text;
+	}
+}
@@ -21,6 +21,85 @@ public interface Vocabulary
 	 */
 	public final static String kickCmd="kick";
 
+	/**
+	 * Mot clé utilisé par un client pour demander une page de l'historique
+	 * des messages diffusés avant le plus ancien message qu'il a reçu :
+	 * history &lt;nombre&gt; [&lt;séquence&gt;]. Sans numéro de séquence,
+	 * la page précède les messages reçus depuis sa connexion.
+	 * @see models.MessagePage
+	 */
+	public final static String historyCmd="history";
+
+	/**
+	 * Préfixe des lignes d'une page d'historique envoyée à un client qui
+	 * attend du texte : une ligne d'entête (voir
+	 * {@link models.MessagePage#header()}) suivie des lignes des messages
+	 */
+	public final static String historyMarker="history> ";
+
+	/**
+	 * Début de l'avertissement envoyé par le serveur à un client dont le nom
+	 * est déjà utilisé, avant de fermer sa socket. Un client recevant des
+	 * trames le reçoit comme message de contrôle (sans auteur ni numéro de
+	 * séquence) : &lt;nameUsedNotice&gt; &lt;nom&gt;
+	 */
+	public final static String nameUsedNotice="Sorry another client already use the name";
+
+	/**
+	 * Option de connexion utilisée par un client qui se reconnecte pour
+	 * demander au serveur de lui renvoyer les messages diffusés après le
+	 * dernier numéro de séquence qu'il a reçu : resume <séquence>
+	 * @see Handshake
+	 */
+	public final static String resumeOption="resume";
+
+	/**
+	 * Option de connexion utilisée par un client pour demander au serveur de
+	 * lui envoyer les messages sous forme de trames binaires plutôt qu'à
+	 * travers un flux objet : codec &lt;nom&gt; (voir
+	 * {@link MessageCodec#NAME})
+	 * @see Handshake
+	 */
+	public final static String codecOption="codec";
+
+	/**
+	 * Option de connexion utilisée par un client (recevant des trames, voir
+	 * {@link #codecOption}) pour demander le traçage de ses messages : chaque
+	 * ligne qu'il envoie est alors précédée de sa date d'envoi (en µs depuis
+	 * l'epoch) et de {@link #handshakeSeparator}, et il reçoit les messages
+	 * sous forme de {@link models.MessageTrace}
+	 * @see Handshake
+	 */
+	public final static String traceOption="trace";
+
+	/**
+	 * Option de connexion utilisée par un client pour choisir la manière
+	 * dont le serveur regroupe les messages qui lui sont écrits :
+	 * flush immediate|idle|latency[:&lt;ms&gt;] (voir
+	 * {@link chat.server.FlushPolicy})
+	 * @see Handshake
+	 */
+	public final static String flushOption="flush";
+
+	/**
+	 * Option de connexion utilisée par un client (recevant des trames, voir
+	 * {@link #codecOption}) pour accepter que le serveur regroupe dans une
+	 * seule trame de lot les messages qui lui sont destinés pendant une
+	 * fenêtre de quelques ms : batch [&lt;fenêtre en ms&gt;] (sans valeur,
+	 * la fenêtre est celle du serveur). Le serveur peut ignorer cette option.
+	 * @see MessageCodec
+	 * @see Handshake
+	 */
+	public final static String batchOption="batch";
+
+	/**
+	 * Séparateur des champs de la ligne de connexion envoyée par le client au
+	 * serveur : nom[␞option valeur]*. Le caractère "Record Separator" ne peut
+	 * pas apparaître dans un nom d'utilisateur saisi normalement.
+	 * @see Handshake
+	 */
+	public final static char handshakeSeparator = '\u001E';
+
 	/**
 	 * Sauts de ligne du système d'exploitation (utilisé dans le texte)
 	 */
@@ -3,87 +3,85 @@ package chat.client;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.logging.Logger;
 
 import chat.Failure;
 import chat.UserOutputType;
 import logger.LoggerFactory;
+import models.Message;
 
 /**
  * Classe Principale d'un client de chat.
  * Instancie :
- * 	- la socket pour commnuniquer avec le serveur
- * 	- le UserHandler pour traiter les messages de l'utilisateur
- * 	- le ServerHandler pour traiter les messages du serveur
+ * 	- le {@link ClientEngine} qui multiplexe dans un seul thread les
+ * 	messages de l'utilisateur et ceux du serveur
+ * 	- la {@link ClientSession} connectée au serveur
+ * 	- le {@link UserOutput} transmettant les messages du serveur à
+ * 	l'utilisateur
+ * 	- un {@link UserInputReader} pour lire les lignes de l'utilisateur
+ * 	lorsque celles ci proviennent d'un flux (la console) plutôt que d'une
+ * 	{@link OutboundQueue}
+ * Lorsque la connexion avec le serveur est perdue, le client tente de se
+ * reconnecter avec un délai exponentiel entre chaque tentative, renvoie son
+ * nom au serveur et lui demande de ne renvoyer que les messages diffusés
+ * après le dernier numéro de séquence reçu. De la même manière, un client
+ * disposant d'un historique local (voir {@link models.MessageArchive}) peut
+ * ne demander dès sa connexion que les messages postérieurs au dernier
+ * message de cet historique.
  * @author davidroussel
  */
 public class ChatClient implements Runnable
 {
 	/**
-	 * Nom d'utilisateur utilisé pour se connecter
-	 */
-	private String userName;
-
-	/**
-	 * Socket du client
+	 * Nombre par défaut de tentatives de reconnexion
 	 */
-	private Socket clientSocket;
+	public final static int DEFAULTRETRIES = 10;
 
 	/**
-	 * Flux d'entrée depuis le serveur
+	 * Délai (en ms) par défaut avant la première tentative de reconnexion
 	 */
-	private InputStream serverIn;
+	public final static long DEFAULTRETRYDELAY = 500;
 
 	/**
-	 * Flux de sortie vers le serveur
+	 * Délai (en ms) maximum par défaut entre deux tentatives de reconnexion
 	 */
-	private OutputStream serverOut;
+	public final static long DEFAULTMAXRETRYDELAY = 30000;
 
 	/**
-	 * Ecrivain vers le flux de sortie vers le serveur. Utilisé temporairement
-	 * pour envoyer notre nom d'utilisateur au serveur
+	 * Nom d'utilisateur utilisé pour se connecter
 	 */
-	private PrintWriter serverOutPW;
+	private String userName;
 
 	/**
-	 * Flux d'entrée depuis l'utilisateur
+	 * L'adresse du serveur
 	 */
-	private InputStream userIn;
+	private final String host;
 
 	/**
-	 * Flux de sortie vers l'utilisateur
+	 * Le port utilisé pour communiquer avec le serveur
 	 */
-	private OutputStream userOut;
+	private final int port;
 
 	/**
-	 * Handler des données en provenance du serveur
-	 *
-	 * @uml.property name="serverHandler"
-	 * @uml.associationEnd multiplicity="(1 1)" aggregation="composite"
+	 * Moteur exécutant la session du client
 	 */
-	private ServerHandler serverHandler = null;
+	private ClientEngine engine;
 
 	/**
-	 * Handler des données en provenance de l'utilisateur
-	 *
-	 * @uml.property name="userHandler"
-	 * @uml.associationEnd multiplicity="(1 1)" aggregation="composite"
+	 * Session du client avec le serveur
 	 */
-	private UserHandler userHandler = null;
+	private ClientSession session;
 
 	/**
-	 * Etat d'exécution commun du {@link #userHandler} et du
-	 * {@link #serverHandler}, lorsque l'un des deux Runnable se termine, il met
-	 * commonRun à faux ce qui force l'autre à se terminer.
+	 * Lecteur des lignes de l'utilisateur (ou null si les lignes de
+	 * l'utilisateur proviennent d'une {@link OutboundQueue})
 	 */
-	private Boolean commonRun;
+	private UserInputReader userReader;
 
 	/**
-	 * Etat du client. true si la socket ainsi que les différents flux
-	 * d'entrée/sortie ont été créés
+	 * Etat du client. true si le moteur, la session ainsi que les différents
+	 * flux d'entrée/sortie ont été créés
 	 *
 	 * @uml.property name="ready"
 	 */
@@ -104,9 +102,6 @@ public class ChatClient implements Runnable
 	 * @param out le flux de sortie vers l'utilisateur
 	 * @param outType le type de données attendues dans le flux de sortie vers
 	 * le client (texte ou objets)
-	 * @param l'état d'exécution commun avec un autre runnable. ou bien null
-	 *            s'il n'y a pas d'autre runnable à synchroniser avec ceux
-	 *            lancés dans le ChatClient
 	 * @param verbose niveau de debug pour les messages
 	 */
 	public ChatClient(String host,
@@ -115,10 +110,121 @@ public class ChatClient implements Runnable
 	                  InputStream in,
 	                  OutputStream out,
 	                  UserOutputType outType,
-	                  Boolean commonRun,
 	                  Logger parentLogger)
+	{
+		this(host,
+		     port,
+		     name,
+		     in,
+		     out,
+		     outType,
+		     Message.NO_SEQUENCE,
+		     parentLogger);
+	}
+
+	/**
+	 * Constructeur d'un client de chat disposant déjà d'une partie des
+	 * messages du serveur
+	 *
+	 * @param host l'adresse du serveur
+	 * @param port le port à utiliser pour communiquer avec le serveur
+	 * @param name le nom d'utilisateur utilisé
+	 * @param in le flux d'entrée depuis l'utilisateur
+	 * @param out le flux de sortie vers l'utilisateur
+	 * @param outType le type de données attendues dans le flux de sortie vers
+	 * le client (texte ou objets)
+	 * @param lastSequence le numéro de séquence du dernier message déjà
+	 * connu : seuls les messages suivants seront demandés au serveur (ou
+	 * bien {@link Message#NO_SEQUENCE} pour ne recevoir que les nouveaux
+	 * messages)
+	 * @param verbose niveau de debug pour les messages
+	 */
+	public ChatClient(String host,
+	                  int port,
+	                  String name,
+	                  InputStream in,
+	                  OutputStream out,
+	                  UserOutputType outType,
+	                  long lastSequence,
+	                  Logger parentLogger)
+	{
+		this(host,
+		     port,
+		     name,
+		     in,
+		     null,
+		     out,
+		     outType,
+		     lastSequence,
+		     parentLogger);
+	}
+
+	/**
+	 * Constructeur d'un client de chat envoyant au serveur les lignes
+	 * ajoutées à une file par l'interface graphique (qui n'attend donc jamais
+	 * l'envoi d'un message)
+	 *
+	 * @param host l'adresse du serveur
+	 * @param port le port à utiliser pour communiquer avec le serveur
+	 * @param name le nom d'utilisateur utilisé
+	 * @param outbound la file des lignes à envoyer au serveur
+	 * @param out le flux de sortie vers l'utilisateur
+	 * @param outType le type de données attendues dans le flux de sortie vers
+	 * le client (texte ou objets)
+	 * @param lastSequence le numéro de séquence du dernier message déjà
+	 * connu (ou bien {@link Message#NO_SEQUENCE})
+	 * @param verbose niveau de debug pour les messages
+	 */
+	public ChatClient(String host,
+	                  int port,
+	                  String name,
+	                  OutboundQueue outbound,
+	                  OutputStream out,
+	                  UserOutputType outType,
+	                  long lastSequence,
+	                  Logger parentLogger)
+	{
+		this(host,
+		     port,
+		     name,
+		     null,
+		     outbound,
+		     out,
+		     outType,
+		     lastSequence,
+		     parentLogger);
+	}
+
+	/**
+	 * Constructeur d'un client de chat
+	 *
+	 * @param host l'adresse du serveur
+	 * @param port le port à utiliser pour communiquer avec le serveur
+	 * @param name le nom d'utilisateur utilisé
+	 * @param in le flux d'entrée depuis l'utilisateur (ou null si outbound
+	 * est non null)
+	 * @param outbound la file des lignes à envoyer au serveur (ou null si
+	 * in est non null)
+	 * @param out le flux de sortie vers l'utilisateur
+	 * @param outType le type de données attendues dans le flux de sortie vers
+	 * le client (texte ou objets)
+	 * @param lastSequence le numéro de séquence du dernier message déjà
+	 * connu (ou bien {@link Message#NO_SEQUENCE})
+	 * @param verbose niveau de debug pour les messages
+	 */
+	private ChatClient(String host,
+	                   int port,
+	                   String name,
+	                   InputStream in,
+	                   OutboundQueue outbound,
+	                   OutputStream out,
+	                   UserOutputType outType,
+	                   long lastSequence,
+	                   Logger parentLogger)
 	{
 		userName = name;
+		this.host = host;
+		this.port = port;
 		ready = false;
 
 		// Création du logger
@@ -127,133 +233,119 @@ public class ChatClient implements Runnable
 		                                       parentLogger.getLevel());
 
 		/*
-		 * Création de la socket vers host/port
+		 * Les lignes de l'utilisateur sont lues depuis la file remplie par
+		 * le GUI ou bien depuis le flux in par un UserInputReader
 		 */
-		clientSocket = null;
-		try
+		if (outbound == null)
 		{
-			clientSocket = new Socket(host, port);
-			logger.info("ChatClient: socket created");
+			if (in == null)
+			{
+				logger.severe("ChatClient: null input stream"
+				    + Failure.USER_INPUT_STREAM);
+				System.exit(Failure.USER_INPUT_STREAM.toInteger());
+			}
+			outbound = new OutboundQueue();
+			userReader = new UserInputReader(in, outbound, logger);
 		}
-		catch (UnknownHostException e)
+		else
 		{
-			/*
-			 * Notez bien cette façon de faire, vous devrez la  reproduire
-			 * par la suite
-			 */
-			logger.severe("ChatClient: " + Failure.UNKNOWN_HOST + ": " + host);
-			logger.severe(e.getLocalizedMessage());
-			System.exit(Failure.UNKNOWN_HOST.toInteger());
+			userReader = null;
+		}
+
+		// Création de la sortie vers l'utilisateur
+		UserOutput userOutput = null;
+		try
+		{
+			userOutput = new UserOutput(out, outType, logger);
 		}
 		catch (IOException e)
 		{
-			logger.severe("ChatClient: " + Failure.CLIENT_CONNECTION
-					+ " to: \"" + host + "\" at port \"" + port + "\"");
+			logger.severe("ChatClient: " + Failure.USER_OUTPUT_STREAM);
 			logger.severe(e.getLocalizedMessage());
-			System.exit(Failure.CLIENT_CONNECTION.toInteger());
+			System.exit(Failure.USER_OUTPUT_STREAM.toInteger());
 		}
 
-		/*
-		 * Obtention du flux de sortie vers le serveur (serverOut) à partir
-		 * de la clientSocket.
-		 * avec utilisation du logger pour afficher la progression ou les erreurs
-		 * 	- logger.info("ChatClient: got client output stream to server"); si le serverOut est non null
-		 * 	- logger.severe("ChatClient: null server out" + Failure.CLIENT_INPUT_STREAM); si le serverOut est null
-		 * 	- logger.severe("ChatClient: " + Failure.CLIENT_OUTPUT_STREAM); si une IOException survient
-		 * les "severe" doivent être suivi d'un System.exit(...) comme ci-dessus;
-		 */
-		serverOut = null;
+		// Création du moteur
 		try
 		{
-			serverOut = clientSocket.getOutputStream();
-			if (serverOut != null)
-			{
-				logger.info("ChatClient: got client output stream to server");
-			}
-			else
-			{
-				logger.severe("ChatClient: null server out" + Failure.CLIENT_INPUT_STREAM);
-				System.exit(Failure.CLIENT_OUTPUT_STREAM.toInteger());
-			}
-			// throw new IOException(); // Remove this line when serverOut is obtained
+			engine = new ClientEngine(logger);
 		}
 		catch (IOException e)
 		{
-			logger.severe("ChatClient: " + Failure.CLIENT_OUTPUT_STREAM);
+			logger.severe("ChatClient: unable to create client engine "
+			    + Failure.OTHER);
 			logger.severe(e.getLocalizedMessage());
-			System.exit(Failure.CLIENT_OUTPUT_STREAM.toInteger());
+			System.exit(Failure.OTHER.toInteger());
 		}
 
 		/*
-		 * Création PrintWriter temporaire sur le serverOut
-		 * (avec autoFlush): serverOutPW
-		 * et envoi de notre nom d'utilisateur au serveur (avec un println)
-		 * afin qu'il puisse créer un thread dédié à notre traitement
-		 * ajout d'un message d'info au logger pour la création du serverOutPW
-		 * et d'un warning si celui ci a des erreurs après l'envoi du nom au
-		 * serveur.
+		 * Création de la session et connexion au serveur host/port
 		 */
-		if (serverOut != null)
+		session = new ClientSession(engine,
+		                            host,
+		                            port,
+		                            userName,
+		                            outbound,
+		                            userOutput,
+		                            lastSequence,
+		                            logger);
+		try
 		{
-			serverOutPW = new PrintWriter(serverOut, true);
-			logger.info("ChatClient: sending name to server ... ");
-
-			serverOutPW.println(userName);
-			if (serverOutPW.checkError())
-			{
-				logger.warning("ChatClient: serverOutPw has errors");
-			}
+			session.connect();
+			logger.info("ChatClient: socket created");
 		}
-
-		/*
-		 * Obtention du flux d'entrée depuis le serveur (serverIn) à partir
-		 * de la clientSocket.
-		 * Si une IOException
-		 * 	- ajout d'un "severe" au logger avec Failure.CLIENT_INPUT_STREAM
-		 * 	- System.exit(...);
-		 */
-		serverIn = null;
-		try
+		catch (UnknownHostException e)
 		{
-			serverIn = clientSocket.getInputStream();
-			// throw new IOException(); // Remove this line when serverIn is obtained
+			logger.severe("ChatClient: " + Failure.UNKNOWN_HOST + ": " + host);
+			logger.severe(e.getLocalizedMessage());
+			System.exit(Failure.UNKNOWN_HOST.toInteger());
 		}
 		catch (IOException e)
 		{
-			logger.severe("ChatClient: " + Failure.CLIENT_INPUT_STREAM);
+			logger.severe("ChatClient: " + Failure.CLIENT_CONNECTION
+					+ " to: \"" + host + "\" at port \"" + port + "\"");
 			logger.severe(e.getLocalizedMessage());
-			System.exit(Failure.CLIENT_INPUT_STREAM.toInteger());
+			System.exit(Failure.CLIENT_CONNECTION.toInteger());
 		}
+		engine.add(session);
 
-		// obtention des flux de l'utilisateur
-		userIn = in;
-		userOut = out;
-
-		// Etat d'exécution commun
-		if (commonRun == null)
-		{
-			this.commonRun = new Boolean(true);
-		}
-		else
-		{
-			this.commonRun = commonRun;
-		}
+		ready = true;
+	}
 
-		// Création du user handler
-		userHandler = new UserHandler(userIn,
-		                              serverOut,
-		                              this.commonRun,
-		                              logger);
+	/**
+	 * Mise en place de la politique de reconnexion
+	 * @param retries nombre maximum de tentatives de reconnexion (0 pour ne
+	 * jamais se reconnecter)
+	 * @param retryDelay délai (en ms) avant la première tentative
+	 * @param maxRetryDelay délai (en ms) maximum entre deux tentatives
+	 */
+	public void setReconnectPolicy(int retries,
+	                               long retryDelay,
+	                               long maxRetryDelay)
+	{
+		session.setReconnectPolicy(retries, retryDelay, maxRetryDelay);
+	}
 
-		// création du server handler
-		serverHandler = new ServerHandler(userName,
-		                                  serverIn,
-		                                  userOut,
-		                                  outType,
-		                                  this.commonRun,
-		                                  logger);
+	/**
+	 * Choix du mode de vidage des messages que le serveur nous écrit (voir
+	 * {@link chat.Vocabulary#flushOption})
+	 * @param mode immediate, idle ou latency[:&lt;ms&gt;] ou bien null pour
+	 * le mode par défaut du serveur
+	 */
+	public void setFlushMode(String mode)
+	{
+		session.setFlushMode(mode);
+	}
 
-		ready = true;
+	/**
+	 * Demande de regroupement des messages que le serveur nous écrit en
+	 * trames de lot (voir {@link chat.Vocabulary#batchOption})
+	 * @param window la fenêtre (en ms) de regroupement, 0 pour celle du
+	 * serveur ou bien une valeur négative pour ne pas en demander
+	 */
+	public void setBatchWindow(long window)
+	{
+		session.setBatchWindow(window);
 	}
 
 	/**
@@ -275,78 +367,30 @@ public class ChatClient implements Runnable
 	public void run()
 	{
 		/*
-		 * Tant que ce que l'on lit depuis l'utilisateur n'est pas null (avec un
-		 * ctrl-D par exemple), on envoie ce que l'on a lu au serveur et on
-		 * attends que celui ci nous réponde pour afficher ce qu'il nous envoie.
-		 * On a donc deux boucles d'attente : d'une part l'utilisateur, d'autre
-		 * part le serveur. Chaque boucle est donc traitée dans son propre
-		 * thread UserHandler traite les entrées de l'utilisateur ServerHandler
-		 * traite les entrées du serveur et on attends la fin des deux threads
-		 * pour terminer le client Les deux threads partagent une variable
-		 * "commonRun" lorsque l'un des deux threads se termine il met cette
-		 * vatiable à false. A chaque tour de boucle de chacun des threads ils
-		 * consultent (de manière atomique) cette variable afin de savoir s'ils
-		 * peuvent continuer
+		 * Le moteur est exécuté dans le thread courant et se termine avec la
+		 * session : lorsque l'utilisateur se déloge, est kické, ferme sa
+		 * file (ou son flux d'entrée) ou que la connexion ne peut être
+		 * rétablie. Seule la lecture de la console nécessite un thread
+		 * supplémentaire (qui ne retient pas la fin du programme).
 		 */
-
-		Thread[] threads = new Thread[2];
-
-		// Création du thread du UserHandler
-		threads[0] = new Thread(userHandler);
-
-		// Création du thread du ServerHandler
-		threads[1] = new Thread(serverHandler);
-
-		// Lancement des threads
-		for (int i = 0; i < threads.length; i++)
+		if (userReader != null)
 		{
-			threads[i].start();
+			Thread userThread = new Thread(userReader, "user input");
+			userThread.setDaemon(true);
+			userThread.start();
 		}
 
-		// Attente de la fin des 2 threads
-		for (int i = 0; i < threads.length; i++)
-		{
-			try
-			{
-				threads[i].join();
-			}
-			catch (InterruptedException e)
-			{
-				logger.warning("Join thread " + i + " interrupted");
-			}
-		}
-
-		logger.info("ChatClient: All threads terminated");
+		engine.run();
 
-		cleanup();
+		logger.info("ChatClient: session terminated");
 	}
 
 	/**
-	 * Nettoyage du client : fermeture des flux d'entrée/sortie et fermeture de
-	 * la socket
+	 * Nettoyage du client : fermeture de la session (et donc de la socket
+	 * et des flux vers l'utilisateur) par le moteur
 	 */
 	public void cleanup()
 	{
-		// Cleanup du #userHandler
-		userHandler.cleanup();
-
-		// Cleanup du #serverHandler
-		serverHandler.cleanup();
-
-		// fermeture du flux temporaire de sortie vers le serveur
-		logger.info("ChatClient: closing server output stream ... ");
-		serverOutPW.close();
-
-		// fermeture de la socket
-		logger.info("ChatClient: closing client socket ... ");
-		try
-		{
-			clientSocket.close();
-		}
-		catch (IOException e)
-		{
-			logger.severe("ChatClient: closing client socket failed");
-			logger.severe(e.getLocalizedMessage());
-		}
+		engine.shutdown();
 	}
 }
@@ -0,0 +1,304 @@
+package chat.client;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Logger;
+
+import logger.LoggerFactory;
+
+/**
+ * Moteur d'exécution des {@link ClientSession} d'un ou plusieurs clients de
+ * chat. Un seul thread (celui qui exécute {@link #run()}) multiplexe avec un
+ * {@link Selector} les entrées/sorties de toutes les sessions :
+ * <ul>
+ * 	<li>les messages reçus des serveurs</li>
+ * 	<li>les lignes des utilisateurs, signalées par leur
+ * 	{@link OutboundQueue} qui réveille le sélecteur</li>
+ * 	<li>les échéances des sessions (tentatives de reconnexion par
+ * 	exemple)</li>
+ * </ul>
+ * Une même JVM peut ainsi exécuter de nombreuses sessions sans leur dédier
+ * de threads. Les sessions sont ajoutées avec {@link #add(ClientSession)}
+ * depuis n'importe quel thread et le moteur s'arrête lorsque sa dernière
+ * session est terminée (voir {@link #setStopWhenIdle(boolean)}) ou bien à
+ * l'appel de {@link #shutdown()} qui ferme toutes les sessions.
+ * @author davidroussel
+ */
+public class ClientEngine implements Runnable
+{
+	/**
+	 * Le sélecteur multiplexant les connexions des sessions
+	 */
+	private final Selector selector;
+
+	/**
+	 * Les sessions ajoutées mais pas encore démarrées par le moteur
+	 */
+	private final Queue<ClientSession> added;
+
+	/**
+	 * Les sessions dont la file a changé depuis le dernier tour de boucle
+	 */
+	private final Queue<ClientSession> signalled;
+
+	/**
+	 * Les sessions en cours d'exécution (utilisé uniquement par le thread
+	 * du moteur)
+	 */
+	private final Set<ClientSession> sessions;
+
+	/**
+	 * Les sessions ayant une échéance programmée (utilisé uniquement par le
+	 * thread du moteur)
+	 */
+	private final List<ClientSession> timed;
+
+	/**
+	 * Nombre de sessions ajoutées et pas encore terminées
+	 */
+	private volatile int sessionCount;
+
+	/**
+	 * Indique si le moteur s'arrête lorsqu'il n'a plus de sessions
+	 */
+	private volatile boolean stopWhenIdle;
+
+	/**
+	 * Indique qu'un arrêt du moteur a été demandé
+	 */
+	private volatile boolean stopped;
+
+	/**
+	 * Logger utilisé pour afficher (ou pas) les messages d'erreurs
+	 */
+	private Logger logger;
+
+	/**
+	 * Constructeur d'un moteur
+	 * @param parentLogger logger parent pour affichage des messages de debug
+	 * @throws IOException si le sélecteur ne peut être créé
+	 */
+	public ClientEngine(Logger parentLogger) throws IOException
+	{
+		logger = LoggerFactory.getParentLogger(getClass(),
+		                                       parentLogger,
+		                                       parentLogger.getLevel());
+		selector = Selector.open();
+		added = new ConcurrentLinkedQueue<ClientSession>();
+		signalled = new ConcurrentLinkedQueue<ClientSession>();
+		sessions = new LinkedHashSet<ClientSession>();
+		timed = new ArrayList<ClientSession>();
+		sessionCount = 0;
+		stopWhenIdle = true;
+		stopped = false;
+	}
+
+	/**
+	 * Mise en place de l'arrêt automatique du moteur
+	 * @param stopWhenIdle true si le moteur doit s'arrêter lorsque sa
+	 * dernière session est terminée, false s'il doit attendre de nouvelles
+	 * sessions jusqu'à l'appel de {@link #shutdown()}
+	 */
+	public void setStopWhenIdle(boolean stopWhenIdle)
+	{
+		this.stopWhenIdle = stopWhenIdle;
+		selector.wakeup();
+	}
+
+	/**
+	 * Ajout d'une session au moteur (depuis n'importe quel thread)
+	 * @param session la session à ajouter
+	 */
+	public void add(ClientSession session)
+	{
+		synchronized (added)
+		{
+			sessionCount++;
+			added.add(session);
+		}
+		selector.wakeup();
+	}
+
+	/**
+	 * Nombre de sessions ajoutées et pas encore terminées
+	 * @return le nombre de sessions en cours
+	 */
+	public int getSessionCount()
+	{
+		return sessionCount;
+	}
+
+	/**
+	 * Demande d'arrêt du moteur : toutes les sessions sont fermées par le
+	 * thread du moteur avant la fin de {@link #run()}
+	 */
+	public void shutdown()
+	{
+		stopped = true;
+		selector.wakeup();
+	}
+
+	/**
+	 * Signalement d'une session dont la file a changé (depuis n'importe quel
+	 * thread) : le moteur enverra ses nouvelles lignes au prochain tour de
+	 * boucle
+	 * @param session la session à traiter
+	 */
+	void signal(ClientSession session)
+	{
+		if (session.signalled.compareAndSet(false, true))
+		{
+			signalled.add(session);
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Prise en compte de l'échéance d'une session (thread du moteur)
+	 * @param session la session ayant une nouvelle échéance
+	 */
+	void schedule(ClientSession session)
+	{
+		if (!timed.contains(session))
+		{
+			timed.add(session);
+		}
+	}
+
+	/**
+	 * Fin d'une session (thread du moteur)
+	 * @param session la session terminée
+	 */
+	void closed(ClientSession session)
+	{
+		if (sessions.remove(session))
+		{
+			synchronized (added)
+			{
+				sessionCount--;
+			}
+		}
+		timed.remove(session);
+	}
+
+	/**
+	 * Accesseur en lecture du sélecteur du moteur (thread du moteur)
+	 * @return le sélecteur du moteur
+	 */
+	Selector getSelector()
+	{
+		return selector;
+	}
+
+	/**
+	 * Exécution du moteur : boucle de sélection jusqu'à l'arrêt du moteur
+	 * ou la fin de la dernière session
+	 *
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run()
+	{
+		logger.info("ClientEngine: started");
+		while (!stopped)
+		{
+			// démarrage des sessions ajoutées
+			ClientSession session;
+			while ((session = added.poll()) != null)
+			{
+				sessions.add(session);
+				session.start(selector);
+			}
+
+			// envoi des lignes des sessions signalées
+			while ((session = signalled.poll()) != null)
+			{
+				session.signalled.set(false);
+				session.pump();
+			}
+
+			// échéances des sessions
+			long timeout = expire(System.currentTimeMillis());
+
+			if (stopWhenIdle && (sessionCount == 0))
+			{
+				break;
+			}
+
+			try
+			{
+				selector.select(timeout);
+			}
+			catch (IOException e)
+			{
+				logger.severe("ClientEngine: select failed: "
+				    + e.getLocalizedMessage());
+				break;
+			}
+
+			Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+			while (it.hasNext())
+			{
+				SelectionKey key = it.next();
+				it.remove();
+				((ClientSession) key.attachment()).ready(key);
+			}
+		}
+
+		logger.info("ClientEngine: closing " + sessions.size()
+		    + " sessions ... ");
+		ClientSession session;
+		while ((session = added.poll()) != null)
+		{
+			sessions.add(session);
+		}
+		for (ClientSession s : new ArrayList<ClientSession>(sessions))
+		{
+			s.close();
+		}
+
+		try
+		{
+			selector.close();
+		}
+		catch (IOException e)
+		{
+			logger.severe("ClientEngine: closing selector failed: "
+			    + e.getLocalizedMessage());
+		}
+		logger.info("ClientEngine: terminated");
+	}
+
+	/**
+	 * Traitement des échéances atteintes
+	 * @param now la date courante (en ms)
+	 * @return le délai (en ms) jusqu'à la prochaine échéance ou bien 0 s'il
+	 * n'y a aucune échéance
+	 */
+	private long expire(long now)
+	{
+		long next = 0;
+		for (ClientSession session : new ArrayList<ClientSession>(timed))
+		{
+			session.expire(now);
+			long deadline = session.getDeadline();
+			if (deadline == 0)
+			{
+				timed.remove(session);
+			}
+			else if ((next == 0) || (deadline < next))
+			{
+				next = deadline;
+			}
+		}
+		return (next == 0 ? 0 : Math.max(next - now, 1));
+	}
+}
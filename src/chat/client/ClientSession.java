@@ -0,0 +1,1115 @@
+package chat.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import chat.Handshake;
+import chat.MessageCodec;
+import chat.Vocabulary;
+import logger.LoggerFactory;
+import metrics.HopLatencies;
+import models.Message;
+import models.MessagePage;
+import models.MessageTrace;
+
+/**
+ * Session d'un utilisateur avec le serveur de chat exécutée par un
+ * {@link ClientEngine}.
+ * Une session envoie au serveur les lignes de sa file {@link OutboundQueue}
+ * et transmet à son {@link Listener} les messages reçus du serveur (sous
+ * forme de trames {@link MessageCodec} demandées lors de la connexion,
+ * éventuellement regroupées en trames de lot).
+ * Toutes les entrées/sorties sont non bloquantes et réalisées par le thread
+ * du moteur : une session n'a donc besoin d'aucun thread propre. Les lignes
+ * en attente sont écrites ensemble sur la socket (une seule écriture
+ * regroupée) et l'algorithme de Nagle est désactivé puisque les lignes sont
+ * déjà regroupées.
+ * Lorsque la connexion avec le serveur est perdue, la session tente de se
+ * reconnecter avec un délai exponentiel (et aléatoire) entre chaque
+ * tentative en demandant au serveur les messages diffusés après le dernier
+ * numéro de séquence reçu. La session se termine lorsque l'utilisateur
+ * s'est délogué, a été kické, que sa file est fermée ou que les tentatives
+ * de reconnexion ont échoué : son listener en est alors prévenu et sa file
+ * est fermée.
+ * @author davidroussel
+ */
+public class ClientSession
+{
+	/**
+	 * Destinataire des messages reçus par une session
+	 */
+	public interface Listener
+	{
+		/**
+		 * Réception d'un nouveau message diffusé par le serveur (les messages
+		 * déjà reçus avant une reconnexion ne sont pas transmis une seconde
+		 * fois)
+		 * @param session la session ayant reçu le message
+		 * @param message le message reçu
+		 * @throws IOException si le message ne peut pas être transmis à
+		 * l'utilisateur : la session est alors terminée
+		 */
+		void messageReceived(ClientSession session, Message message)
+		    throws IOException;
+
+		/**
+		 * Réception d'une page d'historique demandée par l'utilisateur
+		 * @param session la session ayant reçu la page
+		 * @param page la page reçue
+		 * @throws IOException si la page ne peut pas être transmise à
+		 * l'utilisateur : la session est alors terminée
+		 */
+		void pageReceived(ClientSession session, MessagePage page)
+		    throws IOException;
+
+		/**
+		 * Fin de la session
+		 * @param session la session terminée
+		 */
+		void sessionClosed(ClientSession session);
+	}
+
+	/**
+	 * États d'une session
+	 */
+	private enum State
+	{
+		/**
+		 * Session créée mais pas encore connectée
+		 */
+		CREATED,
+		/**
+		 * Connexion non bloquante en cours
+		 */
+		CONNECTING,
+		/**
+		 * Session connectée au serveur
+		 */
+		CONNECTED,
+		/**
+		 * Attente de la prochaine tentative de reconnexion
+		 */
+		WAITING,
+		/**
+		 * Session terminée
+		 */
+		CLOSED
+	}
+
+	/**
+	 * Ligne en attente d'écriture sur la socket
+	 */
+	private static class PendingWrite
+	{
+		/**
+		 * Les octets restant à écrire
+		 */
+		final ByteBuffer buffer;
+
+		/**
+		 * La ligne de la file correspondante (ou null pour la ligne de
+		 * connexion)
+		 */
+		final String line;
+
+		/**
+		 * Constructeur d'une ligne en attente d'écriture
+		 * @param buffer les octets à écrire
+		 * @param line la ligne de la file correspondante (ou null)
+		 */
+		PendingWrite(ByteBuffer buffer, String line)
+		{
+			this.buffer = buffer;
+			this.line = line;
+		}
+	}
+
+	/**
+	 * Taille initiale du tampon de lecture
+	 */
+	private final static int READBUFFERSIZE = 8192;
+
+	/**
+	 * Nombre maximum de lignes retirées de la file mais pas encore écrites
+	 * sur la socket : au delà les lignes restent dans la file (et la file
+	 * finit par refuser les nouvelles lignes lorsque la connexion est
+	 * saturée)
+	 */
+	private final static int MAXPENDINGWRITES = 16;
+
+	/**
+	 * Délai (en ms) laissé au serveur pour fermer la connexion après la
+	 * commande {@link Vocabulary#byeCmd}
+	 */
+	private final static long BYETIMEOUT = 2000;
+
+	/**
+	 * Le moteur exécutant la session
+	 */
+	private final ClientEngine engine;
+
+	/**
+	 * L'adresse du serveur
+	 */
+	private final String host;
+
+	/**
+	 * Le port utilisé pour communiquer avec le serveur
+	 */
+	private final int port;
+
+	/**
+	 * Nom d'utilisateur utilisé pour se connecter
+	 */
+	private final String userName;
+
+	/**
+	 * File des lignes à envoyer au serveur
+	 */
+	private final OutboundQueue outbound;
+
+	/**
+	 * Destinataire des messages reçus
+	 */
+	private final Listener listener;
+
+	/**
+	 * Nombre maximum de tentatives de reconnexion (0 pour ne jamais se
+	 * reconnecter)
+	 */
+	private int retries;
+
+	/**
+	 * Délai (en ms) avant la première tentative de reconnexion. Ce délai est
+	 * doublé à chaque nouvelle tentative.
+	 */
+	private long retryDelay;
+
+	/**
+	 * Délai (en ms) maximum entre deux tentatives de reconnexion
+	 */
+	private long maxRetryDelay;
+
+	/**
+	 * Numéro de la tentative de reconnexion en cours (0 si connecté)
+	 */
+	private int attempt;
+
+	/**
+	 * Délai (en ms) avant la prochaine tentative de reconnexion
+	 */
+	private long delay;
+
+	/**
+	 * Date (en ms) de la prochaine échéance de la session (tentative de
+	 * reconnexion ou fin d'attente après {@link Vocabulary#byeCmd}) ou 0
+	 */
+	private long deadline;
+
+	/**
+	 * État de la session
+	 */
+	private State state;
+
+	/**
+	 * Canal de la connexion courante avec le serveur
+	 */
+	private SocketChannel channel;
+
+	/**
+	 * Clé d'enregistrement du {@link #channel} auprès du sélecteur du moteur
+	 */
+	private SelectionKey key;
+
+	/**
+	 * Tampon (en écriture) des octets reçus du serveur
+	 */
+	private ByteBuffer readBuffer;
+
+	/**
+	 * Les lignes à écrire sur la socket
+	 */
+	private final ArrayDeque<PendingWrite> writes;
+
+	/**
+	 * Indique que la session a été signalée au moteur (nouvelles lignes
+	 * dans la file) et n'a pas encore été traitée
+	 */
+	final AtomicBoolean signalled;
+
+	/**
+	 * Numéro de séquence du dernier message reçu du serveur. Utilisé lors
+	 * d'une reconnexion pour ne demander au serveur que les messages suivants.
+	 */
+	private volatile long lastSequence;
+
+	/**
+	 * Indique que l'utilisateur a envoyé la commande {@link Vocabulary#byeCmd}
+	 */
+	private volatile boolean loggedOut;
+
+	/**
+	 * Indique que le serveur a diffusé notre bannissement : il ne faut
+	 * alors pas chercher à se reconnecter
+	 */
+	private volatile boolean kicked;
+
+	/**
+	 * Indique que le serveur a refusé notre nom lors de la première
+	 * connexion (un autre client l'utilise) : il ne faut alors pas chercher
+	 * à se reconnecter
+	 */
+	private volatile boolean refused;
+
+	/**
+	 * Numéro de la tentative de reconnexion ayant établi la connexion
+	 * courante (0 pour la première connexion). Il est rétabli si le serveur
+	 * refuse notre nom lors d'une reconnexion, afin de ne pas recommencer
+	 * indéfiniment les tentatives.
+	 */
+	private int connectedAttempt;
+
+	/**
+	 * Délai qui aurait précédé la tentative suivant celle ayant établi la
+	 * connexion courante (rétabli avec {@link #connectedAttempt})
+	 */
+	private long connectedDelay;
+
+	/**
+	 * Indique que la file est terminée : la session se termine dès que les
+	 * lignes déjà retirées de la file ont été écrites
+	 */
+	private boolean draining;
+
+	/**
+	 * Latences des messages tracés reçus (ou null si la session ne demande
+	 * pas le traçage de ses messages)
+	 */
+	private HopLatencies trace;
+
+	/**
+	 * Mode de vidage des messages demandé au serveur (voir
+	 * {@link Vocabulary#flushOption}) ou null pour celui du serveur
+	 */
+	private String flushMode;
+
+	/**
+	 * Fenêtre (en ms) de regroupement des messages en trames de lot demandée
+	 * au serveur (voir {@link Vocabulary#batchOption}) : 0 pour la fenêtre
+	 * du serveur, négative pour ne pas demander de trames de lot
+	 */
+	private long batchWindow;
+
+	/**
+	 * Logger utilisé pour afficher (ou pas) les messages d'erreurs
+	 */
+	private Logger logger;
+
+	/**
+	 * Constructeur d'une session
+	 * @param engine le moteur exécutant la session
+	 * @param host l'adresse du serveur
+	 * @param port le port à utiliser pour communiquer avec le serveur
+	 * @param name le nom d'utilisateur utilisé
+	 * @param outbound la file des lignes à envoyer au serveur
+	 * @param listener le destinataire des messages reçus
+	 * @param lastSequence le numéro de séquence du dernier message déjà
+	 * connu : seuls les messages suivants seront demandés au serveur (ou
+	 * bien {@link Message#NO_SEQUENCE} pour ne recevoir que les nouveaux
+	 * messages)
+	 * @param parentLogger logger parent pour affichage des messages de debug
+	 */
+	public ClientSession(ClientEngine engine,
+	                     String host,
+	                     int port,
+	                     String name,
+	                     OutboundQueue outbound,
+	                     Listener listener,
+	                     long lastSequence,
+	                     Logger parentLogger)
+	{
+		logger = LoggerFactory.getParentLogger(getClass(),
+		                                       parentLogger,
+		                                       parentLogger.getLevel());
+		this.engine = engine;
+		this.host = host;
+		this.port = port;
+		userName = name;
+		this.outbound = outbound;
+		this.listener = listener;
+		this.lastSequence = lastSequence;
+		retries = ChatClient.DEFAULTRETRIES;
+		retryDelay = ChatClient.DEFAULTRETRYDELAY;
+		maxRetryDelay = ChatClient.DEFAULTMAXRETRYDELAY;
+		attempt = 0;
+		delay = retryDelay;
+		deadline = 0;
+		state = State.CREATED;
+		channel = null;
+		key = null;
+		readBuffer = ByteBuffer.allocate(READBUFFERSIZE);
+		writes = new ArrayDeque<PendingWrite>();
+		signalled = new AtomicBoolean(false);
+		loggedOut = false;
+		kicked = false;
+		refused = false;
+		connectedAttempt = 0;
+		connectedDelay = 0;
+		draining = false;
+		flushMode = null;
+		batchWindow = -1;
+
+		final ClientSession session = this;
+		outbound.addListener(new OutboundQueue.Listener()
+		{
+			@Override
+			public void outboundChanged(int pending, int failed)
+			{
+				engine.signal(session);
+			}
+		});
+	}
+
+	/**
+	 * Mise en place de la politique de reconnexion
+	 * @param retries nombre maximum de tentatives de reconnexion (0 pour ne
+	 * jamais se reconnecter)
+	 * @param retryDelay délai (en ms) avant la première tentative
+	 * @param maxRetryDelay délai (en ms) maximum entre deux tentatives
+	 */
+	public void setReconnectPolicy(int retries,
+	                               long retryDelay,
+	                               long maxRetryDelay)
+	{
+		this.retries = Math.max(retries, 0);
+		this.retryDelay = Math.max(retryDelay, 1);
+		this.maxRetryDelay = Math.max(maxRetryDelay, this.retryDelay);
+		delay = this.retryDelay;
+	}
+
+	/**
+	 * Demande du traçage des messages (voir {@link Vocabulary#traceOption})
+	 * lors des prochaines connexions : les lignes envoyées sont datées et
+	 * les latences de chaque étape des messages reçus sont enregistrées
+	 * @param latencies les histogrammes dans lesquels enregistrer les
+	 * latences (evt partagés par plusieurs sessions) ou null pour ne pas
+	 * tracer les messages
+	 */
+	public void setTrace(HopLatencies latencies)
+	{
+		trace = latencies;
+	}
+
+	/**
+	 * Choix du mode de vidage des messages que le serveur nous écrit lors
+	 * des prochaines connexions (voir {@link Vocabulary#flushOption})
+	 * @param mode immediate, idle ou latency[:&lt;ms&gt;] ou bien null pour
+	 * le mode par défaut du serveur
+	 */
+	public void setFlushMode(String mode)
+	{
+		flushMode = mode;
+	}
+
+	/**
+	 * Demande de regroupement des messages en trames de lot lors des
+	 * prochaines connexions (voir {@link Vocabulary#batchOption})
+	 * @param window la fenêtre (en ms) de regroupement des messages, 0 pour
+	 * celle du serveur ou bien une valeur négative pour ne pas demander de
+	 * trames de lot
+	 */
+	public void setBatchWindow(long window)
+	{
+		batchWindow = window;
+	}
+
+	/**
+	 * Connexion (bloquante) au serveur avant l'ajout de la session au
+	 * moteur : permet de signaler immédiatement un serveur injoignable.
+	 * @throws UnknownHostException si l'hôte est inconnu
+	 * @throws IOException si la connexion échoue
+	 */
+	public void connect() throws UnknownHostException, IOException
+	{
+		InetSocketAddress address = new InetSocketAddress(host, port);
+		if (address.isUnresolved())
+		{
+			throw new UnknownHostException(host);
+		}
+		channel = SocketChannel.open(address);
+		channel.configureBlocking(false);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		logger.info("ClientSession: connected to " + host + ":" + port);
+	}
+
+	/**
+	 * Accesseur en lecture du nom d'utilisateur
+	 * @return le nom d'utilisateur de la session
+	 */
+	public String getUserName()
+	{
+		return userName;
+	}
+
+	/**
+	 * Accesseur en lecture de la file des lignes à envoyer au serveur
+	 * @return la file des lignes à envoyer
+	 */
+	public OutboundQueue getOutbound()
+	{
+		return outbound;
+	}
+
+	/**
+	 * Accesseur en lecture du numéro de séquence du dernier message reçu
+	 * @return le numéro de séquence du dernier message reçu ou bien
+	 * {@link Message#NO_SEQUENCE} si aucun message n'a été reçu
+	 */
+	public long getLastSequence()
+	{
+		return lastSequence;
+	}
+
+	/**
+	 * Indique si l'utilisateur s'est délogué
+	 * @return true si l'utilisateur a envoyé la commande
+	 * {@link Vocabulary#byeCmd}
+	 */
+	public boolean isLoggedOut()
+	{
+		return loggedOut;
+	}
+
+	/**
+	 * Indique si le serveur a diffusé notre bannissement
+	 * @return true si nous avons été kickés du serveur
+	 */
+	public boolean isKicked()
+	{
+		return kicked;
+	}
+
+	/**
+	 * Démarrage de la session par le moteur : enregistrement de la
+	 * connexion déjà établie par {@link #connect()} ou bien début d'une
+	 * connexion non bloquante
+	 * @param selector le sélecteur du moteur
+	 */
+	void start(Selector selector)
+	{
+		if (state != State.CREATED)
+		{
+			return;
+		}
+		if (channel != null)
+		{
+			connected(selector);
+		}
+		else
+		{
+			startConnect(selector);
+		}
+	}
+
+	/**
+	 * Traitement des opérations prêtes sur la connexion (appelé par le
+	 * moteur)
+	 * @param readyKey la clé sélectionnée
+	 */
+	void ready(SelectionKey readyKey)
+	{
+		if ((readyKey != key) || !key.isValid())
+		{
+			return;
+		}
+		if (key.isConnectable())
+		{
+			finishConnect();
+			return;
+		}
+		if (key.isReadable())
+		{
+			read();
+		}
+		if ((state == State.CONNECTED) && key.isValid() && key.isWritable())
+		{
+			flush();
+		}
+	}
+
+	/**
+	 * Envoi des nouvelles lignes de la file (appelé par le moteur après le
+	 * signalement de la session)
+	 */
+	void pump()
+	{
+		if ((state != State.CONNECTED) || loggedOut || draining)
+		{
+			return;
+		}
+
+		while (writes.size() < MAXPENDINGWRITES)
+		{
+			String line = outbound.poll();
+			if (line == null)
+			{
+				if (outbound.isFinished())
+				{
+					logger.info("ClientSession: outbound queue finished");
+					draining = true;
+				}
+				break;
+			}
+
+			enqueue(line, line);
+
+			/*
+			 * Si la commande Vocabulary.byeCmd a été tapée par
+			 * l'utilisateur, on attend que le serveur ferme la connexion
+			 */
+			if (line.equals(Vocabulary.byeCmd))
+			{
+				loggedOut = true;
+				schedule(System.currentTimeMillis() + BYETIMEOUT);
+				break;
+			}
+		}
+		flush();
+	}
+
+	/**
+	 * Traitement de l'échéance de la session (appelé par le moteur)
+	 * @param now la date courante (en ms)
+	 */
+	void expire(long now)
+	{
+		if ((deadline == 0) || (now < deadline))
+		{
+			return;
+		}
+		deadline = 0;
+		if (state == State.WAITING)
+		{
+			startConnect(engine.getSelector());
+		}
+		else if (loggedOut)
+		{
+			logger.info("ClientSession: server did not close connection after "
+			    + Vocabulary.byeCmd);
+			close();
+		}
+	}
+
+	/**
+	 * Date de la prochaine échéance de la session
+	 * @return la date (en ms) de la prochaine échéance ou bien 0
+	 */
+	long getDeadline()
+	{
+		return deadline;
+	}
+
+	/**
+	 * Indique si la session est terminée
+	 * @return true si la session est terminée
+	 */
+	public boolean isClosed()
+	{
+		return state == State.CLOSED;
+	}
+
+	/**
+	 * Fin de la session : fermeture de la connexion et de la file, puis
+	 * notification du listener (appelé par le moteur)
+	 */
+	void close()
+	{
+		if (state == State.CLOSED)
+		{
+			return;
+		}
+		logger.info("ClientSession: closing session of " + userName);
+		closeChannel();
+		state = State.CLOSED;
+		deadline = 0;
+		outbound.close();
+		listener.sessionClosed(this);
+		engine.closed(this);
+	}
+
+	/**
+	 * Début d'une connexion non bloquante au serveur
+	 * @param selector le sélecteur du moteur
+	 */
+	private void startConnect(Selector selector)
+	{
+		try
+		{
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			state = State.CONNECTING;
+			if (channel.connect(new InetSocketAddress(host, port)))
+			{
+				connected(selector);
+			}
+			else
+			{
+				key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+			}
+		}
+		catch (IOException | RuntimeException e)
+		{
+			connectionFailed(e);
+		}
+	}
+
+	/**
+	 * Fin d'une connexion non bloquante au serveur
+	 */
+	private void finishConnect()
+	{
+		try
+		{
+			if (channel.finishConnect())
+			{
+				connected(engine.getSelector());
+			}
+		}
+		catch (IOException e)
+		{
+			connectionFailed(e);
+		}
+	}
+
+	/**
+	 * Mise en place d'une connexion établie : envoi de notre ligne de
+	 * connexion (nom d'utilisateur, codage des messages et éventuellement
+	 * numéro de séquence à partir duquel reprendre) puis envoi des lignes en
+	 * attente dans la file
+	 * @param selector le sélecteur du moteur
+	 */
+	private void connected(Selector selector)
+	{
+		boolean reconnection = (attempt > 0);
+		Handshake handshake = new Handshake(userName);
+		handshake.with(Vocabulary.codecOption, MessageCodec.NAME);
+		if (trace != null)
+		{
+			handshake.with(Vocabulary.traceOption, null);
+		}
+		if (flushMode != null)
+		{
+			handshake.with(Vocabulary.flushOption, flushMode);
+		}
+		if (batchWindow >= 0)
+		{
+			handshake.with(Vocabulary.batchOption,
+			               (batchWindow > 0 ? Long.toString(batchWindow) :
+			                                  null));
+		}
+		// sans message reçu, il n'y a rien à reprendre (resume 0 ferait
+		// renvoyer tout l'historique du serveur)
+		if (lastSequence != Message.NO_SEQUENCE)
+		{
+			handshake.with(Vocabulary.resumeOption,
+			               Long.toString(lastSequence));
+		}
+
+		try
+		{
+			if ((key == null) || !key.isValid())
+			{
+				key = channel.register(selector, SelectionKey.OP_READ, this);
+			}
+			else
+			{
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		}
+		catch (IOException e)
+		{
+			connectionFailed(e);
+			return;
+		}
+
+		state = State.CONNECTED;
+		readBuffer.clear();
+		enqueue(handshake.toString(), null);
+		if (reconnection)
+		{
+			logger.info("ClientSession: reconnected to " + host + ":" + port
+			    + " after message " + lastSequence);
+		}
+		connectedAttempt = attempt;
+		connectedDelay = delay;
+		attempt = 0;
+		delay = retryDelay;
+		pump();
+	}
+
+	/**
+	 * Ajout d'une ligne à écrire sur la socket (précédée de sa date d'envoi
+	 * si les messages sont tracés)
+	 * @param text la ligne à écrire
+	 * @param line la ligne de la file correspondante (ou null pour la ligne
+	 * de connexion)
+	 */
+	private void enqueue(String text, String line)
+	{
+		if ((trace != null) && (line != null))
+		{
+			text = Long.toString(MessageTrace.now()) + Vocabulary.handshakeSeparator
+			    + text;
+		}
+		writes.addLast(new PendingWrite(
+		    ByteBuffer.wrap((text + "\n").getBytes(Charset.defaultCharset())),
+		    line));
+	}
+
+	/**
+	 * Écriture (non bloquante) des lignes en attente sur la socket : toutes
+	 * les lignes sont écrites en un seul appel système
+	 */
+	private void flush()
+	{
+		if (state != State.CONNECTED)
+		{
+			return;
+		}
+
+		boolean pulled = false;
+		try
+		{
+			if (writes.size() > 1)
+			{
+				ByteBuffer[] buffers = new ByteBuffer[writes.size()];
+				int i = 0;
+				for (PendingWrite write : writes)
+				{
+					buffers[i++] = write.buffer;
+				}
+				channel.write(buffers);
+			}
+			else if (!writes.isEmpty())
+			{
+				channel.write(writes.peekFirst().buffer);
+			}
+			while (!writes.isEmpty())
+			{
+				PendingWrite write = writes.peekFirst();
+				if (write.buffer.hasRemaining())
+				{
+					break;
+				}
+				writes.removeFirst();
+				if (write.line != null)
+				{
+					outbound.sent();
+					pulled = true;
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			logger.warning("ClientSession: write to server failed: "
+			    + e.getLocalizedMessage());
+			connectionLost();
+			return;
+		}
+
+		key.interestOps(SelectionKey.OP_READ
+		    | (writes.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+
+		if (writes.isEmpty() && draining)
+		{
+			close();
+		}
+		else if (pulled && !loggedOut && !draining)
+		{
+			// de la place s'est libérée pour les lignes suivantes
+			engine.signal(this);
+		}
+	}
+
+	/**
+	 * Lecture (non bloquante) des octets reçus du serveur puis décodage et
+	 * transmission des trames complètes
+	 */
+	private void read()
+	{
+		int count;
+		try
+		{
+			count = channel.read(readBuffer);
+		}
+		catch (IOException e)
+		{
+			logger.warning("ClientSession: read from server failed: "
+			    + e.getLocalizedMessage());
+			connectionLost();
+			return;
+		}
+		if (count < 0)
+		{
+			logger.info("ClientSession: server closed connection");
+			connectionLost();
+			return;
+		}
+
+		readBuffer.flip();
+		try
+		{
+			Object object;
+			while ((state == State.CONNECTED)
+			    && (object = MessageCodec.decode(readBuffer)) != null)
+			{
+				if (object instanceof List<?>)
+				{
+					// trame de lot : les trames regroupées dans l'ordre
+					for (Object item : (List<?>) object)
+					{
+						if (state != State.CONNECTED)
+						{
+							break;
+						}
+						dispatch(item);
+					}
+				}
+				else
+				{
+					dispatch(object);
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			logger.warning("ClientSession: " + e.getLocalizedMessage());
+			close();
+			return;
+		}
+		readBuffer.compact();
+
+		// agrandissement du tampon pour une trame plus grande que celui ci
+		if (!readBuffer.hasRemaining())
+		{
+			ByteBuffer larger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+			readBuffer.flip();
+			larger.put(readBuffer);
+			readBuffer = larger;
+		}
+	}
+
+	/**
+	 * Transmission d'un objet décodé d'une trame
+	 * @param object la page, le message tracé ou le message reçu
+	 * @throws IOException si l'objet ne peut être transmis à l'utilisateur
+	 */
+	private void dispatch(Object object) throws IOException
+	{
+		if (object instanceof MessagePage)
+		{
+			listener.pageReceived(this, (MessagePage) object);
+		}
+		else if (object instanceof MessageTrace)
+		{
+			MessageTrace received =
+			    ((MessageTrace) object).receivedAt(MessageTrace.now());
+			if (trace != null)
+			{
+				trace.record(received);
+			}
+			received(received.getMessage());
+		}
+		else
+		{
+			received((Message) object);
+		}
+	}
+
+	/**
+	 * Réception d'un message diffusé par le serveur
+	 * @param message le message reçu
+	 * @throws IOException si le message ne peut être transmis à
+	 * l'utilisateur
+	 */
+	private void received(Message message) throws IOException
+	{
+		/*
+		 * Les messages déjà reçus avant une reconnexion ne sont pas
+		 * affichés une seconde fois
+		 */
+		if (message.hasSequence())
+		{
+			if (message.getSequence() <= lastSequence)
+			{
+				return;
+			}
+			lastSequence = message.getSequence();
+		}
+
+		if (!message.hasAuthor() && isKickNotice(message.getContent()))
+		{
+			logger.info("ClientSession: we have been kicked");
+			kicked = true;
+		}
+
+		if (!message.hasAuthor() && isNameUsedNotice(message.getContent()))
+		{
+			if (connectedAttempt > 0)
+			{
+				/*
+				 * Notre ancienne connexion n'est pas encore fermée par le
+				 * serveur : nouvelle tentative (à la fermeture de la socket
+				 * par le serveur) sans remettre à zéro les tentatives
+				 */
+				logger.warning("ClientSession: name " + userName
+				    + " still used by our previous connection, retrying");
+				attempt = connectedAttempt;
+				delay = connectedDelay;
+				return;
+			}
+			logger.severe("ClientSession: name " + userName
+			    + " already used by another client");
+			refused = true;
+		}
+
+		listener.messageReceived(this, message);
+	}
+
+	/**
+	 * Teste si un message de contrôle du serveur annonce notre bannissement :
+	 * "kick nom [request granted by server] by superuser"
+	 * @param content le contenu du message de contrôle
+	 * @return true si le message annonce que nous avons été kickés
+	 */
+	private boolean isKickNotice(String content)
+	{
+		return content.startsWith(Vocabulary.kickCmd + " " + userName + " [")
+		    && content.contains("[request granted by server]");
+	}
+
+	/**
+	 * Teste si un message de contrôle du serveur annonce le refus de notre
+	 * nom : "&lt;{@link Vocabulary#nameUsedNotice}&gt; nom"
+	 * @param content le contenu du message de contrôle
+	 * @return true si le message annonce que notre nom est déjà utilisé
+	 */
+	private boolean isNameUsedNotice(String content)
+	{
+		return content.equals(Vocabulary.nameUsedNotice + " " + userName);
+	}
+
+	/**
+	 * Perte de la connexion avec le serveur : tentative de reconnexion si
+	 * l'utilisateur ne s'est pas délogué, n'a pas été kické et que son nom
+	 * n'a pas été refusé à la première connexion, fin de la session sinon
+	 */
+	private void connectionLost()
+	{
+		closeChannel();
+		if (!kicked && !refused && !loggedOut && !draining
+		    && !outbound.isFinished()
+		    && (attempt < retries))
+		{
+			scheduleReconnect();
+		}
+		else
+		{
+			close();
+		}
+	}
+
+	/**
+	 * Échec d'une tentative de connexion
+	 * @param e l'exception survenue
+	 */
+	private void connectionFailed(Exception e)
+	{
+		logger.warning("ClientSession: connection attempt " + attempt
+		    + " failed: " + e.getLocalizedMessage());
+		closeChannel();
+		if ((attempt < retries) && !outbound.isFinished())
+		{
+			scheduleReconnect();
+		}
+		else
+		{
+			close();
+		}
+	}
+
+	/**
+	 * Programmation de la prochaine tentative de reconnexion avec un délai
+	 * exponentiel (et aléatoire afin que de nombreux clients ne se
+	 * reconnectent pas tous en même temps après un redémarrage du serveur)
+	 */
+	private void scheduleReconnect()
+	{
+		attempt++;
+		long wait = ThreadLocalRandom.current().nextLong(delay / 2, delay + 1);
+		delay = Math.min(delay * 2, maxRetryDelay);
+		logger.info("ClientSession: reconnection attempt " + attempt + "/"
+		    + retries + " in " + wait + " ms");
+		state = State.WAITING;
+		schedule(System.currentTimeMillis() + wait);
+	}
+
+	/**
+	 * Mise en place de la prochaine échéance de la session
+	 * @param time la date (en ms) de l'échéance
+	 */
+	private void schedule(long time)
+	{
+		deadline = Math.max(time, 1);
+		engine.schedule(this);
+	}
+
+	/**
+	 * Fermeture de la connexion courante. Les lignes retirées de la file
+	 * mais pas encore écrites sont perdues.
+	 */
+	private void closeChannel()
+	{
+		if (key != null)
+		{
+			key.cancel();
+			key = null;
+		}
+		if (channel != null)
+		{
+			try
+			{
+				channel.close();
+			}
+			catch (IOException e)
+			{
+				logger.severe("ClientSession: closing channel failed: "
+				    + e.getLocalizedMessage());
+			}
+			channel = null;
+		}
+
+		while (!writes.isEmpty())
+		{
+			String line = writes.removeFirst().line;
+			if (line != null)
+			{
+				logger.warning("ClientSession: message lost: " + line);
+				outbound.failed(line);
+			}
+		}
+	}
+}
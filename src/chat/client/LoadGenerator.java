@@ -0,0 +1,506 @@
+package chat.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import chat.Vocabulary;
+import logger.LoggerFactory;
+import metrics.Histogram;
+import metrics.HopLatencies;
+import models.Message;
+import models.MessagePage;
+
+/**
+ * Générateur de charge pour le serveur de chat : un seul
+ * {@link ClientEngine} exécute de nombreux utilisateurs simulés (des bots)
+ * qui envoient des messages à un débit donné, rejoignent et quittent le
+ * serveur (churn) et mesurent la latence de bout en bout de chaque message
+ * diffusé par un bot et reçu par un autre.
+ * Chaque message envoyé contient la date (en ns) de son envoi : comme tous
+ * les bots sont exécutés dans la même JVM, la latence d'un message est
+ * simplement la différence entre sa date de réception et cette date.
+ * Les envois et les départs/arrivées des bots sont programmés par le thread
+ * exécutant {@link #run()} tandis que toutes les entrées/sorties sont
+ * réalisées par le thread du moteur.
+ * Les bots demandent en outre le traçage de leurs messages (voir
+ * {@link chat.Vocabulary#traceOption}) afin de décomposer cette latence en
+ * étapes : envoi vers le serveur, relais par le serveur et réception.
+ * @author davidroussel
+ */
+public class LoadGenerator implements Runnable
+{
+	/**
+	 * Préfixe des noms des bots
+	 */
+	public final static String BOTPREFIX = "bot";
+
+	/**
+	 * Mot clé débutant le contenu des messages envoyés par les bots :
+	 * load &lt;date d'envoi en ns&gt; &lt;remplissage&gt;
+	 */
+	public final static String LOADKEYWORD = "load";
+
+	/**
+	 * Intervalle (en ms) entre deux tours de programmation des envois
+	 */
+	private final static long TICK = 5;
+
+	/**
+	 * Nombre maximum de bots connectés à chaque tour (afin de ne pas
+	 * déborder la file d'attente des connexions du serveur)
+	 */
+	private final static int MAXJOINSPERTICK = 50;
+
+	/**
+	 * Utilisateur simulé
+	 */
+	private class Bot implements ClientSession.Listener
+	{
+		/**
+		 * Session du bot
+		 */
+		final ClientSession session;
+
+		/**
+		 * Date (en ns) du prochain envoi
+		 */
+		long nextSend;
+
+		/**
+		 * Date (en ns) du départ du bot (ou {@link Long#MAX_VALUE})
+		 */
+		long leaveAt;
+
+		/**
+		 * Indique que le bot a demandé à quitter le serveur
+		 */
+		volatile boolean leaving;
+
+		/**
+		 * Indique que la session du bot est terminée
+		 */
+		volatile boolean closed;
+
+		/**
+		 * Constructeur d'un bot
+		 * @param name le nom du bot
+		 * @param now la date courante (en ns)
+		 */
+		Bot(String name, long now)
+		{
+			session = new ClientSession(engine,
+			                            host,
+			                            port,
+			                            name,
+			                            new OutboundQueue(),
+			                            this,
+			                            Message.NO_SEQUENCE,
+			                            logger);
+			session.setReconnectPolicy(0,
+			                           ChatClient.DEFAULTRETRYDELAY,
+			                           ChatClient.DEFAULTMAXRETRYDELAY);
+			session.setTrace(hops);
+			session.setFlushMode(flushMode);
+			session.setBatchWindow(batchWindow);
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			// premier envoi à une date aléatoire pour étaler les envois
+			nextSend = now + (interval > 0 ? random.nextLong(interval) : 0);
+			leaveAt = (churn > 0 ?
+			    now + (long) (-Math.log(1.0 - random.nextDouble()) * churn) :
+			    Long.MAX_VALUE);
+			leaving = false;
+			closed = false;
+		}
+
+		/**
+		 * Réception d'un message : mesure de sa latence s'il provient d'un
+		 * bot
+		 * @param session la session du bot
+		 * @param message le message reçu
+		 */
+		@Override
+		public void messageReceived(ClientSession session, Message message)
+		{
+			long now = System.nanoTime();
+			received.incrementAndGet();
+			String content = message.getContent();
+			if (message.hasAuthor() && content.startsWith(LOADKEYWORD + " "))
+			{
+				int end = content.indexOf(' ', LOADKEYWORD.length() + 1);
+				try
+				{
+					long sent = Long.parseLong(content.substring(
+					    LOADKEYWORD.length() + 1,
+					    (end < 0 ? content.length() : end)));
+					latency.record((now - sent) / 1000);
+				}
+				catch (NumberFormatException e)
+				{
+					// message d'un autre client
+				}
+			}
+		}
+
+		/**
+		 * Réception d'une page d'historique (les bots n'en demandent pas)
+		 * @param session la session du bot
+		 * @param page la page reçue
+		 */
+		@Override
+		public void pageReceived(ClientSession session, MessagePage page)
+		{
+		}
+
+		/**
+		 * Fin de la session du bot
+		 * @param session la session du bot
+		 */
+		@Override
+		public void sessionClosed(ClientSession session)
+		{
+			closed = true;
+			if (!leaving)
+			{
+				lost.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * L'adresse du serveur
+	 */
+	private final String host;
+
+	/**
+	 * Le port du serveur
+	 */
+	private final int port;
+
+	/**
+	 * Nombre de bots simultanés
+	 */
+	private final int bots;
+
+	/**
+	 * Intervalle (en ns) entre deux envois d'un même bot (0 si les bots
+	 * n'envoient pas de messages)
+	 */
+	private final long interval;
+
+	/**
+	 * Remplissage ajouté à chaque message pour atteindre la taille demandée
+	 */
+	private final String padding;
+
+	/**
+	 * Durée moyenne (en ns) de présence d'un bot sur le serveur (0 si les
+	 * bots ne quittent pas le serveur)
+	 */
+	private final long churn;
+
+	/**
+	 * Durée (en ns) de la mesure
+	 */
+	private final long duration;
+
+	/**
+	 * Le moteur exécutant les sessions de tous les bots
+	 */
+	private ClientEngine engine;
+
+	/**
+	 * Latences (en µs) des messages reçus par les bots
+	 */
+	private final Histogram latency;
+
+	/**
+	 * Latences (en µs) de chaque étape de la diffusion des messages reçus
+	 * par les bots
+	 */
+	private final HopLatencies hops;
+
+	/**
+	 * Nombre de messages envoyés par les bots
+	 */
+	private final AtomicLong sent;
+
+	/**
+	 * Nombre de messages qui n'ont pu être ajoutés à la file d'un bot
+	 * (connexion saturée)
+	 */
+	private final AtomicLong dropped;
+
+	/**
+	 * Nombre de messages reçus par les bots
+	 */
+	private final AtomicLong received;
+
+	/**
+	 * Nombre de bots arrivés sur le serveur
+	 */
+	private final AtomicLong joined;
+
+	/**
+	 * Nombre de sessions terminées sans que le bot ne l'ait demandé
+	 */
+	private final AtomicLong lost;
+
+	/**
+	 * Mode de vidage des messages demandé au serveur par les bots (ou null)
+	 */
+	private String flushMode;
+
+	/**
+	 * Fenêtre (en ms) de regroupement des messages en trames de lot demandée
+	 * par les bots (0 pour celle du serveur, négative pour aucune)
+	 */
+	private long batchWindow;
+
+	/**
+	 * Logger utilisé pour afficher (ou pas) les messages d'erreurs
+	 */
+	private Logger logger;
+
+	/**
+	 * Constructeur d'un générateur de charge
+	 * @param host l'adresse du serveur
+	 * @param port le port du serveur
+	 * @param bots le nombre de bots simultanés
+	 * @param rate le nombre de messages envoyés par seconde par chaque bot
+	 * @param size la taille (en caractères) des messages envoyés
+	 * @param churn la durée moyenne (en ms) de présence d'un bot sur le
+	 * serveur avant d'être remplacé par un nouveau bot (0 pour ne jamais
+	 * remplacer les bots)
+	 * @param duration la durée (en ms) de la mesure
+	 * @param parentLogger logger parent pour affichage des messages de debug
+	 */
+	public LoadGenerator(String host,
+	                     int port,
+	                     int bots,
+	                     double rate,
+	                     int size,
+	                     long churn,
+	                     long duration,
+	                     Logger parentLogger)
+	{
+		logger = LoggerFactory.getParentLogger(getClass(),
+		                                       parentLogger,
+		                                       parentLogger.getLevel());
+		this.host = host;
+		this.port = port;
+		this.bots = Math.max(bots, 1);
+		interval = (rate > 0 ? (long) (1e9 / rate) : 0);
+		int header = LOADKEYWORD.length() + 21;
+		char[] fill = new char[Math.max(size - header, 0)];
+		Arrays.fill(fill, 'x');
+		padding = new String(fill);
+		this.churn = Math.max(churn, 0) * 1000000L;
+		this.duration = Math.max(duration, 1) * 1000000L;
+		latency = new Histogram();
+		hops = new HopLatencies();
+		sent = new AtomicLong();
+		dropped = new AtomicLong();
+		received = new AtomicLong();
+		joined = new AtomicLong();
+		lost = new AtomicLong();
+		flushMode = null;
+		batchWindow = -1;
+	}
+
+	/**
+	 * Demande de regroupement en trames de lot des messages que le serveur
+	 * écrit aux bots (voir {@link chat.Vocabulary#batchOption})
+	 * @param window la fenêtre (en ms) de regroupement, 0 pour celle du
+	 * serveur ou bien une valeur négative pour ne pas en demander
+	 */
+	public void setBatchWindow(long window)
+	{
+		batchWindow = window;
+	}
+
+	/**
+	 * Choix du mode de vidage des messages que le serveur écrit aux bots
+	 * (voir {@link chat.Vocabulary#flushOption})
+	 * @param mode immediate, idle ou latency[:&lt;ms&gt;] ou bien null pour
+	 * le mode par défaut du serveur
+	 */
+	public void setFlushMode(String mode)
+	{
+		flushMode = mode;
+	}
+
+	/**
+	 * Accesseur en lecture de l'histogramme des latences
+	 * @return les latences (en µs) des messages reçus par les bots
+	 */
+	public Histogram getLatency()
+	{
+		return latency;
+	}
+
+	/**
+	 * Accesseur en lecture des latences de chaque étape
+	 * @return les latences (en µs) de chaque étape de la diffusion des
+	 * messages reçus par les bots
+	 */
+	public HopLatencies getHops()
+	{
+		return hops;
+	}
+
+	/**
+	 * Exécution de la mesure : arrivée progressive des bots, envois
+	 * programmés et remplacement des bots qui quittent le serveur pendant
+	 * la durée de la mesure, puis affichage du rapport
+	 *
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run()
+	{
+		try
+		{
+			engine = new ClientEngine(logger);
+		}
+		catch (IOException e)
+		{
+			logger.severe("LoadGenerator: unable to create client engine: "
+			    + e.getLocalizedMessage());
+			return;
+		}
+		engine.setStopWhenIdle(false);
+		Thread engineThread = new Thread(engine, "load engine");
+		engineThread.start();
+
+		List<Bot> active = new ArrayList<Bot>(bots);
+		long generation = 0;
+		long start = System.nanoTime();
+		long end = start + duration;
+		long now = start;
+		while (now < end)
+		{
+			// arrivée des nouveaux bots et remplacement des bots partis
+			int joins = 0;
+			for (int i = 0; i < active.size(); i++)
+			{
+				if (active.get(i).closed && (joins < MAXJOINSPERTICK))
+				{
+					active.set(i, join(i, ++generation, now));
+					joins++;
+				}
+			}
+			while ((active.size() < bots) && (joins < MAXJOINSPERTICK))
+			{
+				active.add(join(active.size(), ++generation, now));
+				joins++;
+			}
+
+			// envois et départs programmés
+			for (Bot bot : active)
+			{
+				if (bot.leaving || bot.closed)
+				{
+					continue;
+				}
+				if (now >= bot.leaveAt)
+				{
+					bot.leaving = true;
+					bot.session.getOutbound().offer(Vocabulary.byeCmd);
+					continue;
+				}
+				while ((interval > 0) && (bot.nextSend <= now))
+				{
+					String content = LOADKEYWORD + " " + System.nanoTime()
+					    + " " + padding;
+					if (bot.session.getOutbound().offer(content))
+					{
+						sent.incrementAndGet();
+					}
+					else
+					{
+						dropped.incrementAndGet();
+					}
+					bot.nextSend += interval;
+				}
+			}
+
+			try
+			{
+				Thread.sleep(TICK);
+			}
+			catch (InterruptedException e)
+			{
+				logger.warning("LoadGenerator: interrupted");
+				break;
+			}
+			now = System.nanoTime();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		// départ de tous les bots
+		for (Bot bot : active)
+		{
+			bot.leaving = true;
+		}
+		engine.shutdown();
+		try
+		{
+			engineThread.join();
+		}
+		catch (InterruptedException e)
+		{
+			logger.warning("LoadGenerator: join engine interrupted");
+		}
+
+		System.out.println(report(elapsed / 1000000L));
+	}
+
+	/**
+	 * Arrivée d'un nouveau bot
+	 * @param index l'index du bot
+	 * @param generation le numéro du bot (unique pour cette mesure)
+	 * @param now la date courante (en ns)
+	 * @return le nouveau bot
+	 */
+	private Bot join(int index, long generation, long now)
+	{
+		Bot bot = new Bot(BOTPREFIX + index + "-" + generation, now);
+		engine.add(bot.session);
+		joined.incrementAndGet();
+		return bot;
+	}
+
+	/**
+	 * Rapport de la mesure
+	 * @param elapsed la durée (en ms) de la mesure
+	 * @return le nombre de bots, de messages envoyés/reçus, les débits et
+	 * les centiles des latences (de bout en bout puis de chaque étape)
+	 */
+	public String report(long elapsed)
+	{
+		double seconds = Math.max(elapsed, 1) / 1000.0;
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-24s %d (%d joined, %d lost)%n",
+		                        "bots", bots, joined.get(), lost.get()));
+		sb.append(String.format("%-24s %.1f s%n", "duration", seconds));
+		sb.append(String.format("%-24s %d (%.1f msg/s, %d dropped)%n",
+		                        "sent", sent.get(), sent.get() / seconds,
+		                        dropped.get()));
+		sb.append(String.format("%-24s %d (%.1f msg/s)%n",
+		                        "received", received.get(),
+		                        received.get() / seconds));
+		sb.append(String.format("%-24s %s", "latency (us)", latency));
+		String steps = hops.toString();
+		if (!steps.isEmpty())
+		{
+			sb.append(System.lineSeparator());
+			sb.append(steps);
+		}
+		return sb.toString();
+	}
+}
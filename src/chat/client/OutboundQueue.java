@@ -0,0 +1,349 @@
+package chat.client;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * File bornée des lignes à envoyer au serveur.
+ * L'interface graphique ne fait qu'ajouter des lignes à la file avec
+ * {@link #offer(String)} (sans jamais attendre) et c'est le côté réseau du
+ * client qui les retire avec {@link #poll()} (ou {@link #take()}) pour les
+ * envoyer au serveur puis signale le résultat de chaque envoi avec
+ * {@link #sent()} ou {@link #failed(String)}. Le lecteur de la console
+ * utilise quant à lui {@link #put(String)} qui attend qu'une place se libère. Ainsi, lorsque la connexion est saturée, seul le
+ * côté réseau est bloqué et l'interface reste réactive.
+ * Les écouteurs de la file sont prévenus à chaque changement du nombre de
+ * lignes en attente ou en échec (afin d'afficher l'état des envois par
+ * exemple).
+ * @author davidroussel
+ */
+public class OutboundQueue
+{
+	/**
+	 * Capacité par défaut de la file
+	 */
+	public final static int DEFAULTCAPACITY = 256;
+
+	/**
+	 * Écouteur des changements d'état de la file
+	 */
+	public interface Listener
+	{
+		/**
+		 * Changement du nombre de lignes en attente ou en échec. Cette
+		 * méthode est appelée par le thread ayant modifié la file (qui n'est
+		 * en général pas celui de l'interface graphique).
+		 * @param pending le nombre de lignes en attente d'envoi (y compris
+		 * celle en cours d'envoi)
+		 * @param failed le nombre de lignes qui n'ont pu être envoyées depuis
+		 * le dernier ajout réussi
+		 */
+		void outboundChanged(int pending, int failed);
+	}
+
+	/**
+	 * Les lignes en attente d'envoi
+	 */
+	private final ArrayDeque<String> lines;
+
+	/**
+	 * Nombre maximum de lignes en attente
+	 */
+	private final int capacity;
+
+	/**
+	 * Nombre de lignes retirées de la file et en cours d'envoi
+	 */
+	private int inFlight;
+
+	/**
+	 * Nombre de lignes qui n'ont pu être envoyées (ou ajoutées à la file)
+	 * depuis le dernier ajout réussi
+	 */
+	private int failed;
+
+	/**
+	 * Dernière ligne qui n'a pu être envoyée (ou null)
+	 */
+	private String lastFailed;
+
+	/**
+	 * Indique si la file est fermée (plus aucune ligne ne sera envoyée)
+	 */
+	private boolean closed;
+
+	/**
+	 * Indique que plus aucune ligne ne sera ajoutée à la file (les lignes
+	 * déjà présentes seront néanmoins envoyées)
+	 */
+	private boolean ended;
+
+	/**
+	 * Les écouteurs de la file
+	 */
+	private final List<Listener> listeners;
+
+	/**
+	 * Constructeur d'une file de capacité {@link #DEFAULTCAPACITY}
+	 */
+	public OutboundQueue()
+	{
+		this(DEFAULTCAPACITY);
+	}
+
+	/**
+	 * Constructeur d'une file
+	 * @param capacity le nombre maximum de lignes en attente d'envoi
+	 */
+	public OutboundQueue(int capacity)
+	{
+		this.capacity = Math.max(capacity, 1);
+		lines = new ArrayDeque<String>();
+		inFlight = 0;
+		failed = 0;
+		lastFailed = null;
+		closed = false;
+		ended = false;
+		listeners = new CopyOnWriteArrayList<Listener>();
+	}
+
+	/**
+	 * Ajout d'un écouteur des changements d'état de la file
+	 * @param listener l'écouteur à ajouter
+	 */
+	public void addListener(Listener listener)
+	{
+		listeners.add(listener);
+	}
+
+	/**
+	 * Ajout d'une ligne à envoyer (sans attendre)
+	 * @param line la ligne à envoyer
+	 * @return true si la ligne a été ajoutée à la file, false si la file est
+	 * pleine ou fermée (la ligne est alors comptée parmi les échecs)
+	 */
+	public boolean offer(String line)
+	{
+		boolean added;
+		synchronized (this)
+		{
+			added = !closed && !ended && (lines.size() < capacity);
+			if (added)
+			{
+				lines.addLast(line);
+				failed = 0;
+				lastFailed = null;
+				notifyAll();
+			}
+			else
+			{
+				failed++;
+				lastFailed = line;
+			}
+		}
+		fireChanged();
+		return added;
+	}
+
+	/**
+	 * Ajout d'une ligne à envoyer en attendant qu'une place se libère dans la
+	 * file (lecture de la console par exemple)
+	 * @param line la ligne à envoyer
+	 * @return true si la ligne a été ajoutée, false si la file est fermée
+	 * @throws InterruptedException si l'attente d'une place est interrompue
+	 */
+	public boolean put(String line) throws InterruptedException
+	{
+		synchronized (this)
+		{
+			while (!closed && !ended && (lines.size() >= capacity))
+			{
+				wait();
+			}
+			if (closed || ended)
+			{
+				return false;
+			}
+			lines.addLast(line);
+			failed = 0;
+			lastFailed = null;
+			notifyAll();
+		}
+		fireChanged();
+		return true;
+	}
+
+	/**
+	 * Retrait de la prochaine ligne à envoyer sans attendre (côté réseau).
+	 * Comme pour {@link #take()}, la ligne reste comptée en attente jusqu'à
+	 * l'appel de {@link #sent()} ou de {@link #failed(String)}.
+	 * @return la prochaine ligne à envoyer ou bien null si la file est vide
+	 * ou fermée
+	 */
+	public synchronized String poll()
+	{
+		if (closed || lines.isEmpty())
+		{
+			return null;
+		}
+		inFlight++;
+		notifyAll();
+		return lines.removeFirst();
+	}
+
+	/**
+	 * Retrait de la prochaine ligne à envoyer (côté réseau). La ligne reste
+	 * comptée en attente jusqu'à l'appel de {@link #sent()} ou de
+	 * {@link #failed(String)}.
+	 * @return la prochaine ligne à envoyer ou bien null si la file a été
+	 * fermée
+	 * @throws InterruptedException si l'attente d'une ligne est interrompue
+	 */
+	public synchronized String take() throws InterruptedException
+	{
+		while (lines.isEmpty() && !closed && !ended)
+		{
+			wait();
+		}
+		if (closed || lines.isEmpty())
+		{
+			return null;
+		}
+		inFlight++;
+		notifyAll();
+		return lines.removeFirst();
+	}
+
+	/**
+	 * Signalement de l'envoi réussi de la dernière ligne retirée
+	 */
+	public void sent()
+	{
+		synchronized (this)
+		{
+			inFlight = Math.max(inFlight - 1, 0);
+		}
+		fireChanged();
+	}
+
+	/**
+	 * Signalement de l'échec de l'envoi de la dernière ligne retirée
+	 * @param line la ligne qui n'a pu être envoyée
+	 */
+	public void failed(String line)
+	{
+		synchronized (this)
+		{
+			inFlight = Math.max(inFlight - 1, 0);
+			failed++;
+			lastFailed = line;
+		}
+		fireChanged();
+	}
+
+	/**
+	 * Nombre de lignes en attente d'envoi
+	 * @return le nombre de lignes en attente (y compris celles en cours
+	 * d'envoi)
+	 */
+	public synchronized int getPending()
+	{
+		return lines.size() + inFlight;
+	}
+
+	/**
+	 * Nombre de lignes qui n'ont pu être envoyées depuis le dernier ajout
+	 * réussi
+	 * @return le nombre de lignes en échec
+	 */
+	public synchronized int getFailed()
+	{
+		return failed;
+	}
+
+	/**
+	 * Dernière ligne qui n'a pu être envoyée
+	 * @return la dernière ligne en échec ou bien null
+	 */
+	public synchronized String getLastFailed()
+	{
+		return lastFailed;
+	}
+
+	/**
+	 * Indique si la file est fermée
+	 * @return true si la file est fermée
+	 */
+	public synchronized boolean isClosed()
+	{
+		return closed;
+	}
+
+	/**
+	 * Indique que la file est terminée : elle est fermée ou bien plus aucune
+	 * ligne ne lui sera ajoutée et toutes ses lignes en ont été retirées
+	 * @return true si plus aucune ligne ne peut être retirée de la file
+	 */
+	public synchronized boolean isFinished()
+	{
+		return closed || (ended && lines.isEmpty());
+	}
+
+	/**
+	 * Fin de la file (à la fin du flux de l'utilisateur par exemple) : plus
+	 * aucune ligne ne peut être ajoutée mais les lignes encore en attente
+	 * seront envoyées
+	 */
+	public void finish()
+	{
+		synchronized (this)
+		{
+			if (closed || ended)
+			{
+				return;
+			}
+			ended = true;
+			notifyAll();
+		}
+		fireChanged();
+	}
+
+	/**
+	 * Fermeture de la file : les lignes encore en attente ne seront pas
+	 * envoyées et le côté réseau en attente d'une ligne est réveillé
+	 */
+	public void close()
+	{
+		synchronized (this)
+		{
+			if (closed)
+			{
+				return;
+			}
+			closed = true;
+			failed += lines.size();
+			lines.clear();
+			notifyAll();
+		}
+		fireChanged();
+	}
+
+	/**
+	 * Notification des écouteurs de l'état courant de la file
+	 */
+	private void fireChanged()
+	{
+		int pending;
+		int failures;
+		synchronized (this)
+		{
+			pending = lines.size() + inFlight;
+			failures = failed;
+		}
+		for (Listener listener : listeners)
+		{
+			listener.outboundChanged(pending, failures);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package chat.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.logging.Logger;
+
+import logger.LoggerFactory;
+
+/**
+ * Lecteur des lignes tapées par l'utilisateur dans la console. La console
+ * ne peut pas être multiplexée par le {@link ClientEngine} : ce lecteur
+ * exécuté dans son propre thread place donc chaque ligne lue dans la
+ * {@link OutboundQueue} de la session et termine cette file à la fin du
+ * flux de l'utilisateur (ce qui termine la session une fois les lignes
+ * restantes envoyées).
+ *
+ * @author davidroussel
+ */
+class UserInputReader implements Runnable
+{
+	/**
+	 * Lecteur du flux d'entrée depuis l'utilisateur
+	 */
+	private final BufferedReader userInBR;
+
+	/**
+	 * File des lignes à envoyer au serveur
+	 */
+	private final OutboundQueue outbound;
+
+	/**
+	 * Logger utilisé pour afficher (ou pas) les messages d'erreurs
+	 */
+	private Logger logger;
+
+	/**
+	 * Constructeur d'un lecteur des lignes de l'utilisateur
+	 * @param in le flux d'entrée de l'utilisateur
+	 * @param outbound la file des lignes à envoyer au serveur
+	 * @param parentLogger le logger parent
+	 */
+	public UserInputReader(InputStream in,
+	                       OutboundQueue outbound,
+	                       Logger parentLogger)
+	{
+		logger = LoggerFactory.getParentLogger(getClass(), parentLogger,
+				parentLogger.getLevel());
+		userInBR = new BufferedReader(new InputStreamReader(in));
+		this.outbound = outbound;
+	}
+
+	/**
+	 * Lecture des lignes de l'utilisateur jusqu'à la fin de son flux ou la
+	 * fermeture de la file (fin de la session)
+	 *
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run()
+	{
+		try
+		{
+			String userInput;
+			while ((userInput = userInBR.readLine()) != null)
+			{
+				if (!outbound.put(userInput))
+				{
+					break;
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			logger.severe("UserInputReader: userInBR.readLine()");
+			logger.severe(e.getLocalizedMessage());
+		}
+		catch (InterruptedException e)
+		{
+			logger.warning("UserInputReader: interrupted");
+		}
+
+		logger.info("UserInputReader: end of user input");
+		outbound.finish();
+	}
+}
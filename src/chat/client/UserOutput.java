@@ -0,0 +1,181 @@
+package chat.client;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.logging.Logger;
+
+import chat.Failure;
+import chat.UserOutputType;
+import chat.Vocabulary;
+import logger.LoggerFactory;
+import models.Message;
+import models.MessagePage;
+
+/**
+ * Transmission des messages reçus par une {@link ClientSession} sur le flux
+ * de sortie vers l'utilisateur. Un client peut accepter soit
+ * 	- du texte uniquement (c'est le cas du client console et du 1er client GUI)
+ * 	- des messages (comme ceux envoyés par le serveur) à travers un ObjectStream
+ * Le flux de sortie vers l'utilisateur est fermé à la fin de la session ce
+ * qui termine la lecture côté utilisateur (la fenêtre de chat par exemple).
+ *
+ * @author davidroussel
+ */
+public class UserOutput implements ClientSession.Listener
+{
+	/**
+	 * Le type de flux à utiliser pour envoyer les message au client.
+	 */
+	private final UserOutputType userOutType;
+
+	/**
+	 * Ecrivain vers le flux de sortie texte vers l'utilisateur
+	 */
+	private PrintWriter userOutPW;
+
+	/**
+	 * Flux de sortie objet vers l'utilisateur
+	 */
+	private ObjectOutputStream userOutOS;
+
+	/**
+	 * Logger utilisé pour afficher (ou pas) les messages d'erreurs
+	 */
+	private Logger logger;
+
+	/**
+	 * Constructeur d'une sortie vers l'utilisateur
+	 * @param out le flux de sortie vers l'utilisateur
+	 * @param outType le type de données attendues dans le flux de sortie
+	 * vers l'utilisateur (texte ou objets)
+	 * @param parentLogger logger parent pour affichage des messages de debug
+	 * @throws IOException si le flux objet vers l'utilisateur ne peut pas
+	 * être créé
+	 */
+	public UserOutput(OutputStream out,
+	                  UserOutputType outType,
+	                  Logger parentLogger) throws IOException
+	{
+		logger = LoggerFactory.getParentLogger(getClass(),
+		                                       parentLogger,
+		                                       parentLogger.getLevel());
+		if (out == null)
+		{
+			throw new IOException("UserOutput: " + Failure.USER_OUTPUT_STREAM);
+		}
+
+		logger.info("UserOutput: creating user output ... ");
+		userOutType = outType;
+		switch (userOutType)
+		{
+			case OBJECT:
+				userOutPW = null;
+				userOutOS = new ObjectOutputStream(out);
+				break;
+			case TEXT:
+			default:
+				userOutOS = null;
+				userOutPW = new PrintWriter(out, true);
+				break;
+		}
+	}
+
+	/**
+	 * Affichage d'un message vers l'utilisateur avec
+	 * 	- le userOutPW si le client attends du texte
+	 * 	- le userOutOS si le client attends des objet (des Message)
+	 * @param session la session ayant reçu le message
+	 * @param message le message reçu
+	 * @throws IOException si l'écriture vers l'utilisateur échoue
+	 */
+	@Override
+	public void messageReceived(ClientSession session, Message message)
+	    throws IOException
+	{
+		switch (userOutType)
+		{
+			case OBJECT:
+				userOutOS.writeObject(message);
+				break;
+			case TEXT:
+			default:
+				userOutPW.println(message);
+				checkError();
+				break;
+		}
+	}
+
+	/**
+	 * Envoi d'une page d'historique vers l'utilisateur :
+	 * <ul>
+	 * 	<li>telle quelle si le client attend des objets</li>
+	 * 	<li>sous la forme d'une ligne d'entête suivie des lignes des messages,
+	 * 	toutes préfixées par {@link Vocabulary#historyMarker}, si le client
+	 * 	attend du texte</li>
+	 * </ul>
+	 * @param session la session ayant reçu la page
+	 * @param page la page reçue du serveur
+	 * @throws IOException si l'écriture vers l'utilisateur échoue
+	 */
+	@Override
+	public void pageReceived(ClientSession session, MessagePage page)
+	    throws IOException
+	{
+		switch (userOutType)
+		{
+			case OBJECT:
+				userOutOS.writeObject(page);
+				break;
+			case TEXT:
+			default:
+				userOutPW.println(Vocabulary.historyMarker + page.header());
+				for (Message message : page.getMessages())
+				{
+					userOutPW.println(Vocabulary.historyMarker + message);
+				}
+				checkError();
+				break;
+		}
+	}
+
+	/**
+	 * Fermeture des flux de sortie vers l'utilisateur à la fin de la session
+	 * @param session la session terminée
+	 */
+	@Override
+	public void sessionClosed(ClientSession session)
+	{
+		logger.info("UserOutput: closing user output ... ");
+		if (userOutPW != null)
+		{
+			userOutPW.close();
+		}
+
+		if (userOutOS != null)
+		{
+			try
+			{
+				userOutOS.close();
+			}
+			catch (IOException e)
+			{
+				logger.severe("UserOutput: closing user object output stream failed: "
+				    + e.getLocalizedMessage());
+			}
+		}
+	}
+
+	/**
+	 * Vérification de l'état d'erreur du userOutPW
+	 * @throws IOException si l'écrivain vers l'utilisateur est en erreur
+	 */
+	private void checkError() throws IOException
+	{
+		if (userOutPW.checkError())
+		{
+			throw new IOException("UserOutput: " + Failure.USER_OUTPUT_STREAM);
+		}
+	}
+}
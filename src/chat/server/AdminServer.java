@@ -0,0 +1,552 @@
+package chat.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import logger.LoggerFactory;
+import metrics.ClientMetrics;
+import metrics.Histogram;
+import metrics.LockProfile;
+import metrics.ServerMetrics;
+
+/**
+ * Point d'accès HTTP d'administration d'un {@link ChatServer}, accessible
+ * uniquement depuis la machine locale :
+ * <ul>
+ * 	<li>GET /metrics : mesures du serveur (voir {@link ServerMetrics}), dont
+ * 	la contention des verrous et la file d'envoi de chaque client</li>
+ * 	<li>GET /clients : clients connectés et leurs mesures, file d'envoi
+ * 	comprise</li>
+ * 	<li>POST /kick?name=&lt;nom&gt; : déconnexion forcée d'un client
+ * 	(en-tête {@link #TOKENHEADER} exigé)</li>
+ * 	<li>POST /drain : arrêt progressif du serveur (voir
+ * 	{@link ChatServer#drain()}, en-tête {@link #TOKENHEADER} exigé)</li>
+ * </ul>
+ * Les réponses sont en JSON. Les consultations ne lisent que des mesures
+ * enregistrées sans verrou et des copies de la liste des clients : elles ne
+ * prennent donc jamais le verrou de diffusion du serveur. Seules les actions
+ * (kick) peuvent attendre la fin d'une diffusion, la diffusion de
+ * l'avertissement du kick passant ensuite avant les diffusions ordinaires.
+ * Les requêtes sont traitées par un seul thread (démon) afin de ne pas
+ * concurrencer les threads du serveur.
+ * L'écoute sur la seule interface locale ne suffit pas à protéger les
+ * actions : une page web visitée par l'opérateur peut envoyer une requête
+ * POST simple vers localhost. Les actions exigent donc l'en-tête
+ * {@link #TOKENHEADER} contenant le jeton du point d'accès (fourni ou bien
+ * tiré au hasard au démarrage et affiché dans les logs), qu'une requête
+ * inter-origines simple ne peut pas porter, et toute requête portant un
+ * en-tête Origin étranger est refusée.
+ * @author davidroussel
+ */
+public class AdminServer
+{
+	/**
+	 * Nom utilisé comme auteur des actions d'administration
+	 */
+	public final static String ADMINNAME = "admin";
+
+	/**
+	 * En-tête des requêtes d'action contenant le jeton du point d'accès
+	 */
+	public final static String TOKENHEADER = "X-Admin-Token";
+
+	/**
+	 * Nombre d'octets aléatoires d'un jeton tiré au hasard
+	 */
+	private final static int TOKENBYTES = 16;
+
+	/**
+	 * Le serveur de chat administré
+	 */
+	private final ChatServer chatServer;
+
+	/**
+	 * Le serveur HTTP
+	 */
+	private final HttpServer httpServer;
+
+	/**
+	 * Jeton exigé des requêtes d'action
+	 */
+	private final String token;
+
+	/**
+	 * Thread de traitement des requêtes
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * Logger pour l'affichage des messages de debug
+	 */
+	private Logger logger;
+
+	/**
+	 * Constructeur du point d'accès d'administration d'un serveur de chat
+	 * avec un jeton tiré au hasard
+	 * @param chatServer le serveur de chat à administrer
+	 * @param port le port (local) du point d'accès
+	 * @param parentLogger logger parent pour l'affichage des messages de
+	 * debug
+	 * @throws IOException si le port ne peut pas être utilisé
+	 */
+	public AdminServer(ChatServer chatServer, int port, Logger parentLogger)
+	    throws IOException
+	{
+		this(chatServer, port, null, parentLogger);
+	}
+
+	/**
+	 * Constructeur du point d'accès d'administration d'un serveur de chat
+	 * @param chatServer le serveur de chat à administrer
+	 * @param port le port (local) du point d'accès
+	 * @param token le jeton exigé des requêtes d'action (dans l'en-tête
+	 * {@link #TOKENHEADER}) ou bien null (ou vide) pour tirer un jeton au
+	 * hasard qui sera affiché au démarrage
+	 * @param parentLogger logger parent pour l'affichage des messages de
+	 * debug
+	 * @throws IOException si le port ne peut pas être utilisé
+	 */
+	public AdminServer(ChatServer chatServer,
+	                   int port,
+	                   String token,
+	                   Logger parentLogger)
+	    throws IOException
+	{
+		this.chatServer = chatServer;
+		logger = LoggerFactory.getParentLogger(getClass(),
+		                                       parentLogger,
+		                                       parentLogger.getLevel());
+		if ((token == null) || token.isEmpty())
+		{
+			byte[] bytes = new byte[TOKENBYTES];
+			new SecureRandom().nextBytes(bytes);
+			StringBuilder sb = new StringBuilder();
+			for (byte b : bytes)
+			{
+				sb.append(String.format("%02x", b));
+			}
+			this.token = sb.toString();
+			// le jeton doit être visible quel que soit le niveau des logs
+			logger.warning("AdminServer: actions require header "
+			    + TOKENHEADER + ": " + this.token);
+		}
+		else
+		{
+			this.token = token;
+		}
+		httpServer = HttpServer.create(
+		    new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		executor = Executors.newSingleThreadExecutor((Runnable r) ->
+		{
+			Thread thread = new Thread(r, "admin");
+			thread.setDaemon(true);
+			return thread;
+		});
+		httpServer.setExecutor(executor);
+		httpServer.createContext("/metrics", (HttpExchange exchange) ->
+		{
+			if (check(exchange, "GET"))
+			{
+				reply(exchange, 200, metrics());
+			}
+		});
+		httpServer.createContext("/clients", (HttpExchange exchange) ->
+		{
+			if (check(exchange, "GET"))
+			{
+				reply(exchange, 200, clients());
+			}
+		});
+		httpServer.createContext("/kick", (HttpExchange exchange) ->
+		{
+			if (check(exchange, "POST"))
+			{
+				kick(exchange);
+			}
+		});
+		httpServer.createContext("/drain", (HttpExchange exchange) ->
+		{
+			if (check(exchange, "POST"))
+			{
+				chatServer.drain();
+				reply(exchange, 200, "{\"draining\": true, \"clients\": "
+				    + chatServer.getMetrics().getConnectedClients() + "}");
+			}
+		});
+	}
+
+	/**
+	 * Démarrage du point d'accès
+	 */
+	public void start()
+	{
+		httpServer.start();
+		logger.info("AdminServer: listening on http://"
+		    + httpServer.getAddress().getHostString() + ":"
+		    + httpServer.getAddress().getPort() + "/");
+	}
+
+	/**
+	 * Arrêt du point d'accès
+	 */
+	public void stop()
+	{
+		httpServer.stop(0);
+		executor.shutdown();
+		logger.info("AdminServer: stopped");
+	}
+
+	/**
+	 * Accesseur en lecture du port du point d'accès
+	 * @return le port local du point d'accès
+	 */
+	public int getPort()
+	{
+		return httpServer.getAddress().getPort();
+	}
+
+	/**
+	 * Vérification d'une requête : origine locale (si la requête porte un
+	 * en-tête Origin), méthode attendue et, pour les actions (POST), jeton
+	 * du point d'accès
+	 * @param exchange la requête
+	 * @param method la méthode attendue
+	 * @return true si la requête peut être traitée, false sinon (la réponse
+	 * 403, 405 ou 401 a alors déjà été envoyée)
+	 * @throws IOException si l'envoi de la réponse échoue
+	 */
+	private boolean check(HttpExchange exchange, String method)
+	    throws IOException
+	{
+		String origin = exchange.getRequestHeaders().getFirst("Origin");
+		if ((origin != null) && !isLocalOrigin(origin))
+		{
+			logger.warning("AdminServer: refused " + exchange.getRequestMethod()
+			    + " " + exchange.getRequestURI().getPath() + " from origin "
+			    + origin);
+			reply(exchange, 403, "{\"error\": \"foreign origin\"}");
+			return false;
+		}
+		if (!exchange.getRequestMethod().equalsIgnoreCase(method))
+		{
+			exchange.getResponseHeaders().set("Allow", method);
+			reply(exchange, 405, "{\"error\": \"method not allowed\"}");
+			return false;
+		}
+		if (method.equalsIgnoreCase("POST"))
+		{
+			String received = exchange.getRequestHeaders().getFirst(TOKENHEADER);
+			if ((received == null)
+			    || !MessageDigest.isEqual(
+			        received.getBytes(StandardCharsets.UTF_8),
+			        token.getBytes(StandardCharsets.UTF_8)))
+			{
+				logger.warning("AdminServer: refused POST "
+				    + exchange.getRequestURI().getPath() + ": "
+				    + (received == null ? "missing" : "invalid") + " "
+				    + TOKENHEADER);
+				reply(exchange, 401, "{\"error\": \"missing or invalid "
+				    + TOKENHEADER + "\"}");
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Indique si l'origine d'une requête est le point d'accès lui-même
+	 * (page servie par localhost sur le port du point d'accès)
+	 * @param origin l'en-tête Origin de la requête
+	 * @return true si l'origine est http://localhost, http://127.0.0.1 ou
+	 * http://[::1] sur le port du point d'accès
+	 */
+	private boolean isLocalOrigin(String origin)
+	{
+		String port = ":" + getPort();
+		String lower = origin.toLowerCase(Locale.ROOT);
+		return lower.equals("http://localhost" + port)
+		    || lower.equals("http://127.0.0.1" + port)
+		    || lower.equals("http://[::1]" + port);
+	}
+
+	/**
+	 * Traitement d'une demande de kick : POST /kick?name=&lt;nom&gt;
+	 * @param exchange la requête
+	 * @throws IOException si l'envoi de la réponse échoue
+	 */
+	private void kick(HttpExchange exchange) throws IOException
+	{
+		String name = parameter(exchange.getRequestURI(), "name");
+		if ((name == null) || name.isEmpty())
+		{
+			reply(exchange, 400, "{\"error\": \"missing name\"}");
+		}
+		else if (chatServer.kick(name, ADMINNAME))
+		{
+			reply(exchange, 200, "{\"kicked\": " + quote(name) + "}");
+		}
+		else
+		{
+			reply(exchange, 404, "{\"error\": \"no such client\", \"name\": "
+			    + quote(name) + "}");
+		}
+	}
+
+	/**
+	 * Mesures du serveur en JSON
+	 * @return un objet JSON contenant les mesures du serveur
+	 */
+	private String metrics()
+	{
+		ServerMetrics metrics = chatServer.getMetrics();
+		Histogram broadcast = metrics.getBroadcast();
+		StringBuilder sb = new StringBuilder("{");
+		field(sb, "draining", chatServer.isDraining()).append(", ");
+		field(sb, "connectedClients", metrics.getConnectedClients()).append(", ");
+		field(sb, "acceptedConnections", metrics.getAcceptedConnections()).append(", ");
+		field(sb, "acceptRate", metrics.getAcceptRate()).append(", ");
+		field(sb, "handshakeFailures", metrics.getHandshakeFailures()).append(", ");
+		field(sb, "messagesIn", metrics.getMessagesIn()).append(", ");
+		field(sb, "messagesInRate", metrics.getMessagesInRate()).append(", ");
+		field(sb, "messagesOut", metrics.getMessagesOut()).append(", ");
+		field(sb, "messagesOutRate", metrics.getMessagesOutRate()).append(", ");
+		field(sb, "bytesIn", metrics.getBytesIn()).append(", ");
+		field(sb, "bytesOut", metrics.getBytesOut()).append(", ");
+		field(sb, "flushes", metrics.getFlushes()).append(", ");
+		field(sb, "socketWrites", metrics.getSocketWrites()).append(", ");
+		field(sb, "batches", metrics.getBatches()).append(", ");
+		field(sb, "limitDelayed", metrics.getLimitDelayed()).append(", ");
+		field(sb, "limitDropped", metrics.getLimitDropped()).append(", ");
+		field(sb, "limitDisconnected",
+		      metrics.getLimitDisconnected()).append(", ");
+		field(sb, "socketBytes", metrics.getSocketBytes()).append(", ");
+		sb.append("\"broadcastMicros\": ");
+		histogram(sb, broadcast);
+		sb.append(", \"relayMicros\": ");
+		histogram(sb, metrics.getLatencies().getRelay());
+		sb.append(", \"upstreamMicros\": ");
+		histogram(sb, metrics.getLatencies().getUpstream());
+		sb.append(", \"locks\": {\"clients\": ");
+		lock(sb, metrics.getClientsLock());
+		sb.append(", \"server\": ");
+		lock(sb, metrics.getServerLock());
+		sb.append("}, \"queues\": [");
+		List<ClientMetrics> clients = metrics.getClients();
+		for (int i = 0; i < clients.size(); i++)
+		{
+			ClientMetrics client = clients.get(i);
+			sb.append(i == 0 ? "{" : ", {");
+			sb.append("\"name\": ").append(quote(client.getName())).append(", ");
+			queue(sb, client);
+			sb.append("}");
+		}
+		sb.append("]}");
+		return sb.toString();
+	}
+
+	/**
+	 * Liste des clients connectés en JSON
+	 * @return un tableau JSON contenant les mesures de chaque client
+	 */
+	private String clients()
+	{
+		List<ClientMetrics> clients = chatServer.getMetrics().getClients();
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < clients.size(); i++)
+		{
+			ClientMetrics client = clients.get(i);
+			sb.append(i == 0 ? "{" : ", {");
+			sb.append("\"name\": ").append(quote(client.getName())).append(", ");
+			field(sb, "connectedAt", client.getConnectedAt()).append(", ");
+			field(sb, "framed", client.isFramed()).append(", ");
+			field(sb, "traced", client.isTraced()).append(", ");
+			field(sb, "batched", client.isBatched()).append(", ");
+			field(sb, "messagesIn", client.getMessagesIn()).append(", ");
+			field(sb, "messagesOut", client.getMessagesOut()).append(", ");
+			field(sb, "bytesOut", client.getBytesOut()).append(", ");
+			field(sb, "flushes", client.getFlushes()).append(", ");
+			queue(sb, client).append(", ");
+			sb.append("\"flush\": ").append(quote(client.getFlushPolicy()));
+			sb.append("}");
+		}
+		sb.append("]");
+		return sb.toString();
+	}
+
+	/**
+	 * Ajout des champs JSON décrivant la file d'envoi d'un client : octets
+	 * écrits mais pas encore transmis, trames en attente de lot et messages
+	 * retenus pendant un rattrapage
+	 * @param sb l'objet JSON en cours
+	 * @param client les mesures du client
+	 * @return l'objet JSON en cours
+	 */
+	private static StringBuilder queue(StringBuilder sb, ClientMetrics client)
+	{
+		field(sb, "pendingBytes", client.getPendingBytes()).append(", ");
+		field(sb, "pendingFrames", client.getPendingFrames()).append(", ");
+		return field(sb, "heldMessages", client.getHeldMessages());
+	}
+
+	/**
+	 * Ajout d'un champ JSON
+	 * @param sb l'objet JSON en cours
+	 * @param name le nom du champ
+	 * @param value la valeur (nombre ou booléen)
+	 * @return l'objet JSON en cours
+	 */
+	private static StringBuilder field(StringBuilder sb, String name, Object value)
+	{
+		sb.append('"').append(name).append("\": ");
+		if (value instanceof Double)
+		{
+			sb.append(String.format(Locale.ROOT, "%.1f", (Double) value));
+		}
+		else
+		{
+			sb.append(value);
+		}
+		return sb;
+	}
+
+	/**
+	 * Ajout d'un histogramme JSON
+	 * @param sb l'objet JSON en cours
+	 * @param histogram l'histogramme
+	 */
+	private static void histogram(StringBuilder sb, Histogram histogram)
+	{
+		sb.append("{");
+		field(sb, "count", histogram.getCount()).append(", ");
+		field(sb, "mean", histogram.getMean()).append(", ");
+		field(sb, "p50", histogram.getPercentile(50)).append(", ");
+		field(sb, "p99", histogram.getPercentile(99)).append(", ");
+		field(sb, "max", histogram.getMax());
+		sb.append("}");
+	}
+
+	/**
+	 * Ajout de la contention d'un verrou en JSON
+	 * @param sb l'objet JSON en cours
+	 * @param lock la mesure du verrou
+	 */
+	private static void lock(StringBuilder sb, LockProfile lock)
+	{
+		sb.append("{\"waitMicros\": ");
+		histogram(sb, lock.getWait());
+		sb.append(", \"holdMicros\": ");
+		histogram(sb, lock.getHold());
+		sb.append(", ");
+		field(sb, "contended", lock.getContended()).append(", ");
+		sb.append("\"sites\": ");
+		strings(sb, lock.getSites());
+		sb.append(", \"topWaiters\": ");
+		strings(sb, lock.getTopWaiters(ServerMetrics.TOPWAITERS));
+		sb.append("}");
+	}
+
+	/**
+	 * Ajout d'un tableau JSON de chaînes
+	 * @param sb l'objet JSON en cours
+	 * @param strings les chaînes
+	 */
+	private static void strings(StringBuilder sb, List<String> strings)
+	{
+		sb.append("[");
+		for (int i = 0; i < strings.size(); i++)
+		{
+			sb.append(i == 0 ? "" : ", ").append(quote(strings.get(i)));
+		}
+		sb.append("]");
+	}
+
+	/**
+	 * Chaîne JSON
+	 * @param text le texte (evt null)
+	 * @return le texte entre guillemets avec ses caractères spéciaux
+	 * échappés, ou bien null
+	 */
+	private static String quote(String text)
+	{
+		if (text == null)
+		{
+			return "null";
+		}
+		StringBuilder sb = new StringBuilder("\"");
+		for (char c : text.toCharArray())
+		{
+			if ((c == '"') || (c == '\\'))
+			{
+				sb.append('\\').append(c);
+			}
+			else if (c < ' ')
+			{
+				sb.append(String.format("\\u%04x", (int) c));
+			}
+			else
+			{
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	/**
+	 * Valeur d'un paramètre de la requête
+	 * @param uri l'URI de la requête
+	 * @param name le nom du paramètre
+	 * @return la valeur décodée du paramètre ou bien null s'il est absent
+	 */
+	private static String parameter(URI uri, String name)
+	{
+		String query = uri.getRawQuery();
+		if (query != null)
+		{
+			for (String pair : query.split("&"))
+			{
+				int equals = pair.indexOf('=');
+				if ((equals > 0) && pair.substring(0, equals).equals(name))
+				{
+					return URLDecoder.decode(pair.substring(equals + 1),
+					                         StandardCharsets.UTF_8);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Envoi d'une réponse JSON
+	 * @param exchange la requête
+	 * @param status le code de la réponse
+	 * @param json le contenu de la réponse
+	 * @throws IOException si l'envoi échoue
+	 */
+	private static void reply(HttpExchange exchange, int status, String json)
+	    throws IOException
+	{
+		byte[] body = (json + "\n").getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type",
+		                                  "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody())
+		{
+			out.write(body);
+		}
+	}
+}
@@ -0,0 +1,347 @@
+package chat.server;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transcription asynchrone des lignes reçues par le serveur : les lignes
+ * sont déposées dans une file bornée (sans attente ni concaténation) et
+ * écrites par lots par un thread dédié, avec un seul vidage par lot, vers la
+ * console ou vers un fichier renouvelé lorsqu'il dépasse une taille donnée
+ * (le fichier plein devient fichier.1, fichier.1 devient fichier.2, etc.).
+ * Lorsque la file est pleine (console ou disque trop lents) les lignes sont
+ * abandonnées et leur nombre est transcrit dès que possible.
+ * @author davidroussel
+ */
+public class AsyncTranscript implements TranscriptSink
+{
+	/**
+	 * Capacité par défaut de la file des lignes
+	 */
+	public final static int DEFAULTCAPACITY = 16384;
+
+	/**
+	 * Nombre maximum de lignes écrites par lot
+	 */
+	public final static int MAXBATCH = 512;
+
+	/**
+	 * Taille par défaut (en caractères) d'un fichier de transcription
+	 */
+	public final static long DEFAULTFILESIZE = 16L * 1024 * 1024;
+
+	/**
+	 * Nombre par défaut d'anciens fichiers de transcription conservés
+	 */
+	public final static int DEFAULTBACKUPS = 3;
+
+	/**
+	 * Une ligne en attente d'écriture
+	 */
+	private static class Entry
+	{
+		/**
+		 * Le nom du client
+		 */
+		private final String name;
+
+		/**
+		 * La ligne reçue
+		 */
+		private final String line;
+
+		/**
+		 * Constructeur d'une ligne en attente
+		 * @param name le nom du client
+		 * @param line la ligne reçue
+		 */
+		private Entry(String name, String line)
+		{
+			this.name = name;
+			this.line = line;
+		}
+	}
+
+	/**
+	 * File des lignes à écrire
+	 */
+	private final BlockingQueue<Entry> queue;
+
+	/**
+	 * Fichier de transcription (ou null pour la console)
+	 */
+	private final File file;
+
+	/**
+	 * Taille (en caractères) à partir de laquelle le fichier est renouvelé
+	 */
+	private final long maxBytes;
+
+	/**
+	 * Nombre d'anciens fichiers conservés
+	 */
+	private final int backups;
+
+	/**
+	 * Flux dans lequel sont écrites les lignes
+	 */
+	private Writer writer;
+
+	/**
+	 * Nombre de caractères écrits dans le fichier courant
+	 */
+	private long written;
+
+	/**
+	 * Nombre de lignes abandonnées depuis le dernier lot écrit
+	 */
+	private final AtomicLong dropped;
+
+	/**
+	 * Nombre total de lignes abandonnées
+	 */
+	private final AtomicLong totalDropped;
+
+	/**
+	 * Thread d'écriture des lignes
+	 */
+	private final Thread thread;
+
+	/**
+	 * Indique si la transcription a été fermée
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Constructeur d'une transcription vers un flux (la console par exemple)
+	 * qui n'est pas fermé avec la transcription
+	 * @param out le flux de sortie
+	 * @param capacity la capacité de la file des lignes
+	 */
+	public AsyncTranscript(OutputStream out, int capacity)
+	{
+		this(null, new OutputStreamWriter(out, StandardCharsets.UTF_8),
+		     Long.MAX_VALUE, 0, capacity);
+	}
+
+	/**
+	 * Constructeur d'une transcription vers un fichier renouvelé
+	 * @param fileName le nom du fichier de transcription
+	 * @param maxBytes la taille à partir de laquelle le fichier est renouvelé
+	 * @param backups le nombre d'anciens fichiers conservés
+	 * @throws IOException si le fichier ne peut pas être ouvert
+	 */
+	public AsyncTranscript(String fileName, long maxBytes, int backups)
+	    throws IOException
+	{
+		this(new File(fileName), open(new File(fileName)), maxBytes, backups,
+		     DEFAULTCAPACITY);
+	}
+
+	/**
+	 * Constructeur commun
+	 * @param file le fichier de transcription (ou null)
+	 * @param writer le flux dans lequel écrire les lignes
+	 * @param maxBytes la taille à partir de laquelle le fichier est renouvelé
+	 * @param backups le nombre d'anciens fichiers conservés
+	 * @param capacity la capacité de la file des lignes
+	 */
+	private AsyncTranscript(File file,
+	                        Writer writer,
+	                        long maxBytes,
+	                        int backups,
+	                        int capacity)
+	{
+		queue = new ArrayBlockingQueue<Entry>(capacity);
+		this.file = file;
+		this.writer = writer;
+		this.maxBytes = maxBytes;
+		this.backups = backups;
+		written = (file != null ? file.length() : 0);
+		dropped = new AtomicLong();
+		totalDropped = new AtomicLong();
+		closed = false;
+		thread = new Thread(this::drain, "transcript");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Ouverture d'un fichier de transcription (en ajout)
+	 * @param file le fichier
+	 * @return le flux d'écriture dans le fichier
+	 * @throws IOException si le fichier ne peut pas être ouvert
+	 */
+	private static Writer open(File file) throws IOException
+	{
+		return new BufferedWriter(new OutputStreamWriter(
+		    new FileOutputStream(file, true), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Dépôt d'une ligne dans la file (sans attente)
+	 * @param name le nom du client
+	 * @param line la ligne reçue
+	 */
+	@Override
+	public void append(String name, String line)
+	{
+		if (closed || !queue.offer(new Entry(name, line)))
+		{
+			dropped.incrementAndGet();
+			totalDropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Écriture des lignes par lots jusqu'à la fermeture de la transcription
+	 */
+	private void drain()
+	{
+		List<Entry> batch = new ArrayList<Entry>(MAXBATCH);
+		StringBuilder sb = new StringBuilder();
+		while (!closed || !queue.isEmpty())
+		{
+			try
+			{
+				Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null)
+				{
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch, MAXBATCH - 1);
+				long lost = dropped.getAndSet(0);
+				if (lost > 0)
+				{
+					sb.append("transcript: ").append(lost)
+					    .append(" lines dropped").append(System.lineSeparator());
+				}
+				for (Entry entry : batch)
+				{
+					sb.append(entry.name).append(" > ").append(entry.line)
+					    .append(System.lineSeparator());
+				}
+				write(sb.toString());
+				sb.setLength(0);
+				batch.clear();
+			}
+			catch (InterruptedException e)
+			{
+				// fermeture de la transcription : on écrit ce qui reste
+			}
+		}
+	}
+
+	/**
+	 * Écriture d'un lot de lignes, puis vidage du flux et renouvellement du
+	 * fichier s'il est plein
+	 * @param text les lignes à écrire
+	 */
+	private void write(String text)
+	{
+		try
+		{
+			writer.write(text);
+			writer.flush();
+			written += text.length();
+			if ((file != null) && (written >= maxBytes))
+			{
+				roll();
+			}
+		}
+		catch (IOException e)
+		{
+			System.err.println("AsyncTranscript: write failed: "
+			    + e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Renouvellement du fichier de transcription : fichier.i devient
+	 * fichier.(i+1) et le fichier plein devient fichier.1
+	 * @throws IOException si le nouveau fichier ne peut pas être ouvert
+	 */
+	private void roll() throws IOException
+	{
+		writer.close();
+		for (int i = backups - 1; i >= 1; i--)
+		{
+			File older = new File(file.getPath() + "." + i);
+			if (older.exists())
+			{
+				File newer = new File(file.getPath() + "." + (i + 1));
+				newer.delete();
+				older.renameTo(newer);
+			}
+		}
+		if (backups > 0)
+		{
+			File first = new File(file.getPath() + ".1");
+			first.delete();
+			file.renameTo(first);
+		}
+		else
+		{
+			file.delete();
+		}
+		writer = open(file);
+		written = 0;
+	}
+
+	/**
+	 * Nombre total de lignes abandonnées parce que la file était pleine
+	 * @return le nombre de lignes abandonnées
+	 */
+	public long getDropped()
+	{
+		return totalDropped.get();
+	}
+
+	/**
+	 * Fermeture de la transcription : les lignes en attente sont écrites
+	 * avant la fermeture du fichier (la console n'est pas fermée)
+	 */
+	@Override
+	public void close()
+	{
+		if (closed)
+		{
+			return;
+		}
+		closed = true;
+		thread.interrupt();
+		try
+		{
+			thread.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		if (file != null)
+		{
+			try
+			{
+				writer.close();
+			}
+			catch (IOException e)
+			{
+				System.err.println("AsyncTranscript: close failed: "
+				    + e.getLocalizedMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,350 @@
+package chat.server;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import chat.server.events.BroadcastEvent;
+import chat.server.events.RecipientWriteEvent;
+import logger.LoggerFactory;
+import metrics.LockProfile;
+import metrics.ServerMetrics;
+import models.Message;
+import models.MessageTrace;
+
+/**
+ * Diffusion des messages reçus par le serveur à tous les clients connectés.
+ * Chaque diffusion est réalisée en détenant le verrou sur la liste des
+ * clients : le numéro de séquence du message est donc attribué dans l'ordre
+ * de diffusion, le message est conservé dans l'historique puis écrit vers
+ * chacun des clients sans qu'une autre diffusion ne puisse s'intercaler.
+ * Les messages sont écrits dans le tampon de chaque client (voir
+ * {@link FlushPolicy}) : les tampons des clients en mode
+ * {@link FlushPolicy.Mode#IDLE} ne sont vidés qu'à la fin d'une rafale,
+ * c'est à dire lorsqu'aucune autre diffusion n'attend le verrou, la
+ * dernière diffusion de la rafale vidant alors les messages de toutes les
+ * précédentes. L'échec de l'écriture vers un client déconnecte ce client
+ * sans interrompre la diffusion aux autres.
+ * Les diffusions prioritaires (commandes bye, kick et kill) passent avant
+ * les diffusions ordinaires : tant qu'une demande prioritaire du verrou est
+ * en attente (voir {@link #requestPriority()}), une diffusion ordinaire qui
+ * obtient le verrou le rend aussitôt (par {@link Object#wait(long)}) sans
+ * rien écrire, et le tampon de chaque client est vidé dès la fin de la
+ * diffusion prioritaire quelle que soit sa politique d'écriture (les
+ * messages précédents ne peuvent pas être doublés sans rompre l'ordre des
+ * numéros de séquence, mais ne retardent pas davantage la commande).
+ * @author davidroussel
+ */
+public class Broadcaster
+{
+	/**
+	 * Les clients à qui diffuser les messages (également utilisée comme
+	 * verrou de diffusion)
+	 */
+	private final List<InputOutputClient> clients;
+
+	/**
+	 * Historique des messages diffusés
+	 */
+	private final MessageHistory history;
+
+	/**
+	 * Dernier numéro de séquence attribué à un message diffusé
+	 */
+	private final AtomicLong sequence;
+
+	/**
+	 * Mesures du serveur : diffusions et latences de relais des messages
+	 * tracés
+	 */
+	private final ServerMetrics metrics;
+
+	/**
+	 * Nombre de diffusions en attente du verrou de diffusion
+	 */
+	private final AtomicInteger waiting;
+
+	/**
+	 * Nombre de demandes prioritaires en attente du verrou de diffusion
+	 */
+	private final AtomicInteger urgent;
+
+	/**
+	 * Logger pour l'affichage des messages de debug
+	 */
+	private Logger logger;
+
+	/**
+	 * Constructeur d'un diffuseur de messages
+	 * @param clients les clients à qui diffuser les messages
+	 * @param history l'historique dans lequel conserver les messages diffusés
+	 * @param sequence le dernier numéro de séquence attribué (partagé avec le
+	 * serveur)
+	 * @param metrics les mesures dans lesquelles enregistrer les diffusions
+	 * et le relais des messages tracés
+	 * @param parentLogger logger parent pour l'affichage des messages de
+	 * debug
+	 */
+	public Broadcaster(List<InputOutputClient> clients,
+	                   MessageHistory history,
+	                   AtomicLong sequence,
+	                   ServerMetrics metrics,
+	                   Logger parentLogger)
+	{
+		this.clients = clients;
+		this.history = history;
+		this.sequence = sequence;
+		this.metrics = metrics;
+		waiting = new AtomicInteger();
+		urgent = new AtomicInteger();
+		logger = LoggerFactory.getParentLogger(getClass(),
+		                                       parentLogger,
+		                                       parentLogger.getLevel());
+	}
+
+	/**
+	 * Diffusion d'un message à tous les clients prêts.
+	 * Les clients qui ont demandé le traçage reçoivent le message daté de
+	 * chaque étape (voir {@link MessageTrace}).
+	 * @param sender le nom du client qui a envoyé la ligne
+	 * @param content le contenu du message à diffuser
+	 * @param control true s'il s'agit d'un message de contrôle (sans auteur)
+	 * @param clientSent date d'envoi de la ligne par le client (ou 0)
+	 * @param receivedAt date de réception de la ligne par le serveur
+	 * @return le message diffusé
+	 */
+	public Message broadcast(String sender,
+	                         String content,
+	                         boolean control,
+	                         long clientSent,
+	                         long receivedAt)
+	{
+		return broadcast(sender, content, control, false, clientSent, receivedAt);
+	}
+
+	/**
+	 * Diffusion d'un message à tous les clients prêts, éventuellement
+	 * prioritaire : une diffusion prioritaire passe avant les diffusions
+	 * ordinaires en attente et est immédiatement écrite sur la socket de
+	 * chaque client.
+	 * @param sender le nom du client qui a envoyé la ligne
+	 * @param content le contenu du message à diffuser
+	 * @param control true s'il s'agit d'un message de contrôle (sans auteur)
+	 * @param priority true s'il s'agit d'une diffusion prioritaire
+	 * @param clientSent date d'envoi de la ligne par le client (ou 0)
+	 * @param receivedAt date de réception de la ligne par le serveur
+	 * @return le message diffusé
+	 */
+	public Message broadcast(String sender,
+	                         String content,
+	                         boolean control,
+	                         boolean priority,
+	                         long clientSent,
+	                         long receivedAt)
+	{
+		/*
+		 * clients est un Vector qui est atomique donc a priori on a pas
+		 * besoin du "synchronized (clients)", néanmoins ce synchronized
+		 * permet de bloquer l'accès à l'ensemble des autres clients quand on
+		 * diffuse le message à tous les clients. Sans quoi on pourrait
+		 * diffuser le message à un client, puis se faire interrompre par un
+		 * autre client, puis diffuser le message à un autre client, etc.
+		 */
+		LockProfile lock = metrics.getClientsLock();
+		long requested = lock.request();
+		if (priority)
+		{
+			requestPriority();
+		}
+		waiting.incrementAndGet();
+		synchronized (clients)
+		{
+			if (priority)
+			{
+				priorityGranted();
+			}
+			else
+			{
+				yieldToPriority();
+			}
+			waiting.decrementAndGet();
+			long acquired = lock.acquired("broadcast", requested);
+			try
+			{
+				/*
+				 * Création du message à diffuser : le numéro de séquence est
+				 * attribué en détenant le verrou afin de suivre l'ordre de
+				 * diffusion, puis le message est conservé dans l'historique pour
+				 * les clients qui se reconnectent
+				 */
+				Message message = new Message(sequence.incrementAndGet(),
+				                              System.currentTimeMillis(),
+				                              content,
+				                              (control ? null : sender));
+				history.add(message);
+
+				BroadcastEvent event = new BroadcastEvent();
+				event.begin();
+				// les octets écrits ne sont comptés que pendant un enregistrement
+				boolean recording = event.isEnabled();
+				long bytes = 0;
+				long start = System.nanoTime();
+				int recipients = 0;
+				for (InputOutputClient c : clients)
+				{
+					if (c.isReady())
+					{
+						RecipientWriteEvent write = new RecipientWriteEvent();
+						long before = (recording ? c.getStats().getBytesOut() : 0);
+						write.begin();
+						try
+						{
+							if (c.isTraced())
+							{
+								// envoi du message daté de chaque étape
+								long sentAt = MessageTrace.now();
+								c.send(new MessageTrace(message,
+								                        clientSent,
+								                        receivedAt,
+								                        sentAt,
+								                        0));
+								metrics.getLatencies().recordRelay(receivedAt,
+								                                   sentAt);
+							}
+							else
+							{
+								// envoi du message (objet ou trame selon le client)
+								c.send(message);
+							}
+						}
+						catch (IOException e)
+						{
+							failed(c, sender, e);
+							continue;
+						}
+						write.end();
+						recipients++;
+						if (recording)
+						{
+							long written = c.getStats().getBytesOut() - before;
+							bytes += written;
+							if (write.shouldCommit())
+							{
+								write.recipient = c.getName();
+								write.sequence = message.getSequence();
+								write.bytes = written;
+								write.commit();
+							}
+						}
+					}
+					else
+					{
+						logger.warning(() -> "Broadcaster[" + sender + "]Client "
+						    + c.getName() + " not ready");
+					}
+				}
+				/*
+				 * Fin de rafale : si aucune autre diffusion n'attend le
+				 * verrou, les tampons des clients sont vidés (sinon c'est la
+				 * prochaine diffusion qui s'en chargera). Une diffusion
+				 * prioritaire vide tous les tampons sans attendre.
+				 */
+				if (priority || (waiting.get() == 0))
+				{
+					for (InputOutputClient c : clients)
+					{
+						try
+						{
+							if (priority)
+							{
+								c.flush();
+							}
+							else
+							{
+								c.idle();
+							}
+						}
+						catch (IOException e)
+						{
+							failed(c, sender, e);
+						}
+					}
+				}
+				event.end();
+				if (event.shouldCommit())
+				{
+					event.sender = sender;
+					event.sequence = message.getSequence();
+					event.control = control;
+					event.recipients = recipients;
+					event.bytes = bytes;
+					event.commit();
+				}
+				metrics.broadcast(recipients, (System.nanoTime() - start) / 1000);
+				return message;
+			}
+			finally
+			{
+				lock.released("broadcast", acquired);
+			}
+		}
+	}
+
+	/**
+	 * Demande prioritaire du verrou de diffusion (la liste des clients) : à
+	 * appeler juste avant d'entrer dans le bloc synchronisé, puis appeler
+	 * {@link #priorityGranted()} dès que le verrou est obtenu. Les
+	 * diffusions ordinaires rendent le verrou entre temps.
+	 */
+	void requestPriority()
+	{
+		urgent.incrementAndGet();
+	}
+
+	/**
+	 * Obtention du verrou de diffusion suite à {@link #requestPriority()}
+	 */
+	void priorityGranted()
+	{
+		urgent.decrementAndGet();
+	}
+
+	/**
+	 * Attente, en rendant le verrou de diffusion, qu'aucune demande
+	 * prioritaire ne soit en attente. Doit être appelée en détenant le
+	 * verrou.
+	 */
+	private void yieldToPriority()
+	{
+		while (urgent.get() > 0)
+		{
+			try
+			{
+				clients.wait(1);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Échec de l'écriture vers un client : le client est déconnecté (son
+	 * {@link ClientHandler} procède alors à son nettoyage) sans que l'émetteur
+	 * du message ne soit affecté
+	 * @param client le client vers lequel l'écriture a échoué
+	 * @param sender le nom de l'émetteur du message
+	 * @param e l'exception survenue
+	 */
+	private void failed(InputOutputClient client, String sender, IOException e)
+	{
+		logger.warning("Broadcaster[" + sender + "]: write to "
+		    + client.getName() + " failed, disconnecting it: "
+		    + e.getLocalizedMessage());
+		client.disconnect();
+	}
+}
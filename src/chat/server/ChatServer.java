@@ -3,15 +3,31 @@ package chat.server;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
+import javax.management.JMException;
+
 import chat.Failure;
+import chat.Handshake;
+import chat.MessageCodec;
+import chat.Vocabulary;
+import chat.server.events.AcceptEvent;
+import chat.server.events.HandshakeEvent;
+import chat.server.events.KickEvent;
 import logger.LoggerFactory;
+import metrics.HopLatencies;
+import metrics.LockProfile;
+import metrics.ServerMetrics;
+import models.Message;
 
 /**
  * Classe du serveur de chat Chaque message de chaque client doit être renvoyé à
@@ -39,6 +55,19 @@ public class ChatServer implements Runnable
 	 */
 	public final static int DEFAULTTIMEOUT = 1000;
 
+	/**
+	 * Fenêtre (en ms) par défaut pendant laquelle les messages destinés à un
+	 * client ayant accepté les trames de lot (voir
+	 * {@link Vocabulary#batchOption}) sont regroupés
+	 */
+	public final static long DEFAULTBATCHWINDOW = 2;
+
+	/**
+	 * Fenêtre (en ms) maximum de regroupement des messages qu'un client peut
+	 * demander
+	 */
+	public final static long MAXBATCHWINDOW = 100;
+
 	/**
 	 * La liste des différents clients. Un client est constitué :
 	 * <ul>
@@ -77,11 +106,72 @@ public class ChatServer implements Runnable
 	 */
 	private boolean listening;
 
+	/**
+	 * Indique que le serveur est en cours d'arrêt (voir {@link #drain()}) :
+	 * les nouvelles connexions sont refusées et le serveur s'arrête lorsque
+	 * le dernier client se délogue
+	 */
+	private volatile boolean draining;
+
 	/**
 	 * Termine le serveur lorsque le dernier client se délogue
 	 */
 	private final boolean quitOnLastClient;
 
+	/**
+	 * Historique des derniers messages diffusés utilisé pour renvoyer aux
+	 * clients qui se reconnectent les messages qu'ils ont manqués
+	 */
+	private final MessageHistory history;
+
+	/**
+	 * Dernier numéro de séquence attribué à un message diffusé.
+	 * Initialisé avec l'heure de démarrage du serveur (en µs) afin que les
+	 * numéros de séquence restent croissants d'un redémarrage du serveur à
+	 * l'autre : un client qui se reconnecte après un redémarrage reçoit alors
+	 * tout l'historique du nouveau serveur et non pas un historique vide.
+	 */
+	private final AtomicLong sequence;
+
+	/**
+	 * Mesures du serveur (exposées à travers JMX), dont les latences des
+	 * étapes de la diffusion pour les clients qui ont demandé le traçage de
+	 * leurs messages (voir {@link Vocabulary#traceOption})
+	 */
+	private final ServerMetrics metrics;
+
+	/**
+	 * Diffuseur des messages reçus à tous les {@link #clients} (attribue
+	 * les numéros de {@link #sequence})
+	 */
+	private final Broadcaster broadcaster;
+
+	/**
+	 * Transcription des lignes reçues des clients (par défaut sur la
+	 * console, sans bloquer les {@link ClientHandler})
+	 */
+	private volatile TranscriptSink transcript;
+
+	/**
+	 * Politique d'écriture par défaut des messages vers les clients (un
+	 * client peut demander un autre mode de vidage lors de sa connexion, voir
+	 * {@link Vocabulary#flushOption})
+	 */
+	private volatile FlushPolicy flushPolicy;
+
+	/**
+	 * Fenêtre (en ms) par défaut de regroupement des messages des clients
+	 * ayant accepté les trames de lot ou bien 0 si le serveur n'envoie pas
+	 * de trames de lot
+	 */
+	private volatile long batchWindow;
+
+	/**
+	 * Limite du débit des lignes reçues des clients (par utilisateur et
+	 * globale) appliquée par les {@link ClientHandler}
+	 */
+	private volatile RateLimiter rateLimiter;
+
 	/**
 	 * Constructeur valué d'un serveur de chat. Celui ci initialise la
 	 * {@link ServerSocket},
@@ -91,6 +181,8 @@ public class ChatServer implements Runnable
 	 * @param timeout temps d'attente de connection d'un client
 	 * @param quitOnLastClient quitte le serveur lorsque le dernier client
 	 * se délogue
+	 * @param historySize nombre de messages diffusés conservés pour les
+	 * clients qui se reconnectent
 	 * @param parentLogger logger parent pour l'affichage des messages de
 	 * debug
 	 * @throws IOException Si une erreur intervient lors de la création de la
@@ -99,10 +191,15 @@ public class ChatServer implements Runnable
 	public ChatServer(int port,
 	                  int timeout,
 	                  boolean quitOnLastClient,
+	                  int historySize,
 	                  Logger parentLogger)
 	    throws IOException
 	{
 		this.quitOnLastClient = quitOnLastClient;
+		history = new MessageHistory(historySize);
+		metrics = new ServerMetrics();
+		sequence = new AtomicLong(
+		    TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()));
 		logger = LoggerFactory.getParentLogger(getClass(),
 		                                       parentLogger,
 		                                       parentLogger.getLevel());
@@ -119,6 +216,51 @@ public class ChatServer implements Runnable
 
 		clients = new Vector<InputOutputClient>();
 		handlers = new Vector<ClientHandler>();
+		try
+		{
+			metrics.register(serverSocket.getLocalPort());
+		}
+		catch (JMException e)
+		{
+			logger.warning("ChatServer: unable to register metrics: "
+			    + e.getLocalizedMessage());
+		}
+		broadcaster = new Broadcaster(clients,
+		                              history,
+		                              sequence,
+		                              metrics,
+		                              logger);
+		transcript = new AsyncTranscript(System.out,
+		                                 AsyncTranscript.DEFAULTCAPACITY);
+		flushPolicy = FlushPolicy.DEFAULT;
+		batchWindow = DEFAULTBATCHWINDOW;
+		rateLimiter = RateLimiter.UNLIMITED;
+	}
+
+	/**
+	 * Constructeur valué d'un serveur de chat conservant
+	 * {@link MessageHistory#DEFAULTCAPACITY} messages dans son historique.
+	 *
+	 * @param port le port sur lequel on écoute les requètes
+	 * @param timeout temps d'attente de connection d'un client
+	 * @param quitOnLastClient quitte le serveur lorsque le dernier client
+	 * se délogue
+	 * @param parentLogger logger parent pour l'affichage des messages de
+	 * debug
+	 * @throws IOException Si une erreur intervient lors de la création de la
+	 *             {@link ServerSocket}
+	 */
+	public ChatServer(int port,
+	                  int timeout,
+	                  boolean quitOnLastClient,
+	                  Logger parentLogger)
+	    throws IOException
+	{
+		this(port,
+		     timeout,
+		     quitOnLastClient,
+		     MessageHistory.DEFAULTCAPACITY,
+		     parentLogger);
 	}
 
 	/**
@@ -161,6 +303,126 @@ public class ChatServer implements Runnable
 		return quitOnLastClient;
 	}
 
+	/**
+	 * Accesseur en lecture de l'historique des messages diffusés
+	 * @return l'historique des messages diffusés
+	 */
+	public MessageHistory getHistory()
+	{
+		return history;
+	}
+
+	/**
+	 * Accesseur en lecture des latences mesurées par le serveur
+	 * @return les latences de réception et de relais des messages tracés
+	 */
+	public HopLatencies getLatencies()
+	{
+		return metrics.getLatencies();
+	}
+
+	/**
+	 * Accesseur en lecture des mesures du serveur
+	 * @return les mesures du serveur
+	 */
+	public ServerMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * Accesseur en lecture du diffuseur des messages à tous les clients
+	 * @return le diffuseur des messages
+	 */
+	public Broadcaster getBroadcaster()
+	{
+		return broadcaster;
+	}
+
+	/**
+	 * Accesseur en lecture de la transcription des lignes reçues
+	 * @return la transcription des lignes reçues des clients
+	 */
+	public TranscriptSink getTranscript()
+	{
+		return transcript;
+	}
+
+	/**
+	 * Accesseur en écriture de la transcription des lignes reçues (la
+	 * transcription précédente est fermée)
+	 * @param transcript la nouvelle transcription (voir
+	 * {@link TranscriptSink#OFF} pour ne rien transcrire)
+	 */
+	public void setTranscript(TranscriptSink transcript)
+	{
+		TranscriptSink previous = this.transcript;
+		this.transcript = transcript;
+		previous.close();
+	}
+
+	/**
+	 * Accesseur en lecture de la politique d'écriture par défaut
+	 * @return la politique d'écriture des messages vers les clients
+	 */
+	public FlushPolicy getFlushPolicy()
+	{
+		return flushPolicy;
+	}
+
+	/**
+	 * Accesseur en écriture de la politique d'écriture par défaut (pour les
+	 * prochains clients)
+	 * @param flushPolicy la politique d'écriture des messages vers les
+	 * clients
+	 */
+	public void setFlushPolicy(FlushPolicy flushPolicy)
+	{
+		this.flushPolicy = flushPolicy;
+	}
+
+	/**
+	 * Accesseur en lecture de la fenêtre de regroupement des messages
+	 * @return la fenêtre (en ms) par défaut de regroupement des messages en
+	 * trames de lot ou bien 0 si le serveur n'envoie pas de trames de lot
+	 */
+	public long getBatchWindow()
+	{
+		return batchWindow;
+	}
+
+	/**
+	 * Accesseur en écriture de la fenêtre de regroupement des messages (pour
+	 * les prochains clients)
+	 * @param batchWindow la fenêtre (en ms) par défaut de regroupement des
+	 * messages en trames de lot ou bien 0 pour ne pas envoyer de trames de
+	 * lot
+	 */
+	public void setBatchWindow(long batchWindow)
+	{
+		this.batchWindow = Math.max(batchWindow, 0);
+	}
+
+	/**
+	 * Accesseur en lecture de la limite du débit des lignes reçues
+	 * @return la limite du débit des lignes reçues des clients
+	 */
+	public RateLimiter getRateLimiter()
+	{
+		return rateLimiter;
+	}
+
+	/**
+	 * Accesseur en écriture de la limite du débit des lignes reçues (prise
+	 * en compte dès la ligne suivante de chaque client, le seau global
+	 * repartant plein)
+	 * @param rateLimiter la limite du débit des lignes reçues des clients
+	 */
+	public void setRateLimiter(RateLimiter rateLimiter)
+	{
+		this.rateLimiter = rateLimiter;
+	}
+
 	/**
 	 * Change l'état d'écoute du serveur
 	 * @param value la nouvelle valeur
@@ -188,6 +450,12 @@ public class ChatServer implements Runnable
 		{
 			Socket clientSocket = null;
 			String clientName = null;
+			boolean resuming = false;
+			long resumeFrom = Message.NO_SEQUENCE;
+			boolean framed = false;
+			boolean traced = false;
+			FlushPolicy policy = flushPolicy;
+			boolean batched = false;
 
 			// acceptation de la socket du client
 			try
@@ -195,6 +463,14 @@ public class ChatServer implements Runnable
 				// on attends ici une connection d'un nouveau client
 				clientSocket = serverSocket.accept(); // --> IOException
 				logger.fine("ChatServer: client connection accepted");
+				metrics.connectionAccepted();
+				AcceptEvent acceptEvent = new AcceptEvent();
+				if (acceptEvent.shouldCommit())
+				{
+					acceptEvent.remote =
+					    String.valueOf(clientSocket.getRemoteSocketAddress());
+					acceptEvent.commit();
+				}
 
 			}
 			catch (SocketTimeoutException ste)
@@ -211,6 +487,18 @@ public class ChatServer implements Runnable
 				System.exit(Failure.SERVER_CONNECTION.toInteger());
 			}
 
+			HandshakeEvent handshakeEvent = new HandshakeEvent();
+			handshakeEvent.begin();
+
+			if ((clientSocket != null) && draining)
+			{
+				// refus des nouveaux clients pendant l'arrêt du serveur
+				refuse(clientSocket, "Sorry the server is shutting down");
+				metrics.handshakeFailed();
+				commit(handshakeEvent, clientSocket, null, "server draining");
+				continue;
+			}
+
 			if (clientSocket != null)
 			{
 				// récupération du nom du client
@@ -219,7 +507,7 @@ public class ChatServer implements Runnable
 				try
 				{
 					reader = new BufferedReader(new InputStreamReader(
-							clientSocket.getInputStream()));
+							metrics.countInput(clientSocket.getInputStream())));
 				}
 				catch (IOException e1)
 				{
@@ -232,8 +520,44 @@ public class ChatServer implements Runnable
 					logger.info("ChatServer: reading client's name: ");
 					try
 					{
-						// Lecture du nom du client
-						clientName = reader.readLine();
+						// Lecture du nom du client (et de ses options)
+						Handshake handshake =
+						    Handshake.parse(reader.readLine());
+						if (handshake != null)
+						{
+							clientName = handshake.getName();
+							resuming =
+							    handshake.has(Vocabulary.resumeOption);
+							resumeFrom = handshake.getLong(
+							    Vocabulary.resumeOption, Message.NO_SEQUENCE);
+							framed = MessageCodec.NAME.equals(
+							    handshake.get(Vocabulary.codecOption));
+							traced = handshake.has(Vocabulary.traceOption);
+							policy = flushPolicy.parse(
+							    handshake.get(Vocabulary.flushOption));
+							/*
+							 * Regroupement des messages en trames de lot :
+							 * ils sont alors écrits au plus tard à la fin de
+							 * la fenêtre demandée par le client (ou de celle
+							 * du serveur)
+							 */
+							long window = batchWindow;
+							batched = framed && (window > 0)
+							    && handshake.has(Vocabulary.batchOption);
+							if (batched)
+							{
+								window = handshake.getLong(
+								    Vocabulary.batchOption, window);
+								policy = policy.with(
+								    FlushPolicy.Mode.LATENCY,
+								    Math.min(Math.max(window, 1),
+								             MAXBATCHWINDOW));
+							}
+						}
+						else
+						{
+							metrics.handshakeFailed();
+						}
 						logger.info("ChatServer: client name " + clientName);
 					}
 					catch (IOException e)
@@ -258,13 +582,54 @@ public class ChatServer implements Runnable
 					InputOutputClient newClient =
 							new InputOutputClient(clientSocket,
 							                      clientName,
+							                      reader,
+							                      framed,
+							                      policy,
+							                      metrics,
 							                      logger);
+					newClient.setTraced(traced);
+					newClient.setBatched(batched);
 
-					// Ajout du nouveau client à la liste des clients.
+					/*
+					 * Ajout du nouveau client à la liste des clients.
+					 * Si le client se reconnecte, les messages qu'il a
+					 * manqués sont relevés et mis en attente dans le client :
+					 * comme la diffusion se fait elle aussi en détenant le
+					 * verrou sur clients, les diffusions suivantes sont mises
+					 * en attente après eux et aucun message ne peut être
+					 * perdu ou reçu en double. Le rejeu est écrit par le
+					 * thread du handler du client, sans détenir le verrou :
+					 * une socket lente ne bloque ni les diffusions ni les
+					 * connexions. Les pages d'historique qu'il demandera
+					 * ensuite précéderont le premier message qu'il reçoit.
+					 */
+					LockProfile lock = metrics.getClientsLock();
+					long requested = lock.request();
 					synchronized (clients)
 					{
-						clients.add(newClient);
+						long acquired = lock.acquired("register", requested);
+						try
+						{
+							if (resuming)
+							{
+								hold(newClient, resumeFrom);
+							}
+							newClient.setFirstSequence(resuming ?
+							    resumeFrom + 1 : sequence.get() + 1);
+							clients.add(newClient);
+							metrics.clientConnected(newClient.getStats());
+						}
+						finally
+						{
+							lock.released("register", acquired);
+						}
 					}
+					handshakeEvent.framed = framed;
+					handshakeEvent.traced = traced;
+					handshakeEvent.batched = batched;
+					handshakeEvent.flush = policy.toString();
+					handshakeEvent.resuming = resuming;
+					commit(handshakeEvent, clientSocket, clientName, null);
 
 					// Création et lancement d'un handler pour ce client
 					ClientHandler handler = new ClientHandler(this,
@@ -272,21 +637,40 @@ public class ChatServer implements Runnable
 					                                          clients,
 					                                          logger);
 					handlers.add(handler);
-					Thread handlerThread = new Thread(handler);
+					Thread handlerThread = new Thread(handler,
+					                                  "handler-" + clientName);
 					handlerThread.start();
 					handlerThreads.add(handlerThread);
 				}
 				else // un client avec ce nom existe déjà
 				{
-					// on notifie au client qu'il est refusé
+					metrics.handshakeFailed();
+					commit(handshakeEvent, clientSocket, clientName,
+					       "name already used");
+					/*
+					 * on notifie au client qu'il est refusé, sous forme de
+					 * trame s'il en a demandé : un client qui se reconnecte
+					 * alors que son ancienne connexion n'a pas encore été
+					 * fermée peut ainsi reconnaître le refus et réessayer
+					 */
 					try
 					{
-						PrintWriter out = new PrintWriter(
-								clientSocket.getOutputStream(), true);
-						out.println("server > Sorry another client already use the name "
-								+ clientName);
-						out.println("Hit ^D to close your client and try another name");
-						out.close();
+						String notice = Vocabulary.nameUsedNotice + " "
+						    + clientName;
+						if (framed)
+						{
+							OutputStream out = clientSocket.getOutputStream();
+							out.write(MessageCodec.encode(new Message(notice)));
+							out.close();
+						}
+						else
+						{
+							PrintWriter out = new PrintWriter(
+									clientSocket.getOutputStream(), true);
+							out.println("server > " + notice);
+							out.println("Hit ^D to close your client and try another name");
+							out.close();
+						}
 					}
 					catch (IOException e)
 					{
@@ -318,7 +702,24 @@ public class ChatServer implements Runnable
 		}
 
 		logger.info("ChatServer::run: all client handlers terminated");
+		transcript.close();
 
+		// Affichage des latences des messages tracés
+		String summary = metrics.getLatencies().toString();
+		if (!summary.isEmpty())
+		{
+			logger.info("ChatServer::run: latencies" + Vocabulary.newLine + summary);
+		}
+		logger.info(() -> "ChatServer::run: metrics" + Vocabulary.newLine + metrics);
+		try
+		{
+			metrics.unregister();
+		}
+		catch (JMException e)
+		{
+			logger.warning("ChatServer::run: unable to unregister metrics: "
+			    + e.getLocalizedMessage());
+		}
 
 		handlerThreads.clear();
 		handlers.clear();
@@ -338,6 +739,146 @@ public class ChatServer implements Runnable
 
 	}
 
+	/**
+	 * Mise en attente dans un client qui se reconnecte des messages diffusés
+	 * après le dernier numéro de séquence qu'il a reçu (voir
+	 * {@link InputOutputClient#hold(List)}). Doit être appelée en détenant
+	 * le verrou sur {@link #clients}.
+	 * @param client le client qui se reconnecte
+	 * @param resumeFrom le dernier numéro de séquence reçu par le client
+	 */
+	private void hold(InputOutputClient client, long resumeFrom)
+	{
+		List<Message> missed = history.after(resumeFrom);
+		logger.info(() -> "ChatServer: replaying " + missed.size()
+		    + " messages to " + client.getName());
+		client.hold(missed);
+		for (int i = 0; i < missed.size(); i++)
+		{
+			metrics.messageSent();
+		}
+	}
+
+	/**
+	 * Refus d'une connexion : envoi d'un message au client puis fermeture de
+	 * sa socket
+	 * @param clientSocket la socket du client refusé
+	 * @param reason la raison du refus
+	 */
+	private void refuse(Socket clientSocket, String reason)
+	{
+		try
+		{
+			PrintWriter out = new PrintWriter(
+					clientSocket.getOutputStream(), true);
+			out.println("server > " + reason);
+			out.close();
+		}
+		catch (IOException e)
+		{
+			logger.severe("ChatServer: " + Failure.CLIENT_OUTPUT_STREAM);
+			logger.severe(e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Enregistrement (JFR) de la connexion d'un client
+	 * @param event l'évènement de connexion en cours
+	 * @param clientSocket la socket du client
+	 * @param clientName le nom du client (ou null)
+	 * @param reason la raison du refus du client ou bien null s'il a été
+	 * accepté
+	 */
+	private static void commit(HandshakeEvent event,
+	                           Socket clientSocket,
+	                           String clientName,
+	                           String reason)
+	{
+		event.end();
+		if (event.shouldCommit())
+		{
+			event.remote = String.valueOf(clientSocket.getRemoteSocketAddress());
+			event.client = clientName;
+			event.accepted = (reason == null);
+			event.reason = reason;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Arrêt progressif du serveur : les nouvelles connexions sont refusées
+	 * et le serveur s'arrête lorsque le dernier client se délogue (même s'il
+	 * a été lancé avec --noquit)
+	 */
+	public synchronized void drain()
+	{
+		draining = true;
+		logger.info("ChatServer: draining, " + ClientHandler.getNbThreads()
+		    + " clients remaining");
+		cleanup();
+	}
+
+	/**
+	 * Indique si le serveur est en cours d'arrêt
+	 * @return true si le serveur refuse les nouvelles connexions et s'arrête
+	 * au départ du dernier client
+	 */
+	public boolean isDraining()
+	{
+		return draining;
+	}
+
+	/**
+	 * Déconnexion forcée d'un client par un administrateur : les clients
+	 * sont prévenus comme pour la commande {@link Vocabulary#kickCmd} (le
+	 * client kické ne se reconnecte donc pas). Le client est d'abord
+	 * déconnecté et purgé de ses messages en attente (voir
+	 * {@link InputOutputClient#purge(Message)}) puis l'avertissement est
+	 * diffusé en priorité aux autres clients.
+	 * @param clientName le nom du client à déconnecter
+	 * @param by le nom de l'administrateur
+	 * @return true si le client a été trouvé et déconnecté, false sinon
+	 */
+	public boolean kick(String clientName, String by)
+	{
+		InputOutputClient client = searchClientByName(clientName);
+		KickEvent event = new KickEvent();
+		if (event.shouldCommit())
+		{
+			event.target = clientName;
+			event.by = by;
+			event.granted = (client != null);
+			event.commit();
+		}
+		if (client == null)
+		{
+			return false;
+		}
+
+		client.setBanned(true);
+		logger.info(() -> "ChatServer: client " + clientName + " kicked by " + by);
+		String notice = Vocabulary.kickCmd + " " + clientName
+		    + " [request granted by server] by " + by;
+		LockProfile lock = metrics.getClientsLock();
+		long requested = lock.request();
+		broadcaster.requestPriority();
+		synchronized (clients)
+		{
+			broadcaster.priorityGranted();
+			long acquired = lock.acquired("kick", requested);
+			try
+			{
+				client.purge(new Message(notice));
+			}
+			finally
+			{
+				lock.released("kick", acquired);
+			}
+		}
+		broadcaster.broadcast(by, notice, true, true, 0, 0);
+		return true;
+	}
+
 	/**
 	 * Méthode invoquée par les {@link ClientHandler} à la fin de leur exécution
 	 * pour éventuellement arrêter le serveur lorsqu'il n'y a plus de clients
@@ -348,7 +889,7 @@ public class ChatServer implements Runnable
 		int nbThreads = ClientHandler.getNbThreads();
 		if (nbThreads <= 0)
 		{
-			if (quitOnLastClient)
+			if (quitOnLastClient || draining)
 			{
 				listening = false;
 				logger.info("ChatServer::run: no more threads.");
@@ -356,7 +897,7 @@ public class ChatServer implements Runnable
 		}
 		else
 		{
-			logger.info("ChatServer::run: still " + nbThreads +
+			logger.info(() -> "ChatServer::run: still " + nbThreads +
 					" threads remaining ...");
 		}
 	}
@@ -376,15 +917,25 @@ public class ChatServer implements Runnable
 		 * être atomique afin qu'aucun autre thread ne puisse modifier cette
 		 * liste pendant qu'on la consulte : d'où le "synchronized"
 		 */
+		LockProfile lock = metrics.getClientsLock();
+		long requested = lock.request();
 		synchronized (clients)
 		{
-			for (InputOutputClient c : clients)
+			long acquired = lock.acquired("search", requested);
+			try
 			{
-				if (c.getName().equals(clientName))
+				for (InputOutputClient c : clients)
 				{
-					return c;
+					if (c.getName().equals(clientName))
+					{
+						return c;
+					}
 				}
 			}
+			finally
+			{
+				lock.released("search", acquired);
+			}
 		}
 
 		return null;
@@ -3,17 +3,32 @@ package chat.server;
 import java.io.IOException;
 import java.io.InvalidClassException;
 import java.io.NotSerializableException;
-import java.io.ObjectOutputStream;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Logger;
 
 import chat.Vocabulary;
+import chat.server.events.DisconnectEvent;
+import chat.server.events.KickEvent;
 import logger.LoggerFactory;
+import metrics.ClientMetrics;
+import metrics.HopLatencies;
+import metrics.LockProfile;
+import metrics.ServerMetrics;
 import models.Message;
+import models.MessagePage;
+import models.MessageTrace;
 
 /**
  * Classe utilisée pour traiter chacune des connections des clients dans un
- * nouveau thread
+ * nouveau thread. Le débit des lignes reçues est limité par la
+ * {@link RateLimiter} du serveur : chaque handler possède le seau de sa
+ * connexion. La commande bye et les commandes kick et kill autorisées du
+ * super-utilisateur échappent à cette limite et leur diffusion est
+ * prioritaire (voir {@link #isPriority(Command)}) ; un
+ * client kické est immédiatement déconnecté (voir
+ * {@link InputOutputClient#purge(Message)}).
  *
  * @author davidroussel
  */
@@ -51,7 +66,14 @@ public class ClientHandler implements Runnable
 	 *
 	 * @uml.property name="nbThreads"
 	 */
-	private static int nbThreads = 0;
+	private static final AtomicInteger nbThreads = new AtomicInteger();
+
+	/**
+	 * Durée maximum (en ns) de chaque attente imposée par la limite de
+	 * débit : un client kické pendant l'attente est déconnecté au plus tard
+	 * après ce délai
+	 */
+	private static final long MAXPARK = 10000000L;
 
 	/**
 	 * Logger pour l'affichage des messages de debug
@@ -74,7 +96,7 @@ public class ClientHandler implements Runnable
 		this.parent = parent;
 		this.mainClient = mainClient;
 		this.allClients = allClients;
-		nbThreads++;
+		nbThreads.incrementAndGet();
 		logger = LoggerFactory.getParentLogger(getClass(),
 		                                       parentLogger,
 		                                       parentLogger.getLevel());
@@ -88,7 +110,215 @@ public class ClientHandler implements Runnable
 	 */
 	public static int getNbThreads()
 	{
-		return nbThreads;
+		return nbThreads.get();
+	}
+
+	/**
+	 * Traitement d'une demande de page d'historique :
+	 * history &lt;nombre&gt; [&lt;séquence&gt;]. La page des messages
+	 * diffusés avant la séquence demandée (ou avant le premier message reçu
+	 * par le client depuis sa connexion) est envoyée au seul client
+	 * principal.
+	 * @param command la demande de page reçue du client
+	 * @throws IOException si l'envoi de la page échoue
+	 */
+	private void sendHistoryPage(Command command) throws IOException
+	{
+		InputOutputClient client = (InputOutputClient) mainClient;
+		long before = (command.getBefore() != Message.NO_SEQUENCE ?
+		               command.getBefore() : client.getFirstSequence());
+
+		MessagePage page = parent.getHistory().before(before,
+		                                              command.getCount());
+		logger.fine(() -> "ClientHandler[" + mainClient.getName() + "] sending "
+		    + page.size() + " messages before " + before);
+		// la page ne doit pas s'intercaler dans un message diffusé
+		LockProfile lock = parent.getMetrics().getClientsLock();
+		long requested = lock.request();
+		synchronized (allClients)
+		{
+			long acquired = lock.acquired("history", requested);
+			try
+			{
+				client.send(page);
+				client.flush();
+			}
+			finally
+			{
+				lock.released("history", acquired);
+			}
+		}
+		parent.getMetrics().messageSent();
+	}
+
+	/**
+	 * Envoi d'un avertissement du serveur au seul client principal (message
+	 * de contrôle sans numéro de séquence)
+	 * @param content le contenu de l'avertissement
+	 * @throws IOException si l'envoi de l'avertissement échoue
+	 */
+	private void sendNotice(String content) throws IOException
+	{
+		if (!(mainClient instanceof InputOutputClient))
+		{
+			return;
+		}
+		InputOutputClient client = (InputOutputClient) mainClient;
+		// l'avertissement ne doit pas s'intercaler dans un message diffusé
+		LockProfile lock = parent.getMetrics().getClientsLock();
+		long requested = lock.request();
+		synchronized (allClients)
+		{
+			long acquired = lock.acquired("notice", requested);
+			try
+			{
+				client.send(new Message(content));
+				client.flush();
+			}
+			finally
+			{
+				lock.released("notice", acquired);
+			}
+		}
+		parent.getMetrics().messageSent();
+	}
+
+	/**
+	 * Indique si le client principal est le super-utilisateur (1er de tous
+	 * les clients)
+	 * @return true si le client principal peut kicker ou tuer le serveur
+	 */
+	private boolean isSuperUser()
+	{
+		return !allClients.isEmpty() && (allClients.get(0) == mainClient);
+	}
+
+	/**
+	 * Indique si une ligne reçue est prioritaire : la commande bye, ou bien
+	 * une commande kill ou kick (d'un client existant) du super-utilisateur.
+	 * L'autorisation est vérifiée avant la limite de débit : une commande
+	 * refusée est soumise à la limite et diffusée normalement.
+	 * @param command la ligne reçue
+	 * @return true si la ligne échappe à la limite de débit et si sa
+	 * diffusion est prioritaire
+	 */
+	private boolean isPriority(Command command)
+	{
+		switch (command.getType())
+		{
+			case BYE:
+				return true;
+			case KILL:
+				return isSuperUser();
+			case KICK:
+				return isSuperUser() && (command.getTarget() != null)
+				    && (parent.searchClientByName(command.getTarget()) != null);
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Traitement d'une demande de kick d'un client par le client principal
+	 * @param command la commande kick reçue
+	 * @param priority true si la demande est autorisée et prioritaire (le
+	 * verrou des clients est alors demandé en priorité)
+	 * @return le contenu du message de contrôle à diffuser
+	 */
+	private String kick(Command command, boolean priority)
+	{
+		StringBuffer messageContent = new StringBuffer(Vocabulary.kickCmd);
+		InputOutputClient kickedClient = null;
+		KickEvent event = new KickEvent();
+		Broadcaster broadcaster = parent.getBroadcaster();
+		// On bloque l'accès à allClients tant que l'on traite
+		// la commande du mainClient (en priorité sur les diffusions si elle
+		// est autorisée)
+		LockProfile lock = parent.getMetrics().getClientsLock();
+		long requested = lock.request();
+		if (priority)
+		{
+			broadcaster.requestPriority();
+		}
+		synchronized (allClients)
+		{
+			if (priority)
+			{
+				broadcaster.priorityGranted();
+			}
+			long acquired = lock.acquired("kick", requested);
+			try
+			{
+				// on vérifie que le client est super-utilisateur
+				// (1er de tous les clients)
+				if (isSuperUser())
+				{
+					// on recherche le nom du client à kicker
+					String kickedName = command.getTarget();
+					if (kickedName == null)
+					{
+						logger.warning("ClientHandler: Error retreiving client name to kick");
+					}
+					if (kickedName != null)
+					{
+						messageContent.append(" " + kickedName);
+						kickedClient = parent.searchClientByName(kickedName);
+						if (kickedClient != null)
+						{
+							kickedClient.setBanned(true);
+							event.granted = true;
+							logger.info(() -> "Clienthandler["
+								+ mainClient.getName() + "] client "
+								+ kickedName + " banned");
+							messageContent.append(" [request granted by server]");
+						}
+						else
+						{
+							messageContent.append(" [client "
+								+ kickedName + " does not exist]");
+						}
+					}
+					else
+					{
+						messageContent.append(" [no client name to kick]");
+					}
+				}
+				else
+				{
+					int cmdL = Vocabulary.kickCmd.length();
+					String clientInput = command.getLine();
+					messageContent.append(clientInput.substring(cmdL, (clientInput.length())));
+					messageContent.append(" [request denied by server]");
+				}
+				messageContent.append(" by " + mainClient.getName());
+				if (event.granted)
+				{
+					// déconnexion sans attendre sa prochaine ligne
+					kickedClient.purge(new Message(messageContent.toString()));
+				}
+			}
+			finally
+			{
+				lock.released("kick", acquired);
+			}
+		}
+		if (event.shouldCommit())
+		{
+			event.target = command.getTarget();
+			event.by = mainClient.getName();
+			event.commit();
+		}
+		return messageContent.toString();
+	}
+
+	/**
+	 * Indique si le client principal a demandé le traçage de ses messages
+	 * @return true si les lignes du client principal sont datées
+	 */
+	private boolean isTraced()
+	{
+		return (mainClient instanceof InputOutputClient)
+		    && ((InputOutputClient) mainClient).isTraced();
 	}
 
 	/**
@@ -103,11 +333,27 @@ public class ClientHandler implements Runnable
 	{
 		boolean loggedOut = false;
 		boolean killed = false;
+		boolean limited = false;
+		RateLimiter.Bucket bucket = new RateLimiter.Bucket();
 		String clientInput = null;
-
+		boolean traced = isTraced();
+		ServerMetrics metrics = parent.getMetrics();
+		HopLatencies latencies = metrics.getLatencies();
+		ClientMetrics stats = (mainClient instanceof InputOutputClient ?
+		    ((InputOutputClient) mainClient).getStats() : null);
+		Broadcaster broadcaster = parent.getBroadcaster();
+		DisconnectEvent event = new DisconnectEvent();
+		event.begin();
+		boolean failed = false;
 
 		try
 		{
+			// rejeu des messages manqués par un client qui se reconnecte
+			if (mainClient instanceof InputOutputClient)
+			{
+				((InputOutputClient) mainClient).replay();
+			}
+
 			/*
 			 * Attente d'une ligne de texte de la part d'un client (appel
 			 * bloquant)
@@ -115,161 +361,158 @@ public class ClientHandler implements Runnable
 			while (!loggedOut && !killed &&
 			       ((clientInput = mainClient.getIn().readLine()) != null))
 			{
-				// Affiche ce qui est reçu par le serveur dans la console
-				System.out.println(mainClient.getName() + " > " + clientInput);
+				/*
+				 * Date de réception de la ligne et, si le client a demandé
+				 * le traçage, date de son envoi en préfixe de la ligne :
+				 * <date>␞<texte>
+				 */
+				long receivedAt = MessageTrace.now();
+				metrics.messageReceived();
+				if (stats != null)
+				{
+					stats.messageReceived();
+				}
+				long clientSent = 0;
+				if (traced)
+				{
+					int separator =
+					    clientInput.indexOf(Vocabulary.handshakeSeparator);
+					if (separator > 0)
+					{
+						try
+						{
+							clientSent = Long.parseLong(
+							    clientInput.substring(0, separator));
+							clientInput = clientInput.substring(separator + 1);
+						}
+						catch (NumberFormatException e)
+						{
+							logger.warning("ClientHandler["
+							    + mainClient.getName()
+							    + "]: invalid trace timestamp");
+						}
+					}
+					latencies.recordUpstream(clientSent, receivedAt);
+				}
 
 				// on vérifie que ce client n'a pas été banni par un super utilisateur
 				if (mainClient.isBanned())
 				{
-					logger.info(mainClient.getName() + " is banned");
+					logger.info(() -> mainClient.getName() + " is banned");
 					loggedOut = true;
 					break;
 				}
 
-				// On vérifie qu'il ne s'agit pas d'un message de contrôle (kick ou bye)
-				boolean controlMessage = false;
-				for (String command : Vocabulary.commands)
-				{
-					if (clientInput.toLowerCase().startsWith(command))
-					{
-						controlMessage = true;
-						break;
-					}
-				}
-
-				StringBuffer messageContent = new StringBuffer();
+				Command command = Command.parse(clientInput);
 
-				if (controlMessage)
+				/*
+				 * Limite du débit : au delà, la ligne est retardée (la
+				 * lecture des lignes suivantes aussi), ignorée ou bien le
+				 * client est déconnecté. Les commandes prioritaires n'y sont
+				 * pas soumises.
+				 */
+				RateLimiter limiter = parent.getRateLimiter();
+				boolean priority = isPriority(command);
+				long delay = (priority ? 0 : limiter.acquire(bucket));
+				if (delay > 0)
 				{
-					// Le client veut nous quitter
-					if (clientInput.toLowerCase().equals(Vocabulary.byeCmd))
+					RateLimiter.Mode mode = limiter.getMode();
+					metrics.limited(mode == RateLimiter.Mode.DISCONNECT,
+					                mode == RateLimiter.Mode.DROP);
+					if (mode == RateLimiter.Mode.DELAY)
 					{
-						messageContent.append(mainClient.getName() +
-						                      " logged out");
-						loggedOut = true;
-					}
-					// on vérifie si un kill est demandé par le client
-					else if (clientInput.toLowerCase().startsWith(Vocabulary.killCmd))
-					{
-						// on vérifie que le client est super-utilisateur
-						// (1er de tous les clients)
-						if (allClients.get(0) == mainClient)
+						// l'attente est interrompue par un kick
+						long end = System.nanoTime() + delay;
+						while ((delay > 0) && !mainClient.isBanned())
 						{
-							killed = true;
-							parent.setListening(false);
+							LockSupport.parkNanos(Math.min(delay, MAXPARK));
+							delay = end - System.nanoTime();
+						}
+						// la ligne d'un client kické n'est pas diffusée
+						if (mainClient.isBanned())
+						{
+							loggedOut = true;
 							break;
 						}
 					}
-					// on vérifie si un kick est demandé par le client
-					else if (clientInput.toLowerCase().startsWith(Vocabulary.kickCmd))
+					else if (mode == RateLimiter.Mode.DROP)
 					{
-						messageContent.append(Vocabulary.kickCmd);
-						// On bloque l'accès à allClients tant que l'on traite
-						// la commande du mainClient
-						synchronized (allClients)
+						if (bucket.shouldNotify())
 						{
-							// on vérifie que le client est super-utilisateur
-							// (1er de tous les clients)
-							if (allClients.get(0) == mainClient)
-							{
-								// on recherche le nom du client à kicker
-								String kickedName = null;
-								try
-								{
-									/*
-									 * On recherche le nom du client à kicker
-									 * dans kick clientToKill
-									 */
-									kickedName = clientInput.substring(
-										Vocabulary.kickCmd.length() + 1);
-								}
-								catch (IndexOutOfBoundsException iob)
-								{
-									logger.warning("ClientHandler: Error retreiving client name to kick");
-								}
-								if (kickedName != null)
-								{
-									messageContent.append(" " + kickedName);
-									InputOutputClient kickedClient =
-										parent.searchClientByName(kickedName);
-									if (kickedClient != null)
-									{
-										kickedClient.setBanned(true);
-										logger.info("Clienthandler["
-											+ mainClient.getName() + "] client "
-											+ kickedName + " banned");
-										messageContent.append(" [request granted by server]");
-									}
-									else
-									{
-										messageContent.append(" [client "
-											+ kickedName + " does not exist]");
-									}
-								}
-								else
-								{
-									messageContent.append(" [no client name to kick]");
-								}
-							}
-							else
-							{
-								int cmdL = Vocabulary.kickCmd.length();
-								messageContent.append(clientInput.substring(cmdL, (clientInput.length())));
-								messageContent.append(" [request denied by server]");
-							}
-							messageContent.append(" by " + mainClient.getName());
+							logger.fine(() -> "ClientHandler["
+							    + mainClient.getName() + "] over rate limit");
+							sendNotice("rate limit exceeded (" + limiter
+							    + "): messages dropped");
 						}
+						continue;
+					}
+					else
+					{
+						logger.info(() -> "ClientHandler["
+						    + mainClient.getName()
+						    + "] over rate limit, disconnecting");
+						sendNotice("rate limit exceeded (" + limiter
+						    + "): disconnected");
+						limited = true;
+						break;
 					}
-				}
-				else
-				{
-					// Il s'agit d'un message ordinaire
-					messageContent.append(clientInput);
 				}
 
-				/*
-				 * Création du message à diffuser
-				 */
-				Message message = null;
-				if (controlMessage)
-				{
-					message = new Message(messageContent.toString());
-				}
-				else
-				{
-					message = new Message(messageContent.toString(),
-					                      mainClient.getName());
-				}
+				// Transcription de ce qui est reçu par le serveur
+				parent.getTranscript().append(mainClient.getName(),
+				                              clientInput);
 
-				/*
-				 * Diffusion du message à tous les clients.
-				 * allClients est un Vector qui est atomique donc a
-				 * priori on a pas besoin du "synchronized (allClients)",
-				 * Néanmoins ce synchronized permet de bloquer l'accès à
-				 * l'ensemble des autres clients quand on diffuse le message de
-				 * notre mainClient à tous les clients. Sans quoi on pourrait
-				 * diffuser le message à un client, puis se faire interrompre
-				 * par un autre client, puis diffuser le message à un autre
-				 * client, etc. A vérifier ...
-				 */
-				synchronized (allClients)
+				String messageContent;
+				switch (command.getType())
 				{
-					for (InputOutputClient c : allClients)
-					{
-						if (c.isReady())
+					case HISTORY:
+						// Une demande de page d'historique n'est envoyée qu'au demandeur
+						if (mainClient instanceof InputOutputClient)
 						{
-							// récupération du flux de sortie et envoi du message
-							ObjectOutputStream out = c.getOut();
-							out.writeObject(message);
+							sendHistoryPage(command);
+							continue;
 						}
-						else
+						// Il s'agit d'un message ordinaire
+						messageContent = clientInput;
+						break;
+					case BYE:
+						// Le client veut nous quitter
+						messageContent = mainClient.getName() + " logged out";
+						loggedOut = true;
+						break;
+					case KILL:
+						// on vérifie que le client est super-utilisateur
+						// (1er de tous les clients)
+						if (isSuperUser())
 						{
-							logger.warning("ClientHandler["
-									+ mainClient.getName() + "]Client "
-									+ c.getName() + " not ready");
+							killed = true;
+							parent.setListening(false);
 						}
-					}
+						messageContent = "";
+						break;
+					case KICK:
+						messageContent = kick(command, priority);
+						break;
+					case UNKNOWN:
+						messageContent = "";
+						break;
+					default:
+						// Il s'agit d'un message ordinaire
+						messageContent = clientInput;
+						break;
+				}
+				if (killed)
+				{
+					break;
 				}
+
+				// Diffusion du message à tous les clients
+				broadcaster.broadcast(mainClient.getName(),
+				                      messageContent,
+				                      command.isControl(),
+				                      priority,
+				                      clientSent,
+				                      receivedAt);
 			}
 		}
 		catch (InvalidClassException ice)
@@ -277,6 +520,7 @@ public class ClientHandler implements Runnable
 			logger.severe("ClientHandler["
 				+ mainClient.getName() + "]: write to client invalid class " +
 				ice.getLocalizedMessage());
+			failed = true;
 		}
 		catch (NotSerializableException nse)
 		{
@@ -284,27 +528,102 @@ public class ClientHandler implements Runnable
 				"ClientHandler[" + mainClient.getName()
 					+ "]: write to not serializable exception "
 					+ nse.getLocalizedMessage());
+			failed = true;
 		}
 		catch (IOException e)
 		{
-			logger.severe("ClientHandler[" + mainClient.getName()
-					+ "]: received or write failed, Closing client " + this);
+			if (mainClient.isBanned())
+			{
+				// lecture interrompue par le kick
+				logger.info(() -> "ClientHandler[" + mainClient.getName()
+				    + "]: kicked, closing client " + this);
+			}
+			else
+			{
+				logger.severe("ClientHandler[" + mainClient.getName()
+				    + "]: received or write failed, Closing client " + this);
+				failed = true;
+			}
+		}
+
+		/*
+		 * Un client kické n'est déjà plus prêt (plus aucune diffusion ne
+		 * lui écrit) : sa socket est fermée sans attendre le verrou de la
+		 * liste des clients
+		 */
+		boolean banned = mainClient.isBanned();
+		if (banned)
+		{
+			mainClient.cleanup();
 		}
 
 		// remove current client from allClients (should be atomic)
+		// (en priorité pour un client kické)
+		LockProfile clientsLock = metrics.getClientsLock();
+		long requested = clientsLock.request();
+		if (banned)
+		{
+			broadcaster.requestPriority();
+		}
 		synchronized (allClients)
 		{
-			allClients.remove(mainClient);
+			if (banned)
+			{
+				broadcaster.priorityGranted();
+			}
+			long acquired = clientsLock.acquired("remove", requested);
+			try
+			{
+				if (allClients.remove(mainClient))
+				{
+					parent.getMetrics().clientDisconnected(
+					    ((InputOutputClient) mainClient).getStats());
+				}
+			}
+			finally
+			{
+				clientsLock.released("remove", acquired);
+			}
 		}
 		// cleanup current client
-		mainClient.cleanup();
+		if (!banned)
+		{
+			mainClient.cleanup();
+		}
+		event.end();
+		if (event.shouldCommit())
+		{
+			event.client = mainClient.getName();
+			event.reason = (mainClient.isBanned() ? "kicked" :
+			                killed ? Vocabulary.killCmd :
+			                loggedOut ? Vocabulary.byeCmd :
+			                limited ? "limited" :
+			                failed ? "error" : "closed");
+			if (stats != null)
+			{
+				event.messagesIn = stats.getMessagesIn();
+				event.messagesOut = stats.getMessagesOut();
+				event.bytesOut = stats.getBytesOut();
+			}
+			event.commit();
+		}
+		LockProfile serverLock = metrics.getServerLock();
+		requested = serverLock.request();
 		synchronized (parent)
 		{
-			// décrémentation du nombre de threads des clients
-			nbThreads--;
-			// Nettoyage du ChatServer parent (qui pourra evt s'arrêter s'il n'y a
-			// plus de clients)
-			parent.cleanup();
+			long acquired = serverLock.acquired("cleanup", requested);
+			try
+			{
+				// décrémentation du nombre de threads des clients
+				nbThreads.decrementAndGet();
+				// Nettoyage du ChatServer parent (qui pourra evt s'arrêter s'il n'y a
+				// plus de clients)
+				parent.cleanup();
+			}
+			finally
+			{
+				serverLock.released("cleanup", acquired);
+			}
 		}
 	}
 
@@ -0,0 +1,245 @@
+package chat.server;
+
+import chat.Vocabulary;
+import models.Message;
+
+/**
+ * Analyse d'une ligne reçue d'un client par le serveur : commande de
+ * contrôle (voir {@link Vocabulary#commands}), demande de page d'historique
+ * ou bien message ordinaire à diffuser.
+ * L'analyse ne dépend que de la ligne reçue : les vérifications qui
+ * dépendent de l'état du serveur (super-utilisateur, existence du client à
+ * kicker, etc.) restent à la charge du {@link ClientHandler}.
+ * @author davidroussel
+ */
+public class Command
+{
+	/**
+	 * Les différents types de lignes reçues
+	 */
+	public enum Type
+	{
+		/**
+		 * Message ordinaire à diffuser
+		 */
+		MESSAGE,
+		/**
+		 * Demande de page d'historique : history &lt;nombre&gt;
+		 * [&lt;séquence&gt;]
+		 */
+		HISTORY,
+		/**
+		 * Déconnexion du client : bye
+		 */
+		BYE,
+		/**
+		 * Arrêt du serveur : kill
+		 */
+		KILL,
+		/**
+		 * Déconnexion forcée d'un client : kick &lt;nom&gt;
+		 */
+		KICK,
+		/**
+		 * Ligne commençant par une commande de contrôle sans correspondre à
+		 * aucune d'entre elles (par exemple "byebye", "killing time" ou
+		 * "kickstarter") : diffusée comme un message de contrôle vide
+		 */
+		UNKNOWN
+	}
+
+	/**
+	 * Le type de la ligne
+	 */
+	private final Type type;
+
+	/**
+	 * La ligne reçue
+	 */
+	private final String line;
+
+	/**
+	 * Nom du client à kicker (ou null)
+	 */
+	private final String target;
+
+	/**
+	 * Nombre de messages de la page d'historique demandée
+	 */
+	private final int count;
+
+	/**
+	 * Numéro de séquence avant lequel la page d'historique est demandée (ou
+	 * {@link Message#NO_SEQUENCE} si elle n'est pas précisée)
+	 */
+	private final long before;
+
+	/**
+	 * Constructeur privé : voir {@link #parse(String)}
+	 * @param type le type de la ligne
+	 * @param line la ligne reçue
+	 * @param target nom du client à kicker (ou null)
+	 * @param count nombre de messages demandés
+	 * @param before séquence avant laquelle les messages sont demandés
+	 */
+	private Command(Type type, String line, String target, int count, long before)
+	{
+		this.type = type;
+		this.line = line;
+		this.target = target;
+		this.count = count;
+		this.before = before;
+	}
+
+	/**
+	 * Analyse d'une ligne reçue d'un client
+	 * @param line la ligne reçue
+	 * @return la commande correspondant à la ligne
+	 */
+	public static Command parse(String line)
+	{
+		Command history = parseHistory(line);
+		if (history != null)
+		{
+			return history;
+		}
+
+		String lower = line.toLowerCase();
+		boolean control = false;
+		for (String command : Vocabulary.commands)
+		{
+			if (lower.startsWith(command))
+			{
+				control = true;
+				break;
+			}
+		}
+
+		Type type = Type.MESSAGE;
+		String target = null;
+		if (control)
+		{
+			if (lower.equals(Vocabulary.byeCmd))
+			{
+				type = Type.BYE;
+			}
+			else if (lower.equals(Vocabulary.killCmd))
+			{
+				type = Type.KILL;
+			}
+			else if (lower.equals(Vocabulary.kickCmd)
+			    || lower.startsWith(Vocabulary.kickCmd + " "))
+			{
+				type = Type.KICK;
+				if (line.length() > Vocabulary.kickCmd.length())
+				{
+					target = line.substring(Vocabulary.kickCmd.length() + 1);
+				}
+			}
+			else
+			{
+				type = Type.UNKNOWN;
+			}
+		}
+		return new Command(type, line, target, 0, Message.NO_SEQUENCE);
+	}
+
+	/**
+	 * Analyse d'une demande de page d'historique
+	 * @param line la ligne reçue
+	 * @return la demande de page ou bien null si la ligne n'est pas une
+	 * demande de page d'historique
+	 */
+	private static Command parseHistory(String line)
+	{
+		String trimmed = line.trim();
+		// évite le découpage des messages ordinaires
+		if (!trimmed.regionMatches(true,
+		                           0,
+		                           Vocabulary.historyCmd,
+		                           0,
+		                           Vocabulary.historyCmd.length()))
+		{
+			return null;
+		}
+
+		String[] words = trimmed.split("\\s+");
+		if ((words.length < 2) || (words.length > 3)
+		    || !words[0].equalsIgnoreCase(Vocabulary.historyCmd))
+		{
+			return null;
+		}
+
+		try
+		{
+			int count = Integer.parseInt(words[1]);
+			long before = (words.length > 2 ? Long.parseLong(words[2]) :
+			               Message.NO_SEQUENCE);
+			return new Command(Type.HISTORY, line, null, count, before);
+		}
+		catch (NumberFormatException e)
+		{
+			// message ordinaire commençant par "history"
+			return null;
+		}
+	}
+
+	/**
+	 * Accesseur en lecture du type de la ligne
+	 * @return le type de la ligne
+	 */
+	public Type getType()
+	{
+		return type;
+	}
+
+	/**
+	 * Indique si la ligne commence par une commande de contrôle
+	 * @return true si la ligne est une commande de contrôle (dont le message
+	 * diffusé n'a pas d'auteur)
+	 */
+	public boolean isControl()
+	{
+		return (type != Type.MESSAGE) && (type != Type.HISTORY);
+	}
+
+	/**
+	 * Accesseur en lecture de la ligne reçue
+	 * @return la ligne reçue
+	 */
+	public String getLine()
+	{
+		return line;
+	}
+
+	/**
+	 * Accesseur en lecture du nom du client à kicker
+	 * @return le nom du client à kicker ou bien null s'il n'a pas été
+	 * précisé
+	 */
+	public String getTarget()
+	{
+		return target;
+	}
+
+	/**
+	 * Accesseur en lecture du nombre de messages de la page d'historique
+	 * demandée
+	 * @return le nombre de messages demandés
+	 */
+	public int getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Accesseur en lecture du numéro de séquence avant lequel la page
+	 * d'historique est demandée
+	 * @return le numéro de séquence ou bien
+	 * {@link Message#NO_SEQUENCE} s'il n'a pas été précisé
+	 */
+	public long getBefore()
+	{
+		return before;
+	}
+}
@@ -0,0 +1,303 @@
+package chat.server;
+
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Politique d'écriture des messages vers un client : les messages sont
+ * écrits dans un tampon de {@link #getBufferSize()} octets propre à chaque
+ * connexion et le tampon est vidé sur la socket selon l'un des modes
+ * suivants :
+ * <ul>
+ * 	<li>{@link Mode#IMMEDIATE} : après chaque message (un appel système par
+ * 	message et par destinataire)</li>
+ * 	<li>{@link Mode#IDLE} : à la fin d'une rafale de diffusions, lorsque
+ * 	plus aucune diffusion n'attend le verrou des clients (voir
+ * 	{@link Broadcaster}). Un message isolé est donc écrit immédiatement
+ * 	alors que sous charge plusieurs messages sont écrits en une fois.</li>
+ * 	<li>{@link Mode#LATENCY} : au plus tard {@link #getMaxLatency()} ms
+ * 	après le premier message non encore écrit (ou lorsque le tampon est
+ * 	plein)</li>
+ * </ul>
+ * La politique précise aussi les options de la socket du client :
+ * TCP_NODELAY (inutile d'attendre l'algorithme de Nagle lorsque les
+ * messages sont déjà regroupés) et taille du tampon d'émission du système.
+ * Une politique est immuable et peut être partagée par plusieurs
+ * connexions.
+ * @author davidroussel
+ */
+public class FlushPolicy
+{
+	/**
+	 * Modes de vidage du tampon d'un client
+	 */
+	public enum Mode
+	{
+		/**
+		 * Vidage après chaque message
+		 */
+		IMMEDIATE,
+		/**
+		 * Vidage lorsque plus aucune diffusion n'est en attente
+		 */
+		IDLE,
+		/**
+		 * Vidage au plus tard après un délai maximum
+		 */
+		LATENCY
+	}
+
+	/**
+	 * Taille par défaut (en octets) du tampon d'écriture d'un client
+	 */
+	public final static int DEFAULTBUFFERSIZE = 8192;
+
+	/**
+	 * Délai maximum (en ms) par défaut avant l'écriture d'un message en mode
+	 * {@link Mode#LATENCY}
+	 */
+	public final static long DEFAULTMAXLATENCY = 5;
+
+	/**
+	 * Politique par défaut : vidage en fin de rafale avec TCP_NODELAY
+	 */
+	public final static FlushPolicy DEFAULT =
+	    new FlushPolicy(Mode.IDLE, DEFAULTMAXLATENCY, DEFAULTBUFFERSIZE, true, 0);
+
+	/**
+	 * Politique vidant le tampon après chaque message sans modifier les
+	 * options de la socket (comportement d'un flux non tamponné)
+	 */
+	public final static FlushPolicy IMMEDIATE =
+	    new FlushPolicy(Mode.IMMEDIATE, 0, DEFAULTBUFFERSIZE, false, 0);
+
+	/**
+	 * Thread commun de vidage des tampons en mode {@link Mode#LATENCY} (créé
+	 * à la première utilisation)
+	 */
+	private static ScheduledExecutorService flusher = null;
+
+	/**
+	 * Le mode de vidage
+	 */
+	private final Mode mode;
+
+	/**
+	 * Délai maximum (en ms) avant l'écriture d'un message en mode
+	 * {@link Mode#LATENCY}
+	 */
+	private final long maxLatency;
+
+	/**
+	 * Taille (en octets) du tampon d'écriture de chaque client
+	 */
+	private final int bufferSize;
+
+	/**
+	 * Option TCP_NODELAY de la socket des clients
+	 */
+	private final boolean noDelay;
+
+	/**
+	 * Taille (en octets) du tampon d'émission de la socket des clients ou
+	 * bien 0 pour conserver celle du système
+	 */
+	private final int socketBufferSize;
+
+	/**
+	 * Constructeur d'une politique d'écriture
+	 * @param mode le mode de vidage
+	 * @param maxLatency le délai maximum (en ms) avant l'écriture d'un
+	 * message en mode {@link Mode#LATENCY}
+	 * @param bufferSize la taille (en octets) du tampon d'écriture de chaque
+	 * client
+	 * @param noDelay l'option TCP_NODELAY de la socket des clients
+	 * @param socketBufferSize la taille du tampon d'émission de la socket
+	 * des clients ou bien 0 pour conserver celle du système
+	 */
+	public FlushPolicy(Mode mode,
+	                   long maxLatency,
+	                   int bufferSize,
+	                   boolean noDelay,
+	                   int socketBufferSize)
+	{
+		this.mode = mode;
+		this.maxLatency = Math.max(maxLatency, 1);
+		this.bufferSize = Math.max(bufferSize, 1);
+		this.noDelay = noDelay;
+		this.socketBufferSize = Math.max(socketBufferSize, 0);
+	}
+
+	/**
+	 * Accesseur en lecture du mode de vidage
+	 * @return le mode de vidage
+	 */
+	public Mode getMode()
+	{
+		return mode;
+	}
+
+	/**
+	 * Accesseur en lecture du délai maximum en mode {@link Mode#LATENCY}
+	 * @return le délai maximum (en ms) avant l'écriture d'un message
+	 */
+	public long getMaxLatency()
+	{
+		return maxLatency;
+	}
+
+	/**
+	 * Accesseur en lecture de la taille du tampon d'écriture
+	 * @return la taille (en octets) du tampon d'écriture de chaque client
+	 */
+	public int getBufferSize()
+	{
+		return bufferSize;
+	}
+
+	/**
+	 * Accesseur en lecture de l'option TCP_NODELAY
+	 * @return true si l'algorithme de Nagle est désactivé
+	 */
+	public boolean isNoDelay()
+	{
+		return noDelay;
+	}
+
+	/**
+	 * Accesseur en lecture de la taille du tampon d'émission de la socket
+	 * @return la taille du tampon d'émission ou bien 0 pour celle du système
+	 */
+	public int getSocketBufferSize()
+	{
+		return socketBufferSize;
+	}
+
+	/**
+	 * Politique identique avec un autre mode de vidage
+	 * @param mode le mode de vidage
+	 * @param maxLatency le délai maximum (en ms) en mode {@link Mode#LATENCY}
+	 * @return la nouvelle politique
+	 */
+	public FlushPolicy with(Mode mode, long maxLatency)
+	{
+		return new FlushPolicy(mode,
+		                       maxLatency,
+		                       bufferSize,
+		                       noDelay,
+		                       socketBufferSize);
+	}
+
+	/**
+	 * Politique identique avec d'autres options de socket et de tampon
+	 * @param bufferSize la taille (en octets) du tampon d'écriture
+	 * @param noDelay l'option TCP_NODELAY
+	 * @param socketBufferSize la taille du tampon d'émission de la socket
+	 * (0 pour celle du système)
+	 * @return la nouvelle politique
+	 */
+	public FlushPolicy with(int bufferSize,
+	                        boolean noDelay,
+	                        int socketBufferSize)
+	{
+		return new FlushPolicy(mode,
+		                       maxLatency,
+		                       bufferSize,
+		                       noDelay,
+		                       socketBufferSize);
+	}
+
+	/**
+	 * Politique correspondant à un mode de vidage sous forme de texte :
+	 * immediate, idle, latency ou latency:&lt;ms&gt; (option de la ligne de
+	 * commande du serveur ou option de connexion d'un client, voir
+	 * {@link chat.Vocabulary#flushOption})
+	 * @param text le mode de vidage (evt null)
+	 * @return la politique courante avec le mode demandé ou bien la
+	 * politique courante si le mode est absent ou invalide
+	 */
+	public FlushPolicy parse(String text)
+	{
+		if (text == null)
+		{
+			return this;
+		}
+		String[] fields = text.trim().split(":", 2);
+		long latency = maxLatency;
+		if (fields.length > 1)
+		{
+			try
+			{
+				latency = Long.parseLong(fields[1]);
+			}
+			catch (NumberFormatException e)
+			{
+				return this;
+			}
+		}
+		for (Mode m : Mode.values())
+		{
+			if (m.name().equalsIgnoreCase(fields[0]))
+			{
+				return with(m, latency);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Mise en place des options de la socket d'un client
+	 * @param socket la socket du client
+	 * @throws SocketException si une option ne peut être modifiée
+	 */
+	public void configure(Socket socket) throws SocketException
+	{
+		if (noDelay)
+		{
+			socket.setTcpNoDelay(true);
+		}
+		if (socketBufferSize > 0)
+		{
+			socket.setSendBufferSize(socketBufferSize);
+		}
+	}
+
+	/**
+	 * Programmation du vidage du tampon d'un client dans
+	 * {@link #getMaxLatency()} ms
+	 * @param flush le vidage à effectuer
+	 */
+	void schedule(Runnable flush)
+	{
+		ScheduledExecutorService executor;
+		synchronized (FlushPolicy.class)
+		{
+			if (flusher == null)
+			{
+				flusher = Executors.newSingleThreadScheduledExecutor(
+				    (Runnable r) ->
+				    {
+					    Thread thread = new Thread(r, "flusher");
+					    thread.setDaemon(true);
+					    return thread;
+				    });
+			}
+			executor = flusher;
+		}
+		executor.schedule(flush, maxLatency, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Représentation du mode de vidage
+	 * @return immediate, idle ou latency:&lt;ms&gt;
+	 */
+	@Override
+	public String toString()
+	{
+		String name = mode.name().toLowerCase();
+		return (mode == Mode.LATENCY ? name + ":" + maxLatency : name);
+	}
+}
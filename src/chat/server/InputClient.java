@@ -50,7 +50,7 @@ public class InputClient
 	 *
 	 * @uml.property name="ready"
 	 */
-	protected boolean ready;
+	protected volatile boolean ready;
 
 	/**
 	 * Etat de bannissement du client. Idée : le premier utilisateur du serveur
@@ -73,6 +73,25 @@ public class InputClient
 	 * @param parentLogger logger parent pour l'affichage des messages de debug
 	 */
 	public InputClient(Socket socket, String name, Logger parentLogger)
+	{
+		this(socket, name, null, parentLogger);
+	}
+
+	/**
+	 * Constructeur d'un MainClient réutilisant le lecteur ayant servi à lire
+	 * la ligne de connexion du client. Il ne faut pas créer un second
+	 * {@link BufferedReader} sur la même socket car le premier peut avoir
+	 * déjà lu (et conservé dans son tampon) les lignes suivantes.
+	 * @param socket the client's socket
+	 * @param name the client's name
+	 * @param reader le lecteur déjà créé sur le flux d'entrée de la socket
+	 * ou bien null pour en créer un nouveau
+	 * @param parentLogger logger parent pour l'affichage des messages de debug
+	 */
+	public InputClient(Socket socket,
+	                   String name,
+	                   BufferedReader reader,
+	                   Logger parentLogger)
 	{
 		clientSocket = socket;
 		this.name = name;
@@ -83,7 +102,12 @@ public class InputClient
 		                                       parentLogger,
 		                                       parentLogger.getLevel());
 
-		if (socket != null)
+		if (reader != null)
+		{
+			inBR = reader;
+			ready = true;
+		}
+		else if (socket != null)
 		{
 			logger.info("InputClient: Creating Input Stream ... ");
 			try
@@ -154,6 +178,29 @@ public class InputClient
 		this.banned = banned;
 	}
 
+	/**
+	 * Déconnexion forcée du client : la fermeture du flux d'entrée de sa
+	 * socket termine la lecture bloquante de son {@link ClientHandler} qui
+	 * procède alors au nettoyage du client. Le client n'étant plus prêt, plus
+	 * aucun message ne lui est diffusé.
+	 */
+	public void disconnect()
+	{
+		ready = false;
+		if (clientSocket != null)
+		{
+			try
+			{
+				clientSocket.shutdownInput();
+			}
+			catch (IOException e)
+			{
+				logger.warning("InputClient::disconnect: unable to shutdown "
+				    + name + " input: " + e.getLocalizedMessage());
+			}
+		}
+	}
+
 	/**
 	 * Nettoyage d'un client principal : fermeture du flux d'entrée et fermeture
 	 * de sa socket.
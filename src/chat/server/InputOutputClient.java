@@ -1,10 +1,22 @@
 package chat.server;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
 import chat.Failure;
+import chat.MessageCodec;
+import metrics.ClientMetrics;
+import metrics.ServerMetrics;
+import models.Message;
+import models.MessagePage;
+import models.MessageTrace;
 
 
 /**
@@ -15,16 +27,145 @@ import chat.Failure;
  * <ul>
  * 	<li>out : {@link ObjectOutputStream}</li>
  * </ul>
+ * ou bien, si le client l'a demandé lors de sa connexion, les trames binaires
+ * de {@link MessageCodec} directement écrites sur le flux de la socket.
+ * Les messages sont envoyés avec {@link #send(Message)} et
+ * {@link #send(MessagePage)} quel que soit le codage utilisé. Ils sont écrits
+ * dans un tampon propre au client qui est vidé sur la socket selon la
+ * {@link FlushPolicy} du client : après chaque message, à la fin d'une
+ * rafale de diffusions (voir {@link #idle()}) ou après un délai maximum.
+ * Les autres envois (page d'historique, rejeu) doivent être suivis de
+ * {@link #flush()}.
+ * Un client recevant des trames peut aussi accepter (voir
+ * {@link #setBatched(boolean)}) que les trames écrites entre deux vidages
+ * lui soient envoyées dans une seule trame de lot
+ * ({@link MessageCodec#encode(List, int)}).
+ * Un client qui se reconnecte est enregistré avec les messages qu'il a
+ * manqués (voir {@link #hold(List)}) : ceux ci lui sont envoyés par le
+ * thread de son handler (voir {@link #replay()}), suivis des messages
+ * diffusés entre temps, sans bloquer la diffusion vers les autres clients.
+ * Un client kické est purgé (voir {@link #purge(Message)}) : ses messages
+ * en attente sont abandonnés et sa socket immédiatement fermée.
  * @author davidroussel
  *
  */
 public class InputOutputClient extends InputClient
 {
+	/**
+	 * Tampon d'écriture dont le contenu peut être abandonné
+	 */
+	private static class WriteBuffer extends BufferedOutputStream
+	{
+		/**
+		 * Constructeur d'un tampon d'écriture
+		 * @param out le flux sur lequel vider le tampon
+		 * @param size la taille du tampon
+		 */
+		public WriteBuffer(OutputStream out, int size)
+		{
+			super(out, size);
+		}
+
+		/**
+		 * Abandon des octets du tampon qui n'ont pas encore été vidés
+		 * @return le nombre d'octets abandonnés
+		 */
+		public synchronized int discard()
+		{
+			int discarded = count;
+			count = 0;
+			return discarded;
+		}
+	}
+
 	/**
 	 * Le flux de sortie vers le client (celui sur lequel on écrit au client)
 	 */
 	private ObjectOutputStream outOS;
 
+	/**
+	 * Le flux de sortie de la socket du client
+	 */
+	private OutputStream out;
+
+	/**
+	 * Le tampon d'écriture vers la socket du client
+	 */
+	private WriteBuffer buffer;
+
+	/**
+	 * La politique d'écriture des messages vers le client
+	 */
+	private final FlushPolicy policy;
+
+	/**
+	 * Indique que des messages ont été écrits dans le {@link #buffer} depuis
+	 * son dernier vidage (et en mode {@link FlushPolicy.Mode#LATENCY} que
+	 * son vidage est programmé)
+	 */
+	private final AtomicBoolean pending;
+
+	/**
+	 * Les mesures du serveur dans lesquelles compter les vidages (ou null)
+	 */
+	private final ServerMetrics metrics;
+
+	/**
+	 * Indique si les messages sont envoyés sous forme de trames
+	 * {@link MessageCodec} (true) ou à travers le flux objet {@link #outOS}
+	 * (false)
+	 */
+	private final boolean framed;
+
+	/**
+	 * Indique si le client a demandé le traçage de ses messages (voir
+	 * {@link chat.Vocabulary#traceOption})
+	 */
+	private boolean traced;
+
+	/**
+	 * Indique si les trames écrites entre deux vidages sont regroupées dans
+	 * une trame de lot
+	 */
+	private boolean batched;
+
+	/**
+	 * Les trames en attente du prochain vidage (lorsque le client reçoit des
+	 * trames de lot)
+	 */
+	private final List<byte[]> frames;
+
+	/**
+	 * Taille cumulée des {@link #frames} en attente
+	 */
+	private int framesLength;
+
+	/**
+	 * Mesures du client (nom, codage, lignes reçues, messages et octets
+	 * écrits)
+	 */
+	private final ClientMetrics stats;
+
+	/**
+	 * Numéro de séquence du premier message reçu par le client depuis sa
+	 * connexion : les pages d'historique demandées sans numéro de séquence
+	 * précèdent ce message
+	 */
+	private long firstSequence;
+
+	/**
+	 * Messages manqués par un client qui se reconnecte, puis messages (ou
+	 * pages) qui lui sont envoyés avant la fin de leur rejeu (voir
+	 * {@link #replay()}). Sert aussi de verrou pour {@link #holding}.
+	 */
+	private final List<Object> held;
+
+	/**
+	 * Indique que les envois vers le client sont mis en attente dans
+	 * {@link #held} jusqu'à la fin du rejeu
+	 */
+	private boolean holding;
+
 	/**
 	 * Constructeur d'un client
 	 * @param socket la socket du client
@@ -34,10 +175,93 @@ public class InputOutputClient extends InputClient
 	 */
 	public InputOutputClient(Socket socket, String name, Logger parentLogger)
 	{
-		super(socket, name, parentLogger);
+		this(socket, name, null, parentLogger);
+	}
+
+	/**
+	 * Constructeur d'un client réutilisant le lecteur ayant servi à lire la
+	 * ligne de connexion du client
+	 * @param socket la socket du client
+	 * @param name le nom du client
+	 * @param reader le lecteur déjà créé sur le flux d'entrée de la socket
+	 * @param parentLogger logger parent pour l'affichage des messages
+	 */
+	public InputOutputClient(Socket socket,
+	                         String name,
+	                         BufferedReader reader,
+	                         Logger parentLogger)
+	{
+		this(socket, name, reader, false, null, parentLogger);
+	}
+
+	/**
+	 * Constructeur d'un client réutilisant le lecteur ayant servi à lire la
+	 * ligne de connexion du client
+	 * @param socket la socket du client
+	 * @param name le nom du client
+	 * @param reader le lecteur déjà créé sur le flux d'entrée de la socket
+	 * @param framed true si le client a demandé à recevoir les messages sous
+	 * forme de trames {@link MessageCodec}
+	 * @param metrics les mesures du serveur dans lesquelles compter les
+	 * octets écrits vers le client (ou null)
+	 * @param parentLogger logger parent pour l'affichage des messages
+	 */
+	public InputOutputClient(Socket socket,
+	                         String name,
+	                         BufferedReader reader,
+	                         boolean framed,
+	                         ServerMetrics metrics,
+	                         Logger parentLogger)
+	{
+		this(socket,
+		     name,
+		     reader,
+		     framed,
+		     FlushPolicy.IMMEDIATE,
+		     metrics,
+		     parentLogger);
+	}
+
+	/**
+	 * Constructeur d'un client réutilisant le lecteur ayant servi à lire la
+	 * ligne de connexion du client et écrivant les messages selon une
+	 * politique d'écriture
+	 * @param socket la socket du client
+	 * @param name le nom du client
+	 * @param reader le lecteur déjà créé sur le flux d'entrée de la socket
+	 * @param framed true si le client a demandé à recevoir les messages sous
+	 * forme de trames {@link MessageCodec}
+	 * @param policy la politique d'écriture des messages vers le client
+	 * @param metrics les mesures du serveur dans lesquelles compter les
+	 * octets écrits vers le client (ou null)
+	 * @param parentLogger logger parent pour l'affichage des messages
+	 */
+	public InputOutputClient(Socket socket,
+	                         String name,
+	                         BufferedReader reader,
+	                         boolean framed,
+	                         FlushPolicy policy,
+	                         ServerMetrics metrics,
+	                         Logger parentLogger)
+	{
+		super(socket, name, reader, parentLogger);
+		this.framed = framed;
+		this.policy = policy;
+		this.metrics = metrics;
+		pending = new AtomicBoolean(false);
+		traced = false;
+		batched = false;
+		frames = new ArrayList<byte[]>();
+		framesLength = 0;
+		held = new ArrayList<Object>();
+		holding = false;
+		stats = new ClientMetrics(name, framed);
+		stats.setFlushPolicy(policy.toString());
 		if (ready)
 		{
 			outOS = null;
+			out = null;
+			buffer = null;
 			ready = false;
 
 			if (clientSocket != null)
@@ -45,7 +269,37 @@ public class InputOutputClient extends InputClient
 				logger.info("Client: Creating Output Stream ... ");
 				try
 				{
-					outOS = new ObjectOutputStream(clientSocket.getOutputStream());
+					policy.configure(clientSocket);
+				}
+				catch (IOException e)
+				{
+					logger.warning("Client: unable to set socket options: "
+					    + e.getLocalizedMessage());
+				}
+				try
+				{
+					OutputStream socketOut = clientSocket.getOutputStream();
+					if (metrics != null)
+					{
+						socketOut = metrics.countSocket(socketOut);
+					}
+					socketOut = stats.countSocket(socketOut);
+					buffer = new WriteBuffer(socketOut, policy.getBufferSize());
+					out = stats.countOutput(buffer);
+					if (metrics != null)
+					{
+						out = metrics.countOutput(out);
+					}
+					/*
+					 * Un flux objet écrit un entête dès sa création : il ne
+					 * doit pas être créé pour un client attendant des trames
+					 */
+					if (!framed)
+					{
+						outOS = new ObjectOutputStream(out);
+						// l'entête est attendu par le client dès sa connexion
+						buffer.flush();
+					}
 					ready = true;
 				}
 				catch (IOException e)
@@ -63,29 +317,543 @@ public class InputOutputClient extends InputClient
 	}
 
 	/**
-	 * Accesseur en lecture du flux de sortie d'un client
-	 * @return the out
+	 * Indique si le client reçoit les messages sous forme de trames
+	 * {@link MessageCodec}
+	 * @return true si le client reçoit des trames, false s'il reçoit des
+	 * objets
+	 */
+	public boolean isFramed()
+	{
+		return framed;
+	}
+
+	/**
+	 * Indique si le client a demandé le traçage de ses messages
+	 * @return true si le client envoie des lignes datées et reçoit des
+	 * messages tracés
+	 */
+	public boolean isTraced()
+	{
+		return traced;
+	}
+
+	/**
+	 * Accesseur en écriture du traçage des messages du client (uniquement
+	 * pour un client recevant des trames)
+	 * @param traced true si le client a demandé le traçage de ses messages
+	 */
+	public void setTraced(boolean traced)
+	{
+		this.traced = traced && framed;
+		stats.setTraced(this.traced);
+	}
+
+	/**
+	 * Indique si le client reçoit des trames de lot
+	 * @return true si les trames écrites entre deux vidages sont regroupées
+	 */
+	public boolean isBatched()
+	{
+		return batched;
+	}
+
+	/**
+	 * Accesseur en écriture du regroupement des trames (uniquement pour un
+	 * client recevant des trames et avant l'envoi du premier message)
+	 * @param batched true si le client a accepté les trames de lot
+	 */
+	public void setBatched(boolean batched)
+	{
+		this.batched = batched && framed;
+		stats.setBatched(this.batched);
+	}
+
+	/**
+	 * Accesseur en lecture des mesures du client
+	 * @return les mesures du client
+	 */
+	public ClientMetrics getStats()
+	{
+		return stats;
+	}
+
+	/**
+	 * Envoi d'un message tracé à un client qui l'a demandé
+	 * @param trace le message tracé à envoyer
+	 * @throws IOException si l'envoi échoue
+	 */
+	public void send(MessageTrace trace) throws IOException
+	{
+		if (!held(trace))
+		{
+			sendNow(trace);
+		}
+	}
+
+	/**
+	 * Envoi d'un message au client
+	 * @param message le message à envoyer
+	 * @throws IOException si l'envoi échoue
+	 */
+	public void send(Message message) throws IOException
+	{
+		if (!held(message))
+		{
+			sendNow(message);
+		}
+	}
+
+	/**
+	 * Envoi d'une page d'historique au client
+	 * @param page la page à envoyer
+	 * @throws IOException si l'envoi échoue
+	 */
+	public void send(MessagePage page) throws IOException
+	{
+		if (!held(page))
+		{
+			sendNow(page);
+		}
+	}
+
+	/**
+	 * Mise en attente d'un envoi pendant le rejeu des messages manqués
+	 * @param item le message, le message tracé ou la page à envoyer
+	 * @return true si l'envoi est mis en attente, false s'il doit être
+	 * effectué immédiatement
+	 */
+	private boolean held(Object item)
+	{
+		synchronized (held)
+		{
+			if (holding)
+			{
+				held.add(item);
+				stats.setHeldMessages(held.size());
+			}
+			return holding;
+		}
+	}
+
+	/**
+	 * Envoi immédiat d'un message tracé
+	 * @param trace le message tracé à envoyer
+	 * @throws IOException si l'envoi échoue
+	 */
+	private void sendNow(MessageTrace trace) throws IOException
+	{
+		if (traced)
+		{
+			write(MessageCodec.encode(trace));
+			stats.messageSent();
+			written();
+		}
+		else
+		{
+			sendNow(trace.getMessage());
+		}
+	}
+
+	/**
+	 * Envoi immédiat d'un message
+	 * @param message le message à envoyer
+	 * @throws IOException si l'envoi échoue
+	 */
+	private void sendNow(Message message) throws IOException
+	{
+		if (framed)
+		{
+			write(MessageCodec.encode(message));
+		}
+		else
+		{
+			outOS.writeObject(message);
+		}
+		stats.messageSent();
+		written();
+	}
+
+	/**
+	 * Envoi immédiat d'une page d'historique
+	 * @param page la page à envoyer
+	 * @throws IOException si l'envoi échoue
+	 */
+	private void sendNow(MessagePage page) throws IOException
+	{
+		if (framed)
+		{
+			write(MessageCodec.encode(page));
+		}
+		else
+		{
+			outOS.writeObject(page);
+		}
+		stats.messageSent();
+		written();
+	}
+
+	/**
+	 * Écriture d'une trame dans le tampon ou bien, si le client reçoit des
+	 * trames de lot, ajout de la trame au lot en cours (qui est écrit dans le
+	 * tampon lorsqu'il atteint la taille du tampon)
+	 * @param frame la trame à écrire
+	 * @throws IOException si l'écriture échoue
+	 */
+	private void write(byte[] frame) throws IOException
+	{
+		if (batched)
+		{
+			synchronized (frames)
+			{
+				frames.add(frame);
+				framesLength += frame.length;
+				stats.setPendingFrames(frames.size());
+				if (framesLength >= policy.getBufferSize())
+				{
+					writeBatch();
+				}
+			}
+		}
+		else
+		{
+			out.write(frame);
+		}
+	}
+
+	/**
+	 * Écriture du lot de trames en cours dans le tampon (une trame seule est
+	 * écrite telle quelle). Doit être appelée en détenant le verrou sur
+	 * {@link #frames}.
+	 * @throws IOException si l'écriture échoue
+	 */
+	private void writeBatch() throws IOException
+	{
+		try
+		{
+			if (frames.size() == 1)
+			{
+				out.write(frames.get(0));
+			}
+			else if (frames.size() > 1)
+			{
+				out.write(MessageCodec.encode(frames, framesLength));
+				if (metrics != null)
+				{
+					metrics.batched();
+				}
+			}
+		}
+		finally
+		{
+			frames.clear();
+			framesLength = 0;
+			stats.setPendingFrames(0);
+		}
+	}
+
+	/**
+	 * Prise en compte d'un message écrit dans le tampon selon la politique
+	 * d'écriture : vidage immédiat, vidage programmé ou bien attente de la
+	 * fin de la rafale
+	 * @throws IOException si le vidage immédiat échoue
+	 */
+	private void written() throws IOException
+	{
+		boolean wasPending = pending.getAndSet(true);
+		switch (policy.getMode())
+		{
+			case IMMEDIATE:
+				flush();
+				break;
+			case LATENCY:
+				if (!wasPending)
+				{
+					policy.schedule(this::scheduledFlush);
+				}
+				break;
+			default:
+				// vidage en fin de rafale (voir idle())
+				break;
+		}
+	}
+
+	/**
+	 * Vidage du tampon d'écriture sur la socket s'il contient des messages.
+	 * Pendant le rejeu (voir {@link #replay()}) seul le thread du handler du
+	 * client écrit sur sa socket : le vidage est alors reporté à la fin du
+	 * rejeu, de sorte qu'une diffusion ne peut pas rester bloquée sur le
+	 * tampon d'un client lent qui se reconnecte.
+	 * @throws IOException si l'écriture sur la socket échoue
+	 */
+	public void flush() throws IOException
+	{
+		synchronized (held)
+		{
+			if (holding)
+			{
+				return;
+			}
+		}
+		if (pending.getAndSet(false) && (buffer != null))
+		{
+			if (batched)
+			{
+				synchronized (frames)
+				{
+					writeBatch();
+				}
+			}
+			buffer.flush();
+			stats.flushed();
+			if (metrics != null)
+			{
+				metrics.flushed();
+			}
+		}
+	}
+
+	/**
+	 * Fin d'une rafale de diffusions : vidage du tampon si le client suit la
+	 * politique {@link FlushPolicy.Mode#IDLE}
+	 * @throws IOException si l'écriture sur la socket échoue
+	 */
+	public void idle() throws IOException
+	{
+		if (policy.getMode() == FlushPolicy.Mode.IDLE)
+		{
+			flush();
+		}
+	}
+
+	/**
+	 * Vidage programmé en mode {@link FlushPolicy.Mode#LATENCY} : un échec
+	 * déconnecte le client
+	 */
+	private void scheduledFlush()
+	{
+		try
+		{
+			flush();
+		}
+		catch (IOException e)
+		{
+			if (ready)
+			{
+				logger.warning("Client: flush to " + name + " failed: "
+				    + e.getLocalizedMessage());
+			}
+			disconnect();
+		}
+	}
+
+	/**
+	 * Mise en attente des envois vers un client qui se reconnecte, à
+	 * commencer par les messages qu'il a manqués. Doit être appelée en
+	 * détenant le verrou de diffusion, avant d'ajouter le client aux clients
+	 * : missed contient alors exactement les messages diffusés après le
+	 * dernier reçu par le client et les diffusions suivantes sont mises en
+	 * attente après eux. Rien n'est écrit sur la socket.
+	 * @param missed les messages manqués par le client
+	 */
+	public void hold(List<Message> missed)
+	{
+		synchronized (held)
+		{
+			held.addAll(missed);
+			holding = true;
+			stats.setHeldMessages(held.size());
+		}
+	}
+
+	/**
+	 * Envoi des messages mis en attente par {@link #hold(List)} puis de ceux
+	 * diffusés pendant leur envoi, jusqu'à ce qu'il n'en reste plus : les
+	 * envois suivants sont alors écrits directement. Appelée par le thread
+	 * du handler du client sans détenir le verrou de diffusion, de sorte
+	 * qu'une socket lente ne retient que ce client.
+	 * @throws IOException si l'envoi échoue (les envois en attente sont
+	 * alors abandonnés)
 	 */
-	public ObjectOutputStream getOut()
+	public void replay() throws IOException
 	{
-		return outOS;
+		List<Object> items = new ArrayList<Object>();
+		try
+		{
+			while (true)
+			{
+				synchronized (held)
+				{
+					if (!holding || held.isEmpty() || !ready)
+					{
+						break;
+					}
+					items.addAll(held);
+					held.clear();
+					stats.setHeldMessages(0);
+				}
+				for (Object item : items)
+				{
+					if (item instanceof MessageTrace)
+					{
+						sendNow((MessageTrace) item);
+					}
+					else if (item instanceof MessagePage)
+					{
+						sendNow((MessagePage) item);
+					}
+					else
+					{
+						sendNow((Message) item);
+					}
+				}
+				items.clear();
+			}
+		}
+		finally
+		{
+			synchronized (held)
+			{
+				held.clear();
+				holding = false;
+				stats.setHeldMessages(0);
+			}
+		}
+		flush();
 	}
 
 	/**
-	 * Nettoyage d'un client : fermeture du flux de sortie et super.cleanup()
+	 * Déconnexion immédiate d'un client kické : pour un client recevant des
+	 * trames, les trames du lot en cours et le contenu du tampon d'écriture
+	 * sont abandonnés (le tampon commence toujours par une trame entière et
+	 * un vidage programmé n'écrira plus rien). Le tampon d'un client recevant
+	 * un flux objet est conservé : ses octets sont déjà comptés par le flux
+	 * objet (descripteurs de classes, références) et les abandonner rendrait
+	 * le flux illisible. L'avertissement du kick est ensuite placé dans le
+	 * tampon puis l'entrée de la socket est fermée. La lecture
+	 * bloquante de son {@link ClientHandler} se termine alors sans attendre
+	 * la prochaine ligne du client et le nettoyage du client (voir
+	 * {@link #cleanup()}) écrit l'avertissement puis ferme la socket : une
+	 * écriture bloquée vers ce client ne peut donc retenir que son propre
+	 * handler.
+	 * Doit être appelée en détenant le verrou de diffusion afin qu'aucune
+	 * diffusion n'écrive vers le client pendant la purge.
+	 * @param notice l'avertissement (sans numéro de séquence) à envoyer au
+	 * client avant la fermeture de sa socket (ou null)
+	 */
+	public void purge(Message notice)
+	{
+		ready = false;
+		pending.set(false);
+		synchronized (held)
+		{
+			held.clear();
+			stats.setHeldMessages(0);
+		}
+		synchronized (frames)
+		{
+			frames.clear();
+			framesLength = 0;
+			stats.setPendingFrames(0);
+		}
+		if (buffer != null)
+		{
+			if (framed)
+			{
+				stats.dropped(buffer.discard());
+			}
+			if (notice != null)
+			{
+				try
+				{
+					if (framed)
+					{
+						out.write(MessageCodec.encode(notice));
+					}
+					else
+					{
+						outOS.writeObject(notice);
+					}
+					stats.messageSent();
+				}
+				catch (IOException e)
+				{
+					logger.fine(() -> "Client::purge: unable to write notice to "
+					    + name + ": " + e.getLocalizedMessage());
+				}
+			}
+		}
+		disconnect();
+	}
+
+	/**
+	 * Accesseur en lecture de la politique d'écriture vers le client
+	 * @return la politique d'écriture
+	 */
+	public FlushPolicy getFlushPolicy()
+	{
+		return policy;
+	}
+
+	/**
+	 * Accesseur en lecture du numéro de séquence du premier message reçu par
+	 * le client depuis sa connexion
+	 * @return le numéro de séquence du premier message reçu
+	 */
+	public long getFirstSequence()
+	{
+		return firstSequence;
+	}
+
+	/**
+	 * Accesseur en écriture du numéro de séquence du premier message reçu
+	 * par le client depuis sa connexion
+	 * @param firstSequence le numéro de séquence du premier message reçu
+	 */
+	public void setFirstSequence(long firstSequence)
+	{
+		this.firstSequence = firstSequence;
+	}
+
+	/**
+	 * Nettoyage d'un client : fermeture du flux de sortie (ce qui vide son
+	 * tampon) et super.cleanup(). Si le client a été déconnecté suite à
+	 * l'échec d'une écriture, l'échec de la fermeture est attendu.
 	 */
 	@Override
 	public void cleanup()
 	{
 		logger.info("Client::cleanup: closing output stream ... ");
+		boolean connected = ready;
 		try
 		{
-			outOS.close();
+			if (batched)
+			{
+				synchronized (frames)
+				{
+					writeBatch();
+				}
+			}
+			if (outOS != null)
+			{
+				outOS.close();
+			}
+			else if (out != null)
+			{
+				out.close();
+			}
 		}
 		catch (IOException e)
 		{
-			logger.severe("Client: unable to close client output stream");
-			logger.severe(e.getLocalizedMessage());
+			if (connected)
+			{
+				logger.severe("Client: unable to close client output stream");
+				logger.severe(e.getLocalizedMessage());
+			}
+			else
+			{
+				logger.fine(() -> "Client: unable to close " + name
+				    + " output stream: " + e.getLocalizedMessage());
+			}
 		}
 		super.cleanup();
 	}
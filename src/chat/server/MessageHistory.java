@@ -0,0 +1,159 @@
+package chat.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import models.Message;
+import models.MessagePage;
+
+/**
+ * Historique borné des derniers messages diffusés par le serveur.
+ * Les messages sont conservés dans un tampon circulaire dans leur ordre de
+ * diffusion (et donc par numéro de séquence croissant) afin de pouvoir
+ * renvoyer à un client qui se reconnecte uniquement les messages diffusés
+ * après le dernier numéro de séquence qu'il a reçu, ou bien des pages de
+ * messages plus anciens que ceux qu'il a déjà reçus.
+ * @author davidroussel
+ */
+public class MessageHistory
+{
+	/**
+	 * Capacité par défaut de l'historique
+	 */
+	public final static int DEFAULTCAPACITY = 1000;
+
+	/**
+	 * Le tampon circulaire des messages
+	 */
+	private final Message[] ring;
+
+	/**
+	 * Index du plus ancien message dans le {@link #ring}
+	 */
+	private int start;
+
+	/**
+	 * Nombre de messages présents dans le {@link #ring}
+	 */
+	private int size;
+
+	/**
+	 * Constructeur d'un historique
+	 * @param capacity le nombre maximum de messages conservés (si capacity
+	 * est <= 0 aucun message n'est conservé)
+	 */
+	public MessageHistory(int capacity)
+	{
+		ring = new Message[Math.max(capacity, 0)];
+		start = 0;
+		size = 0;
+	}
+
+	/**
+	 * Ajout d'un message diffusé à l'historique. Si l'historique est plein
+	 * le plus ancien message est oublié.
+	 * @param message le message à ajouter
+	 */
+	public synchronized void add(Message message)
+	{
+		if (ring.length == 0)
+		{
+			return;
+		}
+
+		if (size < ring.length)
+		{
+			ring[(start + size) % ring.length] = message;
+			size++;
+		}
+		else
+		{
+			ring[start] = message;
+			start = (start + 1) % ring.length;
+		}
+	}
+
+	/**
+	 * Messages diffusés après un numéro de séquence
+	 * @param sequence le dernier numéro de séquence reçu par le client
+	 * @return la liste (dans l'ordre de diffusion) des messages conservés
+	 * dont le numéro de séquence est strictement supérieur à sequence
+	 */
+	public synchronized List<Message> after(long sequence)
+	{
+		int low = indexAfter(sequence);
+		List<Message> result = new ArrayList<Message>(size - low);
+		for (int i = low; i < size; i++)
+		{
+			result.add(get(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Page des messages diffusés avant un numéro de séquence
+	 * @param sequence le numéro de séquence du plus ancien message déjà
+	 * reçu par le client
+	 * @param count le nombre maximum de messages de la page
+	 * @return la page des (au plus) count messages conservés les plus
+	 * récents dont le numéro de séquence est strictement inférieur à
+	 * sequence
+	 */
+	public synchronized MessagePage before(long sequence, int count)
+	{
+		int end = indexAfter(sequence - 1);
+		int begin = Math.max(end - Math.max(count, 0), 0);
+		List<Message> result = new ArrayList<Message>(end - begin);
+		for (int i = begin; i < end; i++)
+		{
+			result.add(get(i));
+		}
+		return new MessagePage(result, begin > 0);
+	}
+
+	/**
+	 * Recherche dichotomique du premier message plus récent qu'un numéro de
+	 * séquence
+	 * @param sequence le numéro de séquence
+	 * @return l'index (à partir du plus ancien) du premier message dont le
+	 * numéro de séquence est strictement supérieur à sequence, ou bien
+	 * {@link #size} s'il n'y en a pas
+	 */
+	private int indexAfter(long sequence)
+	{
+		int low = 0;
+		int high = size;
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if (get(middle).getSequence() <= sequence)
+			{
+				low = middle + 1;
+			}
+			else
+			{
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Nombre de messages conservés
+	 * @return le nombre de messages actuellement dans l'historique
+	 */
+	public synchronized int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Accès au i-ème plus ancien message conservé
+	 * @param i l'index du message à partir du plus ancien
+	 * @return le message correspondant
+	 */
+	private Message get(int i)
+	{
+		return ring[(start + i) % ring.length];
+	}
+}
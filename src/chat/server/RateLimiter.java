@@ -0,0 +1,452 @@
+package chat.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limitation du débit des lignes reçues des clients par des seaux à jetons :
+ * un seau par connexion (limite par utilisateur) et un seau commun à toutes
+ * les connexions (limite globale). Chaque seau est caractérisé par un débit
+ * (en lignes par seconde) et une rafale (nombre de lignes pouvant être
+ * reçues d'un coup lorsque le seau est plein).
+ * Les seaux ne sont pas remplis par un timer : le remplissage est calculé à
+ * la demande d'après la date de la ligne reçue (algorithme GCRA). L'état
+ * d'un seau se résume donc à une seule date (la date théorique à laquelle
+ * le seau sera de nouveau plein) : un long par connexion (voir
+ * {@link Bucket}) et un {@link AtomicLong} pour le seau global, sans thread
+ * ni structure supplémentaire quel que soit le nombre de connexions.
+ * Lorsqu'une ligne dépasse la limite, le {@link ClientHandler} applique
+ * l'un des comportements de {@link Mode}.
+ * Une limite est immuable hormis l'état de son seau global : elle est
+ * remplacée par une nouvelle limite (voir {@link #with(Mode)}, etc.).
+ * @author davidroussel
+ */
+public class RateLimiter
+{
+	/**
+	 * Comportements lorsqu'une ligne dépasse la limite
+	 */
+	public enum Mode
+	{
+		/**
+		 * La ligne est traitée après l'attente nécessaire : la lecture des
+		 * lignes suivantes est suspendue d'autant et le client est ralenti
+		 * par le contrôle de flux de TCP
+		 */
+		DELAY,
+		/**
+		 * La ligne est ignorée et le client en est averti (une seule fois
+		 * par dépassement)
+		 */
+		DROP,
+		/**
+		 * Le client est averti puis déconnecté
+		 */
+		DISCONNECT
+	}
+
+	/**
+	 * Nombre de ns dans une seconde
+	 */
+	private final static long SECOND = 1000000000L;
+
+	/**
+	 * Limite n'imposant aucune limite
+	 */
+	public final static RateLimiter UNLIMITED =
+	    new RateLimiter(Mode.DELAY, 0, 1, 0, 1);
+
+	/**
+	 * État du seau d'une connexion. Il n'est utilisé que par le thread du
+	 * {@link ClientHandler} de la connexion et ne nécessite donc aucune
+	 * synchronisation.
+	 */
+	public static class Bucket
+	{
+		/**
+		 * Date (en ns, voir {@link System#nanoTime()}) à laquelle le seau
+		 * sera plein
+		 */
+		private long full;
+
+		/**
+		 * Indique si le client a été averti du dépassement en cours
+		 */
+		private boolean notified;
+
+		/**
+		 * Constructeur d'un seau plein
+		 */
+		public Bucket()
+		{
+			full = Long.MIN_VALUE;
+			notified = false;
+		}
+
+		/**
+		 * Indique s'il faut avertir le client d'un dépassement : seulement au
+		 * premier dépassement qui suit une ligne acceptée
+		 * @return true si le client n'a pas encore été averti
+		 */
+		public boolean shouldNotify()
+		{
+			boolean first = !notified;
+			notified = true;
+			return first;
+		}
+	}
+
+	/**
+	 * Le comportement lorsqu'une ligne dépasse la limite
+	 */
+	private final Mode mode;
+
+	/**
+	 * Débit (en lignes par seconde) de chaque connexion ou bien 0 sans
+	 * limite par utilisateur
+	 */
+	private final double rate;
+
+	/**
+	 * Rafale (en lignes) de chaque connexion
+	 */
+	private final int burst;
+
+	/**
+	 * Débit (en lignes par seconde) de l'ensemble des connexions ou bien 0
+	 * sans limite globale
+	 */
+	private final double globalRate;
+
+	/**
+	 * Rafale (en lignes) de l'ensemble des connexions
+	 */
+	private final int globalBurst;
+
+	/**
+	 * Intervalle (en ns) entre deux lignes d'une connexion
+	 */
+	private final long interval;
+
+	/**
+	 * Intervalle (en ns) entre deux lignes de l'ensemble des connexions
+	 */
+	private final long globalInterval;
+
+	/**
+	 * Date (en ns) à laquelle le seau global sera plein
+	 */
+	private final AtomicLong globalFull;
+
+	/**
+	 * Constructeur d'une limite
+	 * @param mode le comportement lorsqu'une ligne dépasse la limite
+	 * @param rate le débit (en lignes par seconde) de chaque connexion ou
+	 * bien 0 sans limite par utilisateur
+	 * @param burst la rafale (en lignes) de chaque connexion
+	 * @param globalRate le débit (en lignes par seconde) de l'ensemble des
+	 * connexions ou bien 0 sans limite globale
+	 * @param globalBurst la rafale (en lignes) de l'ensemble des connexions
+	 */
+	public RateLimiter(Mode mode,
+	                   double rate,
+	                   int burst,
+	                   double globalRate,
+	                   int globalBurst)
+	{
+		this.mode = mode;
+		this.rate = Math.max(rate, 0);
+		this.burst = Math.max(burst, 1);
+		this.globalRate = Math.max(globalRate, 0);
+		this.globalBurst = Math.max(globalBurst, 1);
+		interval = (this.rate > 0 ?
+		    Math.max((long) (SECOND / this.rate), 1) : 0);
+		globalInterval = (this.globalRate > 0 ?
+		    Math.max((long) (SECOND / this.globalRate), 1) : 0);
+		globalFull = new AtomicLong(Long.MIN_VALUE);
+	}
+
+	/**
+	 * Accesseur en lecture du comportement lors d'un dépassement
+	 * @return le comportement lorsqu'une ligne dépasse la limite
+	 */
+	public Mode getMode()
+	{
+		return mode;
+	}
+
+	/**
+	 * Accesseur en lecture du débit de chaque connexion
+	 * @return le débit (en lignes par seconde) ou bien 0 sans limite
+	 */
+	public double getRate()
+	{
+		return rate;
+	}
+
+	/**
+	 * Accesseur en lecture de la rafale de chaque connexion
+	 * @return la rafale (en lignes)
+	 */
+	public int getBurst()
+	{
+		return burst;
+	}
+
+	/**
+	 * Accesseur en lecture du débit de l'ensemble des connexions
+	 * @return le débit (en lignes par seconde) ou bien 0 sans limite
+	 */
+	public double getGlobalRate()
+	{
+		return globalRate;
+	}
+
+	/**
+	 * Accesseur en lecture de la rafale de l'ensemble des connexions
+	 * @return la rafale (en lignes)
+	 */
+	public int getGlobalBurst()
+	{
+		return globalBurst;
+	}
+
+	/**
+	 * Indique si la limite impose une limite
+	 * @return true si un débit par utilisateur ou global est fixé
+	 */
+	public boolean isLimited()
+	{
+		return (interval > 0) || (globalInterval > 0);
+	}
+
+	/**
+	 * Limite identique avec un autre comportement lors d'un dépassement
+	 * @param mode le comportement lorsqu'une ligne dépasse la limite
+	 * @return la nouvelle limite
+	 */
+	public RateLimiter with(Mode mode)
+	{
+		return new RateLimiter(mode, rate, burst, globalRate, globalBurst);
+	}
+
+	/**
+	 * Limite identique avec une autre limite par utilisateur
+	 * @param rate le débit (en lignes par seconde) de chaque connexion ou
+	 * bien 0 sans limite par utilisateur
+	 * @param burst la rafale (en lignes) de chaque connexion
+	 * @return la nouvelle limite
+	 */
+	public RateLimiter withUser(double rate, int burst)
+	{
+		return new RateLimiter(mode, rate, burst, globalRate, globalBurst);
+	}
+
+	/**
+	 * Limite identique avec une autre limite globale
+	 * @param globalRate le débit (en lignes par seconde) de l'ensemble des
+	 * connexions ou bien 0 sans limite globale
+	 * @param globalBurst la rafale (en lignes) de l'ensemble des connexions
+	 * @return la nouvelle limite
+	 */
+	public RateLimiter withGlobal(double globalRate, int globalBurst)
+	{
+		return new RateLimiter(mode, rate, burst, globalRate, globalBurst);
+	}
+
+	/**
+	 * Limite correspondant à un débit sous forme de texte : &lt;débit&gt; ou
+	 * &lt;débit&gt;:&lt;rafale&gt; (option de la ligne de commande du
+	 * serveur). Sans rafale, la rafale est égale au débit (une seconde de
+	 * lignes).
+	 * @param text le débit (en lignes par seconde) et la rafale
+	 * @param global true pour la limite globale, false pour la limite par
+	 * utilisateur
+	 * @return la limite courante avec le débit demandé ou bien la limite
+	 * courante si le débit est invalide
+	 */
+	public RateLimiter parse(String text, boolean global)
+	{
+		if (text == null)
+		{
+			return this;
+		}
+		String[] fields = text.trim().split(":", 2);
+		double parsedRate;
+		int parsedBurst;
+		try
+		{
+			parsedRate = Double.parseDouble(fields[0]);
+			parsedBurst = (fields.length > 1 ? Integer.parseInt(fields[1]) :
+			                                   (int) Math.ceil(parsedRate));
+		}
+		catch (NumberFormatException e)
+		{
+			return this;
+		}
+		return (global ? withGlobal(parsedRate, parsedBurst) :
+		                 withUser(parsedRate, parsedBurst));
+	}
+
+	/**
+	 * Limite correspondant à un comportement sous forme de texte : delay,
+	 * drop ou disconnect
+	 * @param text le comportement (evt null)
+	 * @return la limite courante avec le comportement demandé ou bien la
+	 * limite courante si le comportement est absent ou invalide
+	 */
+	public RateLimiter parseMode(String text)
+	{
+		if (text != null)
+		{
+			for (Mode m : Mode.values())
+			{
+				if (m.name().equalsIgnoreCase(text.trim()))
+				{
+					return with(m);
+				}
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Demande de passage d'une ligne reçue sur une connexion.
+	 * En mode {@link Mode#DELAY} la ligne est toujours acceptée (les jetons
+	 * sont empruntés) et le délai renvoyé est celui dont il faut retarder
+	 * son traitement. Dans les autres modes, la ligne n'est acceptée
+	 * (et les jetons consommés) que si les deux seaux en contiennent.
+	 * @param bucket le seau de la connexion
+	 * @return 0 si la ligne peut être traitée immédiatement ou bien le délai
+	 * (en ns) avant qu'elle puisse l'être
+	 */
+	public long acquire(Bucket bucket)
+	{
+		if (!isLimited())
+		{
+			return 0;
+		}
+		long now = System.nanoTime();
+		long delay;
+		if (mode == Mode.DELAY)
+		{
+			delay = Math.max(take(bucket, now), takeGlobal(now, true));
+		}
+		else
+		{
+			delay = wait(bucket, now);
+			if (delay == 0)
+			{
+				delay = takeGlobal(now, false);
+				if (delay == 0)
+				{
+					take(bucket, now);
+				}
+			}
+		}
+		if (delay == 0)
+		{
+			bucket.notified = false;
+		}
+		return delay;
+	}
+
+	/**
+	 * Délai avant qu'une connexion contienne un jeton
+	 * @param bucket le seau de la connexion
+	 * @param now la date courante (en ns)
+	 * @return 0 si le seau contient un jeton ou bien le délai (en ns)
+	 */
+	private long wait(Bucket bucket, long now)
+	{
+		if (interval == 0)
+		{
+			return 0;
+		}
+		return delay(bucket.full, now, interval, burst);
+	}
+
+	/**
+	 * Consommation (evt empruntée) d'un jeton du seau d'une connexion
+	 * @param bucket le seau de la connexion
+	 * @param now la date courante (en ns)
+	 * @return 0 si le seau contenait un jeton ou bien le délai (en ns)
+	 * avant que le jeton emprunté soit disponible
+	 */
+	private long take(Bucket bucket, long now)
+	{
+		if (interval == 0)
+		{
+			return 0;
+		}
+		long delay = wait(bucket, now);
+		bucket.full = Math.max(bucket.full, now) + interval;
+		return delay;
+	}
+
+	/**
+	 * Consommation d'un jeton du seau global
+	 * @param now la date courante (en ns)
+	 * @param borrow true pour emprunter le jeton s'il n'est pas disponible
+	 * @return 0 si le seau contenait un jeton ou bien le délai (en ns)
+	 * avant qu'il en contienne un (le jeton n'est alors consommé que s'il
+	 * est emprunté)
+	 */
+	private long takeGlobal(long now, boolean borrow)
+	{
+		if (globalInterval == 0)
+		{
+			return 0;
+		}
+		while (true)
+		{
+			long full = globalFull.get();
+			long delay = delay(full, now, globalInterval, globalBurst);
+			if ((delay > 0) && !borrow)
+			{
+				return delay;
+			}
+			if (globalFull.compareAndSet(full,
+			                             Math.max(full, now) + globalInterval))
+			{
+				return delay;
+			}
+		}
+	}
+
+	/**
+	 * Délai avant qu'un seau contienne au moins un jeton : le seau contient
+	 * un jeton dès qu'il manque moins d'une rafale pour qu'il soit plein
+	 * @param full la date (en ns) à laquelle le seau sera plein
+	 * @param now la date courante (en ns)
+	 * @param interval l'intervalle (en ns) entre deux jetons
+	 * @param burst la capacité du seau
+	 * @return 0 si le seau contient un jeton ou bien le délai (en ns)
+	 */
+	private static long delay(long full, long now, long interval, int burst)
+	{
+		if (full == Long.MIN_VALUE)
+		{
+			// seau jamais utilisé
+			return 0;
+		}
+		return Math.max(full - ((burst - 1) * interval) - now, 0);
+	}
+
+	/**
+	 * Représentation de la limite
+	 * @return les débits et rafales par utilisateur et global et le
+	 * comportement lors d'un dépassement
+	 */
+	@Override
+	public String toString()
+	{
+		if (!isLimited())
+		{
+			return "unlimited";
+		}
+		return "user " + (interval > 0 ? rate + ":" + burst : "unlimited")
+		    + ", global " + (globalInterval > 0 ? globalRate + ":"
+		        + globalBurst : "unlimited")
+		    + ", " + mode.name().toLowerCase();
+	}
+}
@@ -0,0 +1,43 @@
+package chat.server;
+
+/**
+ * Destination de la transcription des lignes reçues par le serveur (nom du
+ * client &gt; ligne), affichée jusqu'ici directement sur la console par
+ * chaque {@link ClientHandler}.
+ * Une transcription ne doit pas bloquer le thread qui l'appelle : voir
+ * {@link AsyncTranscript} pour une transcription vers la console ou vers un
+ * fichier, et {@link #OFF} pour ne rien transcrire.
+ * @author davidroussel
+ */
+public interface TranscriptSink
+{
+	/**
+	 * Transcription désactivée
+	 */
+	public final static TranscriptSink OFF = new TranscriptSink()
+	{
+		@Override
+		public void append(String name, String line)
+		{
+			// rien
+		}
+
+		@Override
+		public void close()
+		{
+			// rien
+		}
+	};
+
+	/**
+	 * Transcription d'une ligne reçue d'un client
+	 * @param name le nom du client
+	 * @param line la ligne reçue
+	 */
+	public void append(String name, String line);
+
+	/**
+	 * Fermeture de la transcription : les lignes en attente sont écrites
+	 */
+	public void close();
+}
@@ -0,0 +1,26 @@
+package chat.server.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Évènement JFR émis lorsque le serveur accepte la connexion d'un client
+ * (avant la lecture de son nom)
+ * @author davidroussel
+ */
+@Name("chat.Accept")
+@Label("Client Accept")
+@Description("Connection accepted by the chat server socket")
+@Category({"Chat", "Connection"})
+@StackTrace(false)
+public class AcceptEvent extends jdk.jfr.Event
+{
+	/**
+	 * Adresse distante du client
+	 */
+	@Label("Remote Address")
+	public String remote;
+}
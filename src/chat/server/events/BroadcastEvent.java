@@ -0,0 +1,54 @@
+package chat.server.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Évènement JFR couvrant la diffusion d'un message à tous les clients (en
+ * détenant le verrou de diffusion). Les écritures lentes vers un client
+ * pendant cette diffusion sont les {@link RecipientWriteEvent} de même
+ * numéro de séquence.
+ * @author davidroussel
+ */
+@Name("chat.Broadcast")
+@Label("Broadcast")
+@Description("Fan-out of one message to every ready client")
+@Category({"Chat", "Broadcast"})
+@StackTrace(false)
+public class BroadcastEvent extends jdk.jfr.Event
+{
+	/**
+	 * Nom du client ayant envoyé la ligne diffusée
+	 */
+	@Label("Sender")
+	public String sender;
+
+	/**
+	 * Numéro de séquence du message diffusé
+	 */
+	@Label("Sequence")
+	public long sequence;
+
+	/**
+	 * Indique s'il s'agit d'un message de contrôle
+	 */
+	@Label("Control")
+	public boolean control;
+
+	/**
+	 * Nombre de clients à qui le message a été écrit
+	 */
+	@Label("Recipients")
+	public int recipients;
+
+	/**
+	 * Nombre total d'octets écrits vers les clients
+	 */
+	@Label("Bytes")
+	@DataAmount
+	public long bytes;
+}
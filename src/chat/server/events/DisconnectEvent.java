@@ -0,0 +1,53 @@
+package chat.server.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Évènement JFR couvrant la session d'un client, de la création de son
+ * {@link chat.server.ClientHandler} jusqu'à sa déconnexion
+ * @author davidroussel
+ */
+@Name("chat.Disconnect")
+@Label("Client Disconnect")
+@Description("Client session ended, with the reason of its end")
+@Category({"Chat", "Connection"})
+@StackTrace(false)
+public class DisconnectEvent extends jdk.jfr.Event
+{
+	/**
+	 * Nom du client
+	 */
+	@Label("Client")
+	public String client;
+
+	/**
+	 * Raison de la déconnexion : bye, kicked, kill, limited (limite de débit),
+	 * closed ou error
+	 */
+	@Label("Reason")
+	public String reason;
+
+	/**
+	 * Nombre de lignes reçues du client
+	 */
+	@Label("Messages In")
+	public long messagesIn;
+
+	/**
+	 * Nombre de messages écrits vers le client
+	 */
+	@Label("Messages Out")
+	public long messagesOut;
+
+	/**
+	 * Nombre d'octets écrits vers le client
+	 */
+	@Label("Bytes Out")
+	@DataAmount
+	public long bytesOut;
+}
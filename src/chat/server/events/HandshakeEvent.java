@@ -0,0 +1,74 @@
+package chat.server.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Évènement JFR couvrant la lecture de la ligne de connexion d'un client
+ * (nom et options) et son enregistrement par le serveur, ou bien son refus
+ * @author davidroussel
+ */
+@Name("chat.Handshake")
+@Label("Name Handshake")
+@Description("Handshake line read and client registered or refused")
+@Category({"Chat", "Connection"})
+@StackTrace(false)
+public class HandshakeEvent extends jdk.jfr.Event
+{
+	/**
+	 * Adresse distante du client
+	 */
+	@Label("Remote Address")
+	public String remote;
+
+	/**
+	 * Nom demandé par le client (ou null)
+	 */
+	@Label("Client")
+	public String client;
+
+	/**
+	 * Indique si le client reçoit des trames
+	 */
+	@Label("Framed")
+	public boolean framed;
+
+	/**
+	 * Indique si le client a demandé le traçage de ses messages
+	 */
+	@Label("Traced")
+	public boolean traced;
+
+	/**
+	 * Indique si le client reçoit des trames de lot
+	 */
+	@Label("Batched")
+	public boolean batched;
+
+	/**
+	 * Politique d'écriture des messages vers le client
+	 */
+	@Label("Flush Policy")
+	public String flush;
+
+	/**
+	 * Indique si le client se reconnecte
+	 */
+	@Label("Resuming")
+	public boolean resuming;
+
+	/**
+	 * Indique si le client a été accepté
+	 */
+	@Label("Accepted")
+	public boolean accepted;
+
+	/**
+	 * Raison du refus du client (ou null)
+	 */
+	@Label("Refusal Reason")
+	public String reason;
+}
@@ -0,0 +1,37 @@
+package chat.server.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Évènement JFR émis lors d'une demande de kick (accordée ou refusée)
+ * @author davidroussel
+ */
+@Name("chat.Kick")
+@Label("Kick")
+@Description("Kick request from a client or from the admin endpoint")
+@Category({"Chat", "Connection"})
+@StackTrace(false)
+public class KickEvent extends jdk.jfr.Event
+{
+	/**
+	 * Nom du client à kicker (ou null)
+	 */
+	@Label("Target")
+	public String target;
+
+	/**
+	 * Nom de l'auteur de la demande
+	 */
+	@Label("Requested By")
+	public String by;
+
+	/**
+	 * Indique si la demande a été accordée
+	 */
+	@Label("Granted")
+	public boolean granted;
+}
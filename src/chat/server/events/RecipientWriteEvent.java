@@ -0,0 +1,43 @@
+package chat.server.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Évènement JFR couvrant l'écriture d'un message diffusé vers un client.
+ * Seules les écritures dépassant le seuil (1 ms par défaut) sont
+ * enregistrées : elles désignent le client qui a ralenti une diffusion.
+ * @author davidroussel
+ */
+@Name("chat.RecipientWrite")
+@Label("Slow Recipient Write")
+@Description("Write of a broadcast message to one client exceeding the threshold")
+@Category({"Chat", "Broadcast"})
+@Threshold("1 ms")
+@StackTrace(false)
+public class RecipientWriteEvent extends jdk.jfr.Event
+{
+	/**
+	 * Nom du client destinataire
+	 */
+	@Label("Recipient")
+	public String recipient;
+
+	/**
+	 * Numéro de séquence du message diffusé
+	 */
+	@Label("Sequence")
+	public long sequence;
+
+	/**
+	 * Nombre d'octets écrits vers le client
+	 */
+	@Label("Bytes")
+	@DataAmount
+	public long bytes;
+}
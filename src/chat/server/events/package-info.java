@@ -0,0 +1,11 @@
+/**
+ * Sous-package contenant les évènements Java Flight Recorder émis par le
+ * serveur de chat : acceptation et connexion des clients, diffusions,
+ * écritures lentes vers un client, kicks et déconnexions.
+ * Ces évènements ne coûtent presque rien lorsqu'aucun enregistrement n'est
+ * en cours. Pour les enregistrer :
+ * java -XX:StartFlightRecording=filename=chat.jfr RunChatServer ...
+ * puis jfr print --categories Chat chat.jfr
+ * @author davidroussel
+ */
+package chat.server.events;
@@ -0,0 +1,275 @@
+package logger;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * Handler de log asynchrone : les messages publiés sont déposés dans une
+ * file bornée et écrits par un thread dédié, par lots, avec un seul vidage
+ * du flux par lot. Les threads qui publient ne sont donc jamais bloqués par
+ * l'écriture (fichier, console lente, tube) : lorsque la file est pleine les
+ * messages sont abandonnés et leur nombre est signalé dans le flux dès que
+ * possible.
+ * Comme le formatage se fait dans le thread d'écriture, l'origine d'un
+ * message est le nom de son logger (celui de sa classe pour les loggers de
+ * {@link LoggerFactory}) plutôt que la classe et la méthode appelantes.
+ * @author davidroussel
+ */
+public class AsyncHandler extends Handler
+{
+	/**
+	 * Capacité par défaut de la file des messages
+	 */
+	public final static int DEFAULTCAPACITY = 8192;
+
+	/**
+	 * Nombre maximum de messages écrits par lot
+	 */
+	public final static int MAXBATCH = 256;
+
+	/**
+	 * File des messages à écrire
+	 */
+	private final BlockingQueue<LogRecord> queue;
+
+	/**
+	 * Flux dans lequel sont écrits les messages
+	 */
+	private final Writer writer;
+
+	/**
+	 * Indique si le flux doit être fermé à la fermeture du handler (mais pas
+	 * s'il s'agit de la console)
+	 */
+	private final boolean closeWriter;
+
+	/**
+	 * Nombre de messages abandonnés depuis le dernier lot écrit
+	 */
+	private final AtomicLong dropped;
+
+	/**
+	 * Nombre total de messages abandonnés
+	 */
+	private final AtomicLong totalDropped;
+
+	/**
+	 * Thread d'écriture des messages
+	 */
+	private final Thread thread;
+
+	/**
+	 * Indique si l'entête du formatage (voir {@link Formatter#getHead(Handler)})
+	 * a été écrit
+	 */
+	private boolean headWritten;
+
+	/**
+	 * Indique si le handler a été fermé
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Constructeur d'un handler asynchrone écrivant dans un fichier (créé ou
+	 * remplacé) avec un formatage simple
+	 * @param fileName le nom du fichier de log
+	 * @throws IOException si le fichier ne peut pas être ouvert
+	 */
+	public AsyncHandler(String fileName) throws IOException
+	{
+		this(new FileOutputStream(fileName), true, new SimpleFormatter(),
+		     DEFAULTCAPACITY);
+	}
+
+	/**
+	 * Constructeur d'un handler asynchrone
+	 * @param out le flux dans lequel écrire les messages
+	 * @param closeOut true si le flux doit être fermé à la fermeture du
+	 * handler
+	 * @param formatter le formatage des messages
+	 * @param capacity la capacité de la file des messages
+	 */
+	public AsyncHandler(OutputStream out,
+	                    boolean closeOut,
+	                    Formatter formatter,
+	                    int capacity)
+	{
+		queue = new ArrayBlockingQueue<LogRecord>(capacity);
+		writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+		closeWriter = closeOut;
+		dropped = new AtomicLong();
+		totalDropped = new AtomicLong();
+		headWritten = false;
+		closed = false;
+		setFormatter(formatter);
+		thread = new Thread(this::drain, "log-writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Dépôt d'un message dans la file (sans attente)
+	 * @param record le message à écrire
+	 */
+	@Override
+	public void publish(LogRecord record)
+	{
+		if (closed || !isLoggable(record))
+		{
+			return;
+		}
+		/*
+		 * L'origine du message ne pourrait être déterminée qu'en parcourant la
+		 * pile de l'appelant, ce qui coûte plus cher que le dépôt dans la
+		 * file : les loggers de LoggerFactory portant le nom de leur classe,
+		 * celui-ci est utilisé à la place (sans le nom de la méthode)
+		 */
+		record.setSourceClassName(record.getLoggerName());
+		record.setSourceMethodName(null);
+		if (!queue.offer(record))
+		{
+			dropped.incrementAndGet();
+			totalDropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Écriture des messages par lots jusqu'à la fermeture du handler
+	 */
+	private void drain()
+	{
+		List<LogRecord> batch = new ArrayList<LogRecord>(MAXBATCH);
+		while (!closed || !queue.isEmpty())
+		{
+			try
+			{
+				LogRecord first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null)
+				{
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch, MAXBATCH - 1);
+				write(batch);
+				batch.clear();
+			}
+			catch (InterruptedException e)
+			{
+				// fermeture du handler : on écrit ce qui reste
+			}
+		}
+	}
+
+	/**
+	 * Écriture d'un lot de messages puis vidage du flux
+	 * @param batch les messages à écrire
+	 */
+	private void write(List<LogRecord> batch)
+	{
+		try
+		{
+			Formatter formatter = getFormatter();
+			if (!headWritten)
+			{
+				writer.write(formatter.getHead(this));
+				headWritten = true;
+			}
+			long lost = dropped.getAndSet(0);
+			if (lost > 0)
+			{
+				writer.write("AsyncHandler: " + lost + " log records dropped"
+				    + System.lineSeparator());
+			}
+			for (LogRecord record : batch)
+			{
+				writer.write(formatter.format(record));
+			}
+			writer.flush();
+		}
+		catch (Exception e)
+		{
+			reportError(null, e, ErrorManager.WRITE_FAILURE);
+		}
+	}
+
+	/**
+	 * Nombre total de messages abandonnés parce que la file était pleine
+	 * @return le nombre de messages abandonnés
+	 */
+	public long getDropped()
+	{
+		return totalDropped.get();
+	}
+
+	/**
+	 * Nombre de messages en attente d'écriture
+	 * @return le nombre de messages dans la file
+	 */
+	public int getPending()
+	{
+		return queue.size();
+	}
+
+	/**
+	 * Le vidage est réalisé après chaque lot par le thread d'écriture
+	 */
+	@Override
+	public void flush()
+	{
+		// rien
+	}
+
+	/**
+	 * Fermeture du handler : les messages en attente sont écrits avant la
+	 * fermeture du flux
+	 */
+	@Override
+	public void close()
+	{
+		if (closed)
+		{
+			return;
+		}
+		closed = true;
+		thread.interrupt();
+		try
+		{
+			thread.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		try
+		{
+			if (headWritten)
+			{
+				writer.write(getFormatter().getTail(this));
+			}
+			writer.flush();
+			if (closeWriter)
+			{
+				writer.close();
+			}
+		}
+		catch (IOException e)
+		{
+			reportError(null, e, ErrorManager.CLOSE_FAILURE);
+		}
+	}
+}
@@ -1,14 +1,23 @@
 package logger;
 
 import java.io.IOException;
-import java.util.logging.FileHandler;
+import java.util.logging.ConsoleHandler;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
+import java.util.logging.XMLFormatter;
 
 /**
- * Logger Factory
+ * Logger Factory.
+ * Les fichiers de log sont écrits de manière asynchrone (voir
+ * {@link AsyncHandler}) afin que les threads qui émettent des messages ne
+ * soient pas ralentis par l'écriture, de même que la console après
+ * {@link #useAsyncConsole()}. Dans les chemins critiques, les messages
+ * construits par concaténation sont passés sous forme de
+ * {@link java.util.function.Supplier} (par exemple
+ * logger.fine(() -&gt; "..." + x)) afin de n'être construits que si leur
+ * niveau est affiché.
  * @author davidroussel
  */
 public class LoggerFactory
@@ -85,6 +94,30 @@ public class LoggerFactory
 		return getLogger(client, false, fileName, xmlFormat, null, level);
 	}
 
+	/**
+	 * Remplacement des handlers de la console du logger racine (utilisés par
+	 * tous les loggers qui ne sont pas reliés à un fichier) par un
+	 * {@link AsyncHandler} écrivant sur la sortie d'erreur, au même niveau
+	 */
+	public static void useAsyncConsole()
+	{
+		Logger root = Logger.getLogger("");
+		for (Handler handler : root.getHandlers())
+		{
+			if (handler instanceof ConsoleHandler)
+			{
+				AsyncHandler console =
+				    new AsyncHandler(System.err,
+				                     false,
+				                     new SimpleFormatter(),
+				                     AsyncHandler.DEFAULTCAPACITY);
+				console.setLevel(handler.getLevel());
+				root.removeHandler(handler);
+				root.addHandler(console);
+			}
+		}
+	}
+
 	/**
 	 * Factory générale pour obtenir un logger
 	 * @param client la classe cliente du logger. utilisée pour donner un nom au
@@ -143,16 +176,14 @@ public class LoggerFactory
 						}
 					}
 
-					// Ajout d'un fileHandler au logger
+					// Ajout d'un handler asynchrone au logger
 					try
 					{
-						Handler handler = new FileHandler(filename);
-						if (!xmlFormat)
+						Handler handler = new AsyncHandler(filename);
+						if (xmlFormat)
 						{
-							// par défaut le formattage fichier sera en XML
-							// il faut donc remettre en place un formatteur
-							// simple
-							handler.setFormatter(new SimpleFormatter());
+							// par défaut le formattage est simple
+							handler.setFormatter(new XMLFormatter());
 						}
 
 						// Ajout de ce filehandler au logger
@@ -0,0 +1,337 @@
+package metrics;
+
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mesures d'un client connecté au serveur : nom, date de connexion, codage
+ * demandé, politique d'écriture, nombre de lignes reçues, de messages et
+ * d'octets écrits et de vidages du tampon d'écriture, ainsi que la taille
+ * de sa file d'envoi : octets écrits dans son tampon mais pas encore sur sa
+ * socket, trames en attente du prochain lot et messages mis en attente
+ * pendant le rejeu de l'historique.
+ * Les compteurs sont mis à jour sans verrou et peuvent être lus à tout
+ * moment (voir {@link ServerMetrics#getClients()}).
+ * @author davidroussel
+ */
+public class ClientMetrics
+{
+	/**
+	 * Le nom du client
+	 */
+	private final String name;
+
+	/**
+	 * Date (en ms depuis l'epoch) de la connexion du client
+	 */
+	private final long connectedAt;
+
+	/**
+	 * Indique si le client reçoit des trames (ou un flux objet)
+	 */
+	private final boolean framed;
+
+	/**
+	 * Indique si le client a demandé le traçage de ses messages
+	 */
+	private volatile boolean traced;
+
+	/**
+	 * Indique si le client reçoit des trames de lot
+	 */
+	private volatile boolean batched;
+
+	/**
+	 * Nombre de lignes reçues du client
+	 */
+	private final AtomicLong messagesIn;
+
+	/**
+	 * Nombre de messages écrits vers le client
+	 */
+	private final AtomicLong messagesOut;
+
+	/**
+	 * Nombre d'octets écrits vers le client
+	 */
+	private final LongAdder bytesOut;
+
+	/**
+	 * Nombre de vidages du tampon d'écriture vers le client
+	 */
+	private final AtomicLong flushes;
+
+	/**
+	 * Nombre d'octets écrits sur la socket du client
+	 */
+	private final LongAdder socketBytes;
+
+	/**
+	 * Nombre d'octets écrits dans le tampon puis abandonnés (client kické)
+	 */
+	private final LongAdder droppedBytes;
+
+	/**
+	 * Nombre de trames en attente du prochain lot
+	 */
+	private volatile int pendingFrames;
+
+	/**
+	 * Nombre de messages mis en attente pendant le rejeu de l'historique
+	 */
+	private volatile int heldMessages;
+
+	/**
+	 * Politique d'écriture des messages vers le client
+	 */
+	private volatile String flushPolicy;
+
+	/**
+	 * Constructeur des mesures d'un client qui vient de se connecter
+	 * @param name le nom du client
+	 * @param framed true si le client reçoit des trames
+	 */
+	public ClientMetrics(String name, boolean framed)
+	{
+		this.name = name;
+		this.framed = framed;
+		connectedAt = System.currentTimeMillis();
+		traced = false;
+		batched = false;
+		messagesIn = new AtomicLong();
+		messagesOut = new AtomicLong();
+		bytesOut = new LongAdder();
+		flushes = new AtomicLong();
+		socketBytes = new LongAdder();
+		droppedBytes = new LongAdder();
+		pendingFrames = 0;
+		heldMessages = 0;
+		flushPolicy = null;
+	}
+
+	/**
+	 * Flux de sortie vers le client comptant les octets écrits
+	 * @param out le flux de sortie vers le client
+	 * @return un flux comptant les octets écrits dans {@link #getBytesOut()}
+	 */
+	public OutputStream countOutput(OutputStream out)
+	{
+		return new CountingOutputStream(out, bytesOut);
+	}
+
+	/**
+	 * Flux de la socket du client comptant les octets qui y sont écrits
+	 * @param out le flux de la socket du client
+	 * @return un flux comptant les octets écrits (la différence avec
+	 * {@link #getBytesOut()} donne {@link #getPendingBytes()})
+	 */
+	public OutputStream countSocket(OutputStream out)
+	{
+		return new CountingOutputStream(out, socketBytes);
+	}
+
+	/**
+	 * Enregistrement d'octets écrits dans le tampon puis abandonnés
+	 * @param bytes le nombre d'octets abandonnés
+	 */
+	public void dropped(int bytes)
+	{
+		droppedBytes.add(bytes);
+	}
+
+	/**
+	 * Accesseur en écriture du nombre de trames en attente du prochain lot
+	 * @param frames le nombre de trames en attente
+	 */
+	public void setPendingFrames(int frames)
+	{
+		pendingFrames = frames;
+	}
+
+	/**
+	 * Accesseur en écriture du nombre de messages mis en attente pendant le
+	 * rejeu de l'historique
+	 * @param messages le nombre de messages en attente
+	 */
+	public void setHeldMessages(int messages)
+	{
+		heldMessages = messages;
+	}
+
+	/**
+	 * Enregistrement d'une ligne reçue du client
+	 */
+	public void messageReceived()
+	{
+		messagesIn.incrementAndGet();
+	}
+
+	/**
+	 * Enregistrement d'un message écrit vers le client
+	 */
+	public void messageSent()
+	{
+		messagesOut.incrementAndGet();
+	}
+
+	/**
+	 * Enregistrement d'un vidage du tampon d'écriture vers le client
+	 */
+	public void flushed()
+	{
+		flushes.incrementAndGet();
+	}
+
+	/**
+	 * Accesseur en écriture de la politique d'écriture vers le client
+	 * @param flushPolicy la politique d'écriture (voir
+	 * {@link chat.server.FlushPolicy#toString()})
+	 */
+	public void setFlushPolicy(String flushPolicy)
+	{
+		this.flushPolicy = flushPolicy;
+	}
+
+	/**
+	 * Accesseur en écriture du traçage des messages du client
+	 * @param traced true si le client a demandé le traçage
+	 */
+	public void setTraced(boolean traced)
+	{
+		this.traced = traced;
+	}
+
+	/**
+	 * Accesseur en écriture du regroupement des messages du client
+	 * @param batched true si le client reçoit des trames de lot
+	 */
+	public void setBatched(boolean batched)
+	{
+		this.batched = batched;
+	}
+
+	/**
+	 * Accesseur en lecture du nom du client
+	 * @return le nom du client
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Accesseur en lecture de la date de connexion du client
+	 * @return la date de connexion (en ms depuis l'epoch)
+	 */
+	public long getConnectedAt()
+	{
+		return connectedAt;
+	}
+
+	/**
+	 * Indique si le client reçoit des trames
+	 * @return true si le client reçoit des trames, false s'il reçoit un flux
+	 * objet
+	 */
+	public boolean isFramed()
+	{
+		return framed;
+	}
+
+	/**
+	 * Indique si le client a demandé le traçage de ses messages
+	 * @return true si les messages du client sont tracés
+	 */
+	public boolean isTraced()
+	{
+		return traced;
+	}
+
+	/**
+	 * Indique si le client reçoit des trames de lot
+	 * @return true si les messages du client sont regroupés en lots
+	 */
+	public boolean isBatched()
+	{
+		return batched;
+	}
+
+	/**
+	 * Accesseur en lecture du nombre de lignes reçues du client
+	 * @return le nombre de lignes reçues
+	 */
+	public long getMessagesIn()
+	{
+		return messagesIn.get();
+	}
+
+	/**
+	 * Accesseur en lecture du nombre de messages écrits vers le client
+	 * @return le nombre de messages écrits
+	 */
+	public long getMessagesOut()
+	{
+		return messagesOut.get();
+	}
+
+	/**
+	 * Accesseur en lecture du nombre d'octets écrits vers le client
+	 * @return le nombre d'octets écrits vers le client
+	 */
+	public long getBytesOut()
+	{
+		return bytesOut.sum();
+	}
+
+	/**
+	 * Accesseur en lecture du nombre de vidages du tampon d'écriture (le
+	 * rapport avec {@link #getMessagesOut()} indique le nombre de messages
+	 * écrits par appel système)
+	 * @return le nombre de vidages
+	 */
+	public long getFlushes()
+	{
+		return flushes.get();
+	}
+
+	/**
+	 * Nombre d'octets écrits dans le tampon du client mais pas encore sur
+	 * sa socket (les compteurs étant lus sans verrou, la valeur peut être
+	 * décalée d'une écriture en cours)
+	 * @return le nombre d'octets en attente dans le tampon
+	 */
+	public long getPendingBytes()
+	{
+		return Math.max(0, bytesOut.sum() - socketBytes.sum() - droppedBytes.sum());
+	}
+
+	/**
+	 * Accesseur en lecture du nombre de trames en attente du prochain lot
+	 * (pas encore écrites dans le tampon)
+	 * @return le nombre de trames en attente
+	 */
+	public int getPendingFrames()
+	{
+		return pendingFrames;
+	}
+
+	/**
+	 * Accesseur en lecture du nombre de messages mis en attente pendant le
+	 * rejeu de l'historique
+	 * @return le nombre de messages en attente
+	 */
+	public int getHeldMessages()
+	{
+		return heldMessages;
+	}
+
+	/**
+	 * Accesseur en lecture de la politique d'écriture vers le client
+	 * @return la politique d'écriture ou bien null
+	 */
+	public String getFlushPolicy()
+	{
+		return flushPolicy;
+	}
+}
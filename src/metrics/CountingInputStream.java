@@ -0,0 +1,60 @@
+package metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Flux d'entrée comptant les octets lus dans un compteur (evt partagé par
+ * plusieurs flux)
+ * @author davidroussel
+ */
+public class CountingInputStream extends FilterInputStream
+{
+	/**
+	 * Le compteur des octets lus
+	 */
+	private final LongAdder counter;
+
+	/**
+	 * Constructeur d'un flux comptant les octets lus
+	 * @param in le flux d'entrée
+	 * @param counter le compteur des octets lus
+	 */
+	public CountingInputStream(InputStream in, LongAdder counter)
+	{
+		super(in);
+		this.counter = counter;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		int b = in.read();
+		if (b >= 0)
+		{
+			counter.increment();
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		int count = in.read(b, off, len);
+		if (count > 0)
+		{
+			counter.add(count);
+		}
+		return count;
+	}
+
+	@Override
+	public long skip(long n) throws IOException
+	{
+		long count = in.skip(n);
+		counter.add(count);
+		return count;
+	}
+}
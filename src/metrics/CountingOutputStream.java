@@ -0,0 +1,74 @@
+package metrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Flux de sortie comptant les octets écrits dans un compteur (evt partagé
+ * par plusieurs flux) et éventuellement le nombre d'écritures (qui, placé
+ * directement sur le flux d'une socket, est le nombre d'appels système).
+ * Contrairement à {@link FilterOutputStream}, les tableaux d'octets sont
+ * écrits en une seule fois dans le flux sous-jacent.
+ * @author davidroussel
+ */
+public class CountingOutputStream extends FilterOutputStream
+{
+	/**
+	 * Le compteur des octets écrits
+	 */
+	private final LongAdder counter;
+
+	/**
+	 * Le compteur des écritures (ou null)
+	 */
+	private final LongAdder writes;
+
+	/**
+	 * Constructeur d'un flux comptant les octets écrits
+	 * @param out le flux de sortie
+	 * @param counter le compteur des octets écrits
+	 */
+	public CountingOutputStream(OutputStream out, LongAdder counter)
+	{
+		this(out, counter, null);
+	}
+
+	/**
+	 * Constructeur d'un flux comptant les octets écrits et les écritures
+	 * @param out le flux de sortie
+	 * @param counter le compteur des octets écrits
+	 * @param writes le compteur des écritures (ou null)
+	 */
+	public CountingOutputStream(OutputStream out,
+	                            LongAdder counter,
+	                            LongAdder writes)
+	{
+		super(out);
+		this.counter = counter;
+		this.writes = writes;
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		out.write(b);
+		counter.increment();
+		if (writes != null)
+		{
+			writes.increment();
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		out.write(b, off, len);
+		counter.add(len);
+		if (writes != null)
+		{
+			writes.increment();
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogramme de valeurs positives (des latences en microsecondes par
+ * exemple) permettant d'en calculer les centiles.
+ * Les valeurs sont rangées dans des classes dont la largeur double à chaque
+ * puissance de deux, chaque puissance de deux étant elle même divisée en
+ * {@link #SUBBUCKETS} classes : l'erreur relative sur un centile est donc
+ * inférieure à 1/{@link #SUBBUCKETS} quelle que soit la valeur, pour une
+ * taille fixe (moins de 2000 compteurs).
+ * L'enregistrement d'une valeur ne prend aucun verrou et peut être réalisé
+ * simultanément par plusieurs threads.
+ * @author davidroussel
+ */
+public class Histogram
+{
+	/**
+	 * Nombre de bits de précision de chaque puissance de deux
+	 */
+	private final static int PRECISION = 5;
+
+	/**
+	 * Nombre de classes par puissance de deux
+	 */
+	public final static int SUBBUCKETS = 1 << PRECISION;
+
+	/**
+	 * Nombre total de classes (jusqu'à {@link Long#MAX_VALUE})
+	 */
+	private final static int BUCKETS =
+	    ((Long.SIZE - 1 - PRECISION) + 1) * SUBBUCKETS;
+
+	/**
+	 * Nombre de valeurs de chaque classe
+	 */
+	private final AtomicLongArray counts;
+
+	/**
+	 * Nombre total de valeurs enregistrées
+	 */
+	private final AtomicLong count;
+
+	/**
+	 * Somme des valeurs enregistrées
+	 */
+	private final AtomicLong sum;
+
+	/**
+	 * Plus grande valeur enregistrée
+	 */
+	private final AtomicLong max;
+
+	/**
+	 * Constructeur d'un histogramme vide
+	 */
+	public Histogram()
+	{
+		counts = new AtomicLongArray(BUCKETS);
+		count = new AtomicLong();
+		sum = new AtomicLong();
+		max = new AtomicLong();
+	}
+
+	/**
+	 * Index de la classe d'une valeur
+	 * @param value la valeur (positive ou nulle)
+	 * @return l'index de la classe contenant la valeur
+	 */
+	private static int bucket(long value)
+	{
+		if (value < SUBBUCKETS)
+		{
+			return (int) value;
+		}
+		int exponent = (Long.SIZE - 1) - Long.numberOfLeadingZeros(value);
+		int shift = exponent - PRECISION;
+		return ((shift + 1) * SUBBUCKETS)
+		    + (int) ((value >>> shift) & (SUBBUCKETS - 1));
+	}
+
+	/**
+	 * Plus grande valeur d'une classe
+	 * @param index l'index de la classe
+	 * @return la plus grande valeur rangée dans cette classe
+	 */
+	private static long highest(int index)
+	{
+		if (index < SUBBUCKETS)
+		{
+			return index;
+		}
+		int shift = (index / SUBBUCKETS) - 1;
+		long lowest = ((long) (SUBBUCKETS + (index % SUBBUCKETS))) << shift;
+		return lowest + ((1L << shift) - 1);
+	}
+
+	/**
+	 * Enregistrement d'une valeur
+	 * @param value la valeur à enregistrer (les valeurs négatives sont
+	 * comptées comme nulles)
+	 */
+	public void record(long value)
+	{
+		long v = Math.max(value, 0);
+		counts.incrementAndGet(bucket(v));
+		count.incrementAndGet();
+		sum.addAndGet(v);
+		max.accumulateAndGet(v, Math::max);
+	}
+
+	/**
+	 * Nombre de valeurs enregistrées
+	 * @return le nombre de valeurs enregistrées
+	 */
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	/**
+	 * Moyenne des valeurs enregistrées
+	 * @return la moyenne des valeurs ou bien 0 si aucune valeur n'a été
+	 * enregistrée
+	 */
+	public double getMean()
+	{
+		long n = count.get();
+		return (n == 0 ? 0.0 : (double) sum.get() / n);
+	}
+
+	/**
+	 * Plus grande valeur enregistrée
+	 * @return la plus grande valeur enregistrée (ou 0)
+	 */
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	/**
+	 * Centile des valeurs enregistrées
+	 * @param percentile le centile recherché (entre 0 et 100)
+	 * @return la plus petite valeur (à la précision des classes près)
+	 * supérieure ou égale au pourcentage demandé des valeurs enregistrées, ou
+	 * bien 0 si aucune valeur n'a été enregistrée
+	 */
+	public long getPercentile(double percentile)
+	{
+		long n = count.get();
+		if (n == 0)
+		{
+			return 0;
+		}
+		double ratio = Math.min(Math.max(percentile, 0.0), 100.0) / 100.0;
+		long rank = Math.max((long) Math.ceil(ratio * n), 1);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			seen += counts.get(i);
+			if (seen >= rank)
+			{
+				return Math.min(highest(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Ajout des valeurs d'un autre histogramme
+	 * @param other l'histogramme dont les valeurs sont ajoutées
+	 */
+	public void add(Histogram other)
+	{
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			long c = other.counts.get(i);
+			if (c != 0)
+			{
+				counts.addAndGet(i, c);
+			}
+		}
+		count.addAndGet(other.count.get());
+		sum.addAndGet(other.sum.get());
+		max.accumulateAndGet(other.max.get(), Math::max);
+	}
+
+	/**
+	 * Suppression de toutes les valeurs enregistrées
+	 */
+	public void reset()
+	{
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * Résumé de l'histogramme
+	 * @return le nombre de valeurs, la moyenne, les centiles 50, 90, 99 et
+	 * 99.9 et le maximum
+	 */
+	@Override
+	public String toString()
+	{
+		return String.format("n=%d mean=%.1f p50=%d p90=%d p99=%d p99.9=%d max=%d",
+		                     getCount(),
+		                     getMean(),
+		                     getPercentile(50),
+		                     getPercentile(90),
+		                     getPercentile(99),
+		                     getPercentile(99.9),
+		                     getMax());
+	}
+}
@@ -0,0 +1,171 @@
+package metrics;
+
+import models.MessageTrace;
+
+/**
+ * Histogrammes des latences (en µs) de chacune des étapes de la diffusion
+ * des messages tracés (voir {@link MessageTrace}) :
+ * <ul>
+ * 	<li>{@link #getUpstream()} : de l'envoi par le client auteur à la
+ * 	réception par le serveur</li>
+ * 	<li>{@link #getRelay()} : de la réception par le serveur à l'écriture
+ * 	vers le client destinataire (attente du verrou de diffusion et
+ * 	écritures vers les clients précédents comprises)</li>
+ * 	<li>{@link #getDownstream()} : de l'écriture par le serveur à la
+ * 	réception par le client destinataire</li>
+ * 	<li>{@link #getTotal()} : de l'envoi par le client auteur à la réception
+ * 	par le client destinataire</li>
+ * </ul>
+ * Seules les étapes dont les deux dates sont connues sont enregistrées.
+ * @author davidroussel
+ */
+public class HopLatencies
+{
+	/**
+	 * Latences entre le client auteur et le serveur
+	 */
+	private final Histogram upstream;
+
+	/**
+	 * Latences de relais par le serveur
+	 */
+	private final Histogram relay;
+
+	/**
+	 * Latences entre le serveur et le client destinataire
+	 */
+	private final Histogram downstream;
+
+	/**
+	 * Latences de bout en bout
+	 */
+	private final Histogram total;
+
+	/**
+	 * Constructeur d'histogrammes vides
+	 */
+	public HopLatencies()
+	{
+		upstream = new Histogram();
+		relay = new Histogram();
+		downstream = new Histogram();
+		total = new Histogram();
+	}
+
+	/**
+	 * Enregistrement d'une latence si ses deux dates sont connues
+	 * @param histogram l'histogramme de l'étape
+	 * @param from la date de début de l'étape (ou 0)
+	 * @param to la date de fin de l'étape (ou 0)
+	 */
+	private static void record(Histogram histogram, long from, long to)
+	{
+		if ((from != 0) && (to != 0))
+		{
+			histogram.record(to - from);
+		}
+	}
+
+	/**
+	 * Enregistrement de la latence entre l'envoi par le client auteur et la
+	 * réception par le serveur
+	 * @param clientSent date d'envoi par le client (ou 0)
+	 * @param serverReceived date de réception par le serveur
+	 */
+	public void recordUpstream(long clientSent, long serverReceived)
+	{
+		record(upstream, clientSent, serverReceived);
+	}
+
+	/**
+	 * Enregistrement de la latence de relais par le serveur
+	 * @param serverReceived date de réception par le serveur (ou 0)
+	 * @param serverSent date d'écriture vers le client destinataire
+	 */
+	public void recordRelay(long serverReceived, long serverSent)
+	{
+		record(relay, serverReceived, serverSent);
+	}
+
+	/**
+	 * Enregistrement de toutes les étapes d'un message tracé reçu par un
+	 * client
+	 * @param trace le message tracé (daté de sa réception)
+	 */
+	public void record(MessageTrace trace)
+	{
+		record(upstream, trace.getClientSent(), trace.getServerReceived());
+		record(relay, trace.getServerReceived(), trace.getServerSent());
+		record(downstream, trace.getServerSent(), trace.getClientReceived());
+		record(total, trace.getClientSent(), trace.getClientReceived());
+	}
+
+	/**
+	 * Latences entre le client auteur et le serveur
+	 * @return l'histogramme des latences (en µs)
+	 */
+	public Histogram getUpstream()
+	{
+		return upstream;
+	}
+
+	/**
+	 * Latences de relais par le serveur
+	 * @return l'histogramme des latences (en µs)
+	 */
+	public Histogram getRelay()
+	{
+		return relay;
+	}
+
+	/**
+	 * Latences entre le serveur et le client destinataire
+	 * @return l'histogramme des latences (en µs)
+	 */
+	public Histogram getDownstream()
+	{
+		return downstream;
+	}
+
+	/**
+	 * Latences de bout en bout
+	 * @return l'histogramme des latences (en µs)
+	 */
+	public Histogram getTotal()
+	{
+		return total;
+	}
+
+	/**
+	 * Résumé des histogrammes (une ligne par étape enregistrée)
+	 * @return le résumé des latences de chaque étape
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		append(sb, "upstream", upstream);
+		append(sb, "relay", relay);
+		append(sb, "downstream", downstream);
+		append(sb, "total", total);
+		return sb.toString();
+	}
+
+	/**
+	 * Ajout du résumé d'un histogramme s'il n'est pas vide
+	 * @param sb le résumé en cours
+	 * @param name le nom de l'étape
+	 * @param histogram l'histogramme de l'étape
+	 */
+	private static void append(StringBuilder sb, String name, Histogram histogram)
+	{
+		if (histogram.getCount() > 0)
+		{
+			if (sb.length() > 0)
+			{
+				sb.append(System.lineSeparator());
+			}
+			sb.append(String.format("%-24s %s", name + " (us)", histogram));
+		}
+	}
+}
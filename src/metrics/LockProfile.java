@@ -0,0 +1,309 @@
+package metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mesure de la contention d'un verrou (un bloc synchronized) : durées
+ * d'attente et de détention du verrou, nombre d'acquisitions contendues, et
+ * cumul des attentes par section critique et par thread (les threads qui ont
+ * le plus attendu).
+ * Chaque section critique est encadrée de la manière suivante :
+ * <pre>
+ * long requested = profile.request();
+ * synchronized (lock)
+ * {
+ * 	long acquired = profile.acquired("site", requested);
+ * 	try
+ * 	{
+ * 		...
+ * 	}
+ * 	finally
+ * 	{
+ * 		profile.released("site", acquired);
+ * 	}
+ * }
+ * </pre>
+ * Comme les autres mesures, l'enregistrement ne prend aucun verrou.
+ * @author davidroussel
+ */
+public class LockProfile
+{
+	/**
+	 * Attente (en ns) à partir de laquelle une acquisition est considérée
+	 * comme contendue (en deçà il s'agit du coût de l'acquisition elle-même)
+	 */
+	public final static long CONTENDEDNANOS = 1000;
+
+	/**
+	 * Nombre maximum de threads dont les attentes sont cumulées
+	 */
+	public final static int MAXWAITERS = 1024;
+
+	/**
+	 * Cumul des attentes et des détentions d'une section critique (ou d'un
+	 * thread)
+	 */
+	private static class Totals
+	{
+		/**
+		 * Nombre d'acquisitions
+		 */
+		private final LongAdder count = new LongAdder();
+
+		/**
+		 * Attente cumulée (en ns)
+		 */
+		private final LongAdder waitNanos = new LongAdder();
+
+		/**
+		 * Détention cumulée (en ns)
+		 */
+		private final LongAdder holdNanos = new LongAdder();
+	}
+
+	/**
+	 * Nom du verrou
+	 */
+	private final String name;
+
+	/**
+	 * Durées d'attente (en µs) du verrou
+	 */
+	private final Histogram wait;
+
+	/**
+	 * Durées de détention (en µs) du verrou
+	 */
+	private final Histogram hold;
+
+	/**
+	 * Nombre d'acquisitions contendues
+	 */
+	private final LongAdder contended;
+
+	/**
+	 * Cumuls par section critique
+	 */
+	private final Map<String, Totals> sites;
+
+	/**
+	 * Cumuls des attentes par thread
+	 */
+	private final Map<String, Totals> waiters;
+
+	/**
+	 * Constructeur de la mesure d'un verrou
+	 * @param name le nom du verrou
+	 */
+	public LockProfile(String name)
+	{
+		this.name = name;
+		wait = new Histogram();
+		hold = new Histogram();
+		contended = new LongAdder();
+		sites = new ConcurrentHashMap<String, Totals>();
+		waiters = new ConcurrentHashMap<String, Totals>();
+	}
+
+	/**
+	 * Demande du verrou : à appeler juste avant le bloc synchronized
+	 * @return la date (en ns) de la demande
+	 */
+	public long request()
+	{
+		return System.nanoTime();
+	}
+
+	/**
+	 * Acquisition du verrou : à appeler au début du bloc synchronized
+	 * @param site le nom de la section critique
+	 * @param requested la date de la demande (voir {@link #request()})
+	 * @return la date (en ns) de l'acquisition
+	 */
+	public long acquired(String site, long requested)
+	{
+		long acquired = System.nanoTime();
+		long waited = acquired - requested;
+		wait.record(waited / 1000);
+		if (waited >= CONTENDEDNANOS)
+		{
+			contended.increment();
+		}
+		Totals totals = totals(sites, site);
+		totals.count.increment();
+		totals.waitNanos.add(waited);
+		String thread = Thread.currentThread().getName();
+		Totals waiter = waiters.get(thread);
+		if ((waiter == null) && (waiters.size() < MAXWAITERS))
+		{
+			waiter = totals(waiters, thread);
+		}
+		if (waiter != null)
+		{
+			waiter.count.increment();
+			waiter.waitNanos.add(waited);
+		}
+		return acquired;
+	}
+
+	/**
+	 * Libération du verrou : à appeler à la fin du bloc synchronized
+	 * @param site le nom de la section critique
+	 * @param acquired la date de l'acquisition (voir
+	 * {@link #acquired(String, long)})
+	 */
+	public void released(String site, long acquired)
+	{
+		long held = System.nanoTime() - acquired;
+		hold.record(held / 1000);
+		totals(sites, site).holdNanos.add(held);
+	}
+
+	/**
+	 * Cumuls d'une clé
+	 * @param map les cumuls
+	 * @param key la clé
+	 * @return les cumuls de la clé (créés si besoin)
+	 */
+	private static Totals totals(Map<String, Totals> map, String key)
+	{
+		Totals totals = map.get(key);
+		if (totals == null)
+		{
+			totals = map.computeIfAbsent(key, (String k) -> new Totals());
+		}
+		return totals;
+	}
+
+	/**
+	 * Accesseur en lecture du nom du verrou
+	 * @return le nom du verrou
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Accesseur en lecture des durées d'attente du verrou
+	 * @return les durées d'attente (en µs)
+	 */
+	public Histogram getWait()
+	{
+		return wait;
+	}
+
+	/**
+	 * Accesseur en lecture des durées de détention du verrou
+	 * @return les durées de détention (en µs)
+	 */
+	public Histogram getHold()
+	{
+		return hold;
+	}
+
+	/**
+	 * Nombre d'acquisitions contendues (attente supérieure à
+	 * {@link #CONTENDEDNANOS})
+	 * @return le nombre d'acquisitions contendues
+	 */
+	public long getContended()
+	{
+		return contended.sum();
+	}
+
+	/**
+	 * Cumuls des sections critiques
+	 * @return une ligne par section critique : nom, nombre d'acquisitions,
+	 * attente et détention cumulées (en µs)
+	 */
+	public List<String> getSites()
+	{
+		return describe(sites, sites.size());
+	}
+
+	/**
+	 * Threads ayant le plus attendu le verrou
+	 * @param count le nombre de threads
+	 * @return une ligne par thread (par attente cumulée décroissante) : nom,
+	 * nombre d'acquisitions et attente cumulée (en µs)
+	 */
+	public List<String> getTopWaiters(int count)
+	{
+		return describe(waiters, count);
+	}
+
+	/**
+	 * Description des cumuls par attente décroissante
+	 * @param map les cumuls
+	 * @param count le nombre maximum de lignes
+	 * @return une ligne par clé
+	 */
+	private static List<String> describe(Map<String, Totals> map, int count)
+	{
+		List<Map.Entry<String, Totals>> entries =
+		    new ArrayList<Map.Entry<String, Totals>>(map.entrySet());
+		Collections.sort(entries,
+		                 (Map.Entry<String, Totals> a,
+		                  Map.Entry<String, Totals> b) ->
+		                 Long.compare(b.getValue().waitNanos.sum(),
+		                              a.getValue().waitNanos.sum()));
+		List<String> lines = new ArrayList<String>();
+		for (Map.Entry<String, Totals> entry :
+		     entries.subList(0, Math.min(count, entries.size())))
+		{
+			Totals totals = entry.getValue();
+			long holdNanos = totals.holdNanos.sum();
+			lines.add(entry.getKey() + " n=" + totals.count.sum()
+			    + " wait=" + (totals.waitNanos.sum() / 1000) + "us"
+			    + (holdNanos > 0 ? " hold=" + (holdNanos / 1000) + "us" : ""));
+		}
+		return lines;
+	}
+
+	/**
+	 * Remise à zéro des mesures
+	 */
+	public void reset()
+	{
+		wait.reset();
+		hold.reset();
+		contended.reset();
+		sites.clear();
+		waiters.clear();
+	}
+
+	/**
+	 * Résumé des mesures du verrou
+	 * @return les histogrammes d'attente et de détention, les sections
+	 * critiques et les threads ayant le plus attendu
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		String format = "%-24s %s";
+		sb.append(String.format(format, "lock " + name + " wait (us)", wait));
+		sb.append(System.lineSeparator());
+		sb.append(String.format(format, "lock " + name + " hold (us)", hold));
+		sb.append(System.lineSeparator());
+		sb.append(String.format(format, "lock " + name + " contended",
+		                        getContended()));
+		for (String site : getSites())
+		{
+			sb.append(System.lineSeparator());
+			sb.append(String.format(format, "  site", site));
+		}
+		for (String waiter : getTopWaiters(5))
+		{
+			sb.append(System.lineSeparator());
+			sb.append(String.format(format, "  waiter", waiter));
+		}
+		return sb.toString();
+	}
+}
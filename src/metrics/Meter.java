@@ -0,0 +1,133 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Compteur d'événements permettant d'en calculer le débit moyen (par
+ * seconde) sur les dernières secondes écoulées.
+ * Les événements sont comptés dans un tampon circulaire de compteurs d'une
+ * seconde chacun : le compteur d'une seconde est remis à zéro par le premier
+ * événement de cette seconde (le débit est donc approximatif à quelques
+ * événements près lors d'un changement de seconde). Comme pour
+ * {@link Histogram}, l'enregistrement d'un événement ne prend aucun verrou.
+ * @author davidroussel
+ */
+public class Meter
+{
+	/**
+	 * Nombre de secondes complètes prises en compte dans le débit
+	 */
+	public final static int WINDOW = 10;
+
+	/**
+	 * Nombre de compteurs du tampon circulaire (la seconde courante en plus
+	 * de la fenêtre)
+	 */
+	private final static int SLOTS = WINDOW + 1;
+
+	/**
+	 * Nombre total d'événements
+	 */
+	private final AtomicLong count;
+
+	/**
+	 * Nombre d'événements de chaque seconde
+	 */
+	private final AtomicLongArray counts;
+
+	/**
+	 * Seconde (depuis l'epoch) correspondant à chaque compteur
+	 */
+	private final AtomicLongArray seconds;
+
+	/**
+	 * Constructeur d'un compteur vide
+	 */
+	public Meter()
+	{
+		count = new AtomicLong();
+		counts = new AtomicLongArray(SLOTS);
+		seconds = new AtomicLongArray(SLOTS);
+	}
+
+	/**
+	 * Enregistrement d'un événement
+	 */
+	public void mark()
+	{
+		mark(1);
+	}
+
+	/**
+	 * Enregistrement de plusieurs événements
+	 * @param n le nombre d'événements
+	 */
+	public void mark(long n)
+	{
+		count.addAndGet(n);
+		long second = System.currentTimeMillis() / 1000;
+		int slot = (int) (second % SLOTS);
+		long previous = seconds.get(slot);
+		if ((previous != second) && seconds.compareAndSet(slot, previous, second))
+		{
+			// premier événement de cette seconde
+			counts.set(slot, n);
+		}
+		else
+		{
+			counts.addAndGet(slot, n);
+		}
+	}
+
+	/**
+	 * Nombre total d'événements enregistrés
+	 * @return le nombre d'événements
+	 */
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	/**
+	 * Débit moyen sur les {@link #WINDOW} dernières secondes complètes
+	 * @return le nombre moyen d'événements par seconde
+	 */
+	public double getRate()
+	{
+		long now = System.currentTimeMillis() / 1000;
+		long total = 0;
+		for (long second = now - WINDOW; second < now; second++)
+		{
+			int slot = (int) (second % SLOTS);
+			if (seconds.get(slot) == second)
+			{
+				total += counts.get(slot);
+			}
+		}
+		return (double) total / WINDOW;
+	}
+
+	/**
+	 * Remise à zéro du compteur
+	 */
+	public void reset()
+	{
+		count.set(0);
+		for (int slot = 0; slot < SLOTS; slot++)
+		{
+			counts.set(slot, 0);
+			seconds.set(slot, 0);
+		}
+	}
+
+	/**
+	 * Représentation du compteur
+	 * @return le nombre total d'événements et le débit moyen
+	 */
+	@Override
+	public String toString()
+	{
+		return String.format("n=%d rate=%.1f/s", getCount(), getRate());
+	}
+}
@@ -0,0 +1,634 @@
+package metrics;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Mesures d'un serveur de chat : clients connectés, connexions acceptées et
+ * refusées, messages et octets reçus et écrits, vidages des tampons
+ * d'écriture, écritures sur les sockets et trames de lot, lignes retardées,
+ * ignorées ou déconnectées par la limite de débit, durées des
+ * diffusions et latences des messages tracés (voir {@link HopLatencies}),
+ * contention des verrous de la liste des clients et du serveur (voir
+ * {@link LockProfile}).
+ * Toutes les mesures sont enregistrées sans prendre de verrou : elles
+ * peuvent donc être mises à jour depuis le chemin de diffusion et lues à
+ * tout moment, en particulier à travers JMX (voir
+ * {@link ServerMetricsMXBean} et {@link #register(int)}). De même, la liste
+ * des clients connectés ({@link #getClients()}) est une copie qui ne
+ * nécessite pas le verrou de diffusion du serveur.
+ * @author davidroussel
+ */
+public class ServerMetrics implements ServerMetricsMXBean
+{
+	/**
+	 * Domaine JMX des mesures du serveur
+	 */
+	public final static String DOMAIN = "chat.server";
+
+	/**
+	 * Nombre de threads ayant le plus attendu un verrou exposés à travers JMX
+	 */
+	public final static int TOPWAITERS = 5;
+
+	/**
+	 * Mesures des clients connectés (copiées à chaque arrivée ou départ d'un
+	 * client afin que leur parcours ne prenne aucun verrou)
+	 */
+	private final List<ClientMetrics> clients;
+
+	/**
+	 * Connexions acceptées
+	 */
+	private final Meter accepted;
+
+	/**
+	 * Connexions refusées lors de la connexion
+	 */
+	private final AtomicLong handshakeFailures;
+
+	/**
+	 * Lignes reçues des clients
+	 */
+	private final Meter messagesIn;
+
+	/**
+	 * Messages écrits vers les clients
+	 */
+	private final Meter messagesOut;
+
+	/**
+	 * Octets reçus des clients
+	 */
+	private final LongAdder bytesIn;
+
+	/**
+	 * Octets écrits vers les clients
+	 */
+	private final LongAdder bytesOut;
+
+	/**
+	 * Vidages des tampons d'écriture vers les clients
+	 */
+	private final LongAdder flushes;
+
+	/**
+	 * Octets écrits sur les sockets des clients (après regroupement)
+	 */
+	private final LongAdder socketBytes;
+
+	/**
+	 * Écritures sur les sockets des clients (appels système)
+	 */
+	private final LongAdder socketWrites;
+
+	/**
+	 * Trames de lot écrites vers les clients
+	 */
+	private final LongAdder batches;
+
+	/**
+	 * Nombre de lignes reçues retardées par la limite de débit
+	 */
+	private final LongAdder limitDelayed;
+
+	/**
+	 * Nombre de lignes reçues ignorées par la limite de débit
+	 */
+	private final LongAdder limitDropped;
+
+	/**
+	 * Nombre de clients déconnectés par la limite de débit
+	 */
+	private final LongAdder limitDisconnected;
+
+	/**
+	 * Durées (en µs) des diffusions
+	 */
+	private final Histogram broadcast;
+
+	/**
+	 * Latences des messages tracés
+	 */
+	private final HopLatencies latencies;
+
+	/**
+	 * Contention du verrou de la liste des clients (diffusion, kick, retrait,
+	 * etc.)
+	 */
+	private final LockProfile clientsLock;
+
+	/**
+	 * Contention du verrou du serveur (nettoyage au départ d'un client)
+	 */
+	private final LockProfile serverLock;
+
+	/**
+	 * Nom sous lequel les mesures sont enregistrées dans JMX (ou null)
+	 */
+	private ObjectName name;
+
+	/**
+	 * Constructeur de mesures vides
+	 */
+	public ServerMetrics()
+	{
+		clients = new CopyOnWriteArrayList<ClientMetrics>();
+		accepted = new Meter();
+		handshakeFailures = new AtomicLong();
+		messagesIn = new Meter();
+		messagesOut = new Meter();
+		bytesIn = new LongAdder();
+		bytesOut = new LongAdder();
+		flushes = new LongAdder();
+		socketBytes = new LongAdder();
+		socketWrites = new LongAdder();
+		batches = new LongAdder();
+		limitDelayed = new LongAdder();
+		limitDropped = new LongAdder();
+		limitDisconnected = new LongAdder();
+		broadcast = new Histogram();
+		latencies = new HopLatencies();
+		clientsLock = new LockProfile("clients");
+		serverLock = new LockProfile("server");
+		name = null;
+	}
+
+	/**
+	 * Enregistrement des mesures auprès du serveur JMX de la plateforme
+	 * @param port le port du serveur de chat (distingue plusieurs serveurs
+	 * dans la même JVM)
+	 * @throws JMException si l'enregistrement échoue (par exemple si un
+	 * autre serveur de la JVM utilise déjà ce port)
+	 */
+	public void register(int port) throws JMException
+	{
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = new ObjectName(DOMAIN
+		    + ":type=ServerMetrics,port=" + port);
+		server.registerMBean(this, objectName);
+		name = objectName;
+	}
+
+	/**
+	 * Retrait des mesures du serveur JMX de la plateforme (si elles y ont
+	 * été enregistrées)
+	 * @throws JMException si le retrait échoue
+	 */
+	public void unregister() throws JMException
+	{
+		if (name != null)
+		{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			name = null;
+		}
+	}
+
+	/**
+	 * Flux d'entrée d'un client comptant les octets reçus
+	 * @param in le flux d'entrée de la socket du client
+	 * @return un flux comptant les octets lus dans {@link #getBytesIn()}
+	 */
+	public InputStream countInput(InputStream in)
+	{
+		return new CountingInputStream(in, bytesIn);
+	}
+
+	/**
+	 * Flux de sortie vers un client comptant les octets écrits
+	 * @param out le flux de sortie de la socket du client
+	 * @return un flux comptant les octets écrits dans {@link #getBytesOut()}
+	 */
+	public OutputStream countOutput(OutputStream out)
+	{
+		return new CountingOutputStream(out, bytesOut);
+	}
+
+	/**
+	 * Flux de sortie d'une socket comptant les écritures (appels système)
+	 * @param out le flux de sortie de la socket du client
+	 * @return un flux comptant les écritures dans {@link #getSocketWrites()}
+	 */
+	public OutputStream countSocket(OutputStream out)
+	{
+		return new CountingOutputStream(out, socketBytes, socketWrites);
+	}
+
+	/**
+	 * Enregistrement d'une connexion acceptée
+	 */
+	public void connectionAccepted()
+	{
+		accepted.mark();
+	}
+
+	/**
+	 * Enregistrement d'une connexion refusée lors de la connexion
+	 */
+	public void handshakeFailed()
+	{
+		handshakeFailures.incrementAndGet();
+	}
+
+	/**
+	 * Enregistrement de l'arrivée d'un client
+	 * @param client les mesures du client
+	 */
+	public void clientConnected(ClientMetrics client)
+	{
+		clients.add(client);
+	}
+
+	/**
+	 * Enregistrement du départ d'un client
+	 * @param client les mesures du client
+	 */
+	public void clientDisconnected(ClientMetrics client)
+	{
+		clients.remove(client);
+	}
+
+	/**
+	 * Liste des clients connectés
+	 * @return une copie de la liste des mesures des clients connectés
+	 */
+	public List<ClientMetrics> getClients()
+	{
+		return new ArrayList<ClientMetrics>(clients);
+	}
+
+	/**
+	 * Enregistrement d'une ligne reçue d'un client
+	 */
+	public void messageReceived()
+	{
+		messagesIn.mark();
+	}
+
+	/**
+	 * Enregistrement d'une diffusion
+	 * @param recipients le nombre de clients auxquels le message a été écrit
+	 * @param micros la durée (en µs) de la diffusion
+	 */
+	public void broadcast(int recipients, long micros)
+	{
+		messagesOut.mark(recipients);
+		broadcast.record(micros);
+	}
+
+	/**
+	 * Enregistrement d'un message écrit à un seul client (page
+	 * d'historique, rejeu)
+	 */
+	public void messageSent()
+	{
+		messagesOut.mark();
+	}
+
+	/**
+	 * Enregistrement d'un vidage du tampon d'écriture vers un client
+	 */
+	public void flushed()
+	{
+		flushes.increment();
+	}
+
+	/**
+	 * Enregistrement d'une trame de lot écrite vers un client
+	 */
+	public void batched()
+	{
+		batches.increment();
+	}
+
+	/**
+	 * Enregistrement d'une ligne reçue dépassant la limite de débit
+	 * @param disconnected true si le client est déconnecté
+	 * @param dropped true si la ligne est ignorée, false si elle est
+	 * retardée
+	 */
+	public void limited(boolean disconnected, boolean dropped)
+	{
+		if (disconnected)
+		{
+			limitDisconnected.increment();
+		}
+		else if (dropped)
+		{
+			limitDropped.increment();
+		}
+		else
+		{
+			limitDelayed.increment();
+		}
+	}
+
+	/**
+	 * Accesseur en lecture des latences des messages tracés
+	 * @return les latences de réception et de relais des messages tracés
+	 */
+	public HopLatencies getLatencies()
+	{
+		return latencies;
+	}
+
+	/**
+	 * Accesseur en lecture de l'histogramme des durées de diffusion
+	 * @return les durées (en µs) des diffusions
+	 */
+	public Histogram getBroadcast()
+	{
+		return broadcast;
+	}
+
+	/**
+	 * Accesseur en lecture de la contention du verrou de la liste des
+	 * clients
+	 * @return la mesure du verrou de la liste des clients
+	 */
+	public LockProfile getClientsLock()
+	{
+		return clientsLock;
+	}
+
+	/**
+	 * Accesseur en lecture de la contention du verrou du serveur
+	 * @return la mesure du verrou du serveur
+	 */
+	public LockProfile getServerLock()
+	{
+		return serverLock;
+	}
+
+	@Override
+	public int getConnectedClients()
+	{
+		return clients.size();
+	}
+
+	@Override
+	public long getAcceptedConnections()
+	{
+		return accepted.getCount();
+	}
+
+	@Override
+	public double getAcceptRate()
+	{
+		return accepted.getRate();
+	}
+
+	@Override
+	public long getHandshakeFailures()
+	{
+		return handshakeFailures.get();
+	}
+
+	@Override
+	public long getMessagesIn()
+	{
+		return messagesIn.getCount();
+	}
+
+	@Override
+	public double getMessagesInRate()
+	{
+		return messagesIn.getRate();
+	}
+
+	@Override
+	public long getMessagesOut()
+	{
+		return messagesOut.getCount();
+	}
+
+	@Override
+	public double getMessagesOutRate()
+	{
+		return messagesOut.getRate();
+	}
+
+	@Override
+	public long getBytesIn()
+	{
+		return bytesIn.sum();
+	}
+
+	@Override
+	public long getBytesOut()
+	{
+		return bytesOut.sum();
+	}
+
+	@Override
+	public long getFlushes()
+	{
+		return flushes.sum();
+	}
+
+	@Override
+	public long getSocketBytes()
+	{
+		return socketBytes.sum();
+	}
+
+	@Override
+	public long getSocketWrites()
+	{
+		return socketWrites.sum();
+	}
+
+	@Override
+	public long getBatches()
+	{
+		return batches.sum();
+	}
+
+	@Override
+	public long getLimitDelayed()
+	{
+		return limitDelayed.sum();
+	}
+
+	@Override
+	public long getLimitDropped()
+	{
+		return limitDropped.sum();
+	}
+
+	@Override
+	public long getLimitDisconnected()
+	{
+		return limitDisconnected.sum();
+	}
+
+	@Override
+	public double getSocketWritesPerMessage()
+	{
+		long messages = messagesOut.getCount();
+		return (messages > 0 ? (double) socketWrites.sum() / messages : 0);
+	}
+
+	@Override
+	public double getSocketBytesPerMessage()
+	{
+		long messages = messagesOut.getCount();
+		return (messages > 0 ? (double) socketBytes.sum() / messages : 0);
+	}
+
+	@Override
+	public long getBroadcasts()
+	{
+		return broadcast.getCount();
+	}
+
+	@Override
+	public double getBroadcastMeanMicros()
+	{
+		return broadcast.getMean();
+	}
+
+	@Override
+	public long getBroadcastP50Micros()
+	{
+		return broadcast.getPercentile(50);
+	}
+
+	@Override
+	public long getBroadcastP99Micros()
+	{
+		return broadcast.getPercentile(99);
+	}
+
+	@Override
+	public long getBroadcastMaxMicros()
+	{
+		return broadcast.getMax();
+	}
+
+	@Override
+	public double getClientsLockWaitMeanMicros()
+	{
+		return clientsLock.getWait().getMean();
+	}
+
+	@Override
+	public long getClientsLockWaitP99Micros()
+	{
+		return clientsLock.getWait().getPercentile(99);
+	}
+
+	@Override
+	public long getClientsLockHoldP99Micros()
+	{
+		return clientsLock.getHold().getPercentile(99);
+	}
+
+	@Override
+	public long getClientsLockContended()
+	{
+		return clientsLock.getContended();
+	}
+
+	@Override
+	public List<String> getClientsLockSites()
+	{
+		return clientsLock.getSites();
+	}
+
+	@Override
+	public List<String> getClientsLockTopWaiters()
+	{
+		return clientsLock.getTopWaiters(TOPWAITERS);
+	}
+
+	@Override
+	public long getServerLockWaitP99Micros()
+	{
+		return serverLock.getWait().getPercentile(99);
+	}
+
+	@Override
+	public long getServerLockContended()
+	{
+		return serverLock.getContended();
+	}
+
+	@Override
+	public void reset()
+	{
+		accepted.reset();
+		handshakeFailures.set(0);
+		messagesIn.reset();
+		messagesOut.reset();
+		bytesIn.reset();
+		bytesOut.reset();
+		flushes.reset();
+		socketBytes.reset();
+		socketWrites.reset();
+		batches.reset();
+		limitDelayed.reset();
+		limitDropped.reset();
+		limitDisconnected.reset();
+		broadcast.reset();
+		clientsLock.reset();
+		serverLock.reset();
+	}
+
+	/**
+	 * Résumé des mesures
+	 * @return une ligne par mesure
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		String format = "%-24s %s%n";
+		sb.append(String.format(format, "clients", getConnectedClients()));
+		sb.append(String.format(format, "accepted", accepted));
+		sb.append(String.format(format, "handshake failures",
+		                        getHandshakeFailures()));
+		sb.append(String.format(format, "messages in", messagesIn));
+		sb.append(String.format(format, "messages out", messagesOut));
+		sb.append(String.format(format, "bytes in/out",
+		                        getBytesIn() + "/" + getBytesOut()));
+		sb.append(String.format(format, "flushes", getFlushes()));
+		sb.append(String.format(format, "socket writes/batches",
+		                        getSocketWrites() + "/" + getBatches()));
+		sb.append(String.format(format, "per message writes/bytes",
+		                        String.format("%.3f/%.1f",
+		                                      getSocketWritesPerMessage(),
+		                                      getSocketBytesPerMessage())));
+		sb.append(String.format(format, "limit delayed/dropped/kicked",
+		                        getLimitDelayed() + "/" + getLimitDropped()
+		                            + "/" + getLimitDisconnected()));
+		sb.append(String.format("%-24s %s", "broadcast (us)", broadcast));
+		String hops = latencies.toString();
+		if (!hops.isEmpty())
+		{
+			sb.append(System.lineSeparator());
+			sb.append(hops);
+		}
+		if (clientsLock.getWait().getCount() > 0)
+		{
+			sb.append(System.lineSeparator());
+			sb.append(clientsLock);
+		}
+		if (serverLock.getWait().getCount() > 0)
+		{
+			sb.append(System.lineSeparator());
+			sb.append(serverLock);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,217 @@
+package metrics;
+
+import java.util.List;
+
+/**
+ * Interface de gestion (JMX) des mesures d'un serveur de chat : permet de
+ * consulter les {@link ServerMetrics} d'un serveur en cours d'exécution (avec
+ * jconsole par exemple) sous le nom
+ * chat.server:type=ServerMetrics,port=&lt;port&gt;
+ * @author davidroussel
+ */
+public interface ServerMetricsMXBean
+{
+	/**
+	 * Nombre de clients connectés
+	 * @return le nombre de clients connectés
+	 */
+	int getConnectedClients();
+
+	/**
+	 * Nombre de connexions acceptées depuis le démarrage du serveur
+	 * @return le nombre de connexions acceptées
+	 */
+	long getAcceptedConnections();
+
+	/**
+	 * Débit des connexions acceptées
+	 * @return le nombre moyen de connexions acceptées par seconde
+	 */
+	double getAcceptRate();
+
+	/**
+	 * Nombre de connexions refusées lors de la connexion (ligne de connexion
+	 * absente ou nom déjà utilisé)
+	 * @return le nombre de connexions refusées
+	 */
+	long getHandshakeFailures();
+
+	/**
+	 * Nombre de lignes reçues des clients
+	 * @return le nombre de lignes reçues
+	 */
+	long getMessagesIn();
+
+	/**
+	 * Débit des lignes reçues des clients
+	 * @return le nombre moyen de lignes reçues par seconde
+	 */
+	double getMessagesInRate();
+
+	/**
+	 * Nombre de messages écrits vers les clients (un message diffusé à N
+	 * clients compte N fois)
+	 * @return le nombre de messages écrits
+	 */
+	long getMessagesOut();
+
+	/**
+	 * Débit des messages écrits vers les clients
+	 * @return le nombre moyen de messages écrits par seconde
+	 */
+	double getMessagesOutRate();
+
+	/**
+	 * Nombre d'octets reçus des clients
+	 * @return le nombre d'octets reçus
+	 */
+	long getBytesIn();
+
+	/**
+	 * Nombre d'octets écrits vers les clients
+	 * @return le nombre d'octets écrits
+	 */
+	long getBytesOut();
+
+	/**
+	 * Nombre de vidages des tampons d'écriture vers les clients (appels
+	 * système d'écriture)
+	 * @return le nombre de vidages
+	 */
+	long getFlushes();
+
+	/**
+	 * Nombre d'octets écrits sur les sockets des clients
+	 * @return le nombre d'octets écrits sur les sockets
+	 */
+	long getSocketBytes();
+
+	/**
+	 * Nombre d'écritures sur les sockets des clients (appels système)
+	 * @return le nombre d'écritures
+	 */
+	long getSocketWrites();
+
+	/**
+	 * Nombre de trames de lot écrites vers les clients
+	 * @return le nombre de trames de lot
+	 */
+	long getBatches();
+
+	/**
+	 * Nombre de lignes reçues retardées par la limite de débit
+	 * @return le nombre de lignes retardées
+	 */
+	long getLimitDelayed();
+
+	/**
+	 * Nombre de lignes reçues ignorées par la limite de débit
+	 * @return le nombre de lignes ignorées
+	 */
+	long getLimitDropped();
+
+	/**
+	 * Nombre de clients déconnectés par la limite de débit
+	 * @return le nombre de clients déconnectés
+	 */
+	long getLimitDisconnected();
+
+	/**
+	 * Nombre moyen d'écritures sur les sockets par message écrit vers un
+	 * client
+	 * @return le nombre d'écritures par message
+	 */
+	double getSocketWritesPerMessage();
+
+	/**
+	 * Nombre moyen d'octets écrits sur les sockets par message écrit vers un
+	 * client (entêtes de trames et de lots compris)
+	 * @return le nombre d'octets par message
+	 */
+	double getSocketBytesPerMessage();
+
+	/**
+	 * Nombre de messages diffusés
+	 * @return le nombre de diffusions
+	 */
+	long getBroadcasts();
+
+	/**
+	 * Durée moyenne d'une diffusion (écriture vers tous les clients)
+	 * @return la durée moyenne (en µs)
+	 */
+	double getBroadcastMeanMicros();
+
+	/**
+	 * Médiane des durées de diffusion
+	 * @return la médiane (en µs)
+	 */
+	long getBroadcastP50Micros();
+
+	/**
+	 * 99ème centile des durées de diffusion
+	 * @return le 99ème centile (en µs)
+	 */
+	long getBroadcastP99Micros();
+
+	/**
+	 * Plus longue durée de diffusion
+	 * @return la durée maximum (en µs)
+	 */
+	long getBroadcastMaxMicros();
+
+	/**
+	 * Durée moyenne d'attente du verrou de la liste des clients
+	 * @return la durée moyenne d'attente (en µs)
+	 */
+	double getClientsLockWaitMeanMicros();
+
+	/**
+	 * 99ème centile des durées d'attente du verrou de la liste des clients
+	 * @return le 99ème centile (en µs)
+	 */
+	long getClientsLockWaitP99Micros();
+
+	/**
+	 * 99ème centile des durées de détention du verrou de la liste des clients
+	 * @return le 99ème centile (en µs)
+	 */
+	long getClientsLockHoldP99Micros();
+
+	/**
+	 * Nombre d'acquisitions contendues du verrou de la liste des clients
+	 * @return le nombre d'acquisitions contendues
+	 */
+	long getClientsLockContended();
+
+	/**
+	 * Attente et détention cumulées du verrou de la liste des clients par
+	 * section critique
+	 * @return une ligne par section critique
+	 */
+	List<String> getClientsLockSites();
+
+	/**
+	 * Threads ayant le plus attendu le verrou de la liste des clients
+	 * @return une ligne par thread (par attente cumulée décroissante)
+	 */
+	List<String> getClientsLockTopWaiters();
+
+	/**
+	 * 99ème centile des durées d'attente du verrou du serveur
+	 * @return le 99ème centile (en µs)
+	 */
+	long getServerLockWaitP99Micros();
+
+	/**
+	 * Nombre d'acquisitions contendues du verrou du serveur
+	 * @return le nombre d'acquisitions contendues
+	 */
+	long getServerLockContended();
+
+	/**
+	 * Remise à zéro des compteurs et des histogrammes (le nombre de clients
+	 * connectés est conservé)
+	 */
+	void reset();
+}
@@ -0,0 +1,10 @@
+/**
+ * Package contenant les outils de mesure utilisés par le client et le
+ * serveur de chat pendant leur exécution (par exemple un
+ * {@link metrics.Histogram} des latences des messages ou les
+ * {@link metrics.HopLatencies} de chaque étape de leur diffusion).
+ * Les mesures d'un serveur ({@link metrics.ServerMetrics}) sont exposées à
+ * travers JMX afin de pouvoir être consultées pendant son exécution.
+ * @author davidroussel
+ */
+package metrics;
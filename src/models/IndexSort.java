@@ -0,0 +1,245 @@
+package models;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Tri stable d'un tableau d'index (de messages par exemple) suivant un
+ * comparateur d'index. Permet de trier des données rangées en colonnes
+ * (voir {@link MessageStore}) sans créer un objet par élément ni convertir
+ * les index en Integer. Au delà de {@link #PARALLELTHRESHOLD} éléments, les
+ * deux moitiés de chaque sous tableau sont triées en parallèle dans le
+ * {@link ForkJoinPool#commonPool()}.
+ * @author davidroussel
+ */
+class IndexSort
+{
+	/**
+	 * En dessous de cette taille les sous tableaux sont triés par insertion
+	 */
+	private static final int INSERTIONTHRESHOLD = 32;
+
+	/**
+	 * Taille par défaut à partir de laquelle le tri est effectué en parallèle
+	 */
+	static final int PARALLELTHRESHOLD = 1 << 16;
+
+	/**
+	 * En dessous de cette taille les sous tableaux d'un tri parallèle sont
+	 * triés séquentiellement
+	 */
+	private static final int SEQUENTIALTHRESHOLD = 1 << 13;
+
+	/**
+	 * Comparateur d'index
+	 */
+	interface IndexComparator
+	{
+		/**
+		 * Comparaison des éléments d'index i et j
+		 * @param i l'index du premier élément
+		 * @param j l'index du second élément
+		 * @return une valeur négative, nulle ou positive si l'élément i est
+		 * inférieur, égal ou supérieur à l'élément j
+		 */
+		int compare(int i, int j);
+	}
+
+	/**
+	 * Tri stable (par fusion) d'un tableau d'index
+	 * @param indices le tableau d'index à trier
+	 * @param comparator le comparateur des éléments désignés par les index
+	 */
+	static void sort(int[] indices, IndexComparator comparator)
+	{
+		sort(indices, comparator, PARALLELTHRESHOLD);
+	}
+
+	/**
+	 * Tri stable (par fusion) d'un tableau d'index, en parallèle si le
+	 * tableau est suffisamment grand
+	 * @param indices le tableau d'index à trier
+	 * @param comparator le comparateur des éléments désignés par les index.
+	 * Celui ci doit pouvoir être utilisé simultanément par plusieurs threads
+	 * @param parallelThreshold la taille à partir de laquelle le tri est
+	 * effectué en parallèle
+	 */
+	static void sort(int[] indices,
+	                 IndexComparator comparator,
+	                 int parallelThreshold)
+	{
+		// déjà dans l'ordre (messages triés par date dans l'ordre d'arrivée)
+		if (isSorted(indices, comparator))
+		{
+			return;
+		}
+
+		int[] buffer = indices.clone();
+		if ((indices.length >= parallelThreshold)
+		    && (ForkJoinPool.getCommonPoolParallelism() > 1))
+		{
+			ForkJoinPool.commonPool().invoke(new SortTask(buffer,
+			                                              indices,
+			                                              0,
+			                                              indices.length,
+			                                              comparator));
+		}
+		else
+		{
+			mergeSort(buffer, indices, 0, indices.length, comparator);
+		}
+	}
+
+	/**
+	 * Test de l'ordre d'un tableau d'index
+	 * @param indices le tableau d'index
+	 * @param comparator le comparateur des éléments désignés par les index
+	 * @return true si les éléments désignés par les index sont déjà dans
+	 * l'ordre
+	 */
+	private static boolean isSorted(int[] indices, IndexComparator comparator)
+	{
+		for (int i = 1; i < indices.length; i++)
+		{
+			if (comparator.compare(indices[i - 1], indices[i]) > 0)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Tâche de tri par fusion parallèle de src[from, to[ dans dst[from, to[
+	 * (mêmes conventions que {@link IndexSort#mergeSort})
+	 */
+	private static class SortTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final int[] src;
+		private final int[] dst;
+		private final int from;
+		private final int to;
+		private final IndexComparator comparator;
+
+		SortTask(int[] src,
+		         int[] dst,
+		         int from,
+		         int to,
+		         IndexComparator comparator)
+		{
+			this.src = src;
+			this.dst = dst;
+			this.from = from;
+			this.to = to;
+			this.comparator = comparator;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if ((to - from) <= SEQUENTIALTHRESHOLD)
+			{
+				mergeSort(src, dst, from, to, comparator);
+				return;
+			}
+
+			int middle = (from + to) >>> 1;
+			invokeAll(new SortTask(dst, src, from, middle, comparator),
+			          new SortTask(dst, src, middle, to, comparator));
+			merge(src, dst, from, middle, to, comparator);
+		}
+	}
+
+	/**
+	 * Tri par fusion de src[from, to[ dans dst[from, to[ (src et dst ont le
+	 * même contenu au départ et src sert d'espace de travail)
+	 * @param src le tableau source (modifié)
+	 * @param dst le tableau destination
+	 * @param from l'index de début (inclus)
+	 * @param to l'index de fin (exclu)
+	 * @param comparator le comparateur des éléments désignés par les index
+	 */
+	static void mergeSort(int[] src,
+	                      int[] dst,
+	                      int from,
+	                      int to,
+	                      IndexComparator comparator)
+	{
+		if ((to - from) <= INSERTIONTHRESHOLD)
+		{
+			insertionSort(dst, from, to, comparator);
+			return;
+		}
+
+		int middle = (from + to) >>> 1;
+		mergeSort(dst, src, from, middle, comparator);
+		mergeSort(dst, src, middle, to, comparator);
+		merge(src, dst, from, middle, to, comparator);
+	}
+
+	/**
+	 * Fusion des deux moitiés triées src[from, middle[ et src[middle, to[
+	 * dans dst[from, to[
+	 * @param src le tableau contenant les deux moitiés triées
+	 * @param dst le tableau destination
+	 * @param from l'index de début (inclus)
+	 * @param middle l'index de début de la seconde moitié
+	 * @param to l'index de fin (exclu)
+	 * @param comparator le comparateur des éléments désignés par les index
+	 */
+	static void merge(int[] src,
+	                  int[] dst,
+	                  int from,
+	                  int middle,
+	                  int to,
+	                  IndexComparator comparator)
+	{
+		// les deux moitiés sont déjà dans l'ordre
+		if (comparator.compare(src[middle - 1], src[middle]) <= 0)
+		{
+			System.arraycopy(src, from, dst, from, to - from);
+			return;
+		}
+
+		int left = from;
+		int right = middle;
+		for (int k = from; k < to; k++)
+		{
+			if ((right >= to) || ((left < middle)
+			    && (comparator.compare(src[left], src[right]) <= 0)))
+			{
+				dst[k] = src[left++];
+			}
+			else
+			{
+				dst[k] = src[right++];
+			}
+		}
+	}
+
+	/**
+	 * Tri par insertion de a[from, to[
+	 * @param a le tableau d'index
+	 * @param from l'index de début (inclus)
+	 * @param to l'index de fin (exclu)
+	 * @param comparator le comparateur des éléments désignés par les index
+	 */
+	private static void insertionSort(int[] a,
+	                                  int from,
+	                                  int to,
+	                                  IndexComparator comparator)
+	{
+		for (int i = from + 1; i < to; i++)
+		{
+			int value = a[i];
+			int j = i - 1;
+			while ((j >= from) && (comparator.compare(a[j], value) > 0))
+			{
+				a[j + 1] = a[j];
+				j--;
+			}
+			a[j + 1] = value;
+		}
+	}
+}
@@ -1,8 +1,9 @@
 package models;
 
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.Vector;
@@ -17,7 +18,13 @@ import java.util.Vector;
  * </ul>
  * Les message peuvent être comparés entre eux pour obtenir l'ordre des messages
  * avec la méthode compareTo(Message m). Les critère d'ordre des messages
- * peuvent être customizés.
+ * peuvent être customizés (globalement), ou bien chaque vue peut utiliser son
+ * propre {@link MessageComparator}.
+ * Un message est immuable et compact : la date est conservée sous la forme
+ * d'un nombre de millisecondes depuis l'epoch (et non pas d'une
+ * {@link Date}), le nom de l'auteur est internalisé afin que tous les
+ * messages d'un même auteur partagent la même chaîne, et le texte affiché
+ * n'est construit qu'à la demande par {@link #toString()}.
  * @author davidroussel
  */
 public class Message implements Serializable, Comparable<Message>
@@ -58,8 +65,46 @@ public class Message implements Serializable, Comparable<Message>
 			}
 			throw new AssertionError("MessageOrder: unknown order: " + this);
 		}
+
+		/**
+		 * Comparateur correspondant à ce critère d'ordre
+		 * @return le comparateur de messages suivant ce critère
+		 */
+		public Comparator<Message> comparator()
+		{
+			switch (this)
+			{
+				case AUTHOR:
+					return byAuthor;
+				case DATE:
+					return byDate;
+				case CONTENT:
+					return byContent;
+			}
+			throw new AssertionError("MessageOrder: unknown order: " + this);
+		}
 	}
 
+	/**
+	 * Comparaison suivant l'ordre alphabétique de l'auteur. Un message sans
+	 * auteur est considéré comme inférieur à un message avec auteur.
+	 */
+	private static final Comparator<Message> byAuthor =
+	    Comparator.comparing(Message::getAuthor,
+	                         Comparator.nullsFirst(Comparator.naturalOrder()));
+
+	/**
+	 * Comparaison suivant la date du message
+	 */
+	private static final Comparator<Message> byDate =
+	    Comparator.comparingLong(Message::getTimestamp);
+
+	/**
+	 * Comparaison suivant l'ordre alphabétique du contenu du message
+	 */
+	private static final Comparator<Message> byContent =
+	    Comparator.comparing(Message::getContent);
+
 	/**
 	 * Ensemble des critères de tri [Initialisé à vide]
 	 * Les critères de tri peuvent contenir une et une seule instance
@@ -69,26 +114,96 @@ public class Message implements Serializable, Comparable<Message>
 	protected static Vector<MessageOrder> orders = new Vector<MessageOrder>();
 
 	/**
-	 * La date d'arrivée du message
+	 * Comparateur correspondant aux critères de tri globaux {@link #orders}.
+	 * Il est reconstruit à chaque modification des critères afin que
+	 * {@link #compareTo(Message)} n'ait pas à parcourir (de manière
+	 * synchronisée) les critères à chaque comparaison.
+	 */
+	private static volatile MessageComparator ordersComparator =
+	    MessageComparator.of(orders);
+
+	/**
+	 * Numéro de séquence d'un message qui n'a pas (encore) été diffusé par
+	 * le serveur
+	 */
+	public final static long NO_SEQUENCE = 0L;
+
+	/**
+	 * Le numéro de séquence attribué par le serveur lors de la diffusion du
+	 * message (ou {@link #NO_SEQUENCE} si le message n'a pas été diffusé).
+	 * Les numéros de séquence sont strictement croissants dans l'ordre de
+	 * diffusion et permettent à un client qui se reconnecte de ne redemander
+	 * que les messages qu'il n'a pas reçus.
+	 */
+	private final long sequence;
+
+	/**
+	 * La date d'arrivée du message (en ms depuis l'epoch)
 	 */
-	private Date date;
+	private final long timestamp;
 
 	/**
 	 * Le contenu du message
 	 */
-	private String content;
+	private final String content;
 
 	/**
-	 * L'auteur du message (optionnel).
+	 * L'auteur du message (optionnel, internalisé).
 	 * Un message du serveur peut éventuellement ne pas avoir d'auteur
 	 */
-	private String author;
+	private final String author;
+
+	/**
+	 * Formatteur (thread safe) pour l'affichage de la date des messages
+	 */
+	protected static final TimestampFormatter dateFormat =
+	    new TimestampFormatter(TimestampFormatter.DEFAULTPATTERN);
 
 	/**
-	 * Formatteur pour l'affichage de la date des messages
+	 * Taille maximum (en caractères) du {@link #renderBuffer} conservé par
+	 * chaque thread. Au delà (après l'affichage d'un très long message) le
+	 * tampon est abandonné afin de ne pas le conserver indéfiniment.
 	 */
-	protected static SimpleDateFormat dateFormat =
-	    new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
+	private static final int MAXRENDERBUFFER = 4096;
+
+	/**
+	 * Tampon réutilisé par chaque thread pour construire le texte des
+	 * messages dans {@link #toString()}
+	 */
+	private static final ThreadLocal<StringBuilder> renderBuffer =
+	    ThreadLocal.withInitial(() -> new StringBuilder(128));
+
+	/**
+	 * Constructeur valué d'un message diffusé par le serveur
+	 * @param sequence le numéro de séquence attribué par le serveur
+	 * @param timestamp la date d'arrivée du message (en ms depuis l'epoch)
+	 * @param content le contenu du message
+	 * @param author l'auteur du message
+	 */
+	public Message(long sequence, long timestamp, String content, String author)
+	{
+		this.sequence = sequence;
+		this.timestamp = timestamp;
+		// content ne doit pas être null
+		this.content = (content != null ? content : "");
+		this.author = (author != null ? author.intern() : null);
+	}
+
+	/**
+	 * Constructeur valué d'un message diffusé par le serveur
+	 * @param sequence le numéro de séquence attribué par le serveur
+	 * @param date la date d'arrivée du message (maintenant si null)
+	 * @param content le contenu du message
+	 * @param author l'auteur du message
+	 */
+	public Message(long sequence, Date date, String content, String author)
+	{
+		// date ne doit pas être null
+		this(sequence,
+		     (date != null ? date.getTime() : System.currentTimeMillis()),
+		     content,
+		     author);
+	}
 
 	/**
 	 * Constructeur valué d'un message
@@ -98,11 +213,7 @@ public class Message implements Serializable, Comparable<Message>
 	 */
 	public Message(Date date, String content, String author)
 	{
-		// date ne doit pas être null
-		this.date = (date != null ? date : Calendar.getInstance().getTime());
-		// content ne doit pas être null
-		this.content = (content != null ? content : new String());
-		this.author = author;
+		this(NO_SEQUENCE, date, content, author);
 	}
 
 	/**
@@ -118,11 +229,10 @@ public class Message implements Serializable, Comparable<Message>
 	/**
 	 * Constructeur valué d'un message.
 	 * La date d'arrivée est implicitement initialisée à "maintenant" en
-	 * utilisant le calendrier
+	 * utilisant l'horloge système
 	 * @param content le contenu du message
 	 * @param author l'auteur du message
-	 * @see Calendar#getInstance()
-	 * @see Calendar#getTime()
+	 * @see System#currentTimeMillis()
 	 */
 	public Message(String content, String author)
 	{
@@ -132,23 +242,51 @@ public class Message implements Serializable, Comparable<Message>
 	/**
 	 * Constructeur valué d'un message.
 	 * La date d'arrivée est implicitement initialisée à "maintenant" en
-	 * utilisant le calendrier
+	 * utilisant l'horloge système
 	 * @param content le contenu du message
-	 * @see Calendar#getInstance()
-	 * @see Calendar#getTime()
+	 * @see System#currentTimeMillis()
 	 */
 	public Message(String content)
 	{
 		this(content, null);
 	}
 
+	/**
+	 * Accesseur en lecture du numéro de séquence du message
+	 * @return le numéro de séquence attribué par le serveur ou bien
+	 * {@link #NO_SEQUENCE} si le message n'a pas été diffusé par le serveur
+	 */
+	public long getSequence()
+	{
+		return sequence;
+	}
+
+	/**
+	 * Indique si le message a reçu un numéro de séquence du serveur
+	 * @return true si le message a un numéro de séquence, false sinon
+	 */
+	public boolean hasSequence()
+	{
+		return sequence != NO_SEQUENCE;
+	}
+
 	/**
 	 * Accesseur en lecture de la date du message
-	 * @return la date du message
+	 * @return la date du message (une nouvelle {@link Date} à chaque appel
+	 * puisque le message est immuable)
 	 */
 	public Date getDate()
 	{
-		return date;
+		return new Date(timestamp);
+	}
+
+	/**
+	 * Accesseur en lecture de la date du message en ms depuis l'epoch
+	 * @return la date du message en ms depuis l'epoch
+	 */
+	public long getTimestamp()
+	{
+		return timestamp;
 	}
 
 	/**
@@ -157,7 +295,7 @@ public class Message implements Serializable, Comparable<Message>
 	 */
 	public String getFormattedDate()
 	{
-		return dateFormat.format(date);
+		return dateFormat.format(timestamp);
 	}
 
 	/**
@@ -192,9 +330,22 @@ public class Message implements Serializable, Comparable<Message>
 
 	/**
 	 * Accesseur en lecture du formatteur de date des messages
-	 * @return le formateur de date des messages
+	 * @return un nouveau formateur de date utilisant le même motif que les
+	 * messages. Un SimpleDateFormat n'étant pas thread safe, il n'est plus
+	 * partagé.
+	 * @deprecated utiliser {@link #getTimestampFormatter()}
 	 */
+	@Deprecated
 	public static SimpleDateFormat getDateFormat()
+	{
+		return new SimpleDateFormat(TimestampFormatter.DEFAULTPATTERN);
+	}
+
+	/**
+	 * Accesseur en lecture du formatteur (thread safe) de date des messages
+	 * @return le formateur de date des messages
+	 */
+	public static TimestampFormatter getTimestampFormatter()
 	{
 		return dateFormat;
 	}
@@ -207,7 +358,7 @@ public class Message implements Serializable, Comparable<Message>
 	public int hashCode()
 	{
 		final int prime = 31;
-		int hash = date.hashCode();
+		int hash = Long.hashCode(timestamp);
 		hash = (prime * hash) + content.hashCode();
 		if (author != null)
 		{
@@ -240,7 +391,7 @@ public class Message implements Serializable, Comparable<Message>
 		{
 			Message m = (Message) obj;
 
-			if (date.equals(m.date))
+			if (timestamp == m.timestamp)
 			{
 				if (content.equals(m.content))
 				{
@@ -267,9 +418,27 @@ public class Message implements Serializable, Comparable<Message>
 	@Override
 	public String toString()
 	{
-		StringBuffer sb = new StringBuffer("[");
+		StringBuilder sb = renderBuffer.get();
+		sb.setLength(0);
+		String text = appendTo(sb).toString();
+		if (sb.capacity() > MAXRENDERBUFFER)
+		{
+			renderBuffer.remove();
+		}
+		return text;
+	}
 
-		sb.append(dateFormat.format(date));
+	/**
+	 * Affichage du message à la fin d'un StringBuilder (sans créer de chaîne
+	 * intermédiaire)
+	 * @param sb le StringBuilder dans lequel écrire le message sous la forme
+	 * [yyyy/mm/dd HH:MM:SS] author > message content
+	 * @return le StringBuilder sb
+	 */
+	public StringBuilder appendTo(StringBuilder sb)
+	{
+		sb.append('[');
+		dateFormat.appendTo(sb, timestamp);
 		sb.append("] ");
 		if (author != null)
 		{
@@ -278,7 +447,19 @@ public class Message implements Serializable, Comparable<Message>
 		}
 		sb.append(content);
 
-		return sb.toString();
+		return sb;
+	}
+
+	/**
+	 * Remplacement d'un message désérialisé par un message construit avec le
+	 * constructeur afin que le nom de l'auteur soit internalisé (sans quoi
+	 * chaque message reçu aurait sa propre copie du nom de l'auteur)
+	 * @return le message équivalent avec un auteur internalisé
+	 * @throws ObjectStreamException jamais
+	 */
+	private Object readResolve() throws ObjectStreamException
+	{
+		return new Message(sequence, timestamp, content, author);
 	}
 
 	/**
@@ -305,82 +486,41 @@ public class Message implements Serializable, Comparable<Message>
 	}
 
 	/**
-	 * Comparaison (3 way : -1, 0, 1) de deux messages en utilisant les
+	 * Comparaison (3 way) de deux messages en utilisant les
 	 * critères de comparaison mis en place dans {@link #orders}
 	 * @param m l'autre message à comparer
-	 * @return -1 si le message courant est considéré comme inférieur au message
-	 * m suivant les critères présents dans {@link #orders}, 0 s'ils sont
-	 * considérés comme égaux et 1 si le message courant est considéré comme
-	 * supérieur au message m, toujours suivant les critères mis en place dans
-	 * {@link #orders}.
+	 * @return une valeur négative si le message courant est considéré comme
+	 * inférieur au message m suivant les critères présents dans
+	 * {@link #orders}, 0 s'ils sont considérés comme égaux et une valeur
+	 * positive si le message courant est considéré comme supérieur au message
+	 * m, toujours suivant les critères mis en place dans {@link #orders}.
 	 */
 	@Override
 	public int compareTo(Message m)
 	{
-		int compare = 0;
-		if (orders.isEmpty())
-		{
-			// l'ordre par défaut est la date du message
-			compare = date.compareTo(m.date);
-		}
-		else
+		return ordersComparator.compare(this, m);
+	}
+
+	/**
+	 * Comparateur correspondant aux critères de tri globaux actuels
+	 * @return un comparateur immuable utilisant les critères de
+	 * {@link #orders}
+	 */
+	public static MessageComparator getOrdersComparator()
+	{
+		return ordersComparator;
+	}
+
+	/**
+	 * Reconstruction du {@link #ordersComparator} après une modification des
+	 * critères de tri
+	 */
+	private static void updateOrdersComparator()
+	{
+		synchronized (orders)
 		{
-			for (Iterator<MessageOrder> it = orders.iterator(); it.hasNext();)
-			{
-				MessageOrder criterium = it.next();
-				switch (criterium)
-				{
-					case AUTHOR:
-						if (author != null)
-						{
-							if(m.author != null)
-							{
-								compare = author.compareTo(m.author);
-							}
-							else
-							{
-								/*
-								 * Un message avec auteur sera considéré comme
-								 * supérieur à un message sans auteur
-								 */
-								compare = 1;
-							}
-						}
-						else // author == null
-						{
-							if (m.author != null)
-							{
-								/*
-								 * un message sans auteur sera considéré comme
-								 * inférieur à un message avec auteur
-								 */
-								compare = -1;
-							}
-							else
-							{
-								compare = 0;
-							}
-						}
-						break;
-					case DATE:
-						compare = date.compareTo(m.date);
-						break;
-					case CONTENT:
-						compare = content.compareTo(m.content);
-					default:
-						break;
-				}
-				// Si le critère courant permet de différentier les messages
-				// on renvoie sa valeur tout de suite.
-				if (compare != 0)
-				{
-					break;
-				}
-			}
-			// On a terminé la boucle sans avoir renvoyé une valeur != 0,
-			// tous les critères de comparaison ont été 0 (valeurs égales)
+			ordersComparator = MessageComparator.of(orders);
 		}
-		return compare;
 	}
 
 	/**
@@ -393,9 +533,13 @@ public class Message implements Serializable, Comparable<Message>
 	{
 		if (o != null)
 		{
-			if (!orders.contains(o))
+			synchronized (orders)
 			{
-				return orders.add(o);
+				if (!orders.contains(o) && orders.add(o))
+				{
+					updateOrdersComparator();
+					return true;
+				}
 			}
 		}
 		return false;
@@ -411,7 +555,14 @@ public class Message implements Serializable, Comparable<Message>
 	{
 		if (o != null)
 		{
-			return orders.remove(o);
+			synchronized (orders)
+			{
+				if (orders.remove(o))
+				{
+					updateOrdersComparator();
+					return true;
+				}
+			}
 		}
 		return false;
 	}
@@ -421,6 +572,10 @@ public class Message implements Serializable, Comparable<Message>
 	 */
 	public static void clearOrders()
 	{
-		orders.clear();
+		synchronized (orders)
+		{
+			orders.clear();
+			updateOrdersComparator();
+		}
 	}
 }
@@ -0,0 +1,852 @@
+package models;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Archive de messages dans un fichier local.
+ * Les messages sont ajoutés à la fin d'un fichier de données sous la forme
+ * d'enregistrements binaires compacts :
+ * <pre>
+ * [numéro de séquence : long][date : long]
+ * [longueur de l'auteur en octets : short (-1 sans auteur)][auteur : UTF-8]
+ * [longueur du contenu en octets : int][contenu : UTF-8]
+ * </pre>
+ * Un fichier d'index (de même nom suivi de {@link #INDEXSUFFIX}) contient
+ * la position (long) de chaque enregistrement dans le fichier de données :
+ * les enregistrements étant de taille fixe dans l'index, le i<sup>ème</sup>
+ * message est retrouvé sans parcourir les précédents, ce qui permet de
+ * relire n'importe quelle page de messages.
+ * Une archive existante peut être rouverte : un éventuel enregistrement
+ * incomplet (lors d'un arrêt brutal par exemple) est alors supprimé. Une
+ * archive ne peut être ouverte que par un seul programme à la fois (le
+ * fichier de données est verrouillé), ce qui permet de l'utiliser comme
+ * cache persistant des messages d'un client (voir
+ * {@link #cacheFile(File, String, int, String)}).
+ * Des messages plus anciens que tous ceux de l'archive (des pages de
+ * l'historique du serveur par exemple) peuvent être ajoutés au début de
+ * l'archive avec {@link #prepend(List)} : ils sont rangés dans une seconde
+ * archive (de même nom suivie de {@link #HEADSUFFIX}) du plus récent au plus
+ * ancien, ce qui évite de réécrire l'archive et conserve des enregistrements
+ * contigus pour chaque page relue.
+ * @author davidroussel
+ */
+public class MessageArchive implements Closeable
+{
+	/**
+	 * Suffixe du fichier d'index
+	 */
+	public final static String INDEXSUFFIX = ".idx";
+
+	/**
+	 * Suffixe de l'archive des messages ajoutés au début
+	 */
+	public final static String HEADSUFFIX = ".head";
+
+	/**
+	 * Marque placée au début du fichier de données ("CHAT")
+	 */
+	private final static int MAGIC = 0x43484154;
+
+	/**
+	 * Version du format des enregistrements
+	 */
+	private final static int VERSION = 1;
+
+	/**
+	 * Taille de l'entête du fichier de données (marque et version)
+	 */
+	private final static int HEADERSIZE = 8;
+
+	/**
+	 * Taille d'une entrée du fichier d'index
+	 */
+	private final static int INDEXENTRYSIZE = Long.BYTES;
+
+	/**
+	 * Taille de la partie fixe d'un enregistrement (séquence, date et
+	 * longueurs)
+	 */
+	private final static int FIXEDRECORDSIZE = Long.BYTES + Long.BYTES
+	    + Short.BYTES + Integer.BYTES;
+
+	/**
+	 * Le fichier de données
+	 */
+	private final File file;
+
+	/**
+	 * Canal d'accès au fichier de données
+	 */
+	private final FileChannel data;
+
+	/**
+	 * Canal d'accès au fichier d'index
+	 */
+	private final FileChannel index;
+
+	/**
+	 * Verrou exclusif sur le fichier de données
+	 */
+	private final FileLock lock;
+
+	/**
+	 * Archive des messages ajoutés au début de cette archive (rangés du plus
+	 * récent au plus ancien), ou null pour l'archive des messages ajoutés au
+	 * début elle même
+	 */
+	private final MessageArchive head;
+
+	/**
+	 * Nombre de messages archivés
+	 */
+	private int size;
+
+	/**
+	 * Taille (en octets) du fichier de données
+	 */
+	private long dataLength;
+
+	/**
+	 * Numéro de séquence du dernier message archivé (ou
+	 * {@link Message#NO_SEQUENCE})
+	 */
+	private long lastSequence;
+
+	/**
+	 * Ouverture (ou création) d'une archive
+	 * @param file le fichier de données de l'archive (le fichier d'index est
+	 * dans le même répertoire)
+	 * @throws IOException si les fichiers de l'archive ne peuvent être
+	 * ouverts ou créés ou si l'archive est déjà ouverte par ailleurs
+	 */
+	public MessageArchive(File file) throws IOException
+	{
+		this(file, true);
+	}
+
+	/**
+	 * Ouverture (ou création) d'une archive
+	 * @param file le fichier de données de l'archive
+	 * @param withHead ouverture (ou création) de l'archive des messages
+	 * ajoutés au début
+	 * @throws IOException si les fichiers de l'archive ne peuvent être
+	 * ouverts ou créés ou si l'archive est déjà ouverte par ailleurs
+	 */
+	@SuppressWarnings("resource")
+	private MessageArchive(File file, boolean withHead) throws IOException
+	{
+		this.file = file;
+		data = new RandomAccessFile(file, "rw").getChannel();
+		FileLock fileLock = null;
+		try
+		{
+			fileLock = data.tryLock();
+		}
+		catch (OverlappingFileLockException e)
+		{
+			// déjà verrouillé par ce programme
+		}
+		catch (IOException e)
+		{
+			data.close();
+			throw e;
+		}
+		if (fileLock == null)
+		{
+			data.close();
+			throw new IOException("MessageArchive: " + file + " already in use");
+		}
+		lock = fileLock;
+
+		try
+		{
+			index = new RandomAccessFile(indexFile(file), "rw").getChannel();
+		}
+		catch (IOException e)
+		{
+			data.close();
+			throw e;
+		}
+
+		MessageArchive headArchive = null;
+		try
+		{
+			recover();
+			if (withHead)
+			{
+				headArchive = new MessageArchive(headFile(file), false);
+			}
+		}
+		catch (IOException e)
+		{
+			lock.release();
+			data.close();
+			index.close();
+			throw e;
+		}
+		head = headArchive;
+	}
+
+	/**
+	 * Création d'une archive temporaire (supprimée lors de sa fermeture)
+	 * @param prefix le préfixe du nom du fichier temporaire
+	 * @return une nouvelle archive vide
+	 * @throws IOException si le fichier temporaire ne peut être créé
+	 */
+	public static MessageArchive createTemporary(String prefix)
+	    throws IOException
+	{
+		File file = File.createTempFile(prefix, ".history");
+		file.deleteOnExit();
+		indexFile(file).deleteOnExit();
+		headFile(file).deleteOnExit();
+		indexFile(headFile(file)).deleteOnExit();
+		return new MessageArchive(file)
+		{
+			@Override
+			public synchronized void close() throws IOException
+			{
+				super.close();
+				delete(getFile());
+			}
+		};
+	}
+
+	/**
+	 * Fichier de données du cache des messages reçus par un utilisateur
+	 * depuis un serveur
+	 * @param directory le répertoire des caches (créé si nécessaire)
+	 * @param host l'hôte du serveur
+	 * @param port le port du serveur
+	 * @param user le nom de l'utilisateur
+	 * @return le fichier de données du cache (les caractères autres que
+	 * lettres, chiffres, '.' et '-' de l'hôte et de l'utilisateur sont
+	 * remplacés par des '_')
+	 * @throws IOException si le répertoire des caches ne peut être créé
+	 */
+	public static File cacheFile(File directory,
+	                             String host,
+	                             int port,
+	                             String user) throws IOException
+	{
+		if (!directory.isDirectory() && !directory.mkdirs())
+		{
+			throw new IOException("MessageArchive: unable to create "
+			    + directory);
+		}
+		String name = (host + "_" + port + "_" + user)
+		    .replaceAll("[^A-Za-z0-9.\\-]", "_");
+		return new File(directory, name + ".history");
+	}
+
+	/**
+	 * Fichier d'index associé à un fichier de données
+	 * @param file le fichier de données
+	 * @return le fichier d'index
+	 */
+	private static File indexFile(File file)
+	{
+		return new File(file.getPath() + INDEXSUFFIX);
+	}
+
+	/**
+	 * Fichier de données de l'archive des messages ajoutés au début
+	 * @param file le fichier de données
+	 * @return le fichier de données de l'archive des messages ajoutés au
+	 * début
+	 */
+	private static File headFile(File file)
+	{
+		return new File(file.getPath() + HEADSUFFIX);
+	}
+
+	/**
+	 * Suppression de tous les fichiers d'une archive fermée
+	 * @param file le fichier de données de l'archive
+	 */
+	private static void delete(File file)
+	{
+		file.delete();
+		indexFile(file).delete();
+		headFile(file).delete();
+		indexFile(headFile(file)).delete();
+	}
+
+	/**
+	 * Vérification de l'archive à l'ouverture : un fichier de données vide
+	 * ou d'un autre format est réinitialisé, les entrées d'index
+	 * incomplètes ou désignant des enregistrements incomplets sont supprimées
+	 * @throws IOException si une erreur d'I/O survient
+	 */
+	private void recover() throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(HEADERSIZE);
+		if ((data.size() < HEADERSIZE)
+		    || (data.read(header, 0) < HEADERSIZE)
+		    || (header.getInt(0) != MAGIC)
+		    || (header.getInt(4) != VERSION))
+		{
+			reset();
+			return;
+		}
+
+		size = (int) (index.size() / INDEXENTRYSIZE);
+		long length = data.size();
+		// suppression des derniers messages incomplets
+		while (size > 0)
+		{
+			long offset = offset(size - 1);
+			if ((offset >= HEADERSIZE) && (offset + FIXEDRECORDSIZE <= length))
+			{
+				long end = recordEnd(offset);
+				if (end <= length)
+				{
+					dataLength = end;
+					break;
+				}
+			}
+			size--;
+		}
+		if (size == 0)
+		{
+			dataLength = HEADERSIZE;
+		}
+		index.truncate((long) size * INDEXENTRYSIZE);
+		data.truncate(dataLength);
+		lastSequence = Message.NO_SEQUENCE;
+		records(size - 1, size,
+		        (long sequence, long timestamp, String content, String author) ->
+		        lastSequence = sequence);
+	}
+
+	/**
+	 * Réinitialisation de l'archive (suppression de tous les messages)
+	 * @throws IOException si une erreur d'I/O survient
+	 */
+	private void reset() throws IOException
+	{
+		data.truncate(0);
+		index.truncate(0);
+		ByteBuffer header = ByteBuffer.allocate(HEADERSIZE);
+		header.putInt(MAGIC).putInt(VERSION).flip();
+		writeFully(data, header, 0);
+		size = 0;
+		dataLength = HEADERSIZE;
+		lastSequence = Message.NO_SEQUENCE;
+	}
+
+	/**
+	 * Accesseur en lecture du fichier de données de l'archive
+	 * @return le fichier de données de l'archive
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * Nombre de messages archivés
+	 * @return le nombre de messages archivés
+	 */
+	public synchronized int size()
+	{
+		return headSize() + size;
+	}
+
+	/**
+	 * Nombre de messages ajoutés au début de l'archive
+	 * @return le nombre de messages de l'archive {@link #head}
+	 */
+	private int headSize()
+	{
+		return (head != null ? head.size() : 0);
+	}
+
+	/**
+	 * Numéro de séquence du dernier message archivé
+	 * @return le numéro de séquence du dernier message archivé ou bien
+	 * {@link Message#NO_SEQUENCE} si l'archive est vide
+	 */
+	public synchronized long getLastSequence()
+	{
+		if ((size == 0) && (headSize() > 0))
+		{
+			return head.getFirstArchivedSequence();
+		}
+		return lastSequence;
+	}
+
+	/**
+	 * Numéro de séquence du premier message archivé (le plus ancien)
+	 * @return le numéro de séquence du premier message archivé ou bien
+	 * {@link Message#NO_SEQUENCE} si l'archive est vide
+	 * @throws IOException si une erreur de lecture survient
+	 */
+	public synchronized long getFirstSequence() throws IOException
+	{
+		List<Message> first = read(0, 1);
+		return (first.isEmpty() ? Message.NO_SEQUENCE :
+		        first.get(0).getSequence());
+	}
+
+	/**
+	 * Numéro de séquence du premier enregistrement de l'archive (sans tenir
+	 * compte des messages ajoutés au début)
+	 * @return le numéro de séquence du premier enregistrement ou bien
+	 * {@link Message#NO_SEQUENCE} si l'archive est vide
+	 */
+	private synchronized long getFirstArchivedSequence()
+	{
+		long[] first = {Message.NO_SEQUENCE};
+		try
+		{
+			records(0, Math.min(size, 1),
+			        (long sequence, long timestamp, String content, String author) ->
+			        first[0] = sequence);
+		}
+		catch (IOException e)
+		{
+			// archive illisible : aucun numéro de séquence
+		}
+		return first[0];
+	}
+
+	/**
+	 * Ajout d'un message à la fin de l'archive
+	 * @param message le message à archiver
+	 * @return la position du message dans l'archive
+	 * @throws IOException si une erreur d'écriture survient
+	 */
+	public int append(Message message) throws IOException
+	{
+		return append(message.getSequence(),
+		              message.getTimestamp(),
+		              message.getContent(),
+		              message.getAuthor());
+	}
+
+	/**
+	 * Ajout d'un message à la fin de l'archive
+	 * @param sequence le numéro de séquence du message
+	 * @param timestamp la date du message (en ms depuis l'epoch)
+	 * @param content le contenu du message
+	 * @param author l'auteur du message (ou null)
+	 * @return la position du message dans l'archive
+	 * @throws IOException si une erreur d'écriture survient
+	 */
+	public synchronized int append(long sequence,
+	                               long timestamp,
+	                               String content,
+	                               String author) throws IOException
+	{
+		byte[] authorBytes = (author != null ?
+		    author.getBytes(StandardCharsets.UTF_8) : null);
+		byte[] contentBytes = (content != null ?
+		    content : "").getBytes(StandardCharsets.UTF_8);
+		if ((authorBytes != null) && (authorBytes.length > Short.MAX_VALUE))
+		{
+			throw new IOException("MessageArchive: author name too long");
+		}
+
+		ByteBuffer record = ByteBuffer.allocate(FIXEDRECORDSIZE
+		    + (authorBytes != null ? authorBytes.length : 0)
+		    + contentBytes.length);
+		record.putLong(sequence).putLong(timestamp);
+		if (authorBytes != null)
+		{
+			record.putShort((short) authorBytes.length).put(authorBytes);
+		}
+		else
+		{
+			record.putShort((short) -1);
+		}
+		record.putInt(contentBytes.length).put(contentBytes);
+		record.flip();
+
+		// l'enregistrement est écrit avant son entrée dans l'index
+		long offset = dataLength;
+		writeFully(data, record, offset);
+		ByteBuffer entry = ByteBuffer.allocate(INDEXENTRYSIZE);
+		entry.putLong(offset).flip();
+		writeFully(index, entry, (long) size * INDEXENTRYSIZE);
+
+		dataLength = offset + record.limit();
+		lastSequence = sequence;
+		return headSize() + size++;
+	}
+
+	/**
+	 * Ajout au début de l'archive de messages plus anciens que tous ceux
+	 * qu'elle contient déjà : les positions des messages déjà archivés sont
+	 * donc décalées du nombre de messages ajoutés
+	 * @param messages les messages à ajouter (du plus ancien au plus récent)
+	 * @return le nombre de messages ajoutés
+	 * @throws IOException si une erreur d'écriture survient ou si cette
+	 * archive ne permet pas l'ajout de messages au début
+	 */
+	public synchronized int prepend(List<Message> messages) throws IOException
+	{
+		if (head == null)
+		{
+			throw new IOException("MessageArchive: " + file
+			    + " does not support prepending");
+		}
+		for (int i = messages.size() - 1; i >= 0; i--)
+		{
+			head.append(messages.get(i));
+		}
+		return messages.size();
+	}
+
+	/**
+	 * Lecture d'une page de messages
+	 * @param from la position du premier message à lire
+	 * @param count le nombre maximum de messages à lire
+	 * @return les messages lus (dans l'ordre de l'archive)
+	 * @throws IOException si une erreur de lecture survient
+	 */
+	public synchronized List<Message> read(int from, int count)
+	    throws IOException
+	{
+		List<Message> messages = new ArrayList<Message>();
+		forEach(from, count, (long sequence, long timestamp, String content, String author) ->
+			messages.add(new Message(sequence, timestamp, content, author)));
+		return messages;
+	}
+
+	/**
+	 * Lecture d'une page de messages dans un stockage en colonnes (sans
+	 * créer d'objets {@link Message})
+	 * @param from la position du premier message à lire
+	 * @param count le nombre maximum de messages à lire
+	 * @param store le stockage auquel ajouter les messages lus
+	 * @return le nombre de messages lus
+	 * @throws IOException si une erreur de lecture survient
+	 */
+	public synchronized int readInto(int from, int count, MessageStore store)
+	    throws IOException
+	{
+		return forEach(from, count, store::append);
+	}
+
+	/**
+	 * Récepteur des messages lus dans l'archive
+	 */
+	private interface RecordConsumer
+	{
+		/**
+		 * Réception d'un message lu
+		 * @param sequence le numéro de séquence du message
+		 * @param timestamp la date du message
+		 * @param content le contenu du message
+		 * @param author l'auteur du message (ou null)
+		 */
+		void accept(long sequence, long timestamp, String content, String author);
+	}
+
+	/**
+	 * Lecture d'une page de messages, en commençant éventuellement par les
+	 * messages ajoutés au début de l'archive
+	 * @param from la position du premier message à lire
+	 * @param count le nombre maximum de messages à lire
+	 * @param consumer le récepteur des messages lus
+	 * @return le nombre de messages lus
+	 * @throws IOException si une erreur de lecture survient
+	 */
+	private int forEach(int from, int count, RecordConsumer consumer)
+	    throws IOException
+	{
+		from = Math.max(from, 0);
+		int headSize = headSize();
+		int to = (int) Math.min((long) from + Math.max(count, 0),
+		                        (long) headSize + size);
+		if (from >= to)
+		{
+			return 0;
+		}
+
+		if (from < headSize)
+		{
+			// les messages ajoutés au début sont rangés du plus récent au plus ancien
+			int headTo = Math.min(to, headSize);
+			List<Message> older = head.read(headSize - headTo, headTo - from);
+			for (int i = older.size() - 1; i >= 0; i--)
+			{
+				Message message = older.get(i);
+				consumer.accept(message.getSequence(),
+				                message.getTimestamp(),
+				                message.getContent(),
+				                message.getAuthor());
+			}
+		}
+		if (to > headSize)
+		{
+			records(Math.max(from - headSize, 0), to - headSize, consumer);
+		}
+		return to - from;
+	}
+
+	/**
+	 * Lecture d'enregistrements de cette archive : les enregistrements
+	 * étant contigus, ils sont lus en une seule fois
+	 * @param from l'index du premier enregistrement à lire
+	 * @param to l'index de l'enregistrement suivant le dernier à lire
+	 * @param consumer le récepteur des messages lus
+	 * @throws IOException si une erreur de lecture survient
+	 */
+	private void records(int from, int to, RecordConsumer consumer)
+	    throws IOException
+	{
+		if ((from < 0) || (from >= to))
+		{
+			return;
+		}
+
+		long start = offset(from);
+		long end = (to < size ? offset(to) : dataLength);
+		if ((end - start) > Integer.MAX_VALUE)
+		{
+			throw new IOException("MessageArchive: page too large");
+		}
+		ByteBuffer page = ByteBuffer.allocate((int) (end - start));
+		readFully(data, page, start);
+		page.flip();
+
+		for (int i = from; i < to; i++)
+		{
+			long sequence = page.getLong();
+			long timestamp = page.getLong();
+			short authorLength = page.getShort();
+			String author = null;
+			if (authorLength >= 0)
+			{
+				author = new String(page.array(), page.position(), authorLength,
+				                    StandardCharsets.UTF_8);
+				page.position(page.position() + authorLength);
+			}
+			int contentLength = page.getInt();
+			String content = new String(page.array(), page.position(),
+			                            contentLength, StandardCharsets.UTF_8);
+			page.position(page.position() + contentLength);
+			consumer.accept(sequence, timestamp, content, author);
+		}
+	}
+
+	/**
+	 * Suppression de tous les messages de l'archive
+	 * @throws IOException si une erreur d'I/O survient
+	 */
+	public synchronized void clear() throws IOException
+	{
+		reset();
+		if (head != null)
+		{
+			head.clear();
+		}
+	}
+
+	/**
+	 * Suppression des messages de certains auteurs : l'archive est réécrite
+	 * (par pages) sans les messages de ces auteurs. Les messages sans auteur
+	 * sont conservés.
+	 * @param names les noms des auteurs dont on veut supprimer les messages
+	 * @return le nombre de messages supprimés
+	 * @throws IOException si une erreur d'I/O survient
+	 */
+	public synchronized int removeAuthors(Collection<String> names)
+	    throws IOException
+	{
+		Set<String> removed = new HashSet<String>(names);
+		File tmpFile = new File(file.getPath() + ".tmp");
+		int before = size();
+		try (MessageArchive copy = new MessageArchive(tmpFile, false))
+		{
+			copy.clear();
+			final int pageSize = 4096;
+			for (int from = 0; from < before; from += pageSize)
+			{
+				for (Message message : read(from, pageSize))
+				{
+					if (!message.hasAuthor() || !removed.contains(message.getAuthor()))
+					{
+						copy.append(message);
+					}
+				}
+			}
+			copy.transferTo(this);
+		}
+		finally
+		{
+			delete(tmpFile);
+		}
+		return before - size();
+	}
+
+	/**
+	 * Remplacement du contenu d'une autre archive par celui de cette archive
+	 * (les messages ajoutés au début de l'autre archive sont supprimés)
+	 * @param target l'archive dont on remplace le contenu
+	 * @throws IOException si une erreur d'I/O survient
+	 */
+	private synchronized void transferTo(MessageArchive target)
+	    throws IOException
+	{
+		target.data.truncate(0);
+		target.index.truncate(0);
+		transfer(data, target.data, dataLength);
+		transfer(index, target.index, (long) size * INDEXENTRYSIZE);
+		target.size = size;
+		target.dataLength = dataLength;
+		target.lastSequence = lastSequence;
+		if (target.head != null)
+		{
+			target.head.clear();
+		}
+	}
+
+	/**
+	 * Copie du contenu d'un fichier dans un autre
+	 * @param source le canal du fichier source
+	 * @param destination le canal du fichier destination
+	 * @param length le nombre d'octets à copier
+	 * @throws IOException si une erreur d'I/O survient
+	 */
+	private static void transfer(FileChannel source,
+	                             FileChannel destination,
+	                             long length) throws IOException
+	{
+		long position = 0;
+		while (position < length)
+		{
+			position += source.transferTo(position, length - position,
+			                              destination.position(position));
+		}
+	}
+
+	/**
+	 * Écriture forcée des données de l'archive sur le disque
+	 * @throws IOException si une erreur d'I/O survient
+	 */
+	public synchronized void flush() throws IOException
+	{
+		data.force(false);
+		index.force(false);
+		if (head != null)
+		{
+			head.flush();
+		}
+	}
+
+	/**
+	 * Fermeture de l'archive
+	 * @throws IOException si une erreur d'I/O survient
+	 */
+	@Override
+	public synchronized void close() throws IOException
+	{
+		try
+		{
+			if (lock.isValid())
+			{
+				lock.release();
+			}
+			data.close();
+		}
+		finally
+		{
+			index.close();
+			if (head != null)
+			{
+				head.close();
+			}
+		}
+	}
+
+	/**
+	 * Position d'un enregistrement dans le fichier de données
+	 * @param position la position du message dans l'archive
+	 * @return la position de l'enregistrement dans le fichier de données
+	 * @throws IOException si une erreur de lecture survient
+	 */
+	private long offset(int position) throws IOException
+	{
+		ByteBuffer entry = ByteBuffer.allocate(INDEXENTRYSIZE);
+		readFully(index, entry, (long) position * INDEXENTRYSIZE);
+		return entry.getLong(0);
+	}
+
+	/**
+	 * Position de fin d'un enregistrement d'après sa partie fixe
+	 * @param offset la position de l'enregistrement
+	 * @return la position de fin de l'enregistrement
+	 * @throws IOException si une erreur de lecture survient
+	 */
+	private long recordEnd(long offset) throws IOException
+	{
+		ByteBuffer lengths = ByteBuffer.allocate(Short.BYTES);
+		readFully(data, lengths, offset + Long.BYTES + Long.BYTES);
+		short authorLength = lengths.getShort(0);
+		long contentLengthOffset = offset + Long.BYTES + Long.BYTES + Short.BYTES
+		    + Math.max(authorLength, 0);
+		if (contentLengthOffset + Integer.BYTES > data.size())
+		{
+			return Long.MAX_VALUE;
+		}
+		ByteBuffer contentLength = ByteBuffer.allocate(Integer.BYTES);
+		readFully(data, contentLength, contentLengthOffset);
+		return contentLengthOffset + Integer.BYTES + contentLength.getInt(0);
+	}
+
+	/**
+	 * Lecture complète d'un buffer depuis une position d'un fichier
+	 * @param channel le canal du fichier
+	 * @param buffer le buffer à remplir
+	 * @param position la position de lecture
+	 * @throws IOException si la fin du fichier est atteinte avant d'avoir
+	 * rempli le buffer ou si une erreur de lecture survient
+	 */
+	private static void readFully(FileChannel channel,
+	                              ByteBuffer buffer,
+	                              long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			int read = channel.read(buffer, position);
+			if (read < 0)
+			{
+				throw new IOException("MessageArchive: unexpected end of file");
+			}
+			position += read;
+		}
+	}
+
+	/**
+	 * Écriture complète d'un buffer à une position d'un fichier
+	 * @param channel le canal du fichier
+	 * @param buffer le buffer à écrire
+	 * @param position la position d'écriture
+	 * @throws IOException si une erreur d'écriture survient
+	 */
+	private static void writeFully(FileChannel channel,
+	                               ByteBuffer buffer,
+	                               long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			position += channel.write(buffer, position);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import models.Message.MessageOrder;
+
+/**
+ * Comparateur de messages construit à partir d'une liste de critères
+ * {@link MessageOrder}. Contrairement aux critères globaux utilisés par
+ * {@link Message#compareTo(Message)}, chaque vue (fenêtre, liste, ...) peut
+ * posséder son propre comparateur. Un MessageComparator est immuable : les
+ * critères sont interprétés une seule fois lors de sa construction pour
+ * composer les comparateurs de chaque critère, et il peut donc être utilisé
+ * simultanément par plusieurs threads.
+ * @author davidroussel
+ */
+public class MessageComparator implements Comparator<Message>
+{
+	/**
+	 * Comparateur par défaut : par date
+	 */
+	public final static MessageComparator BYDATE = of(MessageOrder.DATE);
+
+	/**
+	 * Les critères de comparaison (sans doublons) dans leur ordre
+	 * d'application
+	 */
+	private final List<MessageOrder> orders;
+
+	/**
+	 * Le comparateur composé à partir des {@link #orders}
+	 */
+	private final Comparator<Message> chain;
+
+	/**
+	 * Constructeur privé : voir {@link #of(List)}
+	 * @param orders les critères de comparaison (sans doublons)
+	 */
+	private MessageComparator(List<MessageOrder> orders)
+	{
+		this.orders = Collections.unmodifiableList(orders);
+
+		Comparator<Message> composed = null;
+		for (MessageOrder order : orders)
+		{
+			composed = (composed == null ? order.comparator() :
+			            composed.thenComparing(order.comparator()));
+		}
+		// l'ordre par défaut est la date du message
+		chain = (composed != null ? composed : MessageOrder.DATE.comparator());
+	}
+
+	/**
+	 * Construction d'un comparateur d'après une liste de critères
+	 * @param orders les critères de comparaison dans leur ordre
+	 * d'application. Les doublons et les critères null sont ignorés, et une
+	 * liste vide correspond à l'ordre par date.
+	 * @return un nouveau comparateur
+	 */
+	public static MessageComparator of(List<MessageOrder> orders)
+	{
+		List<MessageOrder> unique = new ArrayList<MessageOrder>();
+		for (MessageOrder order : orders)
+		{
+			if ((order != null) && !unique.contains(order))
+			{
+				unique.add(order);
+			}
+		}
+		return new MessageComparator(unique);
+	}
+
+	/**
+	 * Construction d'un comparateur d'après des critères
+	 * @param orders les critères de comparaison dans leur ordre d'application
+	 * @return un nouveau comparateur
+	 * @see #of(List)
+	 */
+	public static MessageComparator of(MessageOrder... orders)
+	{
+		List<MessageOrder> list = new ArrayList<MessageOrder>();
+		Collections.addAll(list, orders);
+		return of(list);
+	}
+
+	/**
+	 * Composition avec un critère supplémentaire
+	 * @param order le critère à appliquer lorsque les critères courants ne
+	 * permettent pas de différencier deux messages
+	 * @return un nouveau comparateur (le comparateur courant est inchangé)
+	 */
+	public MessageComparator then(MessageOrder order)
+	{
+		List<MessageOrder> list = new ArrayList<MessageOrder>(orders);
+		list.add(order);
+		return of(list);
+	}
+
+	/**
+	 * Accesseur en lecture des critères de comparaison
+	 * @return la liste (non modifiable) des critères de comparaison
+	 */
+	public List<MessageOrder> getOrders()
+	{
+		return orders;
+	}
+
+	/**
+	 * Comparaison de deux messages suivant les critères du comparateur
+	 * @param m1 le premier message
+	 * @param m2 le second message
+	 * @return une valeur négative, nulle ou positive si m1 est inférieur,
+	 * égal ou supérieur à m2
+	 */
+	@Override
+	public int compare(Message m1, Message m2)
+	{
+		return chain.compare(m1, m2);
+	}
+
+	/**
+	 * Affichage des critères de comparaison
+	 * @return une chaîne de caractères contenant les critères de comparaison
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < orders.size(); i++)
+		{
+			if (i > 0)
+			{
+				sb.append(", ");
+			}
+			sb.append(orders.get(i));
+		}
+		sb.append("}");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,102 @@
+package models;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Page de l'historique des messages diffusés par le serveur, envoyée à un
+ * client qui la demande (lorsqu'il fait défiler ses messages au delà des
+ * plus anciens qu'il a reçus par exemple).
+ * Une page contient des messages consécutifs (du plus ancien au plus récent)
+ * et indique si le serveur dispose de messages encore plus anciens.
+ * @author davidroussel
+ */
+public class MessagePage implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Mot clé débutant la ligne d'entête d'une page envoyée sous forme de
+	 * texte : page &lt;nombre de messages&gt; &lt;séquence du premier
+	 * message&gt; &lt;messages plus anciens disponibles&gt;
+	 * @see #header()
+	 */
+	public final static String HEADER = "page";
+
+	/**
+	 * Les messages de la page (du plus ancien au plus récent)
+	 */
+	private final ArrayList<Message> messages;
+
+	/**
+	 * Indique si des messages plus anciens que ceux de la page sont
+	 * disponibles
+	 */
+	private final boolean more;
+
+	/**
+	 * Constructeur d'une page de messages
+	 * @param messages les messages de la page (du plus ancien au plus
+	 * récent)
+	 * @param more true si des messages plus anciens que ceux de la page sont
+	 * disponibles
+	 */
+	public MessagePage(List<Message> messages, boolean more)
+	{
+		this.messages = new ArrayList<Message>(messages);
+		this.more = more;
+	}
+
+	/**
+	 * Accesseur en lecture des messages de la page
+	 * @return la liste non modifiable des messages de la page (du plus
+	 * ancien au plus récent)
+	 */
+	public List<Message> getMessages()
+	{
+		return Collections.unmodifiableList(messages);
+	}
+
+	/**
+	 * Nombre de messages de la page
+	 * @return le nombre de messages de la page
+	 */
+	public int size()
+	{
+		return messages.size();
+	}
+
+	/**
+	 * Numéro de séquence du plus ancien message de la page
+	 * @return le numéro de séquence du premier message de la page ou bien
+	 * {@link Message#NO_SEQUENCE} si la page est vide
+	 */
+	public long getFirstSequence()
+	{
+		return (messages.isEmpty() ? Message.NO_SEQUENCE :
+		        messages.get(0).getSequence());
+	}
+
+	/**
+	 * Indique si des messages plus anciens que ceux de la page sont
+	 * disponibles
+	 * @return true si une page plus ancienne peut être demandée
+	 */
+	public boolean hasMore()
+	{
+		return more;
+	}
+
+	/**
+	 * Ligne d'entête d'une page envoyée sous forme de texte (suivie des
+	 * lignes des messages de la page)
+	 * @return la ligne d'entête "page nombre séquence plus"
+	 */
+	public String header()
+	{
+		return HEADER + " " + messages.size() + " " + getFirstSequence() + " "
+		    + more;
+	}
+}
@@ -0,0 +1,265 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Index de recherche incrémental sur le contenu des messages d'un
+ * {@link MessageStore}.
+ * Le contenu de chaque message est découpé en mots (suites de lettres et de
+ * chiffres, en minuscules) et l'index associe à chaque mot la liste des index
+ * des messages qui le contiennent. Les mots sont rangés dans un arbre trié de
+ * manière à retrouver rapidement tous les mots commençant par un préfixe :
+ * une recherche ne parcourt donc que les messages contenant les mots
+ * recherchés et non l'ensemble des messages stockés.
+ * L'index est mis à jour au fur et à mesure de l'arrivée des messages avec
+ * {@link #add(int, String)} et doit être reconstruit avec
+ * {@link #rebuild(MessageStore)} lorsque des messages sont supprimés du
+ * stockage (ce qui modifie leurs index).
+ * @author davidroussel
+ */
+public class MessageSearchIndex
+{
+	/**
+	 * Liste des index des messages contenant un mot
+	 */
+	private static class Postings
+	{
+		/**
+		 * Index des messages (dans l'ordre croissant)
+		 */
+		private int[] indices = new int[4];
+
+		/**
+		 * Nombre d'index utilisés dans {@link #indices}
+		 */
+		private int size = 0;
+
+		/**
+		 * Ajout d'un index de message (un même message n'est ajouté qu'une
+		 * seule fois même s'il contient plusieurs fois le mot)
+		 * @param index l'index du message
+		 */
+		void add(int index)
+		{
+			if ((size > 0) && (indices[size - 1] == index))
+			{
+				return;
+			}
+			if (size == indices.length)
+			{
+				indices = Arrays.copyOf(indices, size * 2);
+			}
+			indices[size++] = index;
+		}
+	}
+
+	/**
+	 * Les mots indexés et les messages qui les contiennent
+	 */
+	private final NavigableMap<String, Postings> terms;
+
+	/**
+	 * Nombre de messages indexés
+	 */
+	private int size;
+
+	/**
+	 * Constructeur d'un index vide
+	 */
+	public MessageSearchIndex()
+	{
+		terms = new TreeMap<String, Postings>();
+		size = 0;
+	}
+
+	/**
+	 * Découpage d'un texte en mots : suites de lettres et de chiffres
+	 * converties en minuscules
+	 * @param text le texte à découper
+	 * @return la liste des mots du texte (éventuellement vide)
+	 */
+	public static List<String> tokens(String text)
+	{
+		List<String> tokens = new ArrayList<String>();
+		if (text == null)
+		{
+			return tokens;
+		}
+		int length = text.length();
+		int start = -1;
+		for (int i = 0; i <= length; i++)
+		{
+			boolean inWord = (i < length)
+			    && Character.isLetterOrDigit(text.charAt(i));
+			if (inWord && (start < 0))
+			{
+				start = i;
+			}
+			else if (!inWord && (start >= 0))
+			{
+				tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+				start = -1;
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * Indexation d'un message. Les messages doivent être indexés dans l'ordre
+	 * croissant de leurs index.
+	 * @param index l'index du message dans le stockage
+	 * @param content le contenu du message
+	 */
+	public synchronized void add(int index, String content)
+	{
+		for (String token : tokens(content))
+		{
+			Postings postings = terms.get(token);
+			if (postings == null)
+			{
+				postings = new Postings();
+				terms.put(token, postings);
+			}
+			postings.add(index);
+		}
+		size = Math.max(size, index + 1);
+	}
+
+	/**
+	 * Suppression de tous les mots indexés
+	 */
+	public synchronized void clear()
+	{
+		terms.clear();
+		size = 0;
+	}
+
+	/**
+	 * Reconstruction de l'index à partir de tous les messages d'un stockage
+	 * (après la suppression de messages par exemple)
+	 * @param store le stockage des messages
+	 */
+	public void rebuild(MessageStore store)
+	{
+		synchronized (store)
+		{
+			synchronized (this)
+			{
+				clear();
+				int count = store.size();
+				for (int i = 0; i < count; i++)
+				{
+					add(i, store.getContent(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Nombre de mots différents indexés
+	 * @return le nombre de mots différents indexés
+	 */
+	public synchronized int getTermCount()
+	{
+		return terms.size();
+	}
+
+	/**
+	 * Recherche des messages contenant des mots commençant par chacun des
+	 * mots d'une requête (le dernier mot d'une requête en cours de saisie
+	 * est ainsi trouvé dès ses premières lettres)
+	 * @param query la requête
+	 * @return l'ensemble des index des messages contenant tous les mots de la
+	 * requête (éventuellement vide) ou bien null si la requête ne contient
+	 * aucun mot (aucune recherche à effectuer)
+	 */
+	public synchronized BitSet search(String query)
+	{
+		List<String> prefixes = tokens(query);
+		if (prefixes.isEmpty())
+		{
+			return null;
+		}
+
+		BitSet result = null;
+		for (String prefix : prefixes)
+		{
+			BitSet matches = new BitSet(size);
+			for (Map.Entry<String, Postings> entry :
+			     terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false).entrySet())
+			{
+				Postings postings = entry.getValue();
+				for (int i = 0; i < postings.size; i++)
+				{
+					matches.set(postings.indices[i]);
+				}
+			}
+
+			if (result == null)
+			{
+				result = matches;
+			}
+			else
+			{
+				result.and(matches);
+			}
+			if (result.isEmpty())
+			{
+				break;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Positions des occurrences des mots d'une requête dans un texte (pour
+	 * mettre en évidence les mots trouvés lors de l'affichage)
+	 * @param text le texte dans lequel rechercher les occurrences
+	 * @param query la requête
+	 * @return une liste de couples {début, fin} des mots du texte
+	 * commençant par l'un des mots de la requête (la fin étant celle du
+	 * préfixe trouvé)
+	 */
+	public static List<int[]> occurrences(String text, String query)
+	{
+		List<int[]> ranges = new ArrayList<int[]>();
+		List<String> prefixes = tokens(query);
+		if (prefixes.isEmpty() || (text == null))
+		{
+			return ranges;
+		}
+
+		int length = text.length();
+		int start = -1;
+		for (int i = 0; i <= length; i++)
+		{
+			boolean inWord = (i < length)
+			    && Character.isLetterOrDigit(text.charAt(i));
+			if (inWord && (start < 0))
+			{
+				start = i;
+			}
+			else if (!inWord && (start >= 0))
+			{
+				for (String prefix : prefixes)
+				{
+					if ((i - start) >= prefix.length()
+					    && text.regionMatches(true, start, prefix, 0, prefix.length()))
+					{
+						ranges.add(new int[] {start, start + prefix.length()});
+						break;
+					}
+				}
+				start = -1;
+			}
+		}
+		return ranges;
+	}
+}
@@ -0,0 +1,913 @@
+package models;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import models.IndexSort.IndexComparator;
+import models.Message.MessageOrder;
+
+/**
+ * Stockage en colonnes d'un grand nombre de messages.
+ * Plutôt que de conserver un objet {@link Message} par message reçu, chaque
+ * attribut des messages est rangé dans un tableau :
+ * <ul>
+ * <li>les numéros de séquence et les dates dans des long[]</li>
+ * <li>les auteurs dans un int[] contenant l'identifiant de l'auteur dans un
+ * dictionnaire des auteurs (chaque auteur n'est stocké qu'une seule fois)</li>
+ * <li>les contenus dans une zone de caractères commune, chaque message
+ * n'étant représenté que par l'index de début de son contenu dans cette
+ * zone</li>
+ * </ul>
+ * Le tri et le filtrage par auteurs s'effectuent sur ces colonnes et
+ * produisent une permutation (un tableau d'index de messages) : les objets
+ * {@link Message} ne sont créés qu'au moment de l'affichage avec
+ * {@link #get(int)}.
+ * Les auteurs et les contenus sont triés suivant l'ordre alphabétique de la
+ * langue du stockage (voir {@link #setLocale(Locale)}) : les clés de
+ * collation des contenus sont calculées une seule fois par message (lors du
+ * premier tri par contenu qui suit leur ajout) et rangées dans une zone
+ * d'octets commune, et les permutations de grande taille sont triées en
+ * parallèle (voir {@link #setParallelThreshold(int)}).
+ * Les messages ne peuvent qu'être ajoutés à la fin du stockage ou supprimés
+ * (voir {@link #removeAuthors(Collection)} et {@link #clear()}) : les index
+ * obtenus restent valables tant qu'aucune suppression n'intervient. Les
+ * appelants souhaitant parcourir une permutation sans risquer une
+ * suppression concurrente peuvent se synchroniser sur le stockage.
+ * @author davidroussel
+ */
+public class MessageStore
+{
+	/**
+	 * Identifiant d'auteur des messages sans auteur
+	 */
+	public final static int NO_AUTHOR = -1;
+
+	/**
+	 * Capacité initiale (en nombre de messages) par défaut
+	 */
+	public final static int DEFAULTCAPACITY = 1024;
+
+	/**
+	 * Capacité initiale (en caractères) par défaut de la zone des contenus
+	 * par message
+	 */
+	private final static int DEFAULTCONTENTLENGTH = 32;
+
+	/**
+	 * Numéros de séquence des messages
+	 */
+	private long[] sequences;
+
+	/**
+	 * Dates des messages (en ms depuis l'epoch)
+	 */
+	private long[] timestamps;
+
+	/**
+	 * Identifiants des auteurs des messages (ou {@link #NO_AUTHOR})
+	 */
+	private int[] authors;
+
+	/**
+	 * Index de début du contenu de chaque message dans {@link #contents}. Le
+	 * contenu du message i se termine au début du contenu du message i + 1
+	 * (ou à {@link #contentsLength} pour le dernier message)
+	 */
+	private int[] contentStarts;
+
+	/**
+	 * Zone commune des contenus des messages
+	 */
+	private char[] contents;
+
+	/**
+	 * Nombre de caractères utilisés dans {@link #contents}
+	 */
+	private int contentsLength;
+
+	/**
+	 * Nombre de messages stockés
+	 */
+	private int size;
+
+	/**
+	 * Dictionnaire des auteurs : nom de l'auteur d'identifiant i
+	 */
+	private final List<String> authorNames;
+
+	/**
+	 * Dictionnaire inverse des auteurs : identifiant de chaque nom d'auteur
+	 */
+	private final Map<String, Integer> authorIds;
+
+	/**
+	 * Le collator utilisé pour comparer les auteurs et les contenus ou bien
+	 * null pour comparer les caractères (comme
+	 * {@link String#compareTo(String)})
+	 */
+	private Collator collator;
+
+	/**
+	 * Clés de collation (comparables octet par octet) des contenus des
+	 * {@link #keyedSize} premiers messages
+	 */
+	private byte[] contentKeys;
+
+	/**
+	 * Index de début de la clé de collation de chaque message dans
+	 * {@link #contentKeys}
+	 */
+	private int[] contentKeyStarts;
+
+	/**
+	 * Nombre d'octets utilisés dans {@link #contentKeys}
+	 */
+	private int contentKeysLength;
+
+	/**
+	 * Nombre de messages dont la clé de collation a été calculée
+	 */
+	private int keyedSize;
+
+	/**
+	 * Taille à partir de laquelle les permutations sont triées en parallèle
+	 */
+	private int parallelThreshold;
+
+	/**
+	 * Constructeur d'un stockage vide de capacité initiale par défaut
+	 */
+	public MessageStore()
+	{
+		this(DEFAULTCAPACITY);
+	}
+
+	/**
+	 * Constructeur d'un stockage vide
+	 * @param capacity la capacité initiale (en nombre de messages). Les
+	 * colonnes sont agrandies au besoin lors des ajouts.
+	 */
+	public MessageStore(int capacity)
+	{
+		capacity = Math.max(capacity, 16);
+		sequences = new long[capacity];
+		timestamps = new long[capacity];
+		authors = new int[capacity];
+		contentStarts = new int[capacity];
+		contents = new char[capacity * DEFAULTCONTENTLENGTH];
+		contentsLength = 0;
+		size = 0;
+		authorNames = new ArrayList<String>();
+		authorIds = new HashMap<String, Integer>();
+		collator = Collator.getInstance();
+		clearContentKeys();
+		parallelThreshold = IndexSort.PARALLELTHRESHOLD;
+	}
+
+	/**
+	 * Changement de la langue utilisée pour trier les auteurs et les contenus
+	 * @param locale la langue dont on utilise l'ordre alphabétique ou bien
+	 * null pour trier suivant les valeurs des caractères
+	 */
+	public synchronized void setLocale(Locale locale)
+	{
+		collator = (locale != null ? Collator.getInstance(locale) : null);
+		clearContentKeys();
+	}
+
+	/**
+	 * Changement de la taille à partir de laquelle les permutations sont
+	 * triées (et les clés de collation calculées) en parallèle
+	 * @param threshold la nouvelle taille ({@link Integer#MAX_VALUE} pour
+	 * toujours trier séquentiellement)
+	 */
+	public synchronized void setParallelThreshold(int threshold)
+	{
+		parallelThreshold = Math.max(threshold, 2);
+	}
+
+	/**
+	 * Nombre de messages stockés
+	 * @return le nombre de messages stockés
+	 */
+	public synchronized int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Ajout d'un message à la fin du stockage
+	 * @param message le message à ajouter
+	 * @return l'index du message ajouté
+	 */
+	public int append(Message message)
+	{
+		return append(message.getSequence(),
+		              message.getTimestamp(),
+		              message.getContent(),
+		              message.getAuthor());
+	}
+
+	/**
+	 * Ajout d'un message à la fin du stockage
+	 * @param sequence le numéro de séquence du message
+	 * @param timestamp la date du message (en ms depuis l'epoch)
+	 * @param content le contenu du message
+	 * @param author l'auteur du message (ou null si le message n'a pas
+	 * d'auteur)
+	 * @return l'index du message ajouté
+	 */
+	public synchronized int append(long sequence,
+	                               long timestamp,
+	                               String content,
+	                               String author)
+	{
+		if (size == sequences.length)
+		{
+			int capacity = size + (size >> 1);
+			sequences = Arrays.copyOf(sequences, capacity);
+			timestamps = Arrays.copyOf(timestamps, capacity);
+			authors = Arrays.copyOf(authors, capacity);
+			contentStarts = Arrays.copyOf(contentStarts, capacity);
+		}
+
+		int length = (content != null ? content.length() : 0);
+		if ((contents.length - contentsLength) < length)
+		{
+			long needed = (long) contentsLength + length;
+			if (needed > Integer.MAX_VALUE - 8)
+			{
+				throw new IllegalStateException("MessageStore: content area full");
+			}
+			long capacity = Math.max(needed, contents.length + ((long) contents.length >> 1));
+			contents = Arrays.copyOf(contents,
+			                         (int) Math.min(capacity, Integer.MAX_VALUE - 8));
+		}
+
+		if (length > 0)
+		{
+			content.getChars(0, length, contents, contentsLength);
+		}
+
+		sequences[size] = sequence;
+		timestamps[size] = timestamp;
+		authors[size] = authorId(author, true);
+		contentStarts[size] = contentsLength;
+		contentsLength += length;
+		return size++;
+	}
+
+	/**
+	 * Identifiant d'un auteur dans le dictionnaire des auteurs
+	 * @param author le nom de l'auteur
+	 * @param create création d'un nouvel identifiant si l'auteur n'est pas
+	 * encore dans le dictionnaire
+	 * @return l'identifiant de l'auteur ou bien {@link #NO_AUTHOR} si l'auteur
+	 * est null ou absent du dictionnaire (et que create est faux)
+	 */
+	private int authorId(String author, boolean create)
+	{
+		if (author == null)
+		{
+			return NO_AUTHOR;
+		}
+		Integer id = authorIds.get(author);
+		if (id == null)
+		{
+			if (!create)
+			{
+				return NO_AUTHOR;
+			}
+			id = Integer.valueOf(authorNames.size());
+			authorNames.add(author);
+			authorIds.put(author, id);
+		}
+		return id.intValue();
+	}
+
+	/**
+	 * Numéro de séquence d'un message
+	 * @param index l'index du message
+	 * @return le numéro de séquence du message
+	 */
+	public synchronized long getSequence(int index)
+	{
+		checkIndex(index);
+		return sequences[index];
+	}
+
+	/**
+	 * Date d'un message
+	 * @param index l'index du message
+	 * @return la date du message (en ms depuis l'epoch)
+	 */
+	public synchronized long getTimestamp(int index)
+	{
+		checkIndex(index);
+		return timestamps[index];
+	}
+
+	/**
+	 * Auteur d'un message
+	 * @param index l'index du message
+	 * @return l'auteur du message ou bien null si le message n'a pas d'auteur
+	 */
+	public synchronized String getAuthor(int index)
+	{
+		checkIndex(index);
+		int id = authors[index];
+		return (id == NO_AUTHOR ? null : authorNames.get(id));
+	}
+
+	/**
+	 * Contenu d'un message
+	 * @param index l'index du message
+	 * @return une nouvelle chaîne contenant le contenu du message
+	 */
+	public synchronized String getContent(int index)
+	{
+		checkIndex(index);
+		int start = contentStarts[index];
+		return new String(contents, start, contentEnd(index) - start);
+	}
+
+	/**
+	 * Création du message stocké à un index donné
+	 * @param index l'index du message
+	 * @return un nouveau message contenant les attributs stockés
+	 */
+	public synchronized Message get(int index)
+	{
+		return new Message(getSequence(index),
+		                   getTimestamp(index),
+		                   getContent(index),
+		                   getAuthor(index));
+	}
+
+	/**
+	 * Suppression de tous les messages (le dictionnaire des auteurs est
+	 * conservé)
+	 */
+	public synchronized void clear()
+	{
+		/*
+		 * Les colonnes sont remplacées plutôt que réutilisées de manière à
+		 * ne pas modifier les données d'une vue (voir #view()) en cours
+		 * d'utilisation
+		 */
+		int capacity = Math.min(sequences.length, DEFAULTCAPACITY);
+		sequences = new long[capacity];
+		timestamps = new long[capacity];
+		authors = new int[capacity];
+		contentStarts = new int[capacity];
+		contents = new char[capacity * DEFAULTCONTENTLENGTH];
+		contentsLength = 0;
+		size = 0;
+		clearContentKeys();
+	}
+
+	/**
+	 * Suppression des messages de certains auteurs. Les messages sans auteur
+	 * sont conservés.
+	 * @param names les noms des auteurs dont on veut supprimer les messages
+	 * @return le nombre de messages supprimés
+	 */
+	public synchronized int removeAuthors(Collection<String> names)
+	{
+		boolean[] removed = authorMask(names);
+		if (removed == null)
+		{
+			return 0;
+		}
+
+		long[] newSequences = new long[sequences.length];
+		long[] newTimestamps = new long[timestamps.length];
+		int[] newAuthors = new int[authors.length];
+		int[] newContentStarts = new int[contentStarts.length];
+		char[] newContents = new char[contents.length];
+		int newSize = 0;
+		int newContentsLength = 0;
+
+		for (int i = 0; i < size; i++)
+		{
+			int id = authors[i];
+			if ((id != NO_AUTHOR) && removed[id])
+			{
+				continue;
+			}
+			int start = contentStarts[i];
+			int length = contentEnd(i) - start;
+			System.arraycopy(contents, start, newContents, newContentsLength, length);
+			newSequences[newSize] = sequences[i];
+			newTimestamps[newSize] = timestamps[i];
+			newAuthors[newSize] = id;
+			newContentStarts[newSize] = newContentsLength;
+			newContentsLength += length;
+			newSize++;
+		}
+
+		int count = size - newSize;
+		sequences = newSequences;
+		timestamps = newTimestamps;
+		authors = newAuthors;
+		contentStarts = newContentStarts;
+		contents = newContents;
+		contentsLength = newContentsLength;
+		size = newSize;
+		clearContentKeys();
+		return count;
+	}
+
+	/**
+	 * Suppression des clés de collation des contenus (lorsque les contenus
+	 * ou le collator changent). Les clés sont remplacées et non réutilisées
+	 * pour ne pas modifier celles d'une vue en cours d'utilisation
+	 */
+	private void clearContentKeys()
+	{
+		contentKeys = new byte[0];
+		contentKeyStarts = new int[0];
+		contentKeysLength = 0;
+		keyedSize = 0;
+	}
+
+	/**
+	 * Calcul des clés de collation des contenus des messages ajoutés depuis
+	 * le dernier calcul. Le calcul est effectué en parallèle (avec un
+	 * collator par thread, ceux ci n'étant pas thread safe) lorsque le nombre
+	 * de nouveaux messages dépasse {@link #parallelThreshold}.
+	 */
+	private void updateContentKeys()
+	{
+		int count = size - keyedSize;
+		if ((collator == null) || (count == 0))
+		{
+			return;
+		}
+
+		final int from = keyedSize;
+		final byte[][] keys = new byte[count][];
+		final Collator model = collator;
+		ThreadLocal<Collator> collators =
+		    ThreadLocal.withInitial(() -> (Collator) model.clone());
+		IntStream range = IntStream.range(0, count);
+		if (count >= parallelThreshold)
+		{
+			range = range.parallel();
+		}
+		range.forEach((int k) ->
+		{
+			int i = from + k;
+			String content = new String(contents,
+			                            contentStarts[i],
+			                            contentEnd(i) - contentStarts[i]);
+			keys[k] = collators.get().getCollationKey(content).toByteArray();
+		});
+
+		long needed = contentKeysLength;
+		for (byte[] key : keys)
+		{
+			needed += key.length;
+		}
+		if (needed > Integer.MAX_VALUE - 8)
+		{
+			throw new IllegalStateException("MessageStore: collation key area full");
+		}
+		if (needed > contentKeys.length)
+		{
+			contentKeys = Arrays.copyOf(contentKeys,
+			    (int) Math.min(Math.max(needed, contentKeys.length + ((long) contentKeys.length >> 1)),
+			                   Integer.MAX_VALUE - 8));
+		}
+		if (size > contentKeyStarts.length)
+		{
+			contentKeyStarts = Arrays.copyOf(contentKeyStarts, sequences.length);
+		}
+
+		for (int k = 0; k < count; k++)
+		{
+			byte[] key = keys[k];
+			contentKeyStarts[from + k] = contentKeysLength;
+			System.arraycopy(key, 0, contentKeys, contentKeysLength, key.length);
+			contentKeysLength += key.length;
+		}
+		keyedSize = size;
+	}
+
+	/**
+	 * Permutation triée de tous les messages
+	 * @param comparator le comparateur dont on utilise les critères de tri
+	 * @return les index des messages dans l'ordre défini par les critères du
+	 * comparateur
+	 */
+	public int[] sortPermutation(MessageComparator comparator)
+	{
+		return sortPermutation(comparator.getOrders(), null, null);
+	}
+
+	/**
+	 * Permutation triée des messages de certains auteurs
+	 * @param comparator le comparateur dont on utilise les critères de tri
+	 * @param names les auteurs dont on veut conserver les messages ou bien
+	 * null si l'on veut conserver tous les messages
+	 * @return les index des messages retenus dans l'ordre défini par les
+	 * critères du comparateur
+	 */
+	public int[] sortPermutation(MessageComparator comparator,
+	                             Collection<String> names)
+	{
+		return sortPermutation(comparator.getOrders(), names, null);
+	}
+
+	/**
+	 * Permutation triée d'une sélection de messages de certains auteurs
+	 * @param comparator le comparateur dont on utilise les critères de tri
+	 * @param names les auteurs dont on veut conserver les messages ou bien
+	 * null si l'on veut conserver tous les messages
+	 * @param selection les index des messages à conserver (obtenus par
+	 * exemple avec une recherche dans un {@link MessageSearchIndex}) ou bien
+	 * null si l'on veut conserver tous les messages
+	 * @return les index des messages retenus dans l'ordre défini par les
+	 * critères du comparateur
+	 */
+	public int[] sortPermutation(MessageComparator comparator,
+	                             Collection<String> names,
+	                             BitSet selection)
+	{
+		return sortPermutation(comparator.getOrders(), names, selection);
+	}
+
+	/**
+	 * Permutation triée d'une sélection de messages de certains auteurs. Le
+	 * filtrage est effectué avant le tri de manière à ne trier que les
+	 * messages retenus.
+	 * Comme avec un {@link MessageComparator} les doublons parmi les
+	 * critères sont ignorés et une liste vide correspond à l'ordre par date.
+	 * Le tri est stable : les messages égaux selon les critères restent dans
+	 * leur ordre d'arrivée.
+	 * @param orders les critères de tri dans leur ordre d'application
+	 * @param names les auteurs dont on veut conserver les messages ou bien
+	 * null si l'on veut conserver tous les messages
+	 * @param selection les index des messages à conserver ou bien null si
+	 * l'on veut conserver tous les messages
+	 * @return les index des messages retenus dans l'ordre défini par les
+	 * critères
+	 */
+	public int[] sortPermutation(List<MessageOrder> orders,
+	                             Collection<String> names,
+	                             BitSet selection)
+	{
+		View view = view(orders.contains(MessageOrder.CONTENT));
+		int[] indices = view.select(names, selection);
+		IndexComparator comparator = view.comparator(orders);
+		IndexSort.sort(indices, comparator, view.parallelThreshold);
+		return indices;
+	}
+
+	/**
+	 * Index des messages de certains auteurs
+	 * @param names les auteurs dont on veut conserver les messages
+	 * @return les index (dans l'ordre d'arrivée) des messages dont l'auteur
+	 * fait partie de names
+	 */
+	public int[] filterAuthors(Collection<String> names)
+	{
+		return view(false).select(names, null);
+	}
+
+	/**
+	 * Masque des identifiants d'auteurs
+	 * @param names des noms d'auteurs
+	 * @return un tableau indiquant pour chaque identifiant d'auteur si cet
+	 * auteur fait partie de names ou bien null si aucun des noms n'est
+	 * présent dans le dictionnaire
+	 */
+	private boolean[] authorMask(Collection<String> names)
+	{
+		boolean[] mask = new boolean[authorNames.size()];
+		boolean any = false;
+		for (String name : names)
+		{
+			int id = authorId(name, false);
+			if (id != NO_AUTHOR)
+			{
+				mask[id] = true;
+				any = true;
+			}
+		}
+		return (any ? mask : null);
+	}
+
+	/**
+	 * Index de fin (exclu) du contenu d'un message
+	 * @param index l'index du message
+	 * @return l'index de fin du contenu du message dans {@link #contents}
+	 */
+	private int contentEnd(int index)
+	{
+		return (index + 1 < size ? contentStarts[index + 1] : contentsLength);
+	}
+
+	/**
+	 * Vérification d'un index de message
+	 * @param index l'index à vérifier
+	 * @throws IndexOutOfBoundsException si l'index n'est pas celui d'un
+	 * message stocké
+	 */
+	private void checkIndex(int index) throws IndexOutOfBoundsException
+	{
+		if ((index < 0) || (index >= size))
+		{
+			throw new IndexOutOfBoundsException("MessageStore: index " + index
+			    + " out of bounds [0.." + size + "[");
+		}
+	}
+
+	/**
+	 * Création d'une vue sur l'état courant des colonnes
+	 * @param keyed calcul préalable des clés de collation des contenus (pour
+	 * trier les messages par contenu)
+	 * @return une vue sur les messages actuellement stockés
+	 */
+	private synchronized View view(boolean keyed)
+	{
+		if (keyed)
+		{
+			updateContentKeys();
+		}
+
+		// rang de chaque auteur dans l'ordre alphabétique des auteurs
+		String[] names = authorNames.toArray(new String[authorNames.size()]);
+		Integer[] order = new Integer[names.length];
+		for (int i = 0; i < order.length; i++)
+		{
+			order[i] = Integer.valueOf(i);
+		}
+		if (collator != null)
+		{
+			Collator namesCollator = (Collator) collator.clone();
+			Arrays.sort(order, (i1, i2) ->
+			{
+				int compare = namesCollator.compare(names[i1], names[i2]);
+				return (compare != 0 ? compare : names[i1].compareTo(names[i2]));
+			});
+		}
+		else
+		{
+			Arrays.sort(order, (i1, i2) -> names[i1].compareTo(names[i2]));
+		}
+		int[] ranks = new int[names.length];
+		for (int i = 0; i < order.length; i++)
+		{
+			ranks[order[i].intValue()] = i;
+		}
+
+		return new View(size,
+		                timestamps,
+		                authors,
+		                contentStarts,
+		                contents,
+		                contentsLength,
+		                (keyed && (collator != null) ? contentKeys : null),
+		                contentKeyStarts,
+		                contentKeysLength,
+		                ranks,
+		                new HashMap<String, Integer>(authorIds),
+		                parallelThreshold);
+	}
+
+	/**
+	 * Vue sur l'état des colonnes à un instant donné.
+	 * Les ajouts n'écrivent qu'au delà de {@link #size} et les suppressions
+	 * remplacent les colonnes : les données d'une vue ne sont donc jamais
+	 * modifiées et elle peut être triée sans conserver le verrou du stockage
+	 * (ce qui n'empêche pas la réception de nouveaux messages pendant un tri)
+	 */
+	private static class View
+	{
+		private final int size;
+		private final long[] timestamps;
+		private final int[] authors;
+		private final int[] contentStarts;
+		private final char[] contents;
+		private final int contentsLength;
+		private final byte[] contentKeys;
+		private final int[] contentKeyStarts;
+		private final int contentKeysLength;
+		private final int[] authorRanks;
+		private final Map<String, Integer> authorIds;
+		private final int parallelThreshold;
+
+		View(int size,
+		     long[] timestamps,
+		     int[] authors,
+		     int[] contentStarts,
+		     char[] contents,
+		     int contentsLength,
+		     byte[] contentKeys,
+		     int[] contentKeyStarts,
+		     int contentKeysLength,
+		     int[] authorRanks,
+		     Map<String, Integer> authorIds,
+		     int parallelThreshold)
+		{
+			this.size = size;
+			this.timestamps = timestamps;
+			this.authors = authors;
+			this.contentStarts = contentStarts;
+			this.contents = contents;
+			this.contentsLength = contentsLength;
+			this.contentKeys = contentKeys;
+			this.contentKeyStarts = contentKeyStarts;
+			this.contentKeysLength = contentKeysLength;
+			this.authorRanks = authorRanks;
+			this.authorIds = authorIds;
+			this.parallelThreshold = parallelThreshold;
+		}
+
+		/**
+		 * Index d'une sélection de messages de certains auteurs
+		 * @param names les auteurs dont on veut conserver les messages ou
+		 * bien null pour conserver les messages de tous les auteurs
+		 * @param selection les index des messages à conserver ou bien null
+		 * pour conserver tous les messages
+		 * @return les index des messages retenus dans l'ordre d'arrivée
+		 */
+		int[] select(Collection<String> names, BitSet selection)
+		{
+			boolean[] mask = null;
+			if (names != null)
+			{
+				mask = new boolean[authorRanks.length];
+				for (String name : names)
+				{
+					Integer id = (name != null ? authorIds.get(name) : null);
+					if (id != null)
+					{
+						mask[id.intValue()] = true;
+					}
+				}
+			}
+
+			int[] indices = new int[size];
+			int count = 0;
+			int i = (selection != null ? selection.nextSetBit(0) : 0);
+			while ((i >= 0) && (i < size))
+			{
+				int id = authors[i];
+				if ((mask == null) || ((id != NO_AUTHOR) && mask[id]))
+				{
+					indices[count++] = i;
+				}
+				i = (selection != null ? selection.nextSetBit(i + 1) : i + 1);
+			}
+			return (count == size ? indices : Arrays.copyOf(indices, count));
+		}
+
+		/**
+		 * Comparateur d'index composé à partir de critères de tri
+		 * @param orders les critères de tri dans leur ordre d'application
+		 * @return un comparateur d'index appliquant successivement les
+		 * critères
+		 */
+		IndexComparator comparator(List<MessageOrder> orders)
+		{
+			List<IndexComparator> chain = new ArrayList<IndexComparator>();
+			List<MessageOrder> unique = new ArrayList<MessageOrder>();
+			for (MessageOrder order : orders)
+			{
+				if ((order != null) && !unique.contains(order))
+				{
+					unique.add(order);
+					chain.add(comparator(order));
+				}
+			}
+
+			if (chain.isEmpty())
+			{
+				return comparator(MessageOrder.DATE);
+			}
+			if (chain.size() == 1)
+			{
+				return chain.get(0);
+			}
+
+			IndexComparator[] comparators =
+			    chain.toArray(new IndexComparator[chain.size()]);
+			return (int i, int j) ->
+			{
+				int compare = 0;
+				for (IndexComparator comparator : comparators)
+				{
+					compare = comparator.compare(i, j);
+					if (compare != 0)
+					{
+						break;
+					}
+				}
+				return compare;
+			};
+		}
+
+		/**
+		 * Comparateur d'index pour un critère de tri
+		 * @param order le critère de tri
+		 * @return un comparateur d'index correspondant au critère
+		 */
+		private IndexComparator comparator(MessageOrder order)
+		{
+			switch (order)
+			{
+				case AUTHOR:
+					// les messages sans auteur en premier
+					return (int i, int j) ->
+						Integer.compare(rank(authors[i]), rank(authors[j]));
+				case CONTENT:
+					if (contentKeys != null)
+					{
+						return (int i, int j) -> compareContentKeys(i, j);
+					}
+					return (int i, int j) -> compareContents(i, j);
+				case DATE:
+				default:
+					return (int i, int j) ->
+						Long.compare(timestamps[i], timestamps[j]);
+			}
+		}
+
+		/**
+		 * Rang d'un auteur dans l'ordre alphabétique des auteurs
+		 * @param id l'identifiant de l'auteur
+		 * @return le rang de l'auteur ou -1 pour les messages sans auteur
+		 */
+		private int rank(int id)
+		{
+			return (id == NO_AUTHOR ? -1 : authorRanks[id]);
+		}
+
+		/**
+		 * Comparaison lexicographique des contenus de deux messages
+		 * directement dans la zone des contenus (même résultat que
+		 * {@link String#compareTo(String)})
+		 * @param i l'index du premier message
+		 * @param j l'index du second message
+		 * @return une valeur négative, nulle ou positive si le contenu du
+		 * message i est inférieur, égal ou supérieur à celui du message j
+		 */
+		private int compareContents(int i, int j)
+		{
+			int start1 = contentStarts[i];
+			int start2 = contentStarts[j];
+			int length1 = end(i) - start1;
+			int length2 = end(j) - start2;
+			int length = Math.min(length1, length2);
+			for (int k = 0; k < length; k++)
+			{
+				char c1 = contents[start1 + k];
+				char c2 = contents[start2 + k];
+				if (c1 != c2)
+				{
+					return c1 - c2;
+				}
+			}
+			return length1 - length2;
+		}
+
+		/**
+		 * Comparaison des clés de collation des contenus de deux messages
+		 * (octets non signés dans l'ordre lexicographique)
+		 * @param i l'index du premier message
+		 * @param j l'index du second message
+		 * @return une valeur négative, nulle ou positive si le contenu du
+		 * message i est avant, équivalent ou après celui du message j dans
+		 * l'ordre alphabétique
+		 */
+		private int compareContentKeys(int i, int j)
+		{
+			int start1 = contentKeyStarts[i];
+			int start2 = contentKeyStarts[j];
+			int end1 = (i + 1 < size ? contentKeyStarts[i + 1] : contentKeysLength);
+			int end2 = (j + 1 < size ? contentKeyStarts[j + 1] : contentKeysLength);
+			return Arrays.compareUnsigned(contentKeys, start1, end1,
+			                              contentKeys, start2, end2);
+		}
+
+		/**
+		 * Index de fin (exclu) du contenu d'un message
+		 * @param index l'index du message
+		 * @return l'index de fin du contenu du message
+		 */
+		private int end(int index)
+		{
+			return (index + 1 < size ? contentStarts[index + 1] : contentsLength);
+		}
+	}
+}
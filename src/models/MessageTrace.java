@@ -0,0 +1,141 @@
+package models;
+
+import java.time.Instant;
+
+/**
+ * Message accompagné des dates de son passage par chacune des étapes de sa
+ * diffusion, envoyé par le serveur aux clients qui le demandent lors de leur
+ * connexion :
+ * <ol>
+ * 	<li>l'envoi de la ligne par le client auteur du message</li>
+ * 	<li>la réception de cette ligne par le serveur</li>
+ * 	<li>l'écriture du message vers le client destinataire</li>
+ * 	<li>la réception du message par le client destinataire</li>
+ * </ol>
+ * Les dates sont des nombres de microsecondes depuis l'epoch (voir
+ * {@link #now()}), 0 lorsque l'étape n'a pas été datée (par exemple lorsque
+ * l'auteur du message n'a pas demandé le traçage). Les dates provenant de
+ * machines différentes ne sont comparables que si leurs horloges sont
+ * synchronisées.
+ * @author davidroussel
+ */
+public class MessageTrace
+{
+	/**
+	 * Le message tracé
+	 */
+	private final Message message;
+
+	/**
+	 * Date d'envoi de la ligne par le client auteur du message
+	 */
+	private final long clientSent;
+
+	/**
+	 * Date de réception de la ligne par le serveur
+	 */
+	private final long serverReceived;
+
+	/**
+	 * Date d'écriture du message vers le client destinataire
+	 */
+	private final long serverSent;
+
+	/**
+	 * Date de réception du message par le client destinataire
+	 */
+	private final long clientReceived;
+
+	/**
+	 * Constructeur d'un message tracé
+	 * @param message le message
+	 * @param clientSent date d'envoi par le client auteur (ou 0)
+	 * @param serverReceived date de réception par le serveur (ou 0)
+	 * @param serverSent date d'écriture vers le client destinataire (ou 0)
+	 * @param clientReceived date de réception par le client destinataire
+	 * (ou 0)
+	 */
+	public MessageTrace(Message message,
+	                    long clientSent,
+	                    long serverReceived,
+	                    long serverSent,
+	                    long clientReceived)
+	{
+		this.message = message;
+		this.clientSent = clientSent;
+		this.serverReceived = serverReceived;
+		this.serverSent = serverSent;
+		this.clientReceived = clientReceived;
+	}
+
+	/**
+	 * Date courante utilisée pour tracer les messages
+	 * @return le nombre de microsecondes depuis l'epoch
+	 */
+	public static long now()
+	{
+		Instant now = Instant.now();
+		return (now.getEpochSecond() * 1000000L) + (now.getNano() / 1000);
+	}
+
+	/**
+	 * Copie du message tracé datée de sa réception par le client
+	 * destinataire
+	 * @param time la date de réception
+	 * @return un nouveau message tracé
+	 */
+	public MessageTrace receivedAt(long time)
+	{
+		return new MessageTrace(message,
+		                        clientSent,
+		                        serverReceived,
+		                        serverSent,
+		                        time);
+	}
+
+	/**
+	 * Accesseur en lecture du message tracé
+	 * @return le message
+	 */
+	public Message getMessage()
+	{
+		return message;
+	}
+
+	/**
+	 * Accesseur en lecture de la date d'envoi par le client auteur
+	 * @return la date d'envoi (en µs) ou bien 0
+	 */
+	public long getClientSent()
+	{
+		return clientSent;
+	}
+
+	/**
+	 * Accesseur en lecture de la date de réception par le serveur
+	 * @return la date de réception (en µs) ou bien 0
+	 */
+	public long getServerReceived()
+	{
+		return serverReceived;
+	}
+
+	/**
+	 * Accesseur en lecture de la date d'écriture vers le client destinataire
+	 * @return la date d'écriture (en µs) ou bien 0
+	 */
+	public long getServerSent()
+	{
+		return serverSent;
+	}
+
+	/**
+	 * Accesseur en lecture de la date de réception par le client
+	 * destinataire
+	 * @return la date de réception (en µs) ou bien 0
+	 */
+	public long getClientReceived()
+	{
+		return clientReceived;
+	}
+}
@@ -0,0 +1,108 @@
+package models;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Formatteur de dates thread safe utilisé pour afficher la date des messages.
+ * Contrairement à un {@link java.text.SimpleDateFormat} partagé, ce formatteur
+ * peut être utilisé simultanément par les threads des handlers du serveur, le
+ * moteur d'un client et les threads de l'interface graphique.
+ * Comme le motif d'affichage ne contient pas de champ plus fin que la
+ * seconde, la dernière seconde formattée est conservée : lors d'une rafale de
+ * messages la date n'est donc formattée qu'une seule fois par seconde.
+ * @author davidroussel
+ */
+public class TimestampFormatter
+{
+	/**
+	 * Motif d'affichage par défaut des dates des messages
+	 */
+	public final static String DEFAULTPATTERN = "yyyy/MM/dd HH:mm:ss";
+
+	/**
+	 * Une seconde déjà formattée. Immuable afin de pouvoir être publiée
+	 * entre threads sans verrou à travers {@link TimestampFormatter#cache}
+	 */
+	private static class FormattedSecond
+	{
+		/**
+		 * La seconde (depuis l'epoch)
+		 */
+		final long second;
+
+		/**
+		 * Le texte correspondant à cette seconde
+		 */
+		final String text;
+
+		FormattedSecond(long second, String text)
+		{
+			this.second = second;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * Le formatteur (thread safe) utilisé lorsque la seconde n'est pas celle
+	 * du {@link #cache}
+	 */
+	private final DateTimeFormatter formatter;
+
+	/**
+	 * La dernière seconde formattée
+	 */
+	private volatile FormattedSecond cache;
+
+	/**
+	 * Constructeur d'un formatteur utilisant le fuseau horaire par défaut
+	 * @param pattern le motif d'affichage (voir {@link DateTimeFormatter}) qui
+	 * ne doit pas contenir de champ plus fin que la seconde
+	 */
+	public TimestampFormatter(String pattern)
+	{
+		this(pattern, ZoneId.systemDefault());
+	}
+
+	/**
+	 * Constructeur d'un formatteur
+	 * @param pattern le motif d'affichage (voir {@link DateTimeFormatter}) qui
+	 * ne doit pas contenir de champ plus fin que la seconde
+	 * @param zone le fuseau horaire utilisé pour l'affichage
+	 */
+	public TimestampFormatter(String pattern, ZoneId zone)
+	{
+		formatter = DateTimeFormatter.ofPattern(pattern).withZone(zone);
+		cache = new FormattedSecond(Long.MIN_VALUE, null);
+	}
+
+	/**
+	 * Formattage d'une date
+	 * @param timestamp la date en ms depuis l'epoch
+	 * @return le texte correspondant à la date
+	 */
+	public String format(long timestamp)
+	{
+		long second = Math.floorDiv(timestamp, 1000L);
+		FormattedSecond current = cache;
+		if (current.second != second)
+		{
+			current = new FormattedSecond(
+			    second, formatter.format(Instant.ofEpochSecond(second)));
+			cache = current;
+		}
+		return current.text;
+	}
+
+	/**
+	 * Ajout du texte d'une date à la fin d'un StringBuilder
+	 * @param sb le StringBuilder dans lequel écrire
+	 * @param timestamp la date en ms depuis l'epoch
+	 * @return le StringBuilder sb
+	 */
+	public StringBuilder appendTo(StringBuilder sb, long timestamp)
+	{
+		return sb.append(format(timestamp));
+	}
+}
@@ -9,6 +9,22 @@ package models;
  * <li>{@link models.NameSetListModel} une classe représentant des noms
  * d'utilisateurs uniques et toujours triés dans une liste d'utilisateurs (par
  * exemple une {@link javax.swing.JList})</li>
+ * <li>{@link models.MessageComparator} un comparateur de messages immuable
+ * construit à partir d'une liste de critères de tri propre à chaque vue</li>
+ * <li>{@link models.MessageStore} un stockage en colonnes d'un grand nombre
+ * de messages permettant de les trier et de les filtrer par auteurs sans
+ * créer d'objets {@link models.Message}</li>
+ * <li>{@link models.MessageArchive} une archive de messages dans un fichier
+ * local (enregistrements binaires compacts et index des positions) dont on
+ * peut relire n'importe quelle page de messages</li>
+ * <li>{@link models.MessagePage} une page de l'historique des messages
+ * diffusés par le serveur, envoyée à la demande d'un client</li>
+ * <li>{@link models.MessageTrace} un message accompagné des dates de son
+ * passage par chacune des étapes de sa diffusion (traçage des latences)</li>
+ * <li>{@link models.MessageSearchIndex} un index de recherche incrémental
+ * des mots contenus dans les messages d'un {@link models.MessageStore}</li>
+ * <li>{@link models.TimestampFormatter} un formatteur de dates thread safe
+ * utilisé pour afficher la date des messages</li>
  * <li> {@link models.AuthorListFilter} une classe permettant de filtrer
  * un flux de messages en vérifiant si un message particulier contient un
  * auteur qui fait partie de la liste des auteurs référencés dans ce filtre</li>
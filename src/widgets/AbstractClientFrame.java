@@ -2,11 +2,10 @@ package widgets;
 
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.EventQueue;
 import java.awt.HeadlessException;
 import java.io.IOException;
 import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
-import java.io.PrintWriter;
 import java.util.Map;
 import java.util.Random;
 import java.util.TreeMap;
@@ -14,11 +13,16 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.swing.JFrame;
+import javax.swing.JTextField;
 import javax.swing.JTextPane;
+import javax.swing.JViewport;
 import javax.swing.text.Style;
 import javax.swing.text.StyledDocument;
 
+import chat.Vocabulary;
+import chat.client.OutboundQueue;
 import logger.LoggerFactory;
+import models.Message;
 
 public abstract class AbstractClientFrame extends JFrame implements Runnable
 {
@@ -34,15 +38,11 @@ public abstract class AbstractClientFrame extends JFrame implements Runnable
 	protected final PipedInputStream inPipe;
 
 	/**
-	 * Ecrivain vers le flux de sortie Ecrit le contenu du {@link #txtFieldSend}
-	 * dans le {@link #outPipe}
+	 * File des messages à envoyer au serveur : le thread de l'interface
+	 * graphique ne fait qu'y ajouter les messages, qui sont envoyés par le
+	 * côté réseau du client
 	 */
-	protected final PrintWriter outPW;
-
-	/**
-	 * Flux de sortie pour envoyer le contenu du message
-	 */
-	protected final PipedOutputStream outPipe;
+	protected final OutboundQueue outbound;
 
 	/**
 	 * Logger pour afficher les messages ou les rediriger dans un fichier de log
@@ -72,6 +72,54 @@ public abstract class AbstractClientFrame extends JFrame implements Runnable
 	 */
 	protected Map<String, Color> colorMap;
 
+	/**
+	 * Couleur de la zone de saisie lorsque des messages sont en attente
+	 * d'envoi
+	 */
+	protected final static Color PENDINGCOLOR = new Color(255, 250, 205);
+
+	/**
+	 * Couleur de la zone de saisie lorsque des messages n'ont pu être envoyés
+	 */
+	protected final static Color FAILEDCOLOR = new Color(255, 205, 205);
+
+	/**
+	 * Nombre minimum de messages d'une page d'historique demandée au serveur
+	 */
+	protected final static int MINHISTORYPAGE = 20;
+
+	/**
+	 * Délai (en ms) au delà duquel une demande de page d'historique restée
+	 * sans réponse (lors d'une reconnexion par exemple) peut être renouvelée
+	 */
+	protected final static long HISTORYTIMEOUT = 5000;
+
+	/**
+	 * Verrou protégeant l'état des demandes de pages d'historique (modifié
+	 * par le thread de lecture des messages et par celui de l'interface)
+	 */
+	private final Object historyLock = new Object();
+
+	/**
+	 * Numéro de séquence du plus ancien message reçu dans une page
+	 * d'historique ({@link Message#NO_SEQUENCE} tant qu'aucune page n'a été
+	 * reçue : la première page précède alors les messages reçus depuis la
+	 * connexion)
+	 */
+	private long historyBefore;
+
+	/**
+	 * Indique si le serveur dispose de messages plus anciens que ceux des
+	 * pages déjà reçues
+	 */
+	private boolean historyMore;
+
+	/**
+	 * Date de la demande de page d'historique en cours (ou 0 s'il n'y en a
+	 * pas)
+	 */
+	private long historyRequestTime;
+
 	/**
 	 * Constructeur [protégé] de la fenêtre de chat abstraite
 	 * @param name le nom de l'utilisateur
@@ -113,17 +161,8 @@ public abstract class AbstractClientFrame extends JFrame implements Runnable
 		inPipe = new PipedInputStream();
 		logger.info("AbstractClientFrame : PipedInputStream Created");
 
-		outPipe = new PipedOutputStream();
-		logger.info("AbstractClientFrame : PipedOutputStream Created");
-		outPW = new PrintWriter(outPipe, true);
-		if (outPW.checkError())
-		{
-			logger.warning("ClientFrame: Output PrintWriter has errors");
-		}
-		else
-		{
-			logger.info("AbstractClientFrame : Printwriter to PipedOutputStream Created");
-		}
+		outbound = new OutboundQueue();
+		logger.info("AbstractClientFrame : OutboundQueue Created");
 
 		// --------------------------------------------------------------------
 		// Window setup
@@ -140,31 +179,153 @@ public abstract class AbstractClientFrame extends JFrame implements Runnable
 		documentStyle = null;
 		defaultColor = Color.BLACK;
 		colorMap = new TreeMap<String, Color>();
+
+		historyBefore = Message.NO_SEQUENCE;
+		historyMore = true;
+		historyRequestTime = 0;
 	}
 
 	/**
-	 * Envoi d'un message. Envoi d'un message dans le {@link #outPipe} (si celui
-	 * ci est non null) en utilisant le {@link #outPW}
+	 * Envoi d'un message. Ajout du message (si celui ci est non null) à la
+	 * file {@link #outbound} sans attendre son envoi au serveur
 	 * @param le message à envoyer
+	 * @return true si le message a été ajouté à la file, false si la file
+	 * est pleine ou fermée
 	 */
-	protected void sendMessage(String message)
+	protected boolean sendMessage(String message)
 	{
 		logger.info("ClientFrame::sendMessage writing out: "
 		    + (message == null ? "NULL" : message));
-		/*
-		 * DONE envoi du message dans le outPW et vérification du statut
-		 * d'erreur du #outPW (si c'est le cas on ajoute un warning au logger).
-		 */
-		if (message != null)
+		if (message == null)
+		{
+			return false;
+		}
+		if (!outbound.offer(message))
+		{
+			logger.warning("ClientFrame::sendMessage: outbound queue full or closed");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Suivi de l'état des envois dans la zone de saisie des messages : la
+	 * zone change de couleur (et d'info-bulle) lorsque des messages sont en
+	 * attente d'envoi ou n'ont pu être envoyés
+	 * @param sendField la zone de saisie des messages
+	 */
+	protected void trackOutbound(final JTextField sendField)
+	{
+		final Color normal = sendField.getBackground();
+		outbound.addListener((int pending, int failed) ->
+		{
+			EventQueue.invokeLater(() ->
+			{
+				if (failed > 0)
+				{
+					sendField.setBackground(FAILEDCOLOR);
+					sendField.setToolTipText(failed + " message(s) not sent");
+				}
+				else if (pending > 0)
+				{
+					sendField.setBackground(PENDINGCOLOR);
+					sendField.setToolTipText(pending + " message(s) pending");
+				}
+				else
+				{
+					sendField.setBackground(normal);
+					sendField.setToolTipText(null);
+				}
+			});
+		});
+	}
+
+	/**
+	 * Demande au serveur de la page d'historique précédant les messages déjà
+	 * reçus (s'il en dispose et si aucune demande n'est déjà en cours)
+	 * @param count le nombre de messages de la page
+	 * @return true si la page a été demandée ou est déjà en cours de
+	 * demande, false si le serveur ne dispose pas de messages plus anciens
+	 */
+	protected boolean requestHistory(int count)
+	{
+		String request;
+		synchronized (historyLock)
+		{
+			if (!historyMore)
+			{
+				return false;
+			}
+			long now = System.currentTimeMillis();
+			if ((historyRequestTime != 0)
+			    && ((now - historyRequestTime) < HISTORYTIMEOUT))
+			{
+				return true;
+			}
+			historyRequestTime = now;
+			request = Vocabulary.historyCmd + " " + count
+			    + (historyBefore != Message.NO_SEQUENCE ?
+			       " " + historyBefore : "");
+		}
+		sendMessage(request);
+		return true;
+	}
+
+	/**
+	 * Prise en compte de la réception d'une page d'historique : la prochaine
+	 * page demandée précédera celle ci
+	 * @param firstSequence le numéro de séquence du plus ancien message de
+	 * la page (ou {@link Message#NO_SEQUENCE} si elle est vide)
+	 * @param more true si le serveur dispose de messages plus anciens
+	 */
+	protected void historyReceived(long firstSequence, boolean more)
+	{
+		synchronized (historyLock)
+		{
+			if (firstSequence != Message.NO_SEQUENCE)
+			{
+				historyBefore = firstSequence;
+			}
+			historyMore = more && (firstSequence != Message.NO_SEQUENCE);
+			historyRequestTime = 0;
+		}
+	}
+
+	/**
+	 * Initialisation du plus ancien message connu (lorsque des messages
+	 * ont été conservés lors d'une exécution précédente par exemple) : les
+	 * pages d'historique demandées précéderont ce message
+	 * @param sequence le numéro de séquence du plus ancien message connu
+	 */
+	protected void setHistoryBefore(long sequence)
+	{
+		synchronized (historyLock)
 		{
-			outPW.println(message);
-			if (outPW.checkError())
+			if (sequence != Message.NO_SEQUENCE)
 			{
-				logger.warning("ClientFrame::sendMessage: error writing");
+				historyBefore = sequence;
 			}
 		}
 	}
 
+	/**
+	 * Nombre de messages d'une page d'historique : autant que de lignes
+	 * visibles dans la zone d'affichage des messages
+	 * @param textPane la zone d'affichage des messages
+	 * @return le nombre de messages d'une page d'historique (au moins
+	 * {@link #MINHISTORYPAGE})
+	 */
+	protected int historyPageSize(JTextPane textPane)
+	{
+		int height = textPane.getVisibleRect().height;
+		if (textPane.getParent() instanceof JViewport)
+		{
+			height = ((JViewport) textPane.getParent()).getExtentSize().height;
+		}
+		int lineHeight = textPane.getFontMetrics(textPane.getFont()).getHeight();
+		return Math.max(height / Math.max(lineHeight, 1), MINHISTORYPAGE);
+	}
+
 	/**
 	 * Couleur d'un texte d'après le contenu du texte.
 	 * @param name le texte
@@ -202,7 +363,7 @@ public abstract class AbstractClientFrame extends JFrame implements Runnable
 
 	/**
 	 * Accesseur en lecture de l' {@link #inPipe} pour y connecter un
-	 * {@link PipedOutputStream}
+	 * {@link java.io.PipedOutputStream}
 	 * @return l'inPipe sur lequel on lit
 	 */
 	public PipedInputStream getInPipe()
@@ -211,13 +372,13 @@ public abstract class AbstractClientFrame extends JFrame implements Runnable
 	}
 
 	/**
-	 * Accesseur en lecture de l' {@link #outPipe} pour y connecter un
-	 * {@link PipedInputStream}
-	 * @return l'outPipe sur lequel on écrit
+	 * Accesseur en lecture de la file {@link #outbound} des messages à
+	 * envoyer, à vider par le côté réseau du client
+	 * @return la file des messages à envoyer
 	 */
-	public PipedOutputStream getOutPipe()
+	public OutboundQueue getOutbound()
 	{
-		return outPipe;
+		return outbound;
 	}
 
 	/**
@@ -228,19 +389,8 @@ public abstract class AbstractClientFrame extends JFrame implements Runnable
 		logger.info("ClientFrame::cleanup: closing window ... ");
 		dispose();
 
-		logger.info("ClientFrame::cleanup: closing output print writer ... ");
-		outPW.close();
-
-		logger.info("ClientFrame::cleanup: closing output stream ... ");
-		try
-		{
-			outPipe.close();
-		}
-		catch (IOException e)
-		{
-			logger.warning("ClientFrame::cleanup: failed to close output stream"
-				+ e.getLocalizedMessage());
-		}
+		logger.info("ClientFrame::cleanup: closing outbound queue ... ");
+		outbound.close();
 
 		logger.info("ClientFrame::cleanup: closing input stream ... ");
 		try
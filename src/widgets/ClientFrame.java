@@ -7,11 +7,16 @@ import java.awt.HeadlessException;
 import java.awt.event.ActionEvent;
 import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
 
 import javax.swing.AbstractAction;
@@ -24,6 +29,7 @@ import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JPanel;
+import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
 import javax.swing.JSeparator;
 import javax.swing.JTextField;
@@ -35,6 +41,7 @@ import javax.swing.text.DefaultCaret;
 import javax.swing.text.StyleConstants;
 
 import chat.Vocabulary;
+import models.MessagePage;
 
 /**
  * Fenêtre d'affichage de la version GUI texte du client de chat.
@@ -78,6 +85,56 @@ public class ClientFrame extends AbstractClientFrame
 	 */
 	protected final JFrame thisRef;
 
+	/**
+	 * La zone d'affichage des messages
+	 */
+	private final JTextPane textPane;
+
+	/**
+	 * Verrou protégeant les pages d'historique en attente d'affichage
+	 */
+	private final Object pageLock = new Object();
+
+	/**
+	 * Indique si la prochaine page d'historique reçue doit être affichée
+	 * dès sa réception (l'utilisateur attend en haut des messages) ou bien
+	 * conservée dans {@link #prefetchedPage}
+	 */
+	private boolean historyWanted;
+
+	/**
+	 * Page d'historique reçue par avance et affichée lorsque l'utilisateur
+	 * fait défiler les messages jusqu'en haut (ou null)
+	 */
+	private List<String> prefetchedPage;
+
+	/**
+	 * Lignes de la page d'historique en cours de réception (ou null)
+	 */
+	private List<String> incomingPage;
+
+	/**
+	 * Nombre de lignes de la page d'historique en cours de réception
+	 */
+	private int incomingCount;
+
+	/**
+	 * Numéro de séquence du premier message de la page d'historique en cours
+	 * de réception
+	 */
+	private long incomingFirst;
+
+	/**
+	 * Indique si des messages plus anciens que ceux de la page d'historique
+	 * en cours de réception sont disponibles
+	 */
+	private boolean incomingMore;
+
+	/**
+	 * Indique si une page d'historique a déjà été affichée
+	 */
+	private boolean historyShown;
+
 	/**
 	 * Constructeur de la fenêtre
 	 * @param name le nom de l'utilisateur
@@ -112,6 +169,12 @@ public class ClientFrame extends AbstractClientFrame
 		clearAction = new ClearAction();
 		quitAction = new QuitAction();
 
+		// la première page d'historique est affichée dès sa réception
+		historyWanted = true;
+		historyShown = false;
+		prefetchedPage = null;
+		incomingPage = null;
+
 
 		/*
 		 * Ajout d'un listener pour fermer correctement l'application lorsque
@@ -146,6 +209,7 @@ public class ClientFrame extends AbstractClientFrame
 		sendTextField.setAction(sendAction);
 		sendPanel.add(sendTextField);
 		sendTextField.setColumns(10);
+		trackOutbound(sendTextField);
 
 		JButton sendButton = new JButton(sendAction);
 		sendPanel.add(sendButton, BorderLayout.EAST);
@@ -153,7 +217,7 @@ public class ClientFrame extends AbstractClientFrame
 		JScrollPane scrollPane = new JScrollPane();
 		getContentPane().add(scrollPane, BorderLayout.CENTER);
 
-		JTextPane textPane = new JTextPane();
+		textPane = new JTextPane();
 		textPane.setEditable(false);
 		// autoscroll textPane to bottom
 		DefaultCaret caret = (DefaultCaret) textPane.getCaret();
@@ -161,6 +225,27 @@ public class ClientFrame extends AbstractClientFrame
 
 		scrollPane.setViewportView(textPane);
 
+		/*
+		 * Affichage d'une page d'historique plus ancienne lorsque
+		 * l'utilisateur fait défiler les messages jusqu'en haut (à la molette
+		 * ou en déplaçant la barre de défilement), et reprise du défilement
+		 * automatique lorsqu'il revient en bas des messages
+		 */
+		JScrollBar scrollBar = scrollPane.getVerticalScrollBar();
+		scrollPane.addMouseWheelListener((MouseWheelEvent evt) ->
+		{
+			scrolled(scrollBar, evt.getWheelRotation() < 0);
+		});
+		scrollBar.addMouseListener(new MouseAdapter()
+		{
+			@Override
+			public void mouseReleased(MouseEvent evt)
+			{
+				scrolled(scrollBar,
+				         scrollBar.getValue() <= scrollBar.getMinimum());
+			}
+		});
+
 		JMenuBar menuBar = new JMenuBar();
 		setJMenuBar(menuBar);
 
@@ -211,6 +296,20 @@ public class ClientFrame extends AbstractClientFrame
 	 * javax.swing.text.AttributeSet)
 	 */
 	protected void writeMessage(String message) throws BadLocationException
+	{
+		insertMessage(document.getLength(), message);
+	}
+
+	/**
+	 * Insertion d'un message à une position du {@link #document} (voir
+	 * {@link #writeMessage(String)})
+	 * @param offset la position d'insertion dans le document
+	 * @param message le message à insérer
+	 * @return le nombre de caractères insérés
+	 * @throws BadLocationException si l'écriture dans le document échoue
+	 */
+	protected int insertMessage(int offset, String message)
+	    throws BadLocationException
 	{
 		/*
 		 * ajout du message "[yyyy/MM/dd HH:mm:ss] utilisateur > message" à
@@ -233,13 +332,158 @@ public class ClientFrame extends AbstractClientFrame
 			                             getColorFromName(source));
 		}
 
-		document.insertString(document.getLength(),
+		document.insertString(offset,
 		                      sb.toString(),
 		                      documentStyle);
 
 		// Retour à la couleur de texte par défaut
 		StyleConstants.setForeground(documentStyle, defaultColor);
 
+		return sb.length();
+	}
+
+	/**
+	 * Réaction à un défilement des messages par l'utilisateur : en haut des
+	 * messages, la page d'historique reçue par avance est affichée (ou
+	 * demandée au serveur) et la page suivante est demandée par avance ; en
+	 * bas des messages le défilement automatique reprend.
+	 * @param bar la barre de défilement des messages
+	 * @param up défilement vers les messages plus anciens
+	 */
+	private void scrolled(JScrollBar bar, boolean up)
+	{
+		if (!up)
+		{
+			if (bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum())
+			{
+				textPane.setCaretPosition(document.getLength());
+			}
+			return;
+		}
+		if (bar.getValue() > bar.getMinimum())
+		{
+			return;
+		}
+
+		List<String> page;
+		synchronized (pageLock)
+		{
+			page = prefetchedPage;
+			prefetchedPage = null;
+			historyWanted = (page == null);
+		}
+
+		if (page != null)
+		{
+			showPage(page, true);
+		}
+		if (!requestHistory(historyPageSize(textPane)))
+		{
+			synchronized (pageLock)
+			{
+				historyWanted = false;
+			}
+		}
+	}
+
+	/**
+	 * Affichage d'une page d'historique au début du {@link #document}
+	 * @param page les lignes des messages de la page (du plus ancien au plus
+	 * récent)
+	 * @param keepPosition conserver à l'écran les messages affichés avant la
+	 * page (sinon l'affichage reste en bas des messages)
+	 */
+	private void showPage(List<String> page, boolean keepPosition)
+	{
+		int offset = 0;
+		try
+		{
+			for (String line : page)
+			{
+				offset += insertMessage(offset, line);
+			}
+		}
+		catch (BadLocationException e)
+		{
+			logger.warning("ClientFrame: write at bad location: "
+			    + e.getLocalizedMessage());
+		}
+		if (keepPosition)
+		{
+			textPane.setCaretPosition(offset);
+		}
+	}
+
+	/**
+	 * Lecture d'une ligne d'une page d'historique envoyée par le serveur
+	 * (sans le préfixe {@link Vocabulary#historyMarker}) : une ligne
+	 * d'entête suivie des lignes des messages de la page. Une fois la page
+	 * complète elle est affichée si l'utilisateur l'attend, sinon elle est
+	 * conservée jusqu'à ce qu'il fasse défiler les messages jusqu'en haut.
+	 * @param line la ligne lue
+	 * @see MessagePage#header()
+	 */
+	private void readHistoryLine(String line)
+	{
+		if (line.startsWith(MessagePage.HEADER + " "))
+		{
+			String[] words = line.split(" ");
+			try
+			{
+				incomingCount = Integer.parseInt(words[1]);
+				incomingFirst = Long.parseLong(words[2]);
+				incomingMore = Boolean.parseBoolean(words[3]);
+				incomingPage = new ArrayList<String>(incomingCount);
+			}
+			catch (NumberFormatException | IndexOutOfBoundsException e)
+			{
+				logger.warning("ClientFrame: invalid history page header: "
+				    + line);
+				incomingPage = null;
+				return;
+			}
+		}
+		else if (incomingPage != null)
+		{
+			incomingPage.add(line);
+		}
+		else
+		{
+			return;
+		}
+
+		if (incomingPage.size() < incomingCount)
+		{
+			return;
+		}
+
+		List<String> page = incomingPage;
+		incomingPage = null;
+		historyReceived(incomingFirst, incomingMore);
+
+		boolean show;
+		boolean first;
+		synchronized (pageLock)
+		{
+			show = historyWanted;
+			first = !historyShown;
+			historyWanted = false;
+			if (!show)
+			{
+				prefetchedPage = page;
+			}
+			historyShown = historyShown || show;
+		}
+
+		if (show)
+		{
+			// seule la première page est affichée sans défilement
+			showPage(page, !first);
+			if (!first)
+			{
+				requestHistory(historyPageSize(textPane));
+			}
+		}
 	}
 
 	/**
@@ -403,10 +647,15 @@ public class ClientFrame extends AbstractClientFrame
 			{
 				if (content.length() > 0)
 				{
-					sendMessage(content);
-
-					// Effacement du contenu du textfield
-					sendTextField.setText("");
+					/*
+					 * Effacement du contenu du textfield si le message a pu
+					 * être placé dans la file d'envoi (sinon l'utilisateur
+					 * pourra le renvoyer)
+					 */
+					if (sendMessage(content))
+					{
+						sendTextField.setText("");
+					}
 				}
 			}
 		}
@@ -449,15 +698,7 @@ public class ClientFrame extends AbstractClientFrame
 			serverLabel.setText("");
 			thisRef.validate();
 
-			try
-			{
-				Thread.sleep(1000);
-			}
-			catch (InterruptedException e1)
-			{
-				return;
-			}
-
+			// le bye est envoyé par le côté réseau sans bloquer l'interface
 			sendMessage(Vocabulary.byeCmd);
 		}
 	}
@@ -498,6 +739,9 @@ public class ClientFrame extends AbstractClientFrame
 	{
 		inBR = new BufferedReader(new InputStreamReader(inPipe));
 
+		// seul un écran de messages plus anciens est demandé à la connexion
+		requestHistory(historyPageSize(textPane));
+
 		String messageIn;
 
 		while (commonRun.booleanValue())
@@ -535,7 +779,13 @@ public class ClientFrame extends AbstractClientFrame
 				break;
 			}
 
-			if (messageIn != null)
+			if ((messageIn != null)
+			    && messageIn.startsWith(Vocabulary.historyMarker))
+			{
+				readHistoryLine(
+				    messageIn.substring(Vocabulary.historyMarker.length()));
+			}
+			else if (messageIn != null)
 			{
 				// Ajouter le message à la fin du document avec la couleur
 				// voulue
@@ -3,6 +3,7 @@ package widgets;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Component;
+import java.awt.EventQueue;
 import java.awt.GridLayout;
 import java.awt.HeadlessException;
 import java.awt.event.ActionEvent;
@@ -11,13 +12,15 @@ import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.awt.event.MouseWheelEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Vector;
-import java.util.function.Consumer;
-import java.util.function.Predicate;
 import java.util.logging.Logger;
 
 import javax.swing.AbstractAction;
@@ -34,6 +37,7 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
+import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
 import javax.swing.JSeparator;
 import javax.swing.JTextField;
@@ -43,20 +47,47 @@ import javax.swing.JToolBar;
 import javax.swing.KeyStroke;
 import javax.swing.ListCellRenderer;
 import javax.swing.ListSelectionModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultCaret;
+import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
 
 import chat.Failure;
 import chat.Vocabulary;
 
 import models.Message;
+import models.Message.MessageOrder;
+import models.MessageArchive;
+import models.MessageComparator;
+import models.MessagePage;
+import models.MessageSearchIndex;
+import models.MessageStore;
 import models.NameSetListModel;
 
 public class ClientFrame2 extends AbstractClientFrame
 {
+	/**
+	 * Nombre maximum par défaut de messages conservés en mémoire
+	 */
+	public final static int DEFAULTWINDOW = 5000;
+
+	/**
+	 * Nombre minimum de messages relus depuis l'archive lors d'un défilement
+	 */
+	private final static int MINPAGESIZE = 50;
+
+	/**
+	 * Nombre maximum de messages écrits dans le {@link #document} : au delà,
+	 * seule une tranche des messages triés et filtrés est affichée, et cette
+	 * tranche est déplacée lorsque l'on fait défiler les messages jusqu'à
+	 * l'une de ses extrémités
+	 */
+	public final static int RENDERLIMIT = 200;
+
 	/**
 	 * Lecteur de flux d'entrée. Lit les données texte du {@link #inPipe} pour
 	 * les afficher dans le {@link #document}
@@ -104,14 +135,115 @@ public class ClientFrame2 extends AbstractClientFrame
 	private JCheckBoxMenuItem filterMenuItem;
 	private JToggleButton filterButton;
 	private Vector<Integer> selectedUsers;
-	protected Vector<Message> storedMessage;	
+
+	/**
+	 * Les messages reçus, stockés en colonnes. Les messages ne sont recréés
+	 * qu'au moment de leur affichage
+	 */
+	protected final MessageStore storedMessage;
+
+	/**
+	 * Archive de tous les messages reçus : seule une fenêtre d'au plus
+	 * {@link #window} messages de cette archive est conservée en mémoire
+	 * (dans le {@link #storedMessage} et le {@link #document}). Null si la
+	 * taille de l'historique n'est pas limitée.
+	 */
+	private MessageArchive archive;
+
+	/**
+	 * Nombre maximum de messages conservés en mémoire
+	 */
+	private final int window;
+
+	/**
+	 * Position dans l'{@link #archive} du premier message du
+	 * {@link #storedMessage}
+	 */
+	private int windowStart;
+
+	/**
+	 * Indique si la fenêtre en mémoire contient les derniers messages reçus
+	 * (auquel cas les nouveaux messages y sont ajoutés et affichés)
+	 */
+	private boolean following;
+
+	/**
+	 * Indique si la prochaine page d'historique reçue du serveur doit être
+	 * affichée dès sa réception (l'utilisateur attend en haut des messages)
+	 */
+	private boolean historyWanted;
+
+	/**
+	 * Indique si une page d'historique a déjà été affichée
+	 */
+	private boolean historyShown;
+
+	/**
+	 * Position parmi les messages triés et filtrés du premier message écrit
+	 * dans le {@link #document}
+	 */
+	private int renderStart;
+
+	/**
+	 * Nombre de messages écrits dans le {@link #document}
+	 */
+	private int renderCount;
+
+	/**
+	 * Nombre de messages triés et filtrés (écrits ou non dans le
+	 * {@link #document})
+	 */
+	private int renderTotal;
+
+	/**
+	 * Indique si un réaffichage des messages a déjà été posté dans la file
+	 * d'évènements (voir {@link #displayMessages()})
+	 */
+	private boolean redrawPending;
+
+	/**
+	 * Page d'historique reçue par avance lorsque tous les messages sont
+	 * conservés en mémoire (sans {@link #archive}) et affichée lorsque
+	 * l'utilisateur fait défiler les messages jusqu'en haut (ou null). Avec
+	 * une archive, les pages reçues par avance sont ajoutées au début de
+	 * l'archive.
+	 */
+	private MessagePage prefetchedPage;
+
+	/**
+	 * La zone d'affichage des messages
+	 */
+	private final JTextPane textPane;
+
+	/**
+	 * Index de recherche sur le contenu des messages stockés, mis à jour à
+	 * l'arrivée de chaque message
+	 */
+	protected final MessageSearchIndex searchIndex;
+
+	/**
+	 * La zone de saisie de la recherche dans les messages
+	 */
+	protected final JTextField searchTextField;
+
+	/**
+	 * Style des mots trouvés par la recherche
+	 */
+	private final SimpleAttributeSet highlightStyle;
+
+	/**
+	 * Critères de tri des messages de cette fenêtre (immuable, remplacé à
+	 * chaque changement de tri)
+	 */
+	private volatile MessageComparator messageOrder;
 	private String nameUser;
 	private ListSelectionModel selectionModel;
 	
 	NameSetListModel userListModel = new NameSetListModel();
 
 	/**
-	 * Constructeur de la fenêtre
+	 * Constructeur de la fenêtre conservant au plus {@link #DEFAULTWINDOW}
+	 * messages en mémoire
 	 * @param name le nom de l'utilisateur
 	 * @param host l'hôte sur lequel on est connecté
 	 * @param commonRun état d'exécution des autres threads du client
@@ -123,11 +255,83 @@ public class ClientFrame2 extends AbstractClientFrame
 										 Boolean commonRun,
 										 Logger parentLogger)
 					throws HeadlessException
+	{
+		this(name, host, commonRun, parentLogger, DEFAULTWINDOW);
+	}
+
+	/**
+	 * Constructeur de la fenêtre
+	 * @param name le nom de l'utilisateur
+	 * @param host l'hôte sur lequel on est connecté
+	 * @param commonRun état d'exécution des autres threads du client
+	 * @param parentLogger le logger parent pour les messages
+	 * @param window le nombre maximum de messages conservés en mémoire. Les
+	 * messages plus anciens sont archivés dans un fichier local et relus
+	 * lorsque l'on fait défiler les messages vers le haut. Si window est
+	 * inférieur ou égal à 0 tous les messages sont conservés en mémoire.
+	 * @throws HeadlessException
+	 */
+	public ClientFrame2(String name,
+										 String host,
+										 Boolean commonRun,
+										 Logger parentLogger,
+										 int window)
+					throws HeadlessException
+	{
+		this(name, host, commonRun, parentLogger, window, null);
+	}
+
+	/**
+	 * Constructeur de la fenêtre utilisant une archive persistante des
+	 * messages (un cache local des messages déjà reçus lors des précédentes
+	 * exécutions par exemple) : les derniers messages de l'archive sont
+	 * affichés dès le lancement de la fenêtre et les nouveaux messages y sont
+	 * ajoutés.
+	 * @param name le nom de l'utilisateur
+	 * @param host l'hôte sur lequel on est connecté
+	 * @param commonRun état d'exécution des autres threads du client
+	 * @param parentLogger le logger parent pour les messages
+	 * @param window le nombre maximum de messages conservés en mémoire (doit
+	 * être positif si une archive est fournie)
+	 * @param archive l'archive des messages ou bien null pour utiliser une
+	 * archive temporaire (si window est positif)
+	 * @throws HeadlessException
+	 */
+	public ClientFrame2(String name,
+										 String host,
+										 Boolean commonRun,
+										 Logger parentLogger,
+										 int window,
+										 MessageArchive archive)
+					throws HeadlessException
 	{
 		super(name, host, commonRun, parentLogger);
 		thisRef = this;
 
-		storedMessage = new Vector<>();
+		storedMessage = new MessageStore();
+		this.window = (archive != null ? Math.max(window, MINPAGESIZE) : window);
+		windowStart = 0;
+		following = true;
+		historyWanted = false;
+		historyShown = false;
+		renderStart = 0;
+		renderCount = 0;
+		renderTotal = 0;
+		redrawPending = false;
+		prefetchedPage = null;
+		this.archive = archive;
+		if ((archive == null) && (window > 0)) {
+			try {
+				this.archive = MessageArchive.createTemporary("chat-history-");
+			} catch (IOException e) {
+				logger.warning("ClientFrame2: unable to create history archive, "
+						+ "keeping all messages in memory: " + e.getLocalizedMessage());
+			}
+		}
+		searchIndex = new MessageSearchIndex();
+		highlightStyle = new SimpleAttributeSet();
+		StyleConstants.setBackground(highlightStyle, Color.YELLOW);
+		messageOrder = MessageComparator.BYDATE;
 		selectedUsers = new Vector<>();
 		nameUser = name;
 
@@ -152,9 +356,9 @@ public class ClientFrame2 extends AbstractClientFrame
 		kickSelectedUsersAction = new KickSelectedUsersAction();
 		filterSelectedAction = new FilterSelectedAction();
 
-		sortDateAction = new SortAction("Date");
-		sortContentAction = new SortAction("Content");
-		sortAuthorAction = new SortAction("Author");
+		sortDateAction = new SortAction(MessageOrder.DATE);
+		sortContentAction = new SortAction(MessageOrder.CONTENT);
+		sortAuthorAction = new SortAction(MessageOrder.AUTHOR);
 
 		addWindowListener(new FrameWindowListener());
 
@@ -194,6 +398,31 @@ public class ClientFrame2 extends AbstractClientFrame
 		Component toolBarSep = Box.createHorizontalGlue();
 		toolBar.add(toolBarSep);
 
+		searchTextField = new JTextField(12);
+		searchTextField.setToolTipText("Search messages");
+		searchTextField.setMaximumSize(searchTextField.getPreferredSize());
+		// nouvelle recherche à chaque modification de la requête
+		searchTextField.getDocument().addDocumentListener(new DocumentListener()
+		{
+			@Override
+			public void insertUpdate(DocumentEvent e)
+			{
+				displayMessages();
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent e)
+			{
+				displayMessages();
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e)
+			{
+			}
+		});
+		toolBar.add(searchTextField);
+
 		serverLabel = new JLabel(host == null ? "" : host);
 		toolBar.add(serverLabel);
 
@@ -207,6 +436,7 @@ public class ClientFrame2 extends AbstractClientFrame
 		sendTextField.setAction(sendAction);
 		sendPanel.add(sendTextField);
 		sendTextField.setColumns(0);
+		trackOutbound(sendTextField);
 
 		JButton sendButton = new JButton(sendAction);
 		sendButton.setHideActionText(true);
@@ -222,7 +452,7 @@ public class ClientFrame2 extends AbstractClientFrame
 		JScrollPane scrollPaneMessage = new JScrollPane();
 		container.add(scrollPaneMessage);
 
-		JTextPane textPane = new JTextPane();
+		textPane = new JTextPane();
 		textPane.setEditable(false);
 		// autoscroll textPane to bottom
 		DefaultCaret caret = (DefaultCaret) textPane.getCaret();
@@ -230,6 +460,33 @@ public class ClientFrame2 extends AbstractClientFrame
 
 		scrollPaneMessage.setViewportView(textPane);
 
+		/*
+		 * Relecture des messages archivés lorsque l'utilisateur fait défiler
+		 * les messages au delà du début ou de la fin de la fenêtre en mémoire
+		 * (à la molette ou en déplaçant la barre de défilement). Les
+		 * changements de position dus aux mises à jour du document sont
+		 * ignorés.
+		 */
+		JScrollBar messageScrollBar = scrollPaneMessage.getVerticalScrollBar();
+		scrollPaneMessage.addMouseWheelListener((MouseWheelEvent evt) ->
+		{
+			if (evt.getWheelRotation() < 0)
+				pageIfAtEnd(messageScrollBar, true);
+			else if (evt.getWheelRotation() > 0)
+				pageIfAtEnd(messageScrollBar, false);
+		});
+		messageScrollBar.addMouseListener(new MouseAdapter()
+		{
+			@Override
+			public void mouseReleased(MouseEvent evt)
+			{
+				if (messageScrollBar.getValue() == messageScrollBar.getMinimum())
+					pageIfAtEnd(messageScrollBar, true);
+				else
+					pageIfAtEnd(messageScrollBar, false);
+			}
+		});
+
 		JList<String> userList = new JList<>();
 		userList.setModel(userListModel);
 		userListModel.add(name);
@@ -340,6 +597,473 @@ public class ClientFrame2 extends AbstractClientFrame
 		StyleConstants.setForeground(documentStyle, defaultColor);
 	}
 
+	/**
+	 * Écriture d'un message dans le {@link #document} en mettant en évidence
+	 * les mots trouvés par la recherche courante
+	 * @param message le message à écrire
+	 * @param query la requête de recherche courante (ou null)
+	 */
+	protected void writerMessage(Message message, String query)
+	{
+		int lineStart = document.getLength();
+		writerMessage(message);
+
+		if (query == null)
+			return;
+
+		// le contenu est à la fin de la ligne affichée
+		String content = message.getContent();
+		int contentStart = lineStart + message.toString().length() - content.length();
+		for (int[] range : MessageSearchIndex.occurrences(content, query))
+			document.setCharacterAttributes(contentStart + range[0],
+			                                range[1] - range[0],
+			                                highlightStyle,
+			                                false);
+	}
+
+	/**
+	 * Noms des utilisateurs sélectionnés dans la liste des utilisateurs
+	 * @return la liste des noms des utilisateurs sélectionnés
+	 */
+	protected List<String> selectedAuthors()
+	{
+		List<String> names = new ArrayList<>();
+		for (Integer index : selectedUsers)
+			if (index.intValue() < userListModel.getSize())
+				names.add(userListModel.getElementAt(index.intValue()));
+		return names;
+	}
+
+	/**
+	 * Réaffichage de l'ensemble des messages stockés dans le {@link #document}
+	 * suivant les critères de tri courants, en ne conservant que les messages
+	 * des utilisateurs sélectionnés si le filtre est actif et ceux
+	 * correspondant à la recherche courante (s'il y en a une). Le tri et le
+	 * filtrage sont effectués sur les colonnes du {@link #storedMessage} et
+	 * seuls les messages affichés sont recréés : au plus {@link #RENDERLIMIT}
+	 * messages (les derniers) sont écrits dans le document, quel que soit le
+	 * nombre de messages trouvés.
+	 * Le {@link #document} n'est modifié que dans le thread de traitement
+	 * des évènements : appelée depuis un autre thread (à la réception d'un
+	 * message), cette méthode poste le réaffichage dans la file d'évènements.
+	 * Un seul réaffichage y est en attente pour une rafale de messages.
+	 */
+	protected void displayMessages()
+	{
+		if (EventQueue.isDispatchThread()) {
+			displayMessages(-1);
+			return;
+		}
+
+		synchronized (storedMessage) {
+			if (redrawPending)
+				return;
+			redrawPending = true;
+		}
+		EventQueue.invokeLater(() ->
+		{
+			synchronized (storedMessage) {
+				redrawPending = false;
+			}
+			displayMessages(-1);
+		});
+	}
+
+	/**
+	 * Réaffichage de l'ensemble des messages stockés (voir
+	 * {@link #displayMessages()}). Doit être appelée dans le thread de
+	 * traitement des évènements.
+	 * @param anchor l'index dans le {@link #storedMessage} d'un message dont
+	 * on veut connaître la position dans le document (ou -1)
+	 * @return la position dans le {@link #document} du message anchor ou
+	 * bien -1 s'il n'est pas affiché
+	 */
+	private int displayMessages(int anchor)
+	{
+		return displayMessages(anchor, 0);
+	}
+
+	/**
+	 * Réaffichage d'une tranche d'au plus {@link #RENDERLIMIT} messages
+	 * stockés (voir {@link #displayMessages()}) : la tranche contient le
+	 * message anchor s'il est retenu, sinon les derniers messages, ou bien
+	 * elle est déplacée de shift messages par rapport à la tranche
+	 * précédente. Doit être appelée dans le thread de traitement des
+	 * évènements : l'effacement et la réécriture du {@link #document} ne
+	 * peuvent ainsi pas être entrelacés avec ceux d'un autre réaffichage.
+	 * @param anchor l'index dans le {@link #storedMessage} d'un message dont
+	 * on veut connaître la position dans le document (ou -1)
+	 * @param shift le déplacement de la tranche affichée (négatif vers les
+	 * premiers messages) ou 0. Le message qui était au bord de la tranche
+	 * dans le sens du déplacement remplace alors anchor.
+	 * @return la position dans le {@link #document} du message anchor ou
+	 * bien -1 s'il n'est pas affiché
+	 */
+	private int displayMessages(int anchor, int shift)
+	{
+		try {
+			document.remove(0, document.getLength());
+		} catch (BadLocationException e) {
+			logger.warning("ClientFrame2: bad location");
+			logger.warning(e.getLocalizedMessage());
+		}
+
+		List<String> authors = (filterButton.isSelected() ? selectedAuthors() : null);
+		String query = searchTextField.getText();
+		int anchorPosition = -1;
+
+		// pas de suppression concurrente pendant le parcours des index
+		synchronized (storedMessage) {
+			BitSet matches = searchIndex.search(query);
+			int[] permutation = storedMessage.sortPermutation(messageOrder, authors, matches);
+			int total = permutation.length;
+			int start = total - RENDERLIMIT;
+			if ((shift != 0) && (total > 0)) {
+				// le message au bord de la tranche précédente reste à l'écran
+				int edge = (shift < 0 ? renderStart : renderStart + renderCount - 1);
+				anchor = permutation[Math.max(0, Math.min(edge, total - 1))];
+				start = renderStart + shift;
+			} else if (anchor >= 0) {
+				for (int i = 0; i < total; i++)
+					if (permutation[i] == anchor) {
+						start = i - RENDERLIMIT / 2;
+						break;
+					}
+			}
+			renderStart = Math.max(0, Math.min(start, total - RENDERLIMIT));
+			renderCount = Math.min(total - renderStart, RENDERLIMIT);
+			renderTotal = total;
+
+			for (int i = renderStart; i < renderStart + renderCount; i++) {
+				int index = permutation[i];
+				if (index == anchor)
+					anchorPosition = document.getLength();
+				writerMessage(storedMessage.get(index), (matches != null ? query : null));
+			}
+		}
+
+		return anchorPosition;
+	}
+
+	/**
+	 * Taille des pages de messages relues depuis l'archive
+	 * @return le nombre de messages relus lors d'un défilement
+	 */
+	private int pageSize()
+	{
+		return Math.max(window / 4, MINPAGESIZE);
+	}
+
+	/**
+	 * Chargement d'une fenêtre de messages depuis l'archive dans le
+	 * {@link #storedMessage} (le {@link #searchIndex} est reconstruit).
+	 * Doit être appelée en possédant le verrou du {@link #storedMessage}.
+	 * @param start la position dans l'archive du premier message à charger
+	 */
+	private void loadWindow(int start)
+	{
+		int archived = archive.size();
+		start = Math.max(0, Math.min(start, archived - window));
+		storedMessage.clear();
+		try {
+			archive.readInto(start, window, storedMessage);
+		} catch (IOException e) {
+			logger.warning("ClientFrame2: unable to read history archive: "
+					+ e.getLocalizedMessage());
+		}
+		windowStart = start;
+		following = (start + storedMessage.size() >= archived);
+		searchIndex.rebuild(storedMessage);
+	}
+
+	/**
+	 * Défilement de la fenêtre en mémoire d'une page vers les messages plus
+	 * anciens (ou plus récents) si la barre de défilement est au début (ou
+	 * à la fin) des messages affichés. Les messages affichés avant le
+	 * défilement restent visibles. Si des messages en mémoire ne sont pas
+	 * écrits dans le document (voir {@link #RENDERLIMIT}), la tranche
+	 * affichée est d'abord déplacée vers ceux ci. Au delà du plus ancien
+	 * message conservé localement, la page d'historique suivante est
+	 * demandée au serveur.
+	 * @param bar la barre de défilement des messages
+	 * @param older défilement vers les messages plus anciens
+	 */
+	private void pageIfAtEnd(JScrollBar bar, boolean older)
+	{
+		boolean atEnd = (older ?
+				bar.getValue() <= bar.getMinimum() :
+				bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum());
+		if (!atEnd)
+			return;
+
+		int anchor = -1;
+		int shift = 0;
+		boolean fromServer = false;
+		synchronized (storedMessage) {
+			if (older ? renderStart > 0 : renderStart + renderCount < renderTotal) {
+				// messages en mémoire non écrits dans le document
+				shift = (older ? -RENDERLIMIT / 2 : RENDERLIMIT / 2);
+			} else {
+				// plus aucun message local plus ancien : page d'historique du serveur
+				fromServer = older && ((archive == null) || (windowStart == 0));
+				if (!fromServer) {
+					if ((archive == null) || (!older && following))
+						return;
+					anchor = loadPage(older);
+				}
+			}
+		}
+
+		if (fromServer) {
+			historyPage();
+			return;
+		}
+
+		int position = displayMessages(anchor, shift);
+		if (position >= 0)
+			textPane.setCaretPosition(position);
+		if (older)
+			prefetchHistory();
+	}
+
+	/**
+	 * Chargement dans la fenêtre en mémoire de la page de messages archivés
+	 * précédente (ou suivante). Doit être appelée en possédant le verrou du
+	 * {@link #storedMessage}.
+	 * @param older chargement des messages plus anciens
+	 * @return l'index dans le {@link #storedMessage} du message qui était le
+	 * premier (ou le dernier) en mémoire avant le chargement
+	 */
+	private int loadPage(boolean older)
+	{
+		// position dans l'archive du premier ou du dernier message en mémoire
+		int kept = (older ? windowStart : windowStart + storedMessage.size() - 1);
+		loadWindow(older ? windowStart - pageSize() : windowStart + pageSize());
+		return kept - windowStart;
+	}
+
+	/**
+	 * Affichage de la page d'historique reçue par avance ou, s'il n'y en a
+	 * pas, demande au serveur d'une page qui sera affichée dès sa réception
+	 */
+	private void historyPage()
+	{
+		MessagePage page;
+		synchronized (storedMessage) {
+			page = prefetchedPage;
+			prefetchedPage = null;
+			historyWanted = (page == null);
+		}
+
+		if (page != null)
+			showPage(page, false);
+		else if (!requestHistory(historyPageSize(textPane)))
+			synchronized (storedMessage) {
+				historyWanted = false;
+			}
+	}
+
+	/**
+	 * Demande par avance de la page d'historique suivante lorsque moins
+	 * d'une page de messages plus anciens que ceux en mémoire est disponible
+	 * localement
+	 */
+	private void prefetchHistory()
+	{
+		int count = historyPageSize(textPane);
+		boolean needed;
+		synchronized (storedMessage) {
+			needed = (archive == null ? prefetchedPage == null : windowStart < count);
+		}
+		if (needed)
+			requestHistory(count);
+	}
+
+	/**
+	 * Réception d'une page d'historique envoyée par le serveur : avec une
+	 * archive la page est ajoutée au début de l'archive, sinon elle est
+	 * conservée jusqu'à ce que l'utilisateur fasse défiler les messages
+	 * jusqu'en haut. Si l'utilisateur attend cette page elle est affichée.
+	 * @param page la page reçue
+	 */
+	private void storePage(MessagePage page)
+	{
+		historyReceived(page.getFirstSequence(), page.hasMore());
+
+		boolean show;
+		boolean first;
+		synchronized (storedMessage) {
+			show = historyWanted;
+			first = !historyShown;
+			historyWanted = false;
+			if (archive != null) {
+				try {
+					// les messages déjà archivés sont décalés
+					windowStart += archive.prepend(page.getMessages());
+				} catch (IOException e) {
+					logger.warning("ClientFrame2: unable to write history archive: "
+							+ e.getLocalizedMessage());
+					show = false;
+				}
+			} else if (!show) {
+				prefetchedPage = page;
+			}
+			historyShown = historyShown || show;
+		}
+
+		for (Message message : page.getMessages())
+			if (message.hasAuthor() && !userListModel.contains(message.getAuthor()))
+				userListModel.add(message.getAuthor());
+
+		// page reçue par le thread de lecture : affichage dans celui des évènements
+		if (show)
+			EventQueue.invokeLater(() -> showPage(page, first));
+	}
+
+	/**
+	 * Affichage d'une page d'historique (déjà ajoutée au début de l'archive
+	 * s'il y en a une) en conservant à l'écran les messages affichés
+	 * avant la page, puis demande par avance de la page suivante. Doit être
+	 * appelée dans le thread de traitement des évènements.
+	 * @param page la page à afficher
+	 * @param first première page affichée (à la connexion) : l'affichage
+	 * reste alors en bas des messages et aucune page n'est demandée par
+	 * avance
+	 */
+	private void showPage(MessagePage page, boolean first)
+	{
+		int anchor = -1;
+		synchronized (storedMessage) {
+			if (archive != null) {
+				if (!first)
+					anchor = loadPage(true);
+				else if (following)
+					loadWindow(archive.size() - window);
+			} else {
+				for (Message message : page.getMessages()) {
+					anchor = storedMessage.append(message);
+					searchIndex.add(anchor, message.getContent());
+				}
+				if (first)
+					anchor = -1;
+			}
+		}
+
+		int position = displayMessages(anchor);
+		if (position >= 0)
+			textPane.setCaretPosition(position);
+		if (!first)
+			prefetchHistory();
+	}
+
+	/**
+	 * Demande au serveur d'un écran de messages plus anciens que ceux
+	 * conservés localement, si ceux ci ne remplissent pas un écran : c'est
+	 * la seule page d'historique transférée à la connexion
+	 */
+	private void requestInitialHistory()
+	{
+		int count = historyPageSize(textPane);
+		synchronized (storedMessage) {
+			if ((archive != null) && (archive.size() > 0)) {
+				try {
+					setHistoryBefore(archive.getFirstSequence());
+				} catch (IOException e) {
+					logger.warning("ClientFrame2: unable to read history archive: "
+							+ e.getLocalizedMessage());
+				}
+			}
+			if (storedMessage.size() >= count)
+				return;
+			historyWanted = true;
+		}
+		requestHistory(count);
+	}
+
+	/**
+	 * Ajout d'un message reçu à l'archive et, si la fenêtre en mémoire
+	 * contient les derniers messages, au {@link #storedMessage}. Lorsque la
+	 * fenêtre dépasse sa taille maximum d'une page, les messages les plus
+	 * anciens sont retirés de la mémoire.
+	 * @param message le message reçu
+	 * @return true si le message fait partie de la fenêtre en mémoire et
+	 * doit donc être affiché
+	 */
+	private boolean storeMessage(Message message)
+	{
+		synchronized (storedMessage) {
+			if (archive != null) {
+				try {
+					archive.append(message);
+				} catch (IOException e) {
+					logger.warning("ClientFrame2: unable to write history archive, "
+							+ "keeping all messages in memory: " + e.getLocalizedMessage());
+					closeArchive();
+					following = true;
+				}
+			}
+
+			if (!following)
+				return false;
+
+			// l'index de recherche reste cohérent avec le stockage
+			searchIndex.add(storedMessage.append(message), message.getContent());
+
+			if ((archive != null) && (storedMessage.size() >= window + pageSize()))
+				loadWindow(archive.size() - window);
+
+			return true;
+		}
+	}
+
+	/**
+	 * Affichage des derniers messages de l'archive (lorsque celle ci
+	 * contient les messages reçus lors d'une exécution précédente). La durée
+	 * de ce chargement ne dépend que de la taille de la fenêtre et non du
+	 * nombre de messages archivés.
+	 */
+	private void displayArchivedMessages()
+	{
+		List<String> authors = new ArrayList<>();
+		synchronized (storedMessage) {
+			if ((archive == null) || (archive.size() == 0))
+				return;
+
+			loadWindow(archive.size() - window);
+			for (int i = 0; i < storedMessage.size(); i++) {
+				String author = storedMessage.getAuthor(i);
+				if ((author != null) && !authors.contains(author))
+					authors.add(author);
+			}
+		}
+
+		for (String author : authors)
+			if (!userListModel.contains(author))
+				userListModel.add(author);
+
+		displayMessages();
+	}
+
+	/**
+	 * Fermeture (et suppression si elle est temporaire) de l'archive des
+	 * messages
+	 */
+	private void closeArchive()
+	{
+		synchronized (storedMessage) {
+			if (archive == null)
+				return;
+
+			try {
+				archive.close();
+			} catch (IOException e) {
+				logger.warning("ClientFrame2: unable to close history archive: "
+						+ e.getLocalizedMessage());
+			}
+			archive = null;
+		}
+	}
+
 	/**
 	 * Listener lorsque le bouton #btnClear est activé. Efface le contenu du
 	 * {@link #document}
@@ -366,7 +1090,20 @@ public class ClientFrame2 extends AbstractClientFrame
 		{
 			try {
 				document.remove(0, document.getLength());
-				storedMessage = new Vector<>();
+				synchronized (storedMessage) {
+					storedMessage.clear();
+					searchIndex.clear();
+					if (archive != null) {
+						try {
+							archive.clear();
+						} catch (IOException e) {
+							logger.warning("ClientFrame2: unable to clear history archive: "
+									+ e.getLocalizedMessage());
+						}
+					}
+					windowStart = 0;
+					following = true;
+				}
 			} catch (BadLocationException e) {
 				logger.warning("ClientFrame: bad location");
 				logger.warning(e.getLocalizedMessage());
@@ -395,10 +1132,9 @@ public class ClientFrame2 extends AbstractClientFrame
 		{
 			String content = sendTextField.getText();
 			
-			if (content != null && content.length() > 0) {
-				sendMessage(content);
+			// le message reste affiché s'il n'a pu être placé dans la file d'envoi
+			if (content != null && content.length() > 0 && sendMessage(content))
 				sendTextField.setText("");
-			}
 		}
 	}
 	
@@ -425,12 +1161,7 @@ public class ClientFrame2 extends AbstractClientFrame
 			serverLabel.setText("");
 			thisRef.validate();
 
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {
-				return;
-			}
-			
+			// le bye est envoyé par le côté réseau sans bloquer l'interface
 			sendMessage(Vocabulary.byeCmd);
 		}
 	}
@@ -455,95 +1186,33 @@ public class ClientFrame2 extends AbstractClientFrame
 		{
 			AbstractButton source = (AbstractButton) evt.getSource();
 
-			try {
-				document.remove(0, document.getLength());
-			} catch (BadLocationException e) {
-				logger.warning("ClientFrame: bad location");
-				logger.warning(e.getLocalizedMessage());
-			}
-
-			Consumer<Message> messagePrinter = (Message message) -> writerMessage(message);
+			filterMenuItem.setSelected(source.isSelected());
+			filterButton.setSelected(source.isSelected());
 
-			if (source.isSelected()) {
-				filterMenuItem.setSelected(true);
-				filterButton.setSelected(true);
-
-				Predicate<Message> selectionFilter = (Message message) ->
-				{
-					if (message != null && message.hasAuthor() && selectedUsers.contains(userListModel.indexOf(message.getAuthor())))
-						return true;
-					else
-						return false;
-				};
-				storedMessage.stream().sorted().filter(selectionFilter).forEach(messagePrinter);
-			} else {
-					filterMenuItem.setSelected(false);
-					filterButton.setSelected(false);
-					storedMessage.stream().sorted().forEach(messagePrinter);
-			}
+			displayMessages();
 		}
 	}
 
 	private class SortAction extends AbstractAction
 	{
-		boolean date = true;
-		boolean content = true;
-		boolean author = true;
+		/**
+		 * Le critère de tri mis en place par cette action
+		 */
+		private final MessageOrder order;
 
-		public SortAction(String str)
+		public SortAction(MessageOrder order)
 		{
-			putValue(NAME, str);
-			putValue(SHORT_DESCRIPTION, "Sort the messages by " + str);
-			
-			if (str.equals("Date"))
-				date = true;
-			
-			if (str.equals("Content"))
-				content = true;
-			
-			if (str.equals("Author"))
-				author = true;
+			this.order = order;
+			putValue(NAME, order.toString());
+			putValue(SHORT_DESCRIPTION, "Sort the messages by " + order);
 		}
 		
 		@Override
 		public void actionPerformed(ActionEvent evt)
 		{
-			Consumer<Message> messagePrinter = (Message message) -> writerMessage(message);
-
-			if (date) {
-				Message.addOrder(Message.MessageOrder.DATE);
-				Message.removeOrder(Message.MessageOrder.CONTENT);
-				Message.removeOrder(Message.MessageOrder.AUTHOR);
-			} else if (content) {
-				Message.removeOrder(Message.MessageOrder.DATE);
-				Message.addOrder(Message.MessageOrder.CONTENT);
-				Message.removeOrder(Message.MessageOrder.AUTHOR);
-			} else if (author) {
-				Message.removeOrder(Message.MessageOrder.DATE);
-				Message.removeOrder(Message.MessageOrder.CONTENT);
-				Message.addOrder(Message.MessageOrder.AUTHOR);
-			}
-			
-			try {
-				document.remove(0, document.getLength());
-			} catch (BadLocationException e){
-				logger.warning("ClientFrame: bad location");
-				logger.warning(e.getLocalizedMessage());
-			}
+			messageOrder = MessageComparator.of(order);
 
-			if (filterButton.isSelected())
-			{
-				Predicate<Message> selectionFilter = (Message message) ->
-				{
-					if (message != null && message.hasAuthor() && selectedUsers.contains(userListModel.indexOf(message.getAuthor())))
-						return true;
-					else
-						return false;
-				};
-				storedMessage.stream().sorted().filter(selectionFilter).forEach(messagePrinter);
-			} else {
-				storedMessage.stream().sorted().forEach(messagePrinter);
-			}
+			displayMessages();
 		}
 	}
 
@@ -560,36 +1229,25 @@ public class ClientFrame2 extends AbstractClientFrame
 		@Override
 		public void actionPerformed(ActionEvent evt)
 		{
-			try {
-				document.remove(0, document.getLength());
-			} catch (BadLocationException e) {
-				logger.warning("ClientFrame2: clear doc: bad location");
-				logger.warning(e.getLocalizedMessage());
+			List<String> authors = selectedAuthors();
+
+			synchronized (storedMessage) {
+				if (archive != null) {
+					// les messages archivés de ces utilisateurs sont aussi supprimés
+					try {
+						int start = windowStart;
+						archive.removeAuthors(authors);
+						loadWindow(following ? archive.size() - window : start);
+					} catch (IOException e) {
+						logger.warning("ClientFrame2: unable to clear history archive: "
+								+ e.getLocalizedMessage());
+					}
+				}
+				if (storedMessage.removeAuthors(authors) > 0)
+					searchIndex.rebuild(storedMessage);
 			}
 
-			Vector<Message> remainingmessage = new Vector<>();
-
-			for (Message message : storedMessage)
-				if (message.hasAuthor() && !selectedUsers.contains(userListModel.indexOf(message.getAuthor())))
-					remainingmessage.add(message);
-
-			storedMessage = new Vector<>(remainingmessage);
-
-			Consumer<Message> messagePrinter = (Message message) -> writerMessage(message);
-
-			if (filterButton.isSelected()) {
-				Predicate<Message> selectionFilter = (Message message) ->
-				{
-					if (message != null && message.hasAuthor() && selectedUsers.contains(userListModel.indexOf(message.getAuthor())))
-						return true;
-					else
-						return false;
-				};
-
-				storedMessage.stream().sorted().filter(selectionFilter).forEach(messagePrinter);
-			} else {
-				storedMessage.stream().sorted().forEach(messagePrinter);
-			}
+			displayMessages();
 		}
 	}
 	
@@ -610,7 +1268,7 @@ public class ClientFrame2 extends AbstractClientFrame
 					String currentUser = userListModel.getElementAt(i);
 					
 					if(!currentUser.equals(nameUser)) 
-							outPW.println("Kick " + currentUser);
+							sendMessage("Kick " + currentUser);
 				}
 			}
 	}
@@ -692,6 +1350,10 @@ public class ClientFrame2 extends AbstractClientFrame
 	@Override
 	public void run()
 	{
+		// affichage de l'historique local sans attendre la connexion au serveur
+		displayArchivedMessages();
+		requestInitialHistory();
+
 		try {
 			inOS = new ObjectInputStream(inPipe);
 		} catch (IOException e) {
@@ -707,7 +1369,13 @@ public class ClientFrame2 extends AbstractClientFrame
 			messageIn = null;
 
 			try {
-				messageIn = (Message) inOS.readObject();
+				Object object = inOS.readObject();
+				// les pages d'historique demandées ne sont pas des messages reçus
+				if (object instanceof MessagePage) {
+					storePage((MessagePage) object);
+					continue;
+				}
+				messageIn = (Message) object;
 			} catch (IOException e) {
 				logger.warning("ClientFrame2: io error at reading");
 				break;
@@ -717,35 +1385,19 @@ public class ClientFrame2 extends AbstractClientFrame
 			}
 
 			if (messageIn != null) {
-				storedMessage.add(messageIn);
+				boolean displayed = storeMessage(messageIn);
 
 				if (messageIn.hasAuthor() && !userListModel.contains(messageIn.getAuthor()))
 					userListModel.add(messageIn.getAuthor());
+
+				// les messages plus anciens sont en cours de consultation
+				if (!displayed)
+					continue;
 			} else {
 				break;
 			}
-			
-			try {
-				document.remove(0, document.getLength());
-			} catch (BadLocationException e) {
-				logger.warning("ClientFrame: bad location");
-				logger.warning(e.getLocalizedMessage());
-			}
-			
-			Consumer<Message> messagePrinter = (Message message) -> writerMessage(message);
-
-			if (filterButton.isSelected()) {
-				Predicate<Message> selectionFilter = (Message message) ->
-				{
-					if (message != null && message.hasAuthor() && selectedUsers.contains(userListModel.indexOf(message.getAuthor())))
-						return true;
-					else
-						return false;
-				};
-				storedMessage.stream().sorted().filter(selectionFilter).forEach(messagePrinter);
-			} else {
-				storedMessage.stream().sorted().forEach(messagePrinter);
-			}
+
+			displayMessages();
 		}
 		if (commonRun.booleanValue()) {
 			logger.info("ClientFrame2::cleanup: changing run state at the end ... ");
@@ -766,7 +1418,9 @@ public class ClientFrame2 extends AbstractClientFrame
 		} catch (IOException e) {
 			logger.warning("ClientFrame2::cleanup: failed to close input reader" + e.getLocalizedMessage());
 		}
-		
+
+		closeArchive();
+
 		super.cleanup();
 	}
 }